@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2023 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.ExchangeAttributes;
+import io.undertow.attribute.SubstituteEmptyWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.accesslog.CompiledAccessLogFormat;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@Measurement(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccessLogFormatBenchmark {
+
+    @Param({"common", "combined"})
+    private String format;
+
+    @Param({"interpreted", "compiled"})
+    private String formatType;
+
+    private ExchangeAttribute attribute;
+    private HttpServerExchange exchange;
+
+    @Setup
+    public void init() {
+        ClassLoader classLoader = AccessLogFormatBenchmark.class.getClassLoader();
+        switch (formatType) {
+            case "interpreted":
+                String pattern = "common".equals(format) ? "%h %l %u %t \"%r\" %s %b" : "%h %l %u %t \"%r\" %s %b \"%{i,Referer}\" \"%{i,User-Agent}\"";
+                attribute = ExchangeAttributes.parser(classLoader, new SubstituteEmptyWrapper("-")).parse(pattern);
+                break;
+            case "compiled":
+                attribute = CompiledAccessLogFormat.compile(format, classLoader);
+                break;
+        }
+        exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(Methods.GET);
+        exchange.setProtocol(Protocols.HTTP_1_1);
+        exchange.setRequestURI("/some/path/index.html");
+        exchange.setQueryString("a=b&c=d");
+        exchange.setSourceAddress(new InetSocketAddress("127.0.0.1", 43210));
+        exchange.setStatusCode(200);
+        exchange.getRequestHeaders().put(Headers.REFERER, "http://localhost/");
+        exchange.getRequestHeaders().put(Headers.USER_AGENT, "Mozilla/5.0 (X11; Linux x86_64)");
+    }
+
+    @Benchmark
+    public String format() {
+        return attribute.readAttribute(exchange);
+    }
+}
@@ -229,6 +229,7 @@ public final class Undertow {
                                     JsseSslUtils.createSSLContext(listener.keyManagers, listener.trustManagers, new SecureRandom(), builder.getMap()),
                                     sslEngineDelegatedTaskExecutor);
                         }
+                        xnioSsl.setStatisticsListener(httpOpenListener);
 
                         AcceptingChannel<? extends StreamConnection> sslServer;
                         if (listener.useProxyProtocol) {
@@ -488,4 +488,20 @@ public interface UndertowLogger extends BasicLogger {
     @LogMessage(level = WARN)
     @Message(id = 5107, value = "Failed to set web socket timeout.")
     void failedToSetWSTimeout(@Cause Exception e);
-}
\ No newline at end of file
+
+    @LogMessage(level = WARN)
+    @Message(id = 5108, value = "Could not replicate attribute %s of session %s")
+    void failedToReplicateSessionAttribute(String name, String sessionId, @Cause Exception e);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5109, value = "Failed to send session replication batch for deployment %s")
+    void failedToSendSessionReplicationBatch(String deploymentName, @Cause Exception e);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5110, value = "Failed to apply session replication batch")
+    void failedToReceiveSessionReplicationBatch(@Cause Exception e);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5111, value = "JDBC access log queue is full, messages are being dropped")
+    void jdbcAccessLogQueueFull();
+}
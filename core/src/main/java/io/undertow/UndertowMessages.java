@@ -655,4 +655,19 @@ public interface UndertowMessages {
     @Message(id = 210, value = "Buffer content underflow for exchange '%s', buffer '%s'")
     IOException bufferUnderflow(HttpServerExchange exchange, ByteBuffer buf);
 
+    @Message(id = 211, value = "Session attribute %s of type %s is not serializable")
+    IllegalArgumentException sessionAttributeNotSerializable(String name, String type);
+
+    @Message(id = 212, value = "Session store is full, the memory limit is %s bytes and the disk limit is %s bytes")
+    IllegalStateException sessionStoreFull(long maxMemory, long maxDiskSize);
+
+    @Message(id = 213, value = "Failed to read attributes of session %s")
+    IllegalStateException failedToReadSessionAttributes(String sessionId, @Cause Throwable cause);
+
+    @Message(id = 214, value = "Failed to write attributes of session %s")
+    IllegalStateException failedToWriteSessionAttributes(String sessionId, @Cause Throwable cause);
+
+    @Message(id = 215, value = "Invalid session replication batch, attribute length %s exceeds the batch")
+    IOException invalidSessionReplicationBatch(int length);
+
 }
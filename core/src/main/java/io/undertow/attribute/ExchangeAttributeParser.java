@@ -72,6 +72,22 @@ public class ExchangeAttributeParser {
      * @return
      */
     public ExchangeAttribute parse(final String valueString) {
+        final List<ExchangeAttribute> attributes = parseTokens(valueString);
+        if (attributes.size() == 1) {
+            return attributes.get(0);
+        }
+        return new CompositeExchangeAttribute(attributes.toArray(new ExchangeAttribute[attributes.size()]));
+    }
+
+    /**
+     * Parses the provided value string into the individual attributes that make it up, using the same rules as
+     * {@link #parse(String)}. This allows callers to handle each attribute separately rather than through a
+     * {@link CompositeExchangeAttribute}.
+     *
+     * @param valueString The value string
+     * @return The attributes, in order
+     */
+    public List<ExchangeAttribute> parseTokens(final String valueString) {
         final List<ExchangeAttribute> attributes = new ArrayList<>();
         int pos = 0;
         int state = 0; //0 = literal, 1 = %, 2 = %{, 3 = $, 4 = ${
@@ -159,10 +175,7 @@ public class ExchangeAttributeParser {
         if (pos != valueString.length()) {
             attributes.add(wrap(parseSingleToken(valueString.substring(pos))));
         }
-        if (attributes.size() == 1) {
-            return attributes.get(0);
-        }
-        return new CompositeExchangeAttribute(attributes.toArray(new ExchangeAttribute[attributes.size()]));
+        return attributes;
     }
 
     public ExchangeAttribute parseSingleToken(final String token) {
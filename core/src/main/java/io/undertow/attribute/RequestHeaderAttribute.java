@@ -61,6 +61,10 @@ public class RequestHeaderAttribute implements ExchangeAttribute {
         exchange.getRequestHeaders().put(requestHeader, newValue);
     }
 
+    public HttpString getRequestHeader() {
+        return requestHeader;
+    }
+
     @Override
     public String toString() {
         return "%{i," + requestHeader + "}";
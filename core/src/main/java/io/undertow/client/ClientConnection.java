@@ -108,6 +108,16 @@ public interface ClientConnection extends Channel {
      */
     boolean isMultiplexingSupported();
 
+    /**
+     * Returns the maximum number of requests that may be active on this connection at the same time, as advertised by
+     * the peer. This is only meaningful if {@link #isMultiplexingSupported()} returns <code>true</code>.
+     *
+     * @return the maximum number of concurrent requests, or -1 if the peer has not specified a limit
+     */
+    default int getMaxConcurrentRequests() {
+        return isMultiplexingSupported() ? -1 : 1;
+    }
+
     /**
      *
      * @return the statistics information, or <code>null</code> if statistics are not supported or disabled
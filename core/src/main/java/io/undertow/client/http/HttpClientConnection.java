@@ -308,6 +308,14 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
         return false;
     }
 
+    @Override
+    public int getMaxConcurrentRequests() {
+        if(http2Delegate != null) {
+            return http2Delegate.getMaxConcurrentRequests();
+        }
+        return 1;
+    }
+
     @Override
     public ClientStatistics getStatistics() {
         if(http2Delegate != null) {
@@ -0,0 +1,267 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.protocols.ssl;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded executor for {@link javax.net.ssl.SSLEngine} delegated tasks, which does the expensive key exchange and
+ * certificate work of TLS handshakes.
+ * <p>
+ * Running handshakes on a dedicated pool stops them from competing with request processing for worker threads. The
+ * queue is bounded, and once it contains more than the admission limit HTTPS listeners using this executor stop
+ * admitting new connections, according to the {@link AdmissionMode}. The admission limit is lower than the queue
+ * limit so that handshakes that have already started can still complete. If the queue itself is full tasks are
+ * rejected, which closes the connection.
+ * <p>
+ * This is used by passing it to {@link io.undertow.Undertow.Builder#setSslEngineDelegatedTaskExecutor(Executor)}.
+ */
+public class HandshakeExecutor implements Executor {
+
+    public enum AdmissionMode {
+        /**
+         * New connections are closed without performing a handshake
+         */
+        REJECT,
+        /**
+         * New connections are not accepted until the queue has drained, they wait in the listen backlog
+         */
+        DELAY
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final ArrayBlockingQueue<Runnable> queue;
+    private final int admissionLimit;
+    private final AdmissionMode admissionMode;
+    private final List<Runnable> admissionListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean saturated;
+
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicLong delayedAccepts = new AtomicLong();
+
+    HandshakeExecutor(Builder builder) {
+        this.queue = new ArrayBlockingQueue<>(builder.queueLimit);
+        this.admissionLimit = builder.admissionLimit > 0 ? Math.min(builder.admissionLimit, builder.queueLimit) : Math.max(1, builder.queueLimit * 3 / 4);
+        this.admissionMode = builder.admissionMode;
+        final String name = builder.name;
+        this.executor = new ThreadPoolExecutor(builder.threads, builder.threads, 60, TimeUnit.SECONDS, queue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (saturated && queue.size() <= admissionLimit / 2) {
+                        saturated = false;
+                        for (Runnable listener : admissionListeners) {
+                            listener.run();
+                        }
+                    }
+                    command.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedTasks.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     *
+     * @return <code>true</code> if new handshakes should not be started
+     */
+    public boolean isSaturated() {
+        return queue.size() >= admissionLimit;
+    }
+
+    /**
+     * Checks if new handshakes should be started. If they should not the admission listeners are notified once
+     * the queue has drained.
+     *
+     * @return <code>true</code> if the connection can be admitted
+     */
+    boolean admit() {
+        if (isSaturated()) {
+            saturated = true;
+            return false;
+        }
+        return true;
+    }
+
+    public AdmissionMode getAdmissionMode() {
+        return admissionMode;
+    }
+
+    /**
+     * Adds a listener that is invoked when the executor is no longer saturated. The listener is invoked from a
+     * handshake thread.
+     */
+    void addAdmissionListener(Runnable listener) {
+        admissionListeners.add(listener);
+    }
+
+    void removeAdmissionListener(Runnable listener) {
+        admissionListeners.remove(listener);
+    }
+
+    void connectionRejected() {
+        rejectedConnections.incrementAndGet();
+    }
+
+    void acceptsDelayed() {
+        delayedAccepts.incrementAndGet();
+    }
+
+    /**
+     *
+     * @return The number of tasks waiting to run
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return The number of threads currently running tasks
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     *
+     * @return The number of tasks that were rejected because the queue was full
+     */
+    public long getRejectedTasks() {
+        return rejectedTasks.get();
+    }
+
+    /**
+     *
+     * @return The number of connections that were closed by {@link AdmissionMode#REJECT}
+     */
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     *
+     * @return The number of times that a listener stopped accepting connections because of {@link AdmissionMode#DELAY}
+     */
+    public long getDelayedAccepts() {
+        return delayedAccepts.get();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public String toString() {
+        return "HandshakeExecutor{" +
+                "queueSize=" + getQueueSize() +
+                ", activeCount=" + getActiveCount() +
+                ", rejectedTasks=" + getRejectedTasks() +
+                ", rejectedConnections=" + getRejectedConnections() +
+                ", delayedAccepts=" + getDelayedAccepts() +
+                '}';
+    }
+
+    public static final class Builder {
+
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int queueLimit = 1000;
+        private int admissionLimit;
+        private AdmissionMode admissionMode = AdmissionMode.DELAY;
+        private String name = "ssl-handshake";
+
+        Builder() {
+        }
+
+        public Builder setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of tasks that may be queued, once this is reached tasks are rejected
+         */
+        public Builder setQueueLimit(int queueLimit) {
+            this.queueLimit = queueLimit;
+            return this;
+        }
+
+        /**
+         * Sets the number of queued tasks at which new connections are no longer admitted. By default this is
+         * three quarters of the queue limit.
+         */
+        public Builder setAdmissionLimit(int admissionLimit) {
+            this.admissionLimit = admissionLimit;
+            return this;
+        }
+
+        public Builder setAdmissionMode(AdmissionMode admissionMode) {
+            this.admissionMode = admissionMode;
+            return this;
+        }
+
+        /**
+         * Sets the prefix of the thread names
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public HandshakeExecutor build() {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads");
+            }
+            if (queueLimit <= 0) {
+                throw new IllegalArgumentException("queueLimit");
+            }
+            return new HandshakeExecutor(this);
+        }
+    }
+}
@@ -28,7 +28,9 @@ import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLEngineResult;
 import javax.net.ssl.SSLException;
@@ -37,6 +39,7 @@ import javax.net.ssl.SSLSession;
 import io.undertow.UndertowLogger;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.ConnectorStatisticsImpl;
 import io.undertow.server.DefaultByteBufferPool;
 import org.xnio.Buffers;
 import org.xnio.ChannelListener;
@@ -71,6 +74,25 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
 
     public static final int MAX_READ_LISTENER_INVOCATIONS = Integer.getInteger("io.undertow.ssl.max-read-listener-invocations", 100);
 
+    /**
+     * The maximum number of TLS records that will be wrapped into a single buffer before it is written to the socket.
+     * Large gathering writes are wrapped into a batch of records so they can be sent with a single write call,
+     * rather than one write per record. A value of 1 disables batching. Batching is only done for connections
+     * accepted by a listener, as the listener owns the pool the batch buffers are allocated from.
+     */
+    public static final int WRAP_BATCH_RECORDS = Integer.getInteger("io.undertow.ssl.wrap-batch-records", 4);
+
+    /**
+     * The maximum number of free batch buffers that are retained by each listener
+     */
+    private static final int WRAP_BATCH_POOL_SIZE = 16;
+
+    /**
+     * The packet buffer size assumed when it cannot be determined from the SSL context, this is large enough for a
+     * maximum size TLS record
+     */
+    private static final int DEFAULT_PACKET_BUFFER_SIZE = 17 * 1024;
+
     /**
      * If this is set we are in the middle of a handshake, and we cannot
      * read any more data until we have written out our wrap result
@@ -139,6 +161,11 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     private final StreamSinkConduit sink;
     private final StreamSourceConduit source;
     private final ByteBufferPool bufferPool;
+    /**
+     * Buffer pool used when a write contains more data than will fit in a single TLS record, may be null in which
+     * case records are not batched. This pool is owned by the listener that accepted the connection.
+     */
+    private final ByteBufferPool batchBufferPool;
     private final Runnable handshakeCallback;
 
     private volatile int state = 0;
@@ -199,7 +226,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         }
     };
 
-    SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, Executor delegatedTaskExecutor, ByteBufferPool bufferPool, Runnable handshakeCallback) {
+    SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, Executor delegatedTaskExecutor, ByteBufferPool bufferPool, ByteBufferPool batchBufferPool, Runnable handshakeCallback) {
         this.connection = connection;
         this.delegate = delegate;
         this.handshakeCallback = handshakeCallback;
@@ -210,6 +237,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         // we need to pick a thread that is different from the current thread running or run the handshake task immediately at the same thread)
         this.delegatedTaskExecutor = this.delegate.getWorker() != delegatedTaskExecutor? delegatedTaskExecutor : null;
         this.bufferPool = bufferPool;
+        this.batchBufferPool = batchBufferPool;
         delegate.getSourceChannel().getConduit().setReadReadyHandler(readReadyHandler = new SslReadReadyHandler(null));
         delegate.getSinkChannel().getConduit().setWriteReadyHandler(writeReadyHandler = new SslWriteReadyHandler(null));
         if(engine.getUseClientMode()) {
@@ -704,6 +732,10 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
      * If some data has already been unwrapped it will simply be copied into the user buffers
      * and no unwrap will actually take place.
      *
+     * This is synchronized as blocking reads and writes are done by worker threads rather than the IO thread, and the
+     * engine and buffers are shared between both directions. In non blocking mode, and while delegated tasks run,
+     * only the IO thread uses the conduit, so the lock is not contended.
+     *
      * @return true if the unwrap operation made progress, false otherwise
      * @throws SSLException
      */
@@ -723,17 +755,22 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         AccumulativeOrBoolean bytesProduced = new AccumulativeOrBoolean();
         PooledByteBuffer unwrappedData = this.unwrappedData;
         //copy any exiting data
+        long copied = 0;
         if(unwrappedData != null) {
             if(userBuffers != null) {
-                long copied = Buffers.copy(userBuffers, off, len, unwrappedData.getBuffer());
+                copied = Buffers.copy(userBuffers, off, len, unwrappedData.getBuffer());
                 if (!unwrappedData.getBuffer().hasRemaining()) {
                     unwrappedData.close();
-                    this.unwrappedData = null;
+                    this.unwrappedData = unwrappedData = null;
                 }
                 if(copied > 0) {
                     readListenerInvocationCount = 0;
                 }
-                return copied;
+                //if there are more records that have already been read, and space left in the user buffers, then we
+                //unwrap them straight into the user buffers rather than waiting for the next read call
+                if (unwrappedData != null || allAreClear(state, FLAG_DATA_TO_UNWRAP) || !Buffers.hasRemaining(userBuffers, off, len)) {
+                    return copied;
+                }
             }
         }
         try {
@@ -819,7 +856,8 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
                     dataToUnwrap = null;
                 }
                 notifyReadClosed();
-                return -1;
+                //data that was copied must still be returned, the close will be seen by the next read
+                return copied > 0 ? copied : -1;
             }
             if (!handleHandshakeResult(result)) {
                 if (this.dataToUnwrap.getBuffer().hasRemaining()
@@ -829,7 +867,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
                 } else {
                     state &= ~FLAG_DATA_TO_UNWRAP;
                 }
-                return 0;
+                return copied;
             }
             if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
                 state &= ~FLAG_DATA_TO_UNWRAP;
@@ -849,7 +887,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
                     //if data has been successfully returned this is not a read loop
                     readListenerInvocationCount = 0;
                 }
-                return res;
+                return res + copied;
             }
         } catch (SSLException e) {
             try {
@@ -936,7 +974,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             }
             wrappedData.getBuffer().clear();
         } else {
-            wrappedData = bufferPool.allocate();
+            wrappedData = allocateWrapBuffer(userBuffers, off, len);
         }
         try {
             SSLEngineResult result = wrapAndFlip(userBuffers, off, len);
@@ -1004,6 +1042,43 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         }
     }
 
+    private PooledByteBuffer allocateWrapBuffer(ByteBuffer[] userBuffers, int off, int len) {
+        final ByteBufferPool batchBufferPool = this.batchBufferPool;
+        if (batchBufferPool == null || userBuffers == null || anyAreSet(state, FLAG_IN_HANDSHAKE)) {
+            return bufferPool.allocate();
+        }
+        final SSLSession session = engine.getSession();
+        if (Buffers.remaining(userBuffers, off, len) <= session.getApplicationBufferSize()
+                || batchBufferPool.getBufferSize() < session.getPacketBufferSize() * 2) {
+            //a single record, or the engine needs larger records than the pool was sized for
+            return bufferPool.allocate();
+        }
+        try {
+            return batchBufferPool.allocate();
+        } catch (IllegalStateException e) {
+            //the listener has been closed, but this connection is still open
+            return bufferPool.allocate();
+        }
+    }
+
+    /**
+     * Creates the pool used to batch records for connections accepted by a listener. The pool only retains a
+     * bounded number of buffers, and must be closed when the listener is closed.
+     *
+     * @param sslContext The SSL context of the listener
+     * @param direct     If the buffers should be direct
+     * @return The pool, or <code>null</code> if batching is disabled
+     */
+    static ByteBufferPool createBatchBufferPool(SSLContext sslContext, boolean direct) {
+        if (WRAP_BATCH_RECORDS <= 1) {
+            return null;
+        }
+        //engines that select the real engine during the handshake, such as SNI engines, do not have a session yet
+        final SSLSession session = sslContext.createSSLEngine().getSession();
+        final int packetBufferSize = session == null ? DEFAULT_PACKET_BUFFER_SIZE : session.getPacketBufferSize();
+        return new DefaultByteBufferPool(direct, packetBufferSize * WRAP_BATCH_RECORDS, WRAP_BATCH_POOL_SIZE, 0);
+    }
+
     private SSLEngineResult wrapAndFlip(ByteBuffer[] userBuffers, int off, int len) throws IOException {
         SSLEngineResult result = null;
         int totalConsumedBytes = 0;
@@ -1016,6 +1091,20 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             }
             totalConsumedBytes += result.bytesConsumed();
         }
+        if (userBuffers != null) {
+            //if there is still user data and room for another full record we keep wrapping, so that all the records
+            //can be written out with a single write call. The engine requires a full packet worth of space for each wrap.
+            final ByteBuffer buffer = wrappedData.getBuffer();
+            final int packetBufferSize = engine.getSession().getPacketBufferSize();
+            while (result.getStatus() == SSLEngineResult.Status.OK
+                    && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                    && result.bytesConsumed() > 0
+                    && buffer.remaining() >= packetBufferSize
+                    && Buffers.hasRemaining(userBuffers, off, len)) {
+                result = engine.wrap(userBuffers, off, len, buffer);
+                totalConsumedBytes += result.bytesConsumed();
+            }
+        }
         if (totalConsumedBytes != result.bytesConsumed()) {
             result = new SSLEngineResult(result.getStatus(), result.getHandshakeStatus(), totalConsumedBytes, result.bytesProduced());
         }
@@ -1126,7 +1215,9 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     /**
      * Execute all the delegated tasks on an executor which allows blocking, the worker executor by default.
      *
-     * Once they are complete we notify any waiting threads and wakeup reads/writes as appropriate
+     * Once they are complete we notify any waiting threads and wakeup reads/writes as appropriate. The task threads
+     * never take the conduit lock, the last task to complete hands the result back to the IO thread, which updates
+     * the conduit state and continues the handshake.
      */
     private void runTasks() throws IOException {
         //don't run anything in the IO thread till the tasks are done
@@ -1139,42 +1230,45 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             t = engine.getDelegatedTask();
         }
 
+        final ConnectorStatisticsImpl handshakeStatistics = connection.getHandshakeStatistics();
+        final int taskCount = tasks.size();
+        final AtomicInteger remaining = new AtomicInteger(taskCount);
+        final Runnable tasksComplete = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SslConduit.this) {
+                    outstandingTasks -= taskCount;
+                    SslConduit.this.notifyAll();
+                    try {
+                        doHandshake();
+                    } catch (IOException | RuntimeException | Error e) {
+                        UndertowLogger.REQUEST_LOGGER.debug("Closing SSLConduit after exception on handshake", e);
+                        IoUtils.safeClose(connection);
+                    }
+                    if (anyAreSet(state, FLAG_READS_RESUMED)) {
+                        wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
+                    }
+                    if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
+                        resumeWrites(); //we don't need to wakeup, as the channel should be writable
+                    }
+                }
+            }
+        };
         synchronized (this) {
-            outstandingTasks += tasks.size();
+            outstandingTasks += taskCount;
             for (final Runnable task : tasks) {
+                final long queued = handshakeStatistics == null ? 0 : System.nanoTime();
                 Runnable wrappedTask = new Runnable() {
                     @Override
                     public void run() {
+                        if (handshakeStatistics != null) {
+                            handshakeStatistics.handshakeTaskStarted(System.nanoTime() - queued);
+                        }
                         try {
                             task.run();
                         } finally {
-                            synchronized (SslConduit.this) {
-                                if (outstandingTasks == 1) {
-                                    getWriteThread().execute(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            synchronized (SslConduit.this) {
-                                                SslConduit.this.notifyAll();
-
-                                                --outstandingTasks;
-                                                try {
-                                                    doHandshake();
-                                                } catch (IOException | RuntimeException | Error e) {
-                                                    UndertowLogger.REQUEST_LOGGER.debug("Closing SSLConduit after exception on handshake", e);
-                                                    IoUtils.safeClose(connection);
-                                                }
-                                                if (anyAreSet(state, FLAG_READS_RESUMED)) {
-                                                    wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
-                                                }
-                                                if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
-                                                    resumeWrites(); //we don't need to wakeup, as the channel should be writable
-                                                }
-                                            }
-                                        }
-                                    });
-                                } else {
-                                    outstandingTasks--;
-                                }
+                            if (remaining.decrementAndGet() == 0) {
+                                getWriteThread().execute(tasksComplete);
                             }
                         }
                     }
@@ -46,6 +46,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
@@ -77,12 +78,21 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     private final ChannelListener.Setter<AcceptingChannel<SslConnection>> acceptSetter;
     protected final boolean startTls;
     protected final ByteBufferPool applicationBufferPool;
+    /**
+     * Pool used to batch TLS records for accepted connections, it is closed when this channel is closed
+     */
+    private final ByteBufferPool batchBufferPool;
     private final boolean useCipherSuitesOrder;
 
+    private volatile boolean acceptsResumed;
+    private volatile boolean admissionDelayed;
+    private final Runnable admissionListener;
+
     UndertowAcceptingSslChannel(final UndertowXnioSsl ssl, final AcceptingChannel<? extends StreamConnection> tcpServer, final OptionMap optionMap, final ByteBufferPool applicationBufferPool, final boolean startTls) {
         this.tcpServer = tcpServer;
         this.ssl = ssl;
         this.applicationBufferPool = applicationBufferPool;
+        this.batchBufferPool = SslConduit.createBatchBufferPool(ssl.getSslContext(), applicationBufferPool.isDirect());
         this.startTls = startTls;
         clientAuthMode = optionMap.get(Options.SSL_CLIENT_AUTH_MODE);
         useClientMode = optionMap.get(Options.SSL_USE_CLIENT_MODE, false) ? 1 : 0;
@@ -96,6 +106,22 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
         //noinspection ThisEscapedInObjectConstruction
         acceptSetter = ChannelListeners.<AcceptingChannel<SslConnection>>getDelegatingSetter(tcpServer.getAcceptSetter(), this);
         useCipherSuitesOrder = optionMap.get(UndertowOptions.SSL_USER_CIPHER_SUITES_ORDER, false);
+        if (ssl.getDelegatedTaskExecutor() instanceof HandshakeExecutor) {
+            admissionListener = new Runnable() {
+                @Override
+                public void run() {
+                    if (admissionDelayed) {
+                        admissionDelayed = false;
+                        if (acceptsResumed) {
+                            tcpServer.resumeAccepts();
+                        }
+                    }
+                }
+            };
+            ((HandshakeExecutor) ssl.getDelegatedTaskExecutor()).addAdmissionListener(admissionListener);
+        } else {
+            admissionListener = null;
+        }
     }
 
     private static final Set<Option<?>> SUPPORTED_OPTIONS = Option.setBuilder()
@@ -136,6 +162,22 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     }
 
     public UndertowSslConnection accept() throws IOException {
+        final Executor executor = ssl.getDelegatedTaskExecutor();
+        if (executor instanceof HandshakeExecutor && !((HandshakeExecutor) executor).admit()) {
+            final HandshakeExecutor handshakeExecutor = (HandshakeExecutor) executor;
+            if (handshakeExecutor.getAdmissionMode() == HandshakeExecutor.AdmissionMode.DELAY) {
+                //a connection that XNIO has already taken from the backlog is offered until it is accepted, so it is
+                //still handshaked, but no more are taken until the queue has drained
+                delayAccepts(handshakeExecutor);
+            } else {
+                final StreamConnection rejected = tcpServer.accept();
+                if (rejected != null) {
+                    handshakeExecutor.connectionRejected();
+                    IoUtils.safeClose(rejected);
+                }
+                return null;
+            }
+        }
         final StreamConnection tcpConnection = tcpServer.accept();
         if (tcpConnection == null) {
             return null;
@@ -208,7 +250,7 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     }
 
     protected UndertowSslConnection accept(StreamConnection tcpServer, SSLEngine sslEngine) throws IOException {
-        return new UndertowSslConnection(tcpServer, sslEngine, applicationBufferPool, ssl.getDelegatedTaskExecutor());
+        return new UndertowSslConnection(tcpServer, sslEngine, applicationBufferPool, batchBufferPool, ssl.getDelegatedTaskExecutor(), ssl.getHandshakeStatistics());
     }
 
     public ChannelListener.Setter<? extends AcceptingChannel<SslConnection>> getCloseSetter() {
@@ -220,7 +262,16 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     }
 
     public void close() throws IOException {
-        tcpServer.close();
+        if (admissionListener != null) {
+            ((HandshakeExecutor) ssl.getDelegatedTaskExecutor()).removeAdmissionListener(admissionListener);
+        }
+        try {
+            tcpServer.close();
+        } finally {
+            if (batchBufferPool != null) {
+                batchBufferPool.close();
+            }
+        }
     }
 
     public boolean supportsOption(final Option<?> option) {
@@ -258,13 +309,31 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     }
 
     public void suspendAccepts() {
+        acceptsResumed = false;
         tcpServer.suspendAccepts();
     }
 
     public void resumeAccepts() {
+        acceptsResumed = true;
         tcpServer.resumeAccepts();
     }
 
+    /**
+     * Stops accepting connections until the handshake executor is no longer saturated. Connections wait in the
+     * listen backlog in the meantime.
+     */
+    private void delayAccepts(final HandshakeExecutor handshakeExecutor) {
+        if (!admissionDelayed) {
+            handshakeExecutor.acceptsDelayed();
+        }
+        admissionDelayed = true;
+        tcpServer.suspendAccepts();
+        if (!handshakeExecutor.isSaturated()) {
+            //the queue drained while we were suspending
+            admissionListener.run();
+        }
+    }
+
     @Override
     public boolean isAcceptResumed() {
         return tcpServer.isAcceptResumed();
@@ -23,6 +23,7 @@ import org.xnio.ChannelListeners;
 import org.xnio.Option;
 import org.xnio.Options;
 import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.ConnectorStatisticsImpl;
 import org.xnio.SslClientAuthMode;
 import org.xnio.StreamConnection;
 import org.xnio.ssl.SslConnection;
@@ -45,6 +46,10 @@ class UndertowSslConnection extends SslConnection {
     private final SslConduit sslConduit;
     private final ChannelListener.SimpleSetter<SslConnection> handshakeSetter = new ChannelListener.SimpleSetter<>();
     private final SSLEngine engine;
+    private final ConnectorStatisticsImpl handshakeStatistics;
+    private final long created = System.currentTimeMillis();
+    private final long handshakeStart = System.nanoTime();
+    private boolean handshakeRecorded;
 
     /**
      * Construct a new instance.
@@ -52,10 +57,23 @@ class UndertowSslConnection extends SslConnection {
      * @param delegate the underlying connection
      */
     UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Executor delegatedTaskExecutor) {
+        this(delegate, engine, bufferPool, delegatedTaskExecutor, null);
+    }
+
+    UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Executor delegatedTaskExecutor, ConnectorStatisticsImpl handshakeStatistics) {
+        this(delegate, engine, bufferPool, null, delegatedTaskExecutor, handshakeStatistics);
+    }
+
+    /**
+     *
+     * @param batchBufferPool The pool used to batch several TLS records into a single write, may be null
+     */
+    UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, ByteBufferPool batchBufferPool, Executor delegatedTaskExecutor, ConnectorStatisticsImpl handshakeStatistics) {
         super(delegate.getIoThread());
         this.delegate = delegate;
         this.engine = engine;
-        sslConduit = new SslConduit(this, delegate, engine, delegatedTaskExecutor, bufferPool, new HandshakeCallback());
+        this.handshakeStatistics = handshakeStatistics;
+        sslConduit = new SslConduit(this, delegate, engine, delegatedTaskExecutor, bufferPool, batchBufferPool, new HandshakeCallback());
         setSourceConduit(sslConduit);
         setSinkConduit(sslConduit);
     }
@@ -111,6 +129,10 @@ class UndertowSslConnection extends SslConnection {
         return sslConduit;
     }
 
+    ConnectorStatisticsImpl getHandshakeStatistics() {
+        return handshakeStatistics;
+    }
+
     /** {@inheritDoc} */
     @Override
     public <T> T setOption(final Option<T> option, final T value) throws IllegalArgumentException, IOException {
@@ -167,6 +189,12 @@ class UndertowSslConnection extends SslConnection {
 
         @Override
         public void run() {
+            if (handshakeStatistics != null && !handshakeRecorded) {
+                handshakeRecorded = true;
+                //JSSE keeps the creation time of the original session when it is resumed, either from the
+                //session cache or from a ticket, so a session older than this connection must have been resumed
+                handshakeStatistics.handshakeCompleted(engine.getSession().getCreationTime() < created, System.nanoTime() - handshakeStart);
+            }
             final ChannelListener<? super SslConnection> listener = handshakeSetter.get();
             if (listener == null) {
                 return;
@@ -41,7 +41,10 @@ import javax.net.ssl.SSLParameters;
 
 import io.undertow.UndertowOptions;
 import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.ConnectorStatistics;
+import io.undertow.server.ConnectorStatisticsImpl;
 import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.server.OpenListener;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.FutureResult;
@@ -80,6 +83,7 @@ public class UndertowXnioSsl extends XnioSsl {
     private final ByteBufferPool bufferPool;
     private final Executor delegatedTaskExecutor;
     private volatile SSLContext sslContext;
+    private volatile OpenListener statisticsListener;
 
     /**
      * Construct a new instance.
@@ -174,6 +178,27 @@ public class UndertowXnioSsl extends XnioSsl {
         return delegatedTaskExecutor;
     }
 
+    ConnectorStatisticsImpl getHandshakeStatistics() {
+        final OpenListener statisticsListener = this.statisticsListener;
+        if (statisticsListener == null) {
+            return null;
+        }
+        //looked up for every connection, as statistics can be enabled and disabled while the listener is running
+        final ConnectorStatistics statistics = statisticsListener.getConnectorStatistics();
+        return statistics instanceof ConnectorStatisticsImpl ? (ConnectorStatisticsImpl) statistics : null;
+    }
+
+    /**
+     * Sets the listener that the outcome of handshakes on accepted connections is recorded against. This allows the
+     * session resumption ratio of a listener to be monitored. Handshakes are only recorded while connector statistics
+     * are enabled for the listener.
+     *
+     * @param statisticsListener The listener, or <code>null</code> to stop recording
+     */
+    public void setStatisticsListener(OpenListener statisticsListener) {
+        this.statisticsListener = statisticsListener;
+    }
+
     /**
      * Get the SSL engine for a given connection.
      *
@@ -238,7 +263,9 @@ public class UndertowXnioSsl extends XnioSsl {
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap, boolean clientMode) {
-        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), clientMode), bufferPool, delegatedTaskExecutor);
+        //server side connections, such as those of a listener using the proxy protocol, record their handshakes
+        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), clientMode), bufferPool, delegatedTaskExecutor,
+                clientMode ? null : getHandshakeStatistics());
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap, URI destinationURI) {
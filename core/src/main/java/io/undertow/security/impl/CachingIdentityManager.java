@@ -0,0 +1,190 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.security.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+import io.undertow.server.handlers.cache.LRUCache;
+
+/**
+ * An {@link IdentityManager} that caches the result of successful password verifications.
+ * <p>
+ * Mechanisms such as {@link BasicAuthenticationMechanism} and {@link GenericHeaderAuthenticationMechanism} send the
+ * same credential with every request, and if the underlying identity manager is backed by a remote store then
+ * verifying it every time can be expensive. This wraps the identity manager and remembers verified credentials for
+ * a limited time. Credentials are never stored directly, instead the cache key is a salted SHA-256 hash of the
+ * user name and password, with a random salt that is generated for each instance.
+ * <p>
+ * Only {@link PasswordCredential}s are cached. Other credentials, such as the digest credentials used by
+ * {@link DigestAuthenticationMechanism}, are different for every request and are always passed to the underlying
+ * identity manager. Failed verifications are never cached.
+ * <p>
+ * If an account is changed in the underlying store then {@link #invalidate(String)} should be called, otherwise the
+ * old credential may continue to be accepted until its cache entry expires.
+ */
+public class CachingIdentityManager implements IdentityManager {
+
+    private static final int SALT_LENGTH = 16;
+
+    private final IdentityManager identityManager;
+    private final LRUCache<CacheKey, Account> cache;
+    private final byte[] salt;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     *
+     * @param identityManager The identity manager to delegate to
+     * @param maxEntries The maximum number of verified credentials to cache
+     * @param timeToLive The time in milliseconds that a verified credential is cached for
+     */
+    public CachingIdentityManager(final IdentityManager identityManager, final int maxEntries, final int timeToLive) {
+        this.identityManager = identityManager;
+        this.cache = new LRUCache<>(maxEntries, timeToLive, true);
+        this.salt = new byte[SALT_LENGTH];
+        new SecureRandom().nextBytes(salt);
+    }
+
+    @Override
+    public Account verify(final Account account) {
+        final Account result = identityManager.verify(account);
+        if (result == null && account != null && account.getPrincipal() != null) {
+            //the account is no longer valid, so make sure it can't be used from the cache
+            invalidate(account.getPrincipal().getName());
+        }
+        return result;
+    }
+
+    @Override
+    public Account verify(final String id, final Credential credential) {
+        if (id == null || !(credential instanceof PasswordCredential)) {
+            return identityManager.verify(id, credential);
+        }
+        final CacheKey key = new CacheKey(id, hash(id, ((PasswordCredential) credential).getPassword()));
+        Account account = cache.get(key);
+        if (account != null) {
+            hits.incrementAndGet();
+            return account;
+        }
+        misses.incrementAndGet();
+        account = identityManager.verify(id, credential);
+        if (account != null) {
+            cache.add(key, account);
+        }
+        return account;
+    }
+
+    @Override
+    public Account verify(final Credential credential) {
+        return identityManager.verify(credential);
+    }
+
+    /**
+     * Removes all cached credentials for the given user.
+     *
+     * @param id The user name
+     */
+    public void invalidate(final String id) {
+        for (CacheKey key : cache.keySet()) {
+            if (key.id.equals(id)) {
+                cache.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached credentials.
+     */
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    /**
+     *
+     * @return The number of verifications that were answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return The number of verifications that were passed to the underlying identity manager
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private byte[] hash(final String id, final char[] password) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(salt);
+        digest.update(id.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        final ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+        try {
+            digest.update(encoded.duplicate());
+        } finally {
+            if (encoded.hasArray()) {
+                Arrays.fill(encoded.array(), (byte) 0);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static final class CacheKey {
+        private final String id;
+        private final byte[] hash;
+        private final int hashCode;
+
+        private CacheKey(String id, byte[] hash) {
+            this.id = id;
+            this.hash = hash;
+            this.hashCode = Arrays.hashCode(hash);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof CacheKey)) return false;
+            CacheKey that = (CacheKey) o;
+            return id.equals(that.id) && MessageDigest.isEqual(hash, that.hash);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
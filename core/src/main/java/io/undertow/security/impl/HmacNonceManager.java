@@ -0,0 +1,292 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.security.impl;
+
+import static io.undertow.UndertowMessages.MESSAGES;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.undertow.security.api.NonceManager;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.FlexBase64;
+
+/**
+ * A {@link NonceManager} that does not need to store issued nonces, and that tracks used nonce counts in a fixed
+ * amount of memory without locking.
+ * <p>
+ * Each nonce contains the time it was issued, a sequence number and the id of the nonce manager that issued it,
+ * authenticated with a HMAC-SHA256 using a secret key. Validating a nonce only requires recomputing the HMAC, so
+ * issuing nonces to unauthenticated clients has no storage cost.
+ * <p>
+ * The nonce counts that have been used are only held in memory, so a nonce is only accepted by the nonce manager that
+ * issued it, even if other servers have been given the same key. Otherwise a request could be replayed against each
+ * server in turn. A nonce issued by another node is treated as stale, so the client is asked to retry with a nonce
+ * from this node without having to prompt for credentials again. When used in a cluster requests should be routed to
+ * the same node for the lifetime of a nonce, otherwise clients will see additional challenges.
+ * <p>
+ * To detect replays each nonce is assigned one of a fixed number of slots, based on its sequence number. The slot
+ * holds a sliding window of the most recently used nonce counts, so requests that are sent concurrently by a client
+ * and arrive out of order are still accepted as long as they are within {@link #WINDOW_SIZE} of the highest count
+ * seen. Slots are only claimed once a nonce is used with valid credentials. If a slot has since been claimed by a
+ * newer nonce the old nonce is treated as stale, and the client will be asked to retry with a new nonce.
+ * <p>
+ * Nonces are replaced after {@code refreshInterval}, and are accepted for {@code maxAge} after being issued.
+ */
+public class HmacNonceManager implements NonceManager {
+
+    /**
+     * The number of nonce counts tracked for each nonce
+     */
+    public static final int WINDOW_SIZE = 64;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int MAC_LENGTH = 16;
+    private static final int PAYLOAD_LENGTH = 24;
+    private static final int NONCE_LENGTH = PAYLOAD_LENGTH + MAC_LENGTH;
+
+    private static final int DEFAULT_SLOTS = 1 << 16;
+    private static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_MAX_AGE = TimeUnit.MINUTES.toMillis(15);
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final AtomicReferenceArray<Window> windows;
+    private final int slotMask;
+    private final long refreshInterval;
+    private final long maxAge;
+    private final AtomicLong sequence;
+    private final long nodeId;
+
+    private final AtomicLong issued = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejectedReplay = new AtomicLong();
+    private final AtomicLong rejectedStale = new AtomicLong();
+    private final AtomicLong rejectedInvalid = new AtomicLong();
+
+    public HmacNonceManager() {
+        this(randomKey(), DEFAULT_SLOTS, DEFAULT_REFRESH_INTERVAL, DEFAULT_MAX_AGE);
+    }
+
+    /**
+     *
+     * @param secret The key used to authenticate nonces, this should be at least 32 random bytes. Nonces are only
+     *               accepted by the instance that issued them, even if other instances use the same key
+     * @param slots The number of nonces that can be tracked at once, this is rounded up to a power of two
+     * @param refreshInterval The time in milliseconds after which a client will be given a new nonce
+     * @param maxAge The time in milliseconds after which a nonce is no longer accepted
+     */
+    public HmacNonceManager(final byte[] secret, final int slots, final long refreshInterval, final long maxAge) {
+        if (slots <= 0 || slots > 1 << 30) {
+            throw new IllegalArgumentException("slots");
+        }
+        this.key = new SecretKeySpec(secret.clone(), HMAC_ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::createMac);
+        createMac(); //fail early if the algorithm is not available
+        final int size = Integer.highestOneBit(slots) == slots ? slots : Integer.highestOneBit(slots) << 1;
+        this.windows = new AtomicReferenceArray<>(size);
+        this.slotMask = size - 1;
+        this.refreshInterval = refreshInterval;
+        this.maxAge = maxAge;
+        final SecureRandom random = new SecureRandom();
+        //start at a random sequence so that restarts with the same key do not reuse sequence numbers
+        this.sequence = new AtomicLong(random.nextLong() >>> 2);
+        this.nodeId = random.nextLong();
+    }
+
+    private static byte[] randomKey() {
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    private Mac createMac() {
+        try {
+            final Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw MESSAGES.hashAlgorithmNotFound(HMAC_ALGORITHM);
+        }
+    }
+
+    @Override
+    public String nextNonce(final String lastNonce, final HttpServerExchange exchange) {
+        if (lastNonce != null) {
+            final ByteBuffer decoded = decode(lastNonce);
+            if (decoded != null) {
+                final long age = System.currentTimeMillis() - decoded.getLong(0);
+                if (age >= 0 && age < refreshInterval && decoded.getLong(16) == nodeId && !isEvicted(decoded.getLong(8))) {
+                    return lastNonce;
+                }
+            }
+        }
+        issued.incrementAndGet();
+        final ByteBuffer nonce = ByteBuffer.allocate(NONCE_LENGTH);
+        nonce.putLong(System.currentTimeMillis());
+        nonce.putLong(sequence.getAndIncrement() & Long.MAX_VALUE);
+        nonce.putLong(nodeId);
+        final Mac mac = macs.get();
+        mac.update(nonce.array(), 0, PAYLOAD_LENGTH);
+        nonce.put(mac.doFinal(), 0, MAC_LENGTH);
+        return FlexBase64.encodeString(nonce.array(), false);
+    }
+
+    @Override
+    public boolean validateNonce(final String nonce, final int nonceCount, final HttpServerExchange exchange) {
+        final ByteBuffer decoded = decode(nonce);
+        if (decoded == null) {
+            rejectedInvalid.incrementAndGet();
+            return false;
+        }
+        final long age = System.currentTimeMillis() - decoded.getLong(0);
+        if (age < 0 || age >= maxAge || decoded.getLong(16) != nodeId) {
+            rejectedStale.incrementAndGet();
+            return false;
+        }
+        final long seq = decoded.getLong(8);
+        //a nonce used without a nonce count is single use, which is the same as only allowing a count of 1
+        final long count = nonceCount < 0 ? 1 : nonceCount;
+        final int slot = (int) (seq & slotMask);
+        for (;;) {
+            final Window current = windows.get(slot);
+            final Window updated;
+            if (current == null || current.sequence < seq) {
+                updated = new Window(seq, count, 1L);
+            } else if (current.sequence > seq) {
+                rejectedStale.incrementAndGet();
+                return false;
+            } else if (count > current.highest) {
+                final long shift = count - current.highest;
+                updated = new Window(seq, count, (shift >= WINDOW_SIZE ? 0 : current.used << shift) | 1L);
+            } else {
+                final long offset = current.highest - count;
+                if (offset >= WINDOW_SIZE || (current.used & (1L << offset)) != 0) {
+                    rejectedReplay.incrementAndGet();
+                    return false;
+                }
+                updated = new Window(seq, current.highest, current.used | (1L << offset));
+            }
+            if (windows.compareAndSet(slot, current, updated)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    private boolean isEvicted(final long seq) {
+        final Window current = windows.get((int) (seq & slotMask));
+        return current != null && current.sequence > seq;
+    }
+
+    /**
+     * Decodes the nonce and verifies the HMAC
+     *
+     * @return The nonce, or <code>null</code> if it was not issued by this nonce manager
+     */
+    private ByteBuffer decode(final String nonce) {
+        final ByteBuffer decoded;
+        try {
+            decoded = FlexBase64.decode(nonce);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (decoded.remaining() != NONCE_LENGTH) {
+            return null;
+        }
+        final byte[] bytes = new byte[NONCE_LENGTH];
+        decoded.get(bytes);
+        final Mac mac = macs.get();
+        mac.update(bytes, 0, PAYLOAD_LENGTH);
+        final byte[] expected = mac.doFinal();
+        final byte[] actual = new byte[MAC_LENGTH];
+        System.arraycopy(bytes, PAYLOAD_LENGTH, actual, 0, MAC_LENGTH);
+        final byte[] truncated = new byte[MAC_LENGTH];
+        System.arraycopy(expected, 0, truncated, 0, MAC_LENGTH);
+        if (!MessageDigest.isEqual(truncated, actual)) {
+            return null;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     *
+     * @return The number of new nonces that have been issued
+     */
+    public long getIssued() {
+        return issued.get();
+    }
+
+    /**
+     *
+     * @return The number of nonces that have been accepted
+     */
+    public long getAccepted() {
+        return accepted.get();
+    }
+
+    /**
+     *
+     * @return The number of nonces rejected because the nonce count had already been used
+     */
+    public long getRejectedReplay() {
+        return rejectedReplay.get();
+    }
+
+    /**
+     *
+     * @return The number of nonces rejected because they had expired, were issued by another node, or their slot had
+     * been used by a newer nonce
+     */
+    public long getRejectedStale() {
+        return rejectedStale.get();
+    }
+
+    /**
+     *
+     * @return The number of nonces rejected because they were not issued by this nonce manager
+     */
+    public long getRejectedInvalid() {
+        return rejectedInvalid.get();
+    }
+
+    /**
+     * The nonce counts that have been used for a nonce. Bit {@code n} of {@code used} is set if the count
+     * {@code highest - n} has been used.
+     */
+    private static final class Window {
+        private final long sequence;
+        private final long highest;
+        private final long used;
+
+        private Window(long sequence, long highest, long used) {
+            this.sequence = sequence;
+            this.highest = highest;
+            this.used = used;
+        }
+    }
+}
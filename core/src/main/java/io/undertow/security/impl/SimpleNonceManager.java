@@ -39,12 +39,10 @@ import java.util.WeakHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
-import org.xnio.XnioExecutor;
-import org.xnio.XnioExecutor.Key;
 import org.xnio.XnioIoThread;
 
 import io.undertow.util.FlexBase64;
-import io.undertow.util.WorkerUtils;
+import io.undertow.util.TimerWheel;
 
 /**
  * A default {@link io.undertow.security.api.NonceManager} implementation to provide reasonable single host management of nonces.
@@ -186,7 +184,7 @@ public class SimpleNonceManager implements SessionNonceManager {
                         Nonce replacement = createNewNonce(holder);
                         if (value.executorKey != null) {
                             // The outcome doesn't matter - if we have the value we have all we need.
-                            value.executorKey.remove();
+                            value.executorKey.cancel();
                         }
 
                         nonce = replacement.nonce;
@@ -204,7 +202,7 @@ public class SimpleNonceManager implements SessionNonceManager {
                         knownNonces.put(nonce, replacement);
                         earliestAccepted = now - (overallTimeOut + cacheTimePostExpiry);
                         long timeTillExpiry = replacement.timeStamp - earliestAccepted;
-                        replacement.executorKey = WorkerUtils.executeAfter(exchange.getIoThread(), new KnownNonceCleaner(nonce), timeTillExpiry,
+                        replacement.executorKey = TimerWheel.forThread(exchange.getIoThread()).schedule(new KnownNonceCleaner(nonce), timeTillExpiry,
                                 TimeUnit.MILLISECONDS);
 
                     }
@@ -297,7 +295,7 @@ public class SimpleNonceManager implements SessionNonceManager {
                 if (nonce.timeStamp > earliestAccepted && nonce.timeStamp <= now) {
                     knownNonces.put(nonce.nonce, nonce);
                     long timeTillExpiry = nonce.timeStamp - earliestAccepted;
-                    nonce.executorKey = WorkerUtils.executeAfter(executor, new KnownNonceCleaner(nonce.nonce), timeTillExpiry,
+                    nonce.executorKey = TimerWheel.forThread(executor).schedule(new KnownNonceCleaner(nonce.nonce), timeTillExpiry,
                             TimeUnit.MILLISECONDS);
                     return true;
                 }
@@ -322,14 +320,14 @@ public class SimpleNonceManager implements SessionNonceManager {
 
     }
 
-    private boolean addInvalidNonce(final Nonce nonce, final XnioExecutor executor) {
+    private boolean addInvalidNonce(final Nonce nonce, final XnioIoThread executor) {
         long now = System.currentTimeMillis();
         long invalidBefore = now - firstUseTimeOut;
 
         long timeTillInvalid = nonce.timeStamp - invalidBefore;
         if (timeTillInvalid > 0) {
             if (invalidNonces.add(nonce.nonce)) {
-                executor.executeAfter(new InvalidNonceCleaner(nonce.nonce), timeTillInvalid, TimeUnit.MILLISECONDS);
+                TimerWheel.forThread(executor).schedule(new InvalidNonceCleaner(nonce.nonce), timeTillInvalid, TimeUnit.MILLISECONDS);
                 return true;
             } else {
                 return false;
@@ -466,7 +464,7 @@ public class SimpleNonceManager implements SessionNonceManager {
         @SuppressWarnings("unused")
         private final NonceHolder previousNonce;
         private byte[] sessionKey;
-        private Key executorKey;
+        private TimerWheel.Timeout executorKey;
 
         private Nonce(final String nonce) {
             this(nonce, -1, -1);
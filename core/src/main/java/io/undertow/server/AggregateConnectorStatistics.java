@@ -18,6 +18,8 @@
 
 package io.undertow.server;
 
+import io.undertow.util.LatencyHistogram;
+
 /**
  * @author Stuart Douglas
  */
@@ -125,4 +127,78 @@ public class AggregateConnectorStatistics implements ConnectorStatistics {
         }
         return count;
     }
+
+    @Override
+    public long getFullHandshakes() {
+        long count = 0;
+        for(ConnectorStatistics c : connectorStatistics) {
+            count += c.getFullHandshakes();
+        }
+        return count;
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        long count = 0;
+        for(ConnectorStatistics c : connectorStatistics) {
+            count += c.getResumedHandshakes();
+        }
+        return count;
+    }
+
+    @Override
+    public LatencyHistogram getRequestTimes() {
+        LatencyHistogram result = null;
+        for(ConnectorStatistics c : connectorStatistics) {
+            result = merge(result, c.getRequestTimes());
+        }
+        return result;
+    }
+
+    @Override
+    public LatencyHistogram getTimeToFirstByte() {
+        LatencyHistogram result = null;
+        for(ConnectorStatistics c : connectorStatistics) {
+            result = merge(result, c.getTimeToFirstByte());
+        }
+        return result;
+    }
+
+    @Override
+    public LatencyHistogram getRequestParseTimes() {
+        LatencyHistogram result = null;
+        for(ConnectorStatistics c : connectorStatistics) {
+            result = merge(result, c.getRequestParseTimes());
+        }
+        return result;
+    }
+
+    @Override
+    public LatencyHistogram getHandshakeTimes() {
+        LatencyHistogram result = null;
+        for(ConnectorStatistics c : connectorStatistics) {
+            result = merge(result, c.getHandshakeTimes());
+        }
+        return result;
+    }
+
+    @Override
+    public LatencyHistogram getHandshakeQueueTimes() {
+        LatencyHistogram result = null;
+        for(ConnectorStatistics c : connectorStatistics) {
+            result = merge(result, c.getHandshakeQueueTimes());
+        }
+        return result;
+    }
+
+    private static LatencyHistogram merge(LatencyHistogram result, LatencyHistogram histogram) {
+        if (histogram == null) {
+            return result;
+        }
+        if (result == null) {
+            result = new LatencyHistogram();
+        }
+        result.add(histogram);
+        return result;
+    }
 }
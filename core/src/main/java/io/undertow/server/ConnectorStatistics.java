@@ -18,6 +18,8 @@
 
 package io.undertow.server;
 
+import io.undertow.util.LatencyHistogram;
+
 /**
  * Connector level statistics
  *
@@ -93,4 +95,80 @@ public interface ConnectorStatistics {
      */
     long getMaxActiveRequests();
 
+    /**
+     * Only TLS listeners perform handshakes, for other listeners this is always zero.
+     *
+     * @return The number of TLS handshakes that created a new session
+     */
+    default long getFullHandshakes() {
+        return 0;
+    }
+
+    /**
+     * Only TLS listeners perform handshakes, for other listeners this is always zero.
+     *
+     * @return The number of TLS handshakes that resumed an existing session, either from the server session cache or
+     *         from a session ticket
+     */
+    default long getResumedHandshakes() {
+        return 0;
+    }
+
+    /**
+     *
+     * @return The fraction of TLS handshakes that resumed an existing session, between 0 and 1
+     */
+    default double getSessionResumptionRatio() {
+        final long resumed = getResumedHandshakes();
+        final long total = resumed + getFullHandshakes();
+        return total == 0 ? 0 : (double) resumed / total;
+    }
+
+    /**
+     *
+     * @return The time taken to process each request, from the request start time until the exchange completed, or
+     *         <code>null</code> if this connector does not record them. Request start times are only available if
+     *         {@link io.undertow.UndertowOptions#RECORD_REQUEST_START_TIME} is enabled.
+     */
+    default LatencyHistogram getRequestTimes() {
+        return null;
+    }
+
+    /**
+     *
+     * @return The time from the request start time until the response was committed, or <code>null</code> if this
+     *         connector does not record them. Request start times are only available if
+     *         {@link io.undertow.UndertowOptions#RECORD_REQUEST_START_TIME} is enabled.
+     */
+    default LatencyHistogram getTimeToFirstByte() {
+        return null;
+    }
+
+    /**
+     *
+     * @return The time taken to read and parse the request headers, from the first bytes of the request arriving
+     *         until the headers were complete, or <code>null</code> if this connector does not record them
+     */
+    default LatencyHistogram getRequestParseTimes() {
+        return null;
+    }
+
+    /**
+     *
+     * @return The time taken by TLS handshakes, from accepting the connection until the handshake completed, or
+     *         <code>null</code> if this connector does not record them
+     */
+    default LatencyHistogram getHandshakeTimes() {
+        return null;
+    }
+
+    /**
+     *
+     * @return The time that TLS handshake tasks waited for a thread in the delegated task executor, or
+     *         <code>null</code> if this connector does not record them
+     */
+    default LatencyHistogram getHandshakeQueueTimes() {
+        return null;
+    }
+
 }
@@ -19,6 +19,7 @@
 package io.undertow.server;
 
 import io.undertow.conduits.ByteActivityCallback;
+import io.undertow.util.LatencyHistogram;
 import io.undertow.util.StatusCodes;
 
 import java.util.concurrent.atomic.AtomicLongFieldUpdater;
@@ -38,6 +39,8 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
     private static final AtomicLongFieldUpdater<ConnectorStatisticsImpl> maxActiveConnectionsUpdater = AtomicLongFieldUpdater.newUpdater(ConnectorStatisticsImpl.class, "maxActiveConnections");
     private static final AtomicLongFieldUpdater<ConnectorStatisticsImpl> activeRequestsUpdater = AtomicLongFieldUpdater.newUpdater(ConnectorStatisticsImpl.class, "activeRequests");
     private static final AtomicLongFieldUpdater<ConnectorStatisticsImpl> maxActiveRequestsUpdater = AtomicLongFieldUpdater.newUpdater(ConnectorStatisticsImpl.class, "maxActiveRequests");
+    private static final AtomicLongFieldUpdater<ConnectorStatisticsImpl> fullHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(ConnectorStatisticsImpl.class, "fullHandshakes");
+    private static final AtomicLongFieldUpdater<ConnectorStatisticsImpl> resumedHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(ConnectorStatisticsImpl.class, "resumedHandshakes");
 
     private volatile long requestCount;
     private volatile long bytesSent;
@@ -49,6 +52,13 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
     private volatile long maxActiveConnections;
     private volatile long activeRequests;
     private volatile long maxActiveRequests;
+    private volatile long fullHandshakes;
+    private volatile long resumedHandshakes;
+    private final LatencyHistogram requestTimes = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LatencyHistogram requestParseTimes = new LatencyHistogram();
+    private final LatencyHistogram handshakeTimes = new LatencyHistogram();
+    private final LatencyHistogram handshakeQueueTimes = new LatencyHistogram();
 
     private final ExchangeCompletionListener completionListener = new ExchangeCompletionListener() {
         @Override
@@ -62,6 +72,7 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
                 if (start > 0) {
                     long elapsed = System.nanoTime() - start;
                     processingTimeUpdater.addAndGet(ConnectorStatisticsImpl.this, elapsed);
+                    requestTimes.record(elapsed);
                     long oldMax;
                     do {
                         oldMax = maxProcessingTimeUpdater.get(ConnectorStatisticsImpl.this);
@@ -77,6 +88,16 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
         }
     };
 
+    private final ResponseCommitListener commitListener = new ResponseCommitListener() {
+        @Override
+        public void beforeCommit(HttpServerExchange exchange) {
+            long start = exchange.getRequestStartTime();
+            if (start > 0) {
+                timeToFirstByte.record(System.nanoTime() - start);
+            }
+        }
+    };
+
     private final ByteActivityCallback bytesSentAccumulator = new BytesSentAccumulator();
     private final ByteActivityCallback bytesReceivedAccumulator = new BytesReceivedAccumulator();
 
@@ -120,6 +141,13 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
         processingTimeUpdater.set(this, 0);
         maxActiveConnectionsUpdater.set(this, 0);
         maxActiveRequestsUpdater.set(this, 0);
+        fullHandshakesUpdater.set(this, 0);
+        resumedHandshakesUpdater.set(this, 0);
+        requestTimes.reset();
+        timeToFirstByte.reset();
+        requestParseTimes.reset();
+        handshakeTimes.reset();
+        handshakeQueueTimes.reset();
         //we don't update active requests or connections, as these will still be live
     }
 
@@ -150,6 +178,18 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
             }
         } while (!maxActiveRequestsUpdater.compareAndSet(this, maxActiveRequests, current));
         exchange.addExchangeCompleteListener(completionListener);
+        if (exchange.getRequestStartTime() > 0) {
+            exchange.addResponseCommitListener(commitListener);
+        }
+    }
+
+    /**
+     * Called when the headers of a request have been parsed
+     *
+     * @param time The time in nanoseconds from the first bytes of the request arriving until the headers were complete
+     */
+    public void requestParsed(long time) {
+        requestParseTimes.record(time);
     }
 
     public ByteActivityCallback sentAccumulator() {
@@ -208,4 +248,63 @@ public class ConnectorStatisticsImpl implements ConnectorStatistics {
     public long getMaxActiveRequests() {
         return maxActiveRequests;
     }
+
+    @Override
+    public long getFullHandshakes() {
+        return fullHandshakes;
+    }
+
+    @Override
+    public long getResumedHandshakes() {
+        return resumedHandshakes;
+    }
+
+    @Override
+    public LatencyHistogram getRequestTimes() {
+        return requestTimes;
+    }
+
+    @Override
+    public LatencyHistogram getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    @Override
+    public LatencyHistogram getRequestParseTimes() {
+        return requestParseTimes;
+    }
+
+    @Override
+    public LatencyHistogram getHandshakeTimes() {
+        return handshakeTimes;
+    }
+
+    @Override
+    public LatencyHistogram getHandshakeQueueTimes() {
+        return handshakeQueueTimes;
+    }
+
+    /**
+     * Called when the initial TLS handshake for a connection has completed
+     *
+     * @param resumed <code>true</code> if an existing session was resumed
+     * @param time The time taken by the handshake in nanoseconds
+     */
+    public void handshakeCompleted(boolean resumed, long time) {
+        if (resumed) {
+            resumedHandshakesUpdater.incrementAndGet(this);
+        } else {
+            fullHandshakesUpdater.incrementAndGet(this);
+        }
+        handshakeTimes.record(time);
+    }
+
+    /**
+     * Called when a TLS handshake task starts running
+     *
+     * @param time The time in nanoseconds that the task waited to run
+     */
+    public void handshakeTaskStarted(long time) {
+        handshakeQueueTimes.record(time);
+    }
 }
@@ -20,6 +20,7 @@ package io.undertow.server;
 
 import io.undertow.predicate.Predicate;
 import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.server.handlers.RouteMetrics;
 import io.undertow.util.CopyOnWriteMap;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
@@ -56,6 +57,9 @@ public class RoutingHandler implements HttpHandler {
     // If this is true then path matches will be added to the query parameters for easy access by later handlers.
     private final boolean rewriteQueryParameters;
 
+    // If this is not null then matched requests are recorded against their method and path template.
+    private volatile RouteMetrics routeMetrics;
+
     public RoutingHandler(boolean rewriteQueryParameters) {
         this.rewriteQueryParameters = rewriteQueryParameters;
     }
@@ -78,6 +82,10 @@ public class RoutingHandler implements HttpHandler {
             return;
         }
         exchange.putAttachment(PathTemplateMatch.ATTACHMENT_KEY, match);
+        final RouteMetrics routeMetrics = this.routeMetrics;
+        if (routeMetrics != null) {
+            routeMetrics.record(exchange, exchange.getRequestMethod() + " " + match.getMatchedTemplate());
+        }
         if (rewriteQueryParameters) {
             for (Map.Entry<String, String> entry : match.getParameters().entrySet()) {
                 exchange.addQueryParam(entry.getKey(), entry.getValue());
@@ -275,6 +283,26 @@ public class RoutingHandler implements HttpHandler {
         return this;
     }
 
+    /**
+     * @return The metrics that matched requests are recorded in, or null if they are not recorded.
+     */
+    public RouteMetrics getRouteMetrics() {
+        return routeMetrics;
+    }
+
+    /**
+     * Sets the metrics that matched requests are recorded in. Requests are recorded against their method and the
+     * path template that matched them, for example <code>GET /users/{id}</code>. Requests that do not match a route
+     * are not recorded.
+     *
+     * @param routeMetrics The route metrics, or null to stop recording.
+     * @return This instance.
+     */
+    public RoutingHandler setRouteMetrics(RouteMetrics routeMetrics) {
+        this.routeMetrics = routeMetrics;
+        return this;
+    }
+
     private static class RoutingMatch {
 
         final List<HandlerHolder> predicatedHandlers = new CopyOnWriteArrayList<>();
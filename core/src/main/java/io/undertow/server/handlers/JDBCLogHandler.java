@@ -26,6 +26,8 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.builder.HandlerBuilder;
 import io.undertow.util.Headers;
+import io.undertow.util.WorkerUtils;
+import org.xnio.XnioIoThread;
 
 import java.net.InetSocketAddress;
 import java.sql.Connection;
@@ -34,37 +36,85 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Deque;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.sql.DataSource;
 
+/**
+ * A handler that writes access log messages to a database.
+ * <p>
+ * Messages are added to a bounded queue when the exchange completes, and are written by a task running in the worker
+ * thread pool using JDBC batch inserts of up to {@link #getBatchSize()} messages in a single transaction. If a batch
+ * fails its messages are retried individually, so one bad message does not lose the rest of the batch. If a flush
+ * interval is set the writer waits up to that long for a full batch before writing. If the queue is full the
+ * {@link OverflowPolicy} decides if messages are dropped or if the thread completing the exchange waits.
+ */
 public class JDBCLogHandler implements HttpHandler, Runnable {
 
+    public static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * What to do with a message if the queue of messages waiting to be written is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * The message is dropped
+         */
+        DROP,
+        /**
+         * The thread completing the exchange waits until there is room in the queue, and writes a batch itself if the
+         * writer is not running. This slows down request processing while the database is slow, so should only be
+         * used if losing messages is not acceptable.
+         */
+        BLOCK
+    }
+
     private final HttpHandler next;
     private final String formatString;
     private final ExchangeCompletionListener exchangeCompletionListener = new JDBCLogCompletionListener();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            executor.execute(JDBCLogHandler.this);
+        }
+    };
 
-    private final Deque<JDBCLogAttribute> pendingMessages;
+    private final BlockingQueue<JDBCLogAttribute> pendingMessages;
 
     //0 = not running
     //1 = queued
     //2 = running
+    //3 = waiting for the flush interval
     @SuppressWarnings("unused")
     private volatile int state = 0;
     @SuppressWarnings("unused")
     private volatile Executor executor;
+    private volatile XnioIoThread timerThread;
 
     private static final AtomicIntegerFieldUpdater<JDBCLogHandler> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(JDBCLogHandler.class, "state");
 
+    private final LongAdder writtenMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private final LongAdder failedMessages = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private volatile boolean droppedMessagesLogged;
+
     protected boolean useLongContentLength = false;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long flushInterval = 0;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
 
     private final DataSource dataSource;
 
@@ -86,6 +136,17 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
     }
 
     public JDBCLogHandler(final HttpHandler next, final String formatString, DataSource dataSource) {
+        this(next, formatString, dataSource, DEFAULT_MAX_QUEUE_SIZE);
+    }
+
+    /**
+     * @param maxQueueSize The maximum number of messages waiting to be written, once this is reached the
+     *                     {@link OverflowPolicy} applies
+     */
+    public JDBCLogHandler(final HttpHandler next, final String formatString, DataSource dataSource, int maxQueueSize) {
+        if (maxQueueSize < 1) {
+            throw new IllegalArgumentException("maxQueueSize must be at least 1");
+        }
         this.next = next;
         this.formatString = formatString;
         this.dataSource = dataSource;
@@ -101,7 +162,7 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         bytesField = "bytes";
         refererField = "referer";
         userAgentField = "userAgent";
-        this.pendingMessages = new ConcurrentLinkedDeque<>();
+        this.pendingMessages = new ArrayBlockingQueue<>(maxQueueSize);
     }
 
     @Override
@@ -151,93 +212,153 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
             jdbcLogAttribute.userAgent = exchange.getRequestHeaders().getFirst(Headers.USER_AGENT);
         }
 
-        this.pendingMessages.add(jdbcLogAttribute);
+        if (this.executor == null) {
+            this.timerThread = exchange.getIoThread();
+            this.executor = exchange.getConnection().getWorker();
+        }
+        if (enqueue(jdbcLogAttribute)) {
+            scheduleWrite();
+        }
+    }
+
+    private boolean enqueue(JDBCLogAttribute message) {
+        if (pendingMessages.offer(message)) {
+            return true;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            droppedMessages.increment();
+            if (!droppedMessagesLogged) {
+                droppedMessagesLogged = true;
+                UndertowLogger.ROOT_LOGGER.jdbcAccessLogQueueFull();
+            }
+            return false;
+        }
+        try {
+            while (!pendingMessages.offer(message, 10, TimeUnit.MILLISECONDS)) {
+                //all the threads the writer could run on may be waiting here, so write a batch on this thread
+                if (stateUpdater.compareAndSet(this, 0, 2) || stateUpdater.compareAndSet(this, 1, 2) || stateUpdater.compareAndSet(this, 3, 2)) {
+                    writeBatch();
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedMessages.increment();
+            return false;
+        }
+    }
+
+    private void scheduleWrite() {
         int state = stateUpdater.get(this);
         if (state == 0) {
-            if (stateUpdater.compareAndSet(this, 0, 1)) {
-                this.executor = exchange.getConnection().getWorker();
-                this.executor.execute(this);
+            if (flushInterval <= 0 || isBatchReady()) {
+                if (stateUpdater.compareAndSet(this, 0, 1)) {
+                    executor.execute(this);
+                }
+            } else if (stateUpdater.compareAndSet(this, 0, 3)) {
+                WorkerUtils.executeAfter(timerThread, flushTask, flushInterval, TimeUnit.MILLISECONDS);
+            }
+        } else if (state == 3 && isBatchReady()) {
+            //a full batch is waiting, or the queue is full, so don't wait for the flush interval
+            if (stateUpdater.compareAndSet(this, 3, 1)) {
+                executor.execute(this);
             }
         }
     }
 
+    /**
+     *
+     * @return <code>true</code> if the messages should be written without waiting for the flush interval. This is
+     * also the case if the queue is full but smaller than the batch size, as no more messages can be added.
+     */
+    private boolean isBatchReady() {
+        return pendingMessages.size() >= batchSize || pendingMessages.remainingCapacity() == 0;
+    }
+
     /**
      * insert the log record to database
      */
     @Override
     public void run() {
-        if (!stateUpdater.compareAndSet(this, 1, 2)) {
+        //the flush task may run after the batch has already been written, in which case there is nothing to do
+        if (!stateUpdater.compareAndSet(this, 1, 2) && !stateUpdater.compareAndSet(this, 3, 2)) {
             return;
         }
+        writeBatch();
+    }
 
-        List<JDBCLogAttribute> messages = new ArrayList<>();
-        JDBCLogAttribute msg = null;
-
-        //only grab at most 1000 messages at a time
-        for (int i = 0; i < 1000; ++i) {
-            msg = pendingMessages.poll();
-            if (msg == null) {
-                break;
-            }
-            messages.add(msg);
-        }
+    /**
+     * Writes a single batch of messages. The caller must have changed the state to running.
+     */
+    private void writeBatch() {
+        final int batchSize = this.batchSize;
+        List<JDBCLogAttribute> messages = new ArrayList<>(Math.min(batchSize, pendingMessages.size()));
+        pendingMessages.drainTo(messages, batchSize);
         try {
             if (!messages.isEmpty()) {
-                writeMessage(messages);
+                writeMessages(messages);
             }
         } finally {
-            Executor executor = this.executor;
             stateUpdater.set(this, 0);
             //check to see if there is still more messages
             //if so then run this again
             if (!pendingMessages.isEmpty()) {
-                if (stateUpdater.compareAndSet(this, 0, 1)) {
-                    executor.execute(this);
-                }
+                scheduleWrite();
             }
         }
     }
 
-    private void writeMessage(List<JDBCLogAttribute> messages) {
+    private void writeMessages(List<JDBCLogAttribute> messages) {
         PreparedStatement ps = null;
         Connection conn = null;
+        int processed = 0;
         try {
             conn = dataSource.getConnection();
-            conn.setAutoCommit(true);
             ps = prepareStatement(conn);
-            for (JDBCLogAttribute jdbcLogAttribute : messages) {
+            if (messages.size() > 1) {
+                conn.setAutoCommit(false);
+                try {
+                    for (JDBCLogAttribute jdbcLogAttribute : messages) {
+                        setParameters(ps, jdbcLogAttribute);
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    conn.commit();
+                    writtenMessages.add(messages.size());
+                    batches.increment();
+                    processed = messages.size();
+                } catch (SQLException e) {
+                    //a single bad message fails the whole batch, so retry them one at a time
+                    UndertowLogger.ROOT_LOGGER.debug("Failed to write JDBC access log batch, writing messages individually", e);
+                    conn.rollback();
+                    ps.clearBatch();
+                }
+            }
+            conn.setAutoCommit(true);
+            for (; processed < messages.size(); ++processed) {
+                JDBCLogAttribute jdbcLogAttribute = messages.get(processed);
+                boolean written = false;
                 int numberOfTries = 2;
-                while (numberOfTries > 0) {
+                while (numberOfTries > 0 && !written) {
                     try {
                         ps.clearParameters();
-                        ps.setString(1, jdbcLogAttribute.remoteHost);
-                        ps.setString(2, jdbcLogAttribute.user);
-                        ps.setTimestamp(3, jdbcLogAttribute.timestamp);
-                        ps.setString(4, jdbcLogAttribute.query);
-                        ps.setInt(5, jdbcLogAttribute.status);
-                        if (useLongContentLength) {
-                            ps.setLong(6, jdbcLogAttribute.bytes);
-                        } else {
-                            if (jdbcLogAttribute.bytes > Integer.MAX_VALUE) {
-                                jdbcLogAttribute.bytes = -1;
-                            }
-                            ps.setInt(6, (int) jdbcLogAttribute.bytes);
-                        }
-                        ps.setString(7, jdbcLogAttribute.virtualHost);
-                        ps.setString(8, jdbcLogAttribute.method);
-                        ps.setString(9, jdbcLogAttribute.referer);
-                        ps.setString(10, jdbcLogAttribute.userAgent);
-
+                        setParameters(ps, jdbcLogAttribute);
                         ps.executeUpdate();
-                        numberOfTries = 0;
+                        written = true;
                     } catch (SQLException e) {
                         UndertowLogger.ROOT_LOGGER.failedToWriteJdbcAccessLog(e);
                     }
                     numberOfTries--;
                 }
+                if (written) {
+                    writtenMessages.increment();
+                } else {
+                    failedMessages.increment();
+                }
             }
             ps.close();
         } catch (SQLException e) {
+            failedMessages.add(messages.size() - processed);
             UndertowLogger.ROOT_LOGGER.errorWritingJDBCLog(e);
         } finally {
             if (ps != null) {
@@ -257,6 +378,26 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         }
     }
 
+    private void setParameters(PreparedStatement ps, JDBCLogAttribute jdbcLogAttribute) throws SQLException {
+        ps.setString(1, jdbcLogAttribute.remoteHost);
+        ps.setString(2, jdbcLogAttribute.user);
+        ps.setTimestamp(3, jdbcLogAttribute.timestamp);
+        ps.setString(4, jdbcLogAttribute.query);
+        ps.setInt(5, jdbcLogAttribute.status);
+        if (useLongContentLength) {
+            ps.setLong(6, jdbcLogAttribute.bytes);
+        } else {
+            if (jdbcLogAttribute.bytes > Integer.MAX_VALUE) {
+                jdbcLogAttribute.bytes = -1;
+            }
+            ps.setInt(6, (int) jdbcLogAttribute.bytes);
+        }
+        ps.setString(7, jdbcLogAttribute.virtualHost);
+        ps.setString(8, jdbcLogAttribute.method);
+        ps.setString(9, jdbcLogAttribute.referer);
+        ps.setString(10, jdbcLogAttribute.userAgent);
+    }
+
     /**
      * For tests only. Blocks the current thread until all messages are written Just does a busy wait.
      * <p>
@@ -304,6 +445,75 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         this.useLongContentLength = useLongContentLength;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of messages written in a single batch insert
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets how long in milliseconds the writer waits for a full batch before writing the messages that are queued. If
+     * this is zero, which is the default, messages are written as soon as possible.
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return The number of messages waiting to be written
+     */
+    public int getQueueSize() {
+        return pendingMessages.size();
+    }
+
+    /**
+     * @return The number of messages that have been written to the database
+     */
+    public long getWrittenMessages() {
+        return writtenMessages.sum();
+    }
+
+    /**
+     * @return The number of messages that were dropped because the queue was full
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * @return The number of messages that could not be written to the database
+     */
+    public long getFailedMessages() {
+        return failedMessages.sum();
+    }
+
+    /**
+     * @return The number of batch inserts that have been executed
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
     public String getTableName() {
         return tableName;
     }
@@ -422,6 +632,10 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
             params.put("bytesField", String.class);
             params.put("refererField", String.class);
             params.put("userAgentField", String.class);
+            params.put("maxQueueSize", Integer.class);
+            params.put("batchSize", Integer.class);
+            params.put("flushInterval", Integer.class);
+            params.put("overflowPolicy", String.class);
             return params;
         }
 
@@ -441,7 +655,8 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
             try {
                 DataSource ds = (DataSource) new InitialContext().lookup((String) config.get("datasource"));
                 String format = (String) config.get("format");
-                return new Wrapper(format, ds, (String)config.get("tableName"), (String)config.get("remoteHostField"), (String)config.get("userField"), (String)config.get("timestampField"), (String)config.get("virtualHostField"), (String)config.get("methodField"), (String)config.get("queryField"), (String)config.get("statusField"), (String)config.get("bytesField"), (String)config.get("refererField"), (String)config.get("userAgentField"));
+                return new Wrapper(format, ds, (String)config.get("tableName"), (String)config.get("remoteHostField"), (String)config.get("userField"), (String)config.get("timestampField"), (String)config.get("virtualHostField"), (String)config.get("methodField"), (String)config.get("queryField"), (String)config.get("statusField"), (String)config.get("bytesField"), (String)config.get("refererField"), (String)config.get("userAgentField"),
+                        (Integer) config.get("maxQueueSize"), (Integer) config.get("batchSize"), (Integer) config.get("flushInterval"), (String) config.get("overflowPolicy"));
             } catch (NamingException ex) {
                 throw UndertowMessages.MESSAGES.datasourceNotFound(datasourceName);
             }
@@ -470,8 +685,13 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
         private final String bytesField;
         private final String refererField;
         private final String userAgentField;
+        private final Integer maxQueueSize;
+        private final Integer batchSize;
+        private final Integer flushInterval;
+        private final OverflowPolicy overflowPolicy;
 
-        private Wrapper(String format, DataSource datasource, String tableName, String remoteHostField, String userField, String timestampField, String virtualHostField, String methodField, String queryField, String statusField, String bytesField, String refererField, String userAgentField) {
+        private Wrapper(String format, DataSource datasource, String tableName, String remoteHostField, String userField, String timestampField, String virtualHostField, String methodField, String queryField, String statusField, String bytesField, String refererField, String userAgentField,
+                        Integer maxQueueSize, Integer batchSize, Integer flushInterval, String overflowPolicy) {
             this.datasource = datasource;
             this.tableName = tableName;
             this.remoteHostField = remoteHostField;
@@ -484,12 +704,16 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
             this.bytesField = bytesField;
             this.refererField = refererField;
             this.userAgentField = userAgentField;
+            this.maxQueueSize = maxQueueSize;
+            this.batchSize = batchSize;
+            this.flushInterval = flushInterval;
+            this.overflowPolicy = overflowPolicy == null ? null : OverflowPolicy.valueOf(overflowPolicy.toUpperCase(Locale.ENGLISH));
             this.format = "combined".equals(format) ? "combined" : "common";
         }
 
         @Override
         public HttpHandler wrap(HttpHandler handler) {
-            JDBCLogHandler jdbc = new JDBCLogHandler(handler, format, datasource);
+            JDBCLogHandler jdbc = new JDBCLogHandler(handler, format, datasource, maxQueueSize == null ? DEFAULT_MAX_QUEUE_SIZE : maxQueueSize);
             if(tableName != null) {
                 jdbc.setTableName(tableName);
             }
@@ -523,6 +747,15 @@ public class JDBCLogHandler implements HttpHandler, Runnable {
             if(userAgentField != null) {
                 jdbc.setUserAgentField(userAgentField);
             }
+            if(batchSize != null) {
+                jdbc.setBatchSize(batchSize);
+            }
+            if(flushInterval != null) {
+                jdbc.setFlushInterval(flushInterval);
+            }
+            if(overflowPolicy != null) {
+                jdbc.setOverflowPolicy(overflowPolicy);
+            }
 
             return jdbc;
         }
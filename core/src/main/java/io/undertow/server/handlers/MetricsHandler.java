@@ -24,8 +24,8 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
-import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handler that records some metrics
@@ -72,21 +72,21 @@ public class MetricsHandler implements HttpHandler {
         return new MetricResult(this.totalResult);
     }
 
+    /**
+     * The metrics recorded by a {@link MetricsHandler}.
+     * <p>
+     * Sums are kept in {@link LongAdder}s and the minimum and maximum in {@link LongAccumulator}s, so threads that
+     * record requests concurrently do not contend on a single field. The values are merged when they are read.
+     */
     public static class MetricResult {
 
-        private static final AtomicLongFieldUpdater<MetricResult> totalRequestTimeUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalRequestTime");
-        private static final AtomicIntegerFieldUpdater<MetricResult> maxRequestTimeUpdater = AtomicIntegerFieldUpdater.newUpdater(MetricResult.class, "maxRequestTime");
-        private static final AtomicIntegerFieldUpdater<MetricResult> minRequestTimeUpdater = AtomicIntegerFieldUpdater.newUpdater(MetricResult.class, "minRequestTime");
-        private static final AtomicLongFieldUpdater<MetricResult> invocationsUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalRequests");
-        private static final AtomicLongFieldUpdater<MetricResult> errorsUpdater = AtomicLongFieldUpdater.newUpdater(MetricResult.class, "totalErrors");
-
         private final Date metricsStartDate;
 
-        private volatile long totalRequestTime;
-        private volatile int maxRequestTime;
-        private volatile int minRequestTime = -1;
-        private volatile long totalRequests;
-        private volatile long totalErrors;
+        private final LongAdder totalRequestTime = new LongAdder();
+        private final LongAccumulator maxRequestTime = new LongAccumulator(Math::max, 0);
+        private final LongAccumulator minRequestTime = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        private final LongAdder totalRequests = new LongAdder();
+        private final LongAdder totalErrors = new LongAdder();
 
         public MetricResult(Date metricsStartDate) {
             this.metricsStartDate = metricsStartDate;
@@ -94,36 +94,22 @@ public class MetricsHandler implements HttpHandler {
 
         public MetricResult(MetricResult copy) {
             this.metricsStartDate = copy.metricsStartDate;
-            this.totalRequestTime = copy.totalRequestTime;
-            this.maxRequestTime = copy.maxRequestTime;
-            this.minRequestTime = copy.minRequestTime;
-            this.totalRequests = copy.totalRequests;
-            this.totalErrors = copy.totalErrors;
+            this.totalRequestTime.add(copy.totalRequestTime.sum());
+            this.maxRequestTime.accumulate(copy.maxRequestTime.get());
+            this.minRequestTime.accumulate(copy.minRequestTime.get());
+            this.totalRequests.add(copy.totalRequests.sum());
+            this.totalErrors.add(copy.totalErrors.sum());
         }
 
         void update(final int requestTime, int statusCode) {
-            totalRequestTimeUpdater.addAndGet(this, requestTime);
-            int maxRequestTime;
-            do {
-                maxRequestTime = this.maxRequestTime;
-                if (requestTime < maxRequestTime) {
-                    break;
-                }
-            } while (!maxRequestTimeUpdater.compareAndSet(this, maxRequestTime, requestTime));
-
-            int minRequestTime;
-            do {
-                minRequestTime = this.minRequestTime;
-                if (requestTime > minRequestTime && minRequestTime != -1) {
-                    break;
-                }
-            } while (!minRequestTimeUpdater.compareAndSet(this, minRequestTime, requestTime));
-            invocationsUpdater.incrementAndGet(this);
+            totalRequestTime.add(requestTime);
+            //the accumulators only write if the value changes, so once the extremes have been seen this is read only
+            maxRequestTime.accumulate(requestTime);
+            minRequestTime.accumulate(requestTime);
+            totalRequests.increment();
             if(statusCode >= 400) {
-                errorsUpdater.incrementAndGet(this);
+                totalErrors.increment();
             }
-
-
         }
 
         public Date getMetricsStartDate() {
@@ -131,23 +117,24 @@ public class MetricsHandler implements HttpHandler {
         }
 
         public long getTotalRequestTime() {
-            return totalRequestTime;
+            return totalRequestTime.sum();
         }
 
         public int getMaxRequestTime() {
-            return maxRequestTime;
+            return (int) maxRequestTime.get();
         }
 
         public int getMinRequestTime() {
-            return minRequestTime;
+            final long min = minRequestTime.get();
+            return min == Long.MAX_VALUE ? -1 : (int) min;
         }
 
         public long getTotalRequests() {
-            return totalRequests;
+            return totalRequests.sum();
         }
 
         public long getTotalErrors() {
-            return totalErrors;
+            return totalErrors.sum();
         }
     }
 }
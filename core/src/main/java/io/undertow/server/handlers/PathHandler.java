@@ -43,6 +43,8 @@ public class PathHandler implements HttpHandler {
 
     private final LRUCache<String, PathMatcher.PathMatch<HttpHandler>> cache;
 
+    private volatile RouteMetrics routeMetrics;
+
     public PathHandler(final HttpHandler defaultHandler) {
         this(0);
         pathMatcher.addPrefixPath("/", defaultHandler);
@@ -93,6 +95,10 @@ public class PathHandler implements HttpHandler {
         if(hit) {
             cache.add(exchange.getRelativePath(), match);
         }
+        final RouteMetrics routeMetrics = this.routeMetrics;
+        if(routeMetrics != null) {
+            routeMetrics.record(exchange, match.getMatched().isEmpty() ? "/" : match.getMatched());
+        }
         exchange.setRelativePath(match.getRemaining());
         if(exchange.getResolvedPath().isEmpty()) {
             //first path handler, we can just use the matched part
@@ -177,4 +183,20 @@ public class PathHandler implements HttpHandler {
         pathMatcher.clearPaths();
         return this;
     }
+
+    public RouteMetrics getRouteMetrics() {
+        return routeMetrics;
+    }
+
+    /**
+     * Sets the metrics that requests are recorded in. Requests are recorded against the prefix or exact path that
+     * matched them, and requests that are handled by the default handler are recorded against <code>/</code>.
+     *
+     * @param routeMetrics The route metrics, or <code>null</code> to stop recording
+     * @return This handler
+     */
+    public PathHandler setRouteMetrics(RouteMetrics routeMetrics) {
+        this.routeMetrics = routeMetrics;
+        return this;
+    }
 }
@@ -47,6 +47,8 @@ public class PathTemplateHandler implements HttpHandler {
 
     private final PathTemplateMatcher<HttpHandler> pathTemplateMatcher = new PathTemplateMatcher<>();
 
+    private volatile RouteMetrics routeMetrics;
+
     public PathTemplateHandler() {
         this(true);
     }
@@ -71,6 +73,10 @@ public class PathTemplateHandler implements HttpHandler {
             next.handleRequest(exchange);
             return;
         }
+        final RouteMetrics routeMetrics = this.routeMetrics;
+        if (routeMetrics != null) {
+            routeMetrics.record(exchange, match.getMatchedTemplate());
+        }
         exchange.putAttachment(PATH_TEMPLATE_MATCH, new PathTemplateMatch(match.getMatchedTemplate(), match.getParameters()));
         exchange.putAttachment(io.undertow.util.PathTemplateMatch.ATTACHMENT_KEY, new io.undertow.util.PathTemplateMatch(match.getMatchedTemplate(), match.getParameters()));
         if (rewriteQueryParameters) {
@@ -91,6 +97,22 @@ public class PathTemplateHandler implements HttpHandler {
         return this;
     }
 
+    public RouteMetrics getRouteMetrics() {
+        return routeMetrics;
+    }
+
+    /**
+     * Sets the metrics that requests are recorded in. Requests are recorded against the template that matched them,
+     * requests that do not match a template are not recorded.
+     *
+     * @param routeMetrics The route metrics, or <code>null</code> to stop recording
+     * @return This handler
+     */
+    public PathTemplateHandler setRouteMetrics(RouteMetrics routeMetrics) {
+        this.routeMetrics = routeMetrics;
+        return this;
+    }
+
     @Override
     public String toString() {
         Set<PathTemplate> paths = pathTemplateMatcher.getPathTemplates();
@@ -0,0 +1,184 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.LatencyHistogram;
+
+/**
+ * Per route metrics, used by the routing handlers to record requests against the route that matched them.
+ * <p>
+ * Routes are identified by the template or path they were registered with rather than the request path, so the
+ * number of entries is bounded by the number of registered routes. A single instance can be shared between several
+ * handlers, in which case routes with the same name are recorded together.
+ *
+ * @see io.undertow.server.RoutingHandler#setRouteMetrics(RouteMetrics)
+ * @see PathTemplateHandler#setRouteMetrics(RouteMetrics)
+ * @see PathHandler#setRouteMetrics(RouteMetrics)
+ */
+public class RouteMetrics {
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<>();
+    private volatile Date metricsStartDate = new Date();
+
+    /**
+     * Records the exchange against the given route once it completes
+     *
+     * @param exchange The exchange
+     * @param route    The route that matched the exchange
+     */
+    public void record(final HttpServerExchange exchange, final String route) {
+        if (exchange.isComplete()) {
+            return;
+        }
+        Route r = routes.get(route);
+        if (r == null) {
+            r = routes.computeIfAbsent(route, Route::new);
+        }
+        exchange.addExchangeCompleteListener(new RouteCompletionListener(r, System.nanoTime()));
+    }
+
+    /**
+     *
+     * @return A snapshot of the metrics of all routes that have been recorded, sorted by route
+     */
+    public Map<String, RouteResult> getMetrics() {
+        final Map<String, RouteResult> result = new TreeMap<>();
+        for (Route route : routes.values()) {
+            result.put(route.name, new RouteResult(route));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     *
+     * @param route The route
+     * @return A snapshot of the metrics of the route, or <code>null</code> if nothing has been recorded for it
+     */
+    public RouteResult getMetrics(final String route) {
+        final Route r = routes.get(route);
+        return r == null ? null : new RouteResult(r);
+    }
+
+    public Date getMetricsStartDate() {
+        return metricsStartDate;
+    }
+
+    public void reset() {
+        routes.clear();
+        metricsStartDate = new Date();
+    }
+
+    private static final class Route {
+
+        final String name;
+        final LongAdder requests = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram requestTimes = new LatencyHistogram();
+
+        Route(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class RouteCompletionListener implements ExchangeCompletionListener {
+
+        private final Route route;
+        private final long start;
+
+        RouteCompletionListener(Route route, long start) {
+            this.route = route;
+            this.start = start;
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                route.requestTimes.record(System.nanoTime() - start);
+                route.requests.increment();
+                if (exchange.getStatusCode() >= 400) {
+                    route.errors.increment();
+                }
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
+    /**
+     * A snapshot of the metrics of a single route
+     */
+    public static final class RouteResult {
+
+        private final String route;
+        private final long totalRequests;
+        private final long totalErrors;
+        private final LatencyHistogram requestTimes;
+
+        RouteResult(Route route) {
+            this.route = route.name;
+            this.requestTimes = route.requestTimes.snapshot();
+            this.totalRequests = route.requests.sum();
+            this.totalErrors = route.errors.sum();
+        }
+
+        public String getRoute() {
+            return route;
+        }
+
+        public long getTotalRequests() {
+            return totalRequests;
+        }
+
+        /**
+         *
+         * @return The number of requests that completed with a status code of 400 or above
+         */
+        public long getTotalErrors() {
+            return totalErrors;
+        }
+
+        /**
+         *
+         * @return The request processing times of this route, in nanoseconds
+         */
+        public LatencyHistogram getRequestTimes() {
+            return requestTimes;
+        }
+
+        @Override
+        public String toString() {
+            return "RouteResult{" +
+                    "route='" + route + '\'' +
+                    ", totalRequests=" + totalRequests +
+                    ", totalErrors=" + totalErrors +
+                    ", requestTimes=" + requestTimes +
+                    '}';
+        }
+    }
+}
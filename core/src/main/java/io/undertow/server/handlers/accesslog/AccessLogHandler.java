@@ -89,6 +89,13 @@ import io.undertow.server.handlers.builder.HandlerBuilder;
  * <li><code>%{r,xxx}</code> xxx is an attribute in the ServletRequest
  * <li><code>%{s,xxx}</code> xxx is an attribute in the HttpSession
  * </ul>
+ * <p>
+ * A format can also be compiled with {@link CompiledAccessLogFormat#compile(String, ClassLoader)}, which produces the
+ * same messages with fewer intermediate strings. In the handler language this is enabled with
+ * <code>access-log(format='common', compiled=true)</code>.
+ * <p>
+ * Messages can be written as JSON objects using {@link JsonAccessLogFormat}. In the handler language the default
+ * field set is selected with <code>access-log(format='json')</code>.
  *
  * @author Stuart Douglas
  */
@@ -110,13 +117,21 @@ public class AccessLogHandler implements HttpHandler {
         this.accessLogReceiver = accessLogReceiver;
         this.predicate = predicate;
         this.formatString = handleCommonNames(formatString);
-        this.tokens = ExchangeAttributes.parser(classLoader, new SubstituteEmptyWrapper("-")).parse(this.formatString);
+        this.tokens = parseFormat(this.formatString, classLoader);
     }
 
+    /**
+     * Creates a handler that logs the value of the given attribute. The format string is only used to describe the
+     * handler, so names such as <code>json</code> are not interpreted.
+     */
     public AccessLogHandler(final HttpHandler next, final AccessLogReceiver accessLogReceiver, String formatString, final ExchangeAttribute attribute) {
         this(next, accessLogReceiver, formatString, attribute, Predicates.truePredicate());
     }
 
+    /**
+     * Creates a handler that logs the value of the given attribute. The format string is only used to describe the
+     * handler, so names such as <code>json</code> are not interpreted.
+     */
     public AccessLogHandler(final HttpHandler next, final AccessLogReceiver accessLogReceiver, String formatString, final ExchangeAttribute attribute, Predicate predicate) {
         this.next = next;
         this.accessLogReceiver = accessLogReceiver;
@@ -127,7 +142,7 @@ public class AccessLogHandler implements HttpHandler {
 
 
 
-    private static String handleCommonNames(String formatString) {
+    static String handleCommonNames(String formatString) {
         if(formatString.equals("common")) {
             return "%h %l %u %t \"%r\" %s %b";
         } if(formatString.equals("commonv")) {
@@ -142,6 +157,16 @@ public class AccessLogHandler implements HttpHandler {
         return formatString;
     }
 
+    /**
+     * Parses the format, or creates the default {@link JsonAccessLogFormat} for <code>json</code>
+     */
+    static ExchangeAttribute parseFormat(String formatString, ClassLoader classLoader) {
+        if (JsonAccessLogFormat.JSON_FORMAT_NAME.equals(formatString)) {
+            return JsonAccessLogFormat.defaultFormat(classLoader);
+        }
+        return ExchangeAttributes.parser(classLoader, new SubstituteEmptyWrapper("-")).parse(formatString);
+    }
+
 
     @Override
     public void handleRequest(final HttpServerExchange exchange) throws Exception {
@@ -181,6 +206,7 @@ public class AccessLogHandler implements HttpHandler {
             Map<String, Class<?>> params = new HashMap<>();
             params.put("format", String.class);
             params.put("category", String.class);
+            params.put("compiled", Boolean.class);
             return params;
         }
 
@@ -196,7 +222,8 @@ public class AccessLogHandler implements HttpHandler {
 
         @Override
         public HandlerWrapper build(Map<String, Object> config) {
-            return new Wrapper((String) config.get("format"), (String) config.get("category"));
+            Boolean compiled = (Boolean) config.get("compiled");
+            return new Wrapper((String) config.get("format"), (String) config.get("category"), compiled != null && compiled);
         }
 
         @Override
@@ -210,19 +237,26 @@ public class AccessLogHandler implements HttpHandler {
 
         private final String format;
         private final String category;
+        private final boolean compiled;
 
-        private Wrapper(String format, String category) {
+        private Wrapper(String format, String category, boolean compiled) {
             this.format = format;
             this.category = category;
+            this.compiled = compiled;
         }
 
         @Override
         public HttpHandler wrap(HttpHandler handler) {
+            final AccessLogReceiver receiver;
             if (category == null || category.trim().isEmpty()) {
-                return new AccessLogHandler(handler, new JBossLoggingAccessLogReceiver(), format, Wrapper.class.getClassLoader());
+                receiver = new JBossLoggingAccessLogReceiver();
             } else {
-                return new AccessLogHandler(handler, new JBossLoggingAccessLogReceiver(category), format, Wrapper.class.getClassLoader());
+                receiver = new JBossLoggingAccessLogReceiver(category);
+            }
+            if (compiled && !JsonAccessLogFormat.JSON_FORMAT_NAME.equals(format)) {
+                return new AccessLogHandler(handler, receiver, format, CompiledAccessLogFormat.compile(format, Wrapper.class.getClassLoader()));
             }
+            return new AccessLogHandler(handler, receiver, format, Wrapper.class.getClassLoader());
         }
     }
 }
@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.undertow.attribute.ConstantExchangeAttribute;
+import io.undertow.attribute.DateTimeAttribute;
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.ExchangeAttributes;
+import io.undertow.attribute.QueryStringAttribute;
+import io.undertow.attribute.ReadOnlyAttributeException;
+import io.undertow.attribute.RequestHeaderAttribute;
+import io.undertow.attribute.RequestLineAttribute;
+import io.undertow.attribute.RequestMethodAttribute;
+import io.undertow.attribute.RequestProtocolAttribute;
+import io.undertow.attribute.RequestURLAttribute;
+import io.undertow.attribute.ResponseCodeAttribute;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.DateUtils;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.HttpString;
+
+/**
+ * An access log format that has been compiled into a list of specialised segments, which append their values to a
+ * reused per thread buffer.
+ * <p>
+ * This produces the same output as the attribute that {@link AccessLogHandler} parses from a format string, including
+ * the replacement of empty values with <code>-</code>, but avoids creating an intermediate string for each attribute.
+ * Adjacent literals are merged, the request line, method, protocol, status code, query string, URL and request
+ * headers are appended directly from the exchange, and the common log format date is only formatted once per second.
+ * Any other attribute is read through {@link ExchangeAttribute#readAttribute(HttpServerExchange)}.
+ */
+public class CompiledAccessLogFormat implements ExchangeAttribute {
+
+    private static final String EMPTY_SUBSTITUTE = "-";
+    /**
+     * Buffers that have grown beyond this are not reused, so an occasional large message does not stay in memory
+     */
+    private static final int MAX_RETAINED_BUFFER = 8 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    private final String formatString;
+    private final Segment[] segments;
+
+    private CompiledAccessLogFormat(String formatString, Segment[] segments) {
+        this.formatString = formatString;
+        this.segments = segments;
+    }
+
+    /**
+     * Compiles an access log format string. The common format names supported by {@link AccessLogHandler}, such as
+     * <code>common</code> and <code>combined</code>, can be used.
+     *
+     * @param formatString The format string
+     * @param classLoader  The class loader used to find attribute builders
+     * @return The compiled format
+     */
+    public static CompiledAccessLogFormat compile(final String formatString, final ClassLoader classLoader) {
+        final String format = AccessLogHandler.handleCommonNames(formatString);
+        final List<ExchangeAttribute> tokens = ExchangeAttributes.parser(classLoader).parseTokens(format);
+        final List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = null;
+        for (ExchangeAttribute token : tokens) {
+            if (token instanceof ConstantExchangeAttribute) {
+                if (literal == null) {
+                    literal = new StringBuilder();
+                }
+                final String value = token.readAttribute(null);
+                literal.append(value == null || value.isEmpty() ? EMPTY_SUBSTITUTE : value);
+                continue;
+            }
+            if (literal != null) {
+                segments.add(new LiteralSegment(literal.toString()));
+                literal = null;
+            }
+            segments.add(segment(token));
+        }
+        if (literal != null) {
+            segments.add(new LiteralSegment(literal.toString()));
+        }
+        return new CompiledAccessLogFormat(format, segments.toArray(new Segment[segments.size()]));
+    }
+
+    private static Segment segment(final ExchangeAttribute token) {
+        if (token == RequestLineAttribute.INSTANCE) {
+            return RequestLineSegment.INSTANCE;
+        } else if (token == ResponseCodeAttribute.INSTANCE) {
+            return StatusCodeSegment.INSTANCE;
+        } else if (token == RequestMethodAttribute.INSTANCE) {
+            return MethodSegment.INSTANCE;
+        } else if (token == RequestProtocolAttribute.INSTANCE) {
+            return ProtocolSegment.INSTANCE;
+        } else if (token == RequestURLAttribute.INSTANCE) {
+            return RequestURLSegment.INSTANCE;
+        } else if (token == QueryStringAttribute.INSTANCE) {
+            return QueryStringSegment.WITH_QUESTION_MARK;
+        } else if (token == QueryStringAttribute.BARE_INSTANCE) {
+            return QueryStringSegment.BARE;
+        } else if (token == DateTimeAttribute.INSTANCE) {
+            return new CommonLogDateSegment();
+        } else if (token instanceof RequestHeaderAttribute) {
+            return new RequestHeaderSegment(((RequestHeaderAttribute) token).getRequestHeader());
+        }
+        return new AttributeSegment(token);
+    }
+
+    @Override
+    public String readAttribute(final HttpServerExchange exchange) {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED_BUFFER) {
+            sb = new StringBuilder(256);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        for (Segment segment : segments) {
+            segment.append(exchange, sb);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
+        throw new ReadOnlyAttributeException("access log format", newValue);
+    }
+
+    public String getFormatString() {
+        return formatString;
+    }
+
+    @Override
+    public String toString() {
+        return formatString;
+    }
+
+    interface Segment {
+
+        void append(HttpServerExchange exchange, StringBuilder sb);
+
+    }
+
+    private static final class LiteralSegment implements Segment {
+
+        private final String value;
+
+        LiteralSegment(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            sb.append(value);
+        }
+    }
+
+    private static final class AttributeSegment implements Segment {
+
+        private final ExchangeAttribute attribute;
+
+        AttributeSegment(ExchangeAttribute attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            final String value = attribute.readAttribute(exchange);
+            sb.append(value == null || value.isEmpty() ? EMPTY_SUBSTITUTE : value);
+        }
+    }
+
+    private enum RequestLineSegment implements Segment {
+        INSTANCE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            sb.append(exchange.getRequestMethod().toString())
+                    .append(' ')
+                    .append(exchange.getRequestURI());
+            final String queryString = exchange.getQueryString();
+            if (!queryString.isEmpty()) {
+                sb.append('?').append(queryString);
+            }
+            sb.append(' ').append(exchange.getProtocol().toString());
+        }
+    }
+
+    private enum StatusCodeSegment implements Segment {
+        INSTANCE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            sb.append(exchange.getStatusCode());
+        }
+    }
+
+    private enum MethodSegment implements Segment {
+        INSTANCE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            appendOrSubstitute(sb, exchange.getRequestMethod().toString());
+        }
+    }
+
+    private enum ProtocolSegment implements Segment {
+        INSTANCE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            appendOrSubstitute(sb, exchange.getProtocol().toString());
+        }
+    }
+
+    private enum RequestURLSegment implements Segment {
+        INSTANCE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            appendOrSubstitute(sb, exchange.getRequestURI());
+        }
+    }
+
+    private enum QueryStringSegment implements Segment {
+        WITH_QUESTION_MARK,
+        BARE;
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            final String queryString = exchange.getQueryString();
+            if (queryString.isEmpty()) {
+                sb.append(EMPTY_SUBSTITUTE);
+            } else {
+                if (this == WITH_QUESTION_MARK) {
+                    sb.append('?');
+                }
+                sb.append(queryString);
+            }
+        }
+    }
+
+    private static final class RequestHeaderSegment implements Segment {
+
+        private final HttpString header;
+
+        RequestHeaderSegment(HttpString header) {
+            this.header = header;
+        }
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            final HeaderValues values = exchange.getRequestHeaders().get(header);
+            if (values == null) {
+                sb.append(EMPTY_SUBSTITUTE);
+            } else if (values.size() == 1) {
+                appendOrSubstitute(sb, values.getFirst());
+            } else {
+                sb.append('[');
+                for (int i = 0; i < values.size(); ++i) {
+                    if (i != 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(values.get(i));
+                }
+                sb.append(']');
+            }
+        }
+    }
+
+    /**
+     * The common log format only has a resolution of a second, so the formatted date is cached until the second
+     * changes.
+     */
+    private static final class CommonLogDateSegment implements Segment {
+
+        private volatile CachedDate cached = new CachedDate(-1, null);
+
+        @Override
+        public void append(HttpServerExchange exchange, StringBuilder sb) {
+            final long now = System.currentTimeMillis();
+            final long second = now / 1000;
+            CachedDate cached = this.cached;
+            if (cached.second != second) {
+                this.cached = cached = new CachedDate(second, DateUtils.toCommonLogFormat(new Date(now)));
+            }
+            sb.append(cached.value);
+        }
+    }
+
+    private static final class CachedDate {
+        final long second;
+        final String value;
+
+        CachedDate(long second, String value) {
+            this.second = second;
+            this.value = value;
+        }
+    }
+
+    private static void appendOrSubstitute(StringBuilder sb, String value) {
+        sb.append(value == null || value.isEmpty() ? EMPTY_SUBSTITUTE : value);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.ExchangeAttributes;
+import io.undertow.attribute.ReadOnlyAttributeException;
+import io.undertow.attribute.RequestHeaderAttribute;
+import io.undertow.attribute.ResponseCodeAttribute;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.HttpString;
+
+/**
+ * An access log format that writes each message as a single line JSON object.
+ * <p>
+ * The fields of the object are chosen from the exchange attributes, and the values are escaped as they are appended to
+ * a reused per thread buffer, so no intermediate map or document is built. Values that are missing or empty are
+ * written as <code>null</code>, numeric fields are written without quotes if the attribute value is a number, and a
+ * request header with several values is written as an array.
+ * <p>
+ * As messages are plain strings this format can be used with any {@link AccessLogReceiver}. The default fields are
+ * selected in the handler language with <code>access-log(format='json')</code>, or by passing <code>json</code> as the
+ * format string of an {@link AccessLogHandler} that parses its format.
+ */
+public class JsonAccessLogFormat implements ExchangeAttribute {
+
+    public static final String JSON_FORMAT_NAME = "json";
+
+    /**
+     * Buffers that have grown beyond this are not reused, so an occasional large message does not stay in memory
+     */
+    private static final int MAX_RETAINED_BUFFER = 8 * 1024;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(512);
+        }
+    };
+
+    private final Field[] fields;
+
+    private JsonAccessLogFormat(Field[] fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * Creates the format used for <code>format='json'</code>, which contains the time, remote address, request line
+     * components, status code, bytes sent, response time, user agent and referer.
+     *
+     * @param classLoader The class loader used to find attribute builders
+     * @return The default JSON format
+     */
+    public static JsonAccessLogFormat defaultFormat(final ClassLoader classLoader) {
+        return builder()
+                .setClassLoader(classLoader)
+                .addField("time", "%{time,yyyy-MM-dd'T'HH:mm:ss.SSSZ}")
+                .addField("remoteIp", "%a")
+                .addField("method", "%m")
+                .addField("uri", "%U")
+                .addField("query", "%{BARE_QUERY_STRING}")
+                .addField("protocol", "%H")
+                .addNumericField("status", "%s")
+                .addNumericField("bytesSent", "%B")
+                .addNumericField("responseTime", "%D")
+                .addField("userAgent", "%{i,User-Agent}")
+                .addField("referer", "%{i,Referer}")
+                .build();
+    }
+
+    @Override
+    public String readAttribute(final HttpServerExchange exchange) {
+        StringBuilder sb = BUFFER.get();
+        if (sb.capacity() > MAX_RETAINED_BUFFER) {
+            sb = new StringBuilder(512);
+            BUFFER.set(sb);
+        }
+        sb.setLength(0);
+        sb.append('{');
+        for (Field field : fields) {
+            sb.append(field.prefix);
+            field.appendValue(exchange, sb);
+        }
+        sb.append('}');
+        return sb.toString();
+    }
+
+    @Override
+    public void writeAttribute(final HttpServerExchange exchange, final String newValue) throws ReadOnlyAttributeException {
+        throw new ReadOnlyAttributeException("JSON access log format", newValue);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(JSON_FORMAT_NAME).append('(');
+        for (int i = 0; i < fields.length; ++i) {
+            if (i != 0) {
+                sb.append(", ");
+            }
+            sb.append(fields[i].name).append('=').append(fields[i].attribute);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * Appends a JSON string literal, including the surrounding quotes. Strings that do not need escaping are appended
+     * in a single operation.
+     *
+     * @param sb    The buffer
+     * @param value The value to append
+     */
+    static void appendString(final StringBuilder sb, final String value) {
+        sb.append('"');
+        final int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i) {
+            final char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            sb.append(value, start, i);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    sb.append("\\u")
+                            .append(HEX[(c >> 12) & 0xF])
+                            .append(HEX[(c >> 8) & 0xF])
+                            .append(HEX[(c >> 4) & 0xF])
+                            .append(HEX[c & 0xF]);
+            }
+        }
+        sb.append(value, start, length);
+        sb.append('"');
+    }
+
+    /**
+     * Returns true if the value can be written as a JSON number without modification.
+     */
+    static boolean isNumber(final String value) {
+        final int length = value.length();
+        int i = 0;
+        if (length > 0 && value.charAt(0) == '-') {
+            i = 1;
+        }
+        if (i == length || value.charAt(i) == '.') {
+            return false;
+        }
+        if (value.charAt(i) == '0' && i + 1 < length && value.charAt(i + 1) != '.') {
+            //JSON does not allow leading zeros
+            return false;
+        }
+        boolean dot = false;
+        for (; i < length; ++i) {
+            final char c = value.charAt(i);
+            if (c == '.' && !dot && i != length - 1) {
+                dot = true;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private final List<Field> fields = new ArrayList<>();
+        private ClassLoader classLoader = JsonAccessLogFormat.class.getClassLoader();
+
+        /**
+         * Sets the class loader used to find attribute builders when fields are added from an attribute string. This
+         * must be set before those fields are added.
+         */
+        public Builder setClassLoader(ClassLoader classLoader) {
+            this.classLoader = classLoader;
+            return this;
+        }
+
+        /**
+         * Adds a string field.
+         *
+         * @param name      The field name
+         * @param attribute The attribute string, for example <code>%{i,User-Agent}</code>
+         */
+        public Builder addField(String name, String attribute) {
+            return addField(name, ExchangeAttributes.parser(classLoader).parse(attribute));
+        }
+
+        public Builder addField(String name, ExchangeAttribute attribute) {
+            fields.add(field(name, attribute, false));
+            return this;
+        }
+
+        /**
+         * Adds a field that is written as a number if the attribute value is numeric, and as a string otherwise.
+         *
+         * @param name      The field name
+         * @param attribute The attribute string, for example <code>%D</code>
+         */
+        public Builder addNumericField(String name, String attribute) {
+            return addNumericField(name, ExchangeAttributes.parser(classLoader).parse(attribute));
+        }
+
+        public Builder addNumericField(String name, ExchangeAttribute attribute) {
+            fields.add(field(name, attribute, true));
+            return this;
+        }
+
+        public JsonAccessLogFormat build() {
+            final Field[] result = fields.toArray(new Field[fields.size()]);
+            for (int i = 0; i < result.length; ++i) {
+                final StringBuilder prefix = new StringBuilder();
+                if (i != 0) {
+                    prefix.append(',');
+                }
+                appendString(prefix, result[i].name);
+                prefix.append(':');
+                result[i].prefix = prefix.toString();
+            }
+            return new JsonAccessLogFormat(result);
+        }
+
+        private static Field field(String name, ExchangeAttribute attribute, boolean numeric) {
+            if (name == null || attribute == null) {
+                throw new IllegalArgumentException();
+            }
+            if (attribute == ResponseCodeAttribute.INSTANCE) {
+                return new StatusCodeField(name, attribute);
+            } else if (attribute instanceof RequestHeaderAttribute) {
+                return new RequestHeaderField(name, attribute, ((RequestHeaderAttribute) attribute).getRequestHeader());
+            }
+            return new AttributeField(name, attribute, numeric);
+        }
+    }
+
+    private abstract static class Field {
+
+        final String name;
+        final ExchangeAttribute attribute;
+        /**
+         * The pre-escaped <code>"name":</code> prefix, including the separating comma if this is not the first field
+         */
+        String prefix;
+
+        Field(String name, ExchangeAttribute attribute) {
+            this.name = name;
+            this.attribute = attribute;
+        }
+
+        abstract void appendValue(HttpServerExchange exchange, StringBuilder sb);
+    }
+
+    private static final class AttributeField extends Field {
+
+        private final boolean numeric;
+
+        AttributeField(String name, ExchangeAttribute attribute, boolean numeric) {
+            super(name, attribute);
+            this.numeric = numeric;
+        }
+
+        @Override
+        void appendValue(HttpServerExchange exchange, StringBuilder sb) {
+            final String value = attribute.readAttribute(exchange);
+            if (value == null || value.isEmpty()) {
+                sb.append("null");
+            } else if (numeric && isNumber(value)) {
+                sb.append(value);
+            } else {
+                appendString(sb, value);
+            }
+        }
+    }
+
+    private static final class StatusCodeField extends Field {
+
+        StatusCodeField(String name, ExchangeAttribute attribute) {
+            super(name, attribute);
+        }
+
+        @Override
+        void appendValue(HttpServerExchange exchange, StringBuilder sb) {
+            sb.append(exchange.getStatusCode());
+        }
+    }
+
+    private static final class RequestHeaderField extends Field {
+
+        private final HttpString header;
+
+        RequestHeaderField(String name, ExchangeAttribute attribute, HttpString header) {
+            super(name, attribute);
+            this.header = header;
+        }
+
+        @Override
+        void appendValue(HttpServerExchange exchange, StringBuilder sb) {
+            final HeaderValues values = exchange.getRequestHeaders().get(header);
+            if (values == null || values.isEmpty()) {
+                sb.append("null");
+            } else if (values.size() == 1) {
+                final String value = values.getFirst();
+                if (value.isEmpty()) {
+                    sb.append("null");
+                } else {
+                    appendString(sb, value);
+                }
+            } else {
+                sb.append('[');
+                for (int i = 0; i < values.size(); ++i) {
+                    if (i != 0) {
+                        sb.append(',');
+                    }
+                    appendString(sb, values.get(i));
+                }
+                sb.append(']');
+            }
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import io.undertow.UndertowLogger;
+
+/**
+ * Log receiver that encodes messages into a fixed set of preallocated direct buffers, which are written to the log
+ * file in batches with a single gathering write.
+ * <p>
+ * Request threads reserve space for the message in the current buffer while holding a lock, and encode it into that
+ * space after the lock has been released, so several threads can encode messages at the same time. Once a buffer is
+ * full, or when the writer task runs, it is handed to the writer task on the log write executor, which writes it once
+ * all messages that have space reserved in it have been encoded. As the writer writes everything that has
+ * accumulated while the previous batch was being written, the batches grow with the load. The amount of memory used
+ * is fixed, if all buffers are waiting to be written then the {@link OverflowPolicy} decides if messages are dropped
+ * or if the logging thread waits. The number of dropped messages is available from {@link #getDroppedMessages()}.
+ * <p>
+ * The log file is rotated once it reaches the maximum file size, in which case <code>access.log</code> is renamed to
+ * <code>access.1.log</code>, <code>access.1.log</code> to <code>access.2.log</code> and so on, up to the configured
+ * number of backups.
+ */
+public class RingBufferAccessLogReceiver implements AccessLogReceiver, Runnable, Closeable {
+
+    private static final String DEFAULT_LOG_SUFFIX = "log";
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * What to do with a message if all buffers are waiting to be written
+     */
+    public enum OverflowPolicy {
+        /**
+         * The message is dropped
+         */
+        DROP,
+        /**
+         * The logging thread waits until a buffer has been written. Access log messages are logged by the thread that
+         * completes the exchange, which is usually an IO thread, and while it waits that IO thread can not process any
+         * of its other connections. A log file that can not keep up will therefore stall the server, so this should
+         * only be used if losing messages is not acceptable.
+         */
+        BLOCK
+    }
+
+    private final Executor logWriteExecutor;
+    private final Path outputDirectory;
+    private final String logBaseName;
+    private final String logNameSuffix;
+    private final Path defaultLogFile;
+    private final int bufferSize;
+    private final int buffers;
+    private final long maxFileSize;
+    private final int maxBackups;
+    private final OverflowPolicy overflowPolicy;
+    private final LogFileHeaderGenerator fileHeaderGenerator;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition bufferFreed = lock.newCondition();
+    //buffers that can be filled, guarded by lock
+    private final ArrayDeque<LogBuffer> freeBuffers = new ArrayDeque<>();
+    //buffers that are waiting to be written, guarded by lock
+    private final ArrayDeque<LogBuffer> fullBuffers = new ArrayDeque<>();
+    //the buffer messages are currently added to, guarded by lock
+    private LogBuffer current;
+
+    //0 = not running
+    //1 = queued
+    //2 = running
+    @SuppressWarnings("unused")
+    private volatile int state = 0;
+
+    private static final AtomicIntegerFieldUpdater<RingBufferAccessLogReceiver> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(RingBufferAccessLogReceiver.class, "state");
+
+    private final LongAdder loggedMessages = new LongAdder();
+    private final LongAdder droppedMessages = new LongAdder();
+    private volatile long bytesWritten;
+
+    //only accessed by the writer task
+    private FileChannel channel;
+    private long fileSize;
+
+    private volatile boolean forceLogRotation;
+    private volatile boolean closed;
+
+    private RingBufferAccessLogReceiver(Builder builder) {
+        if (builder.logWriteExecutor == null || builder.outputDirectory == null || builder.logBaseName == null) {
+            throw new IllegalArgumentException("logWriteExecutor, outputDirectory and logBaseName are required");
+        }
+        if (builder.bufferSize <= 0 || builder.buffers < 2) {
+            throw new IllegalArgumentException("at least two buffers are required");
+        }
+        this.logWriteExecutor = builder.logWriteExecutor;
+        this.outputDirectory = builder.outputDirectory;
+        this.logBaseName = builder.logBaseName;
+        this.logNameSuffix = builder.logNameSuffix != null ? builder.logNameSuffix : DEFAULT_LOG_SUFFIX;
+        this.defaultLogFile = outputDirectory.resolve(logBaseName + logNameSuffix);
+        this.bufferSize = builder.bufferSize;
+        this.buffers = builder.buffers;
+        this.maxFileSize = builder.maxFileSize;
+        this.maxBackups = builder.maxBackups;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.fileHeaderGenerator = builder.logFileHeaderGenerator;
+        for (int i = 0; i < builder.buffers; ++i) {
+            freeBuffers.add(new LogBuffer(ByteBuffer.allocateDirect(bufferSize)));
+        }
+        this.current = freeBuffers.poll();
+    }
+
+    @Override
+    public void logMessage(final String message) {
+        final int length = encodedLength(message) + LINE_SEPARATOR.length;
+        if (closed || length > bufferSize) {
+            droppedMessages.increment();
+            return;
+        }
+        final LogBuffer target;
+        final int offset;
+        lock.lock();
+        try {
+            while (current == null || current.buffer.remaining() < length) {
+                if (current != null) {
+                    fullBuffers.add(current);
+                }
+                current = freeBuffers.poll();
+                if (current == null) {
+                    //the executor may run the writer in this thread, in which case a buffer is now available
+                    scheduleWrite();
+                    if (current == null) {
+                        if (overflowPolicy == OverflowPolicy.DROP || closed) {
+                            droppedMessages.increment();
+                            return;
+                        }
+                        bufferFreed.awaitUninterruptibly();
+                    }
+                }
+            }
+            //only the space is reserved here, the message is encoded without holding the lock
+            target = current;
+            offset = target.buffer.position();
+            target.buffer.position(offset + length);
+            target.writers++;
+        } finally {
+            lock.unlock();
+        }
+        final int end = encode(message, target.buffer, offset);
+        for (int i = 0; i < LINE_SEPARATOR.length; ++i) {
+            target.buffer.put(end + i, LINE_SEPARATOR[i]);
+        }
+        lock.lock();
+        try {
+            target.writers--;
+        } finally {
+            lock.unlock();
+        }
+        loggedMessages.increment();
+        scheduleWrite();
+    }
+
+    private void scheduleWrite() {
+        if (stateUpdater.get(this) == 0 && stateUpdater.compareAndSet(this, 0, 1)) {
+            logWriteExecutor.execute(this);
+        }
+    }
+
+    /**
+     * writes out all buffered log messages
+     */
+    @Override
+    public void run() {
+        if (!stateUpdater.compareAndSet(this, 1, 2)) {
+            return;
+        }
+        try {
+            if (forceLogRotation) {
+                forceLogRotation = false;
+                doRotate();
+            }
+            //write at most one batch per buffer before giving the executor thread back
+            for (int i = 0; i < buffers; ++i) {
+                final LogBuffer[] batch;
+                lock.lock();
+                try {
+                    if (current != null && current.buffer.position() > 0) {
+                        fullBuffers.add(current);
+                        current = freeBuffers.poll();
+                    }
+                    final int writable = writableBuffers();
+                    if (writable == 0) {
+                        break;
+                    }
+                    batch = new LogBuffer[writable];
+                    for (int j = 0; j < writable; ++j) {
+                        batch[j] = fullBuffers.poll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                try {
+                    writeBatch(batch);
+                } finally {
+                    lock.lock();
+                    try {
+                        for (LogBuffer buffer : batch) {
+                            buffer.buffer.clear();
+                            if (current == null) {
+                                current = buffer;
+                            } else {
+                                freeBuffers.add(buffer);
+                            }
+                        }
+                        bufferFreed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+            if (closed) {
+                closeChannel();
+            }
+        } finally {
+            stateUpdater.set(this, 0);
+            //messages may have been added after the last batch was taken
+            if (hasPendingMessages() || forceLogRotation || (closed && channel != null)) {
+                scheduleWrite();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of full buffers, in order, in which all messages have been encoded. A buffer that a message
+     * is still being encoded into is written by a later run, which is scheduled once the message has been encoded.
+     * Must be called while holding the lock.
+     */
+    private int writableBuffers() {
+        int writable = 0;
+        for (LogBuffer buffer : fullBuffers) {
+            if (buffer.writers > 0) {
+                break;
+            }
+            ++writable;
+        }
+        return writable;
+    }
+
+    private boolean hasPendingMessages() {
+        lock.lock();
+        try {
+            return writableBuffers() > 0 || (current != null && current.buffer.position() > 0 && current.writers == 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch(final LogBuffer[] batch) {
+        final ByteBuffer[] buffers = new ByteBuffer[batch.length];
+        long length = 0;
+        for (int i = 0; i < batch.length; ++i) {
+            buffers[i] = batch[i].buffer;
+            buffers[i].flip();
+            length += buffers[i].remaining();
+        }
+        try {
+            if (channel != null && maxFileSize > 0 && fileSize > 0 && fileSize + length > maxFileSize) {
+                doRotate();
+            }
+            if (channel == null) {
+                openChannel();
+            }
+            long remaining = length;
+            while (remaining > 0) {
+                long written = channel.write(buffers);
+                remaining -= written;
+                fileSize += written;
+                bytesWritten += written;
+            }
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
+            //the file will be reopened for the next batch
+            closeChannel();
+        }
+    }
+
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(defaultLogFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        if (fileSize == 0 && fileHeaderGenerator != null) {
+            String header = fileHeaderGenerator.generateHeader();
+            if (header != null) {
+                final ByteBuffer buffer = StandardCharsets.UTF_8.encode(header + System.lineSeparator());
+                while (buffer.hasRemaining()) {
+                    fileSize += channel.write(buffer);
+                }
+            }
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                UndertowLogger.ROOT_LOGGER.errorWritingAccessLog(e);
+            } finally {
+                channel = null;
+            }
+        }
+    }
+
+    private void doRotate() {
+        closeChannel();
+        try {
+            if (!Files.exists(defaultLogFile)) {
+                return;
+            }
+            if (maxBackups <= 0) {
+                Files.delete(defaultLogFile);
+                return;
+            }
+            Files.deleteIfExists(backupFile(maxBackups));
+            for (int i = maxBackups - 1; i > 0; --i) {
+                final Path backup = backupFile(i);
+                if (Files.exists(backup)) {
+                    Files.move(backup, backupFile(i + 1));
+                }
+            }
+            Files.move(defaultLogFile, backupFile(1));
+        } catch (IOException e) {
+            UndertowLogger.ROOT_LOGGER.errorRotatingAccessLog(e);
+        }
+    }
+
+    private Path backupFile(int index) {
+        return outputDirectory.resolve(logBaseName + index + "." + logNameSuffix);
+    }
+
+    /**
+     * For tests only. Blocks the current thread until all messages are written
+     * Just does a busy wait.
+     * <p>
+     * DO NOT USE THIS OUTSIDE OF A TEST
+     */
+    void awaitWrittenForTest() throws InterruptedException {
+        while (hasPendingMessages() || forceLogRotation) {
+            Thread.sleep(10);
+        }
+        while (state != 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * forces a log rotation. This rotation is performed in an async manner, you cannot rely on the rotation
+     * being performed immediately after this method returns.
+     */
+    public void rotate() {
+        forceLogRotation = true;
+        scheduleWrite();
+    }
+
+    /**
+     * Closes the receiver. Messages that have already been logged are written out asynchronously, messages that are
+     * logged after this are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        lock.lock();
+        try {
+            //wake up any blocked threads so they can drop their message
+            bufferFreed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        scheduleWrite();
+    }
+
+    /**
+     *
+     * @return The number of messages that have been accepted for writing
+     */
+    public long getLoggedMessages() {
+        return loggedMessages.sum();
+    }
+
+    /**
+     *
+     * @return The number of messages that were dropped, because no buffer space was available, the message was larger
+     *         than a buffer or the receiver was closed
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     *
+     * @return The number of bytes written to log files
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Returns the length of the UTF-8 encoding of the message, as produced by {@link #encode(String, ByteBuffer, int)}.
+     */
+    static int encodedLength(final String message) {
+        final int length = message.length();
+        int result = length;
+        for (int i = 0; i < length; ++i) {
+            final char c = message.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    result += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                    //a surrogate pair is two chars and four bytes
+                    result += 2;
+                    ++i;
+                } else if (!Character.isSurrogate(c)) {
+                    result += 2;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Encodes the message as UTF-8 without allocating. Unpaired surrogates are replaced with <code>?</code>. Absolute
+     * puts are used, so that several threads can encode into different parts of the same buffer.
+     *
+     * @return The index after the last byte of the message
+     */
+    static int encode(final String message, final ByteBuffer buffer, int index) {
+        final int length = message.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = message.charAt(i);
+            if (c < 0x80) {
+                buffer.put(index++, (byte) c);
+            } else if (c < 0x800) {
+                buffer.put(index++, (byte) (0xC0 | (c >> 6)));
+                buffer.put(index++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, message.charAt(++i));
+                buffer.put(index++, (byte) (0xF0 | (cp >> 18)));
+                buffer.put(index++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                buffer.put(index++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                buffer.put(index++, (byte) (0x80 | (cp & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put(index++, (byte) '?');
+            } else {
+                buffer.put(index++, (byte) (0xE0 | (c >> 12)));
+                buffer.put(index++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put(index++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * A buffer and the number of threads that are encoding messages into it
+     */
+    private static final class LogBuffer {
+
+        private final ByteBuffer buffer;
+        //guarded by lock, the buffer can not be written while this is not zero
+        private int writers;
+
+        private LogBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Executor logWriteExecutor;
+        private Path outputDirectory;
+        private String logBaseName;
+        private String logNameSuffix;
+        private int bufferSize = 256 * 1024;
+        private int buffers = 4;
+        private long maxFileSize = 100 * 1024 * 1024;
+        private int maxBackups = 10;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+        private LogFileHeaderGenerator logFileHeaderGenerator;
+
+        public Executor getLogWriteExecutor() {
+            return logWriteExecutor;
+        }
+
+        public Builder setLogWriteExecutor(Executor logWriteExecutor) {
+            this.logWriteExecutor = logWriteExecutor;
+            return this;
+        }
+
+        public Path getOutputDirectory() {
+            return outputDirectory;
+        }
+
+        public Builder setOutputDirectory(Path outputDirectory) {
+            this.outputDirectory = outputDirectory;
+            return this;
+        }
+
+        public String getLogBaseName() {
+            return logBaseName;
+        }
+
+        public Builder setLogBaseName(String logBaseName) {
+            this.logBaseName = logBaseName;
+            return this;
+        }
+
+        public String getLogNameSuffix() {
+            return logNameSuffix;
+        }
+
+        public Builder setLogNameSuffix(String logNameSuffix) {
+            this.logNameSuffix = logNameSuffix;
+            return this;
+        }
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        /**
+         * @param bufferSize The size of each buffer in bytes, messages larger than this are dropped
+         */
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public int getBuffers() {
+            return buffers;
+        }
+
+        /**
+         * @param buffers The number of buffers, at least two
+         */
+        public Builder setBuffers(int buffers) {
+            this.buffers = buffers;
+            return this;
+        }
+
+        public long getMaxFileSize() {
+            return maxFileSize;
+        }
+
+        /**
+         * @param maxFileSize The size at which the log file is rotated, or 0 to only rotate when {@link #rotate()} is
+         *                    called
+         */
+        public Builder setMaxFileSize(long maxFileSize) {
+            this.maxFileSize = maxFileSize;
+            return this;
+        }
+
+        public int getMaxBackups() {
+            return maxBackups;
+        }
+
+        /**
+         * @param maxBackups The number of rotated log files that are kept
+         */
+        public Builder setMaxBackups(int maxBackups) {
+            this.maxBackups = maxBackups;
+            return this;
+        }
+
+        public OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy;
+        }
+
+        public Builder setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        public LogFileHeaderGenerator getLogFileHeaderGenerator() {
+            return logFileHeaderGenerator;
+        }
+
+        public Builder setLogFileHeaderGenerator(LogFileHeaderGenerator logFileHeaderGenerator) {
+            this.logFileHeaderGenerator = logFileHeaderGenerator;
+            return this;
+        }
+
+        public RingBufferAccessLogReceiver build() {
+            return new RingBufferAccessLogReceiver(this);
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.handlers.proxy;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.UndertowLogger;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Transfer;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Transfers a backend response to the client by first reading the whole response into pooled buffers, spilling to a
+ * temporary file once the in memory limit of the exchange, or of all exchanges of the handler, has been reached. Once
+ * the response has been fully read the backend connection is released back to the pool, before the response is
+ * written to the client. This means that slow clients do not tie up backend connections.
+ * <p>
+ * If the response is larger than the combined memory and file limits then buffering is abandoned, the data read so
+ * far is written to the client and the rest of the response is streamed as normal.
+ * <p>
+ * The temporary file is read and written by the worker, so the IO thread never blocks on the disk. Reads from the
+ * backend and writes to the client are suspended while a file operation is in progress.
+ */
+final class BufferingResponseTransfer implements ChannelListener<StreamSourceChannel>, ExchangeCompletionListener {
+
+    private final HttpServerExchange exchange;
+    private final StreamSourceChannel source;
+    private final ProxyConnection connection;
+    private final Settings settings;
+    private final ByteBufferPool pool;
+    private final ChannelListener<? super StreamSinkChannel> completionListener;
+    private final ChannelExceptionHandler<Channel> readExceptionHandler;
+    /**
+     * The exception handler used for write errors once the backend connection has been released
+     */
+    private final ChannelExceptionHandler<Channel> writeExceptionHandler;
+
+    /**
+     * Buffers that are written before the file contents
+     */
+    private final ArrayDeque<PooledByteBuffer> head = new ArrayDeque<>();
+    /**
+     * Buffers that are written after the file contents, this is only used if the file limit is reached
+     */
+    private final ArrayDeque<PooledByteBuffer> tail = new ArrayDeque<>();
+    private PooledByteBuffer current;
+    /**
+     * The size of the head buffers, which is reserved against the memory limit of the handler
+     */
+    private long memory;
+
+    private boolean spilled;
+    private Path filePath;
+    private FileChannel file;
+    private long fileSize;
+    private long filePosition;
+    /**
+     * Data that has been read from the file and is being written to the client
+     */
+    private PooledByteBuffer fileBuffer;
+    private boolean fileTaskPending;
+
+    private boolean readComplete;
+    private boolean overflow;
+    private boolean done;
+    private StreamSinkChannel sink;
+
+    BufferingResponseTransfer(HttpServerExchange exchange, StreamSourceChannel source, ProxyConnection connection, Settings settings, ChannelListener<? super StreamSinkChannel> completionListener, ChannelExceptionHandler<Channel> readExceptionHandler, ChannelExceptionHandler<Channel> writeExceptionHandler) {
+        this.exchange = exchange;
+        this.source = source;
+        this.connection = connection;
+        this.settings = settings;
+        this.pool = exchange.getConnection().getByteBufferPool();
+        this.completionListener = completionListener;
+        this.readExceptionHandler = readExceptionHandler;
+        this.writeExceptionHandler = writeExceptionHandler;
+    }
+
+    void start() {
+        exchange.addExchangeCompleteListener(this);
+        source.getReadSetter().set(this);
+        handleEvent(source);
+    }
+
+    @Override
+    public void handleEvent(StreamSourceChannel channel) {
+        if (fileTaskPending || done) {
+            return;
+        }
+        try {
+            for (;;) {
+                if (current == null) {
+                    current = pool.allocate();
+                }
+                final ByteBuffer buffer = current.getBuffer();
+                final int res = source.read(buffer);
+                if (res == 0) {
+                    source.resumeReads();
+                    return;
+                } else if (res == -1) {
+                    source.suspendReads();
+                    source.getReadSetter().set(null);
+                    readComplete = true;
+                    IoUtils.safeClose(source);
+                    if (connection.release()) {
+                        //make sure a timeout does not close the connection now that it may be in use by another exchange
+                        exchange.removeAttachment(ProxyHandler.CONNECTION);
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Released backend connection %s early for exchange %s after buffering %s bytes", connection.getConnection(), exchange, memory + fileSize + buffer.position());
+                    }
+                    if (!storeCurrent()) {
+                        startWriting();
+                    }
+                    return;
+                } else if (!buffer.hasRemaining()) {
+                    if (storeCurrent()) {
+                        //reading continues once the buffer has been written to the file
+                        source.suspendReads();
+                        return;
+                    }
+                    if (overflow) {
+                        source.suspendReads();
+                        source.getReadSetter().set(null);
+                        startWriting();
+                        return;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            failed(source, e);
+        }
+    }
+
+    /**
+     *
+     * @return <code>true</code> if the current buffer is being written to the file
+     */
+    private boolean storeCurrent() {
+        final PooledByteBuffer pooled = current;
+        current = null;
+        final ByteBuffer buffer = pooled.getBuffer();
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            pooled.close();
+            return false;
+        }
+        final int size = buffer.remaining();
+        if (!spilled && memory + size <= settings.maxMemory && settings.reserveMemory(size)) {
+            memory += size;
+            head.add(pooled);
+            return false;
+        }
+        if (settings.maxFileSize >= 0 && fileSize + size > settings.maxFileSize) {
+            //too big to buffer, stream the rest of the response
+            overflow = true;
+            tail.add(pooled);
+            return false;
+        }
+        //once data has been written to the file the following data must go there as well, to keep it in order
+        spilled = true;
+        fileTaskPending = true;
+        executeFileTask(new Runnable() {
+            @Override
+            public void run() {
+                IOException failure = null;
+                try {
+                    if (file == null) {
+                        filePath = settings.tempDirectory == null ? Files.createTempFile("undertow-proxy", ".tmp") : Files.createTempFile(settings.tempDirectory, "undertow-proxy", ".tmp");
+                        file = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                    }
+                    while (buffer.hasRemaining()) {
+                        fileSize += file.write(buffer, fileSize);
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                }
+                final IOException writeFailure = failure;
+                source.getIoThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fileWritten(pooled, writeFailure);
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private void fileWritten(PooledByteBuffer pooled, IOException failure) {
+        fileTaskPending = false;
+        pooled.close();
+        if (done) {
+            closeFile();
+        } else if (failure != null) {
+            failed(source, failure);
+        } else if (readComplete) {
+            startWriting();
+        } else {
+            handleEvent(source);
+        }
+    }
+
+    private void startWriting() {
+        sink = exchange.getResponseChannel();
+        sink.getWriteSetter().set(new ChannelListener<StreamSinkChannel>() {
+            @Override
+            public void handleEvent(StreamSinkChannel channel) {
+                write();
+            }
+        });
+        write();
+    }
+
+    private void write() {
+        if (fileTaskPending || done) {
+            return;
+        }
+        try {
+            if (!writeBuffers(head, true)) {
+                return;
+            }
+            if (spilled) {
+                for (;;) {
+                    if (fileBuffer != null) {
+                        final ByteBuffer buffer = fileBuffer.getBuffer();
+                        sink.write(buffer);
+                        if (buffer.hasRemaining()) {
+                            sink.resumeWrites();
+                            return;
+                        }
+                        fileBuffer.close();
+                        fileBuffer = null;
+                    }
+                    if (filePosition == fileSize) {
+                        break;
+                    }
+                    //writing continues once the next part of the file has been read
+                    sink.suspendWrites();
+                    readFile();
+                    return;
+                }
+                spilled = false;
+                closeFile();
+            }
+            if (!writeBuffers(tail, false)) {
+                return;
+            }
+        } catch (IOException e) {
+            failed(sink, e);
+            return;
+        }
+        sink.suspendWrites();
+        sink.getWriteSetter().set(null);
+        if (readComplete) {
+            completionListener.handleEvent(sink);
+        } else {
+            Transfer.initiateTransfer(source, sink, ChannelListeners.closingChannelListener(), completionListener, readExceptionHandler, readExceptionHandler, pool);
+        }
+    }
+
+    private void readFile() {
+        final PooledByteBuffer pooled = pool.allocate();
+        final FileChannel file = this.file;
+        final long position = filePosition;
+        fileTaskPending = true;
+        executeFileTask(new Runnable() {
+            @Override
+            public void run() {
+                IOException failure = null;
+                try {
+                    final ByteBuffer buffer = pooled.getBuffer();
+                    if (file.read(buffer, position) == -1) {
+                        throw new EOFException();
+                    }
+                    buffer.flip();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                final IOException readFailure = failure;
+                sink.getIoThread().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fileRead(pooled, readFailure);
+                    }
+                });
+            }
+        });
+    }
+
+    private void fileRead(PooledByteBuffer pooled, IOException failure) {
+        fileTaskPending = false;
+        if (done) {
+            pooled.close();
+            closeFile();
+        } else if (failure != null) {
+            pooled.close();
+            failed(sink, failure);
+        } else {
+            filePosition += pooled.getBuffer().remaining();
+            fileBuffer = pooled;
+            write();
+        }
+    }
+
+    private boolean writeBuffers(ArrayDeque<PooledByteBuffer> buffers, boolean reserved) throws IOException {
+        PooledByteBuffer pooled = buffers.peek();
+        while (pooled != null) {
+            final ByteBuffer buffer = pooled.getBuffer();
+            sink.write(buffer);
+            if (buffer.hasRemaining()) {
+                sink.resumeWrites();
+                return false;
+            }
+            buffers.poll().close();
+            if (reserved) {
+                memory -= buffer.limit();
+                settings.releaseMemory(buffer.limit());
+            }
+            pooled = buffers.peek();
+        }
+        return true;
+    }
+
+    private void failed(Channel channel, IOException e) {
+        freeResources();
+        //if the response has not been fully read the backend connection cannot be reused
+        ChannelListeners.invokeChannelExceptionHandler(channel, readComplete ? writeExceptionHandler : readExceptionHandler, e);
+    }
+
+    /**
+     * Runs a blocking file operation on the worker
+     */
+    private void executeFileTask(Runnable task) {
+        try {
+            exchange.getConnection().getWorker().execute(task);
+        } catch (RejectedExecutionException e) {
+            //the worker is shutting down
+            task.run();
+        }
+    }
+
+    private void closeFile() {
+        final FileChannel file = this.file;
+        final Path filePath = this.filePath;
+        this.file = null;
+        this.filePath = null;
+        if (file == null && filePath == null) {
+            return;
+        }
+        executeFileTask(new Runnable() {
+            @Override
+            public void run() {
+                IoUtils.safeClose(file);
+                if (filePath != null) {
+                    try {
+                        Files.deleteIfExists(filePath);
+                    } catch (IOException e) {
+                        UndertowLogger.REQUEST_IO_LOGGER.debugf(e, "Failed to delete proxy buffer file %s", filePath);
+                    }
+                }
+            }
+        });
+    }
+
+    private void freeResources() {
+        if (done) {
+            return;
+        }
+        done = true;
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        for (PooledByteBuffer buffer : head) {
+            buffer.close();
+        }
+        head.clear();
+        settings.releaseMemory(memory);
+        memory = 0;
+        for (PooledByteBuffer buffer : tail) {
+            buffer.close();
+        }
+        tail.clear();
+        if (fileBuffer != null) {
+            fileBuffer.close();
+            fileBuffer = null;
+        }
+        if (!fileTaskPending) {
+            //otherwise the file is closed once the pending task completes
+            closeFile();
+        }
+    }
+
+    @Override
+    public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+        try {
+            freeResources();
+        } finally {
+            nextListener.proceed();
+        }
+    }
+
+    /**
+     * Response buffering settings of a {@link ProxyHandler}, this also tracks the memory used by all exchanges of the
+     * handler
+     */
+    static final class Settings {
+
+        private final long maxMemory;
+        private final long maxTotalMemory;
+        private final long maxFileSize;
+        private final Path tempDirectory;
+        private final AtomicLong totalMemory = new AtomicLong();
+
+        Settings(long maxMemory, long maxTotalMemory, long maxFileSize, Path tempDirectory) {
+            this.maxMemory = maxMemory;
+            this.maxTotalMemory = maxTotalMemory;
+            this.maxFileSize = maxFileSize;
+            this.tempDirectory = tempDirectory;
+        }
+
+        /**
+         *
+         * @param contentLength The content length of the response, or -1 if it is not known
+         * @return <code>true</code> if a response of this size can be buffered
+         */
+        boolean canBuffer(long contentLength) {
+            return contentLength < 0 || maxFileSize < 0 || contentLength <= maxMemory + maxFileSize;
+        }
+
+        /**
+         *
+         * @return <code>true</code> if the memory could be reserved without exceeding the limit for all exchanges
+         */
+        boolean reserveMemory(long size) {
+            for (;;) {
+                final long used = totalMemory.get();
+                if (maxTotalMemory >= 0 && used + size > maxTotalMemory) {
+                    return false;
+                }
+                if (totalMemory.compareAndSet(used, used + size)) {
+                    return true;
+                }
+            }
+        }
+
+        void releaseMemory(long size) {
+            totalMemory.addAndGet(-size);
+        }
+
+        /**
+         *
+         * @return The amount of memory currently used to buffer responses
+         */
+        long getMemoryInUse() {
+            return totalMemory.get();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Passive health information for a single proxy backend.
+ * <p>
+ * This tracks an exponentially weighted moving average of the response latency and the error rate over a sliding
+ * window, based purely on the outcome of proxied requests. It also holds the ejection state of the host, which
+ * is managed by the {@link LoadBalancingProxyClient}: once ejected a host receives no new requests until the
+ * ejection time has passed, and is then ramped back up to its full share of traffic over the slow start period.
+ * <p>
+ * All methods are thread safe, and recording a result does not require any locking.
+ */
+public final class HostHealth {
+
+    /**
+     * The number of buckets the sliding window is divided into
+     */
+    private static final int BUCKETS = 10;
+
+    private final AtomicLongArray bucketStart = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketRequests = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray bucketErrors = new AtomicLongArray(BUCKETS);
+
+    /**
+     * The EWMA latency in nanoseconds, stored as the raw bits of a double
+     */
+    private final AtomicLong ewmaLatency = new AtomicLong(Double.doubleToRawLongBits(0));
+    private final AtomicLong samples = new AtomicLong();
+
+    private final AtomicLong totalRequests = new AtomicLong();
+    private final AtomicLong totalErrors = new AtomicLong();
+    private final AtomicLong ejectionCount = new AtomicLong();
+
+    private volatile long windowMillis;
+    private volatile long ejectedUntil;
+    private volatile long slowStartUntil;
+    private volatile int consecutiveEjections;
+
+    HostHealth() {
+    }
+
+    /**
+     * Records the outcome of a request
+     *
+     * @param latency      The time taken for the backend to respond, in nanoseconds
+     * @param error        If the request resulted in an error
+     * @param alpha        The EWMA smoothing factor
+     * @param windowMillis The size of the sliding window
+     * @param currentTime  The current time in milliseconds
+     */
+    void record(long latency, boolean error, double alpha, long windowMillis, long currentTime) {
+        this.windowMillis = windowMillis;
+        totalRequests.incrementAndGet();
+        if (error) {
+            totalErrors.incrementAndGet();
+        }
+        final long bucketSize = Math.max(windowMillis / BUCKETS, 1);
+        final long start = currentTime - (currentTime % bucketSize);
+        final int index = (int) ((currentTime / bucketSize) % BUCKETS);
+        long existing = bucketStart.get(index);
+        if (existing != start && bucketStart.compareAndSet(index, existing, start)) {
+            //this bucket is from a previous window, reset it
+            //this is racy, but we only need an approximate value
+            bucketRequests.set(index, 0);
+            bucketErrors.set(index, 0);
+        }
+        bucketRequests.incrementAndGet(index);
+        if (error) {
+            bucketErrors.incrementAndGet(index);
+        }
+        if (latency >= 0) {
+            final boolean first = samples.getAndIncrement() == 0;
+            long old;
+            long updated;
+            do {
+                old = ewmaLatency.get();
+                double value = first ? latency : alpha * latency + (1 - alpha) * Double.longBitsToDouble(old);
+                updated = Double.doubleToRawLongBits(value);
+            } while (!ewmaLatency.compareAndSet(old, updated));
+        }
+    }
+
+    /**
+     * Marks the host as ejected.
+     *
+     * @param baseEjectionTime The base ejection time, this is multiplied by the number of consecutive ejections
+     * @param slowStartTime    The amount of time over which traffic is ramped up once the host returns
+     * @param currentTime      The current time in milliseconds
+     * @return The time the host is ejected until
+     */
+    synchronized long eject(long baseEjectionTime, long slowStartTime, long currentTime) {
+        if (currentTime > slowStartUntil + baseEjectionTime) {
+            //the host has been healthy for a while, don't penalise it for previous ejections
+            consecutiveEjections = 0;
+        }
+        int multiplier = Math.min(++consecutiveEjections, 10);
+        ejectedUntil = currentTime + baseEjectionTime * multiplier;
+        slowStartUntil = ejectedUntil + Math.max(slowStartTime, 0);
+        ejectionCount.incrementAndGet();
+        reset();
+        return ejectedUntil;
+    }
+
+    private void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            bucketStart.set(i, 0);
+            bucketRequests.set(i, 0);
+            bucketErrors.set(i, 0);
+        }
+        samples.set(0);
+        ewmaLatency.set(Double.doubleToRawLongBits(0));
+    }
+
+    boolean isEjected(long currentTime) {
+        return currentTime < ejectedUntil;
+    }
+
+    /**
+     * Returns the proportion of its normal share of requests this host should receive, between 0 and 1. This will be
+     * 0 while the host is ejected, and will increase linearly during the slow start period.
+     *
+     * @param slowStartTime The slow start period
+     * @param currentTime   The current time in milliseconds
+     * @return The weight
+     */
+    double getWeight(long slowStartTime, long currentTime) {
+        long ejectedUntil = this.ejectedUntil;
+        if (currentTime < ejectedUntil) {
+            return 0;
+        }
+        long slowStartUntil = this.slowStartUntil;
+        if (currentTime >= slowStartUntil || slowStartTime <= 0) {
+            return 1;
+        }
+        //we never go all the way down to zero, otherwise the host would never be selected
+        return Math.max((double) (currentTime - ejectedUntil) / (slowStartUntil - ejectedUntil), 0.05);
+    }
+
+    long getWindowRequests(long windowMillis, long currentTime) {
+        return sumWindow(bucketRequests, windowMillis, currentTime);
+    }
+
+    long getWindowErrors(long windowMillis, long currentTime) {
+        return sumWindow(bucketErrors, windowMillis, currentTime);
+    }
+
+    private long sumWindow(AtomicLongArray values, long windowMillis, long currentTime) {
+        final long oldest = currentTime - windowMillis;
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            if (bucketStart.get(i) > oldest) {
+                total += values.get(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     *
+     * @return The number of latency samples that have contributed to the current moving average
+     */
+    public long getLatencySamples() {
+        return samples.get();
+    }
+
+    /**
+     *
+     * @return The exponentially weighted moving average of the backend response time, in nanoseconds
+     */
+    public double getAverageLatency() {
+        return Double.longBitsToDouble(ewmaLatency.get());
+    }
+
+    /**
+     *
+     * @return The proportion of requests that resulted in an error over the sliding window
+     */
+    public double getErrorRate() {
+        long time = System.currentTimeMillis();
+        long window = windowMillis;
+        long requests = getWindowRequests(window, time);
+        if (requests == 0) {
+            return 0;
+        }
+        return (double) getWindowErrors(window, time) / requests;
+    }
+
+    /**
+     *
+     * @return The total number of requests that have been recorded
+     */
+    public long getTotalRequests() {
+        return totalRequests.get();
+    }
+
+    /**
+     *
+     * @return The total number of requests that resulted in an error
+     */
+    public long getTotalErrors() {
+        return totalErrors.get();
+    }
+
+    /**
+     *
+     * @return The number of times this host has been ejected
+     */
+    public long getEjectionCount() {
+        return ejectionCount.get();
+    }
+
+    /**
+     *
+     * @return {@code true} if the host is currently ejected
+     */
+    public boolean isEjected() {
+        return isEjected(System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @return {@code true} if the host has returned from ejection and is still being ramped up
+     */
+    public boolean isSlowStart() {
+        long time = System.currentTimeMillis();
+        return time >= ejectedUntil && time < slowStartUntil;
+    }
+
+    @Override
+    public String toString() {
+        return "HostHealth{" +
+                "averageLatency=" + getAverageLatency() +
+                ", errorRate=" + getErrorRate() +
+                ", totalRequests=" + getTotalRequests() +
+                ", totalErrors=" + getTotalErrors() +
+                ", ejectionCount=" + getEjectionCount() +
+                ", ejected=" + isEjected() +
+                ", slowStart=" + isSlowStart() +
+                '}';
+    }
+}
@@ -20,8 +20,10 @@ package io.undertow.server.handlers.proxy;
 
 import io.undertow.UndertowMessages;
 import io.undertow.util.CopyOnWriteMap;
-import io.undertow.util.PathMatcher;
+import io.undertow.util.PathPrefixTrie;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -33,12 +35,15 @@ import java.util.concurrent.CopyOnWriteArraySet;
  *
  * Note that this class does not have any knowledge of connection pooling
  *
+ * The routes for each virtual host are held in an immutable {@link PathPrefixTrie} that is replaced whenever
+ * the routes change, so looking up the hosts for a request does not require any locking.
+ *
  * @author Stuart Douglas
  */
 public class HostTable<H> {
 
     private final Map<H, Set<Target>> hosts = new CopyOnWriteMap<>();
-    private final Map<String, PathMatcher<Set<H>>> targets = new CopyOnWriteMap<>();
+    private final Map<String, PathPrefixTrie<Set<H>>> targets = new CopyOnWriteMap<>();
 
     public synchronized HostTable addHost(H host) {
         if(hosts.containsKey(host)) {
@@ -62,17 +67,14 @@ public class HostTable<H> {
             throw UndertowMessages.MESSAGES.hostHasNotBeenRegistered(host);
         }
         hostData.add(new Target(virtualHost, contextPath));
-        PathMatcher<Set<H>> paths = targets.get(virtualHost);
+        PathPrefixTrie<Set<H>> paths = targets.get(virtualHost);
         if(paths == null) {
-            paths = new PathMatcher<>();
-            targets.put(virtualHost, paths);
-        }
-        Set<H> hostSet = paths.getPrefixPath(contextPath);
-        if(hostSet == null) {
-            hostSet = new CopyOnWriteArraySet<>();
-            paths.addPrefixPath(contextPath, hostSet);
+            paths = PathPrefixTrie.empty();
         }
+        Set<H> existing = paths.get(contextPath);
+        Set<H> hostSet = existing == null ? new LinkedHashSet<H>() : new LinkedHashSet<>(existing);
         hostSet.add(host);
+        targets.put(virtualHost, paths.with(contextPath, Collections.unmodifiableSet(hostSet)));
         return this;
     }
 
@@ -82,23 +84,31 @@ public class HostTable<H> {
         if(hostData != null) {
             hostData.remove(new Target(virtualHost, contextPath));
         }
-        PathMatcher<Set<H>> paths = targets.get(virtualHost);
+        PathPrefixTrie<Set<H>> paths = targets.get(virtualHost);
         if(paths == null) {
             return this;
         }
-        Set<H> hostSet = paths.getPrefixPath(contextPath);
-        if(hostSet == null) {
+        Set<H> existing = paths.get(contextPath);
+        if(existing == null || !existing.contains(host)) {
             return this;
         }
+        Set<H> hostSet = new LinkedHashSet<>(existing);
         hostSet.remove(host);
         if(hostSet.isEmpty()) {
-            paths.removePrefixPath(contextPath);
+            paths = paths.without(contextPath);
+        } else {
+            paths = paths.with(contextPath, Collections.unmodifiableSet(hostSet));
+        }
+        if(paths.isEmpty()) {
+            targets.remove(virtualHost);
+        } else {
+            targets.put(virtualHost, paths);
         }
         return this;
     }
 
     public Set<H> getHostsForTarget(final String hostName, final String path) {
-        PathMatcher<Set<H>> matcher = targets.get(hostName);
+        PathPrefixTrie<Set<H>> matcher = targets.get(hostName);
         if(matcher == null) {
             return null;
         }
@@ -0,0 +1,83 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.util.LatencyHistogram;
+
+/**
+ * Approximate latency percentile tracker, used to derive the hedging delay.
+ * <p>
+ * Samples are counted in a {@link LatencyHistogram}, so the result is accurate to within its bucket resolution. The
+ * percentile is recalculated at most once per update interval from the samples of the current and previous interval,
+ * after which the previous interval is discarded so that the value follows changes in backend latency.
+ */
+final class LatencyPercentileTracker {
+
+    private static final long UPDATE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final double percentile;
+    private final int minimumSamples;
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private LatencyHistogram previous = new LatencyHistogram();
+    private volatile long nextUpdate;
+    private volatile long value = -1;
+
+    LatencyPercentileTracker(double percentile, int minimumSamples) {
+        this.percentile = percentile;
+        this.minimumSamples = minimumSamples;
+        this.nextUpdate = System.nanoTime() + UPDATE_INTERVAL;
+    }
+
+    void record(long latency) {
+        current.record(latency);
+    }
+
+    /**
+     *
+     * @return The latency percentile in nanoseconds, or -1 if there are not enough samples yet
+     */
+    long getPercentile() {
+        final long time = System.nanoTime();
+        if (time - nextUpdate >= 0) {
+            synchronized (this) {
+                if (time - nextUpdate >= 0) {
+                    nextUpdate = time + UPDATE_INTERVAL;
+                    value = calculate();
+                }
+            }
+        }
+        return value;
+    }
+
+    private long calculate() {
+        final LatencyHistogram samples = previous.snapshot();
+        samples.add(current);
+        if (samples.getCount() < minimumSamples) {
+            //keep accumulating samples until there are enough
+            return value;
+        }
+        //samples recorded into the old histogram while it is being replaced are counted in the next interval
+        previous = current;
+        current = new LatencyHistogram();
+        return samples.getPercentile(percentile);
+    }
+}
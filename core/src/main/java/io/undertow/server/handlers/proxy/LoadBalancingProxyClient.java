@@ -20,6 +20,7 @@ package io.undertow.server.handlers.proxy;
 
 import io.undertow.UndertowLogger;
 import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientStatistics;
 import io.undertow.client.UndertowClient;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.ServerConnection;
@@ -36,7 +37,9 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static io.undertow.server.handlers.proxy.ProxyConnectionPool.AvailabilityType.*;
@@ -78,6 +81,66 @@ public class LoadBalancingProxyClient implements ProxyClient {
     private volatile int softMaxConnectionsPerThread = 5;
     private volatile int ttl = -1;
 
+    /**
+     * The maximum number of concurrent requests sent over a single HTTP/2 connection. If this is 0 the limit
+     * advertised by the backend is used, if it is 1 HTTP/2 connections are not shared between requests.
+     */
+    private volatile int maxConcurrentRequestsPerConnection = 0;
+
+    /**
+     * If passive outlier detection is enabled. If this is true the latency and error rate of every host is tracked,
+     * and hosts that are significantly slower than the rest of the cluster, or that have a high error rate, are
+     * temporarily ejected.
+     */
+    private volatile boolean outlierDetection = false;
+
+    /**
+     * The size of the sliding window used to calculate the error rate, in milliseconds
+     */
+    private volatile long outlierWindow = 10000;
+
+    /**
+     * The minimum number of requests in the window before a host can be considered an outlier
+     */
+    private volatile int outlierMinimumRequests = 20;
+
+    /**
+     * The error rate (between 0 and 1) above which a host will be ejected
+     */
+    private volatile double outlierErrorRate = 0.5;
+
+    /**
+     * The multiple of the average latency of the other hosts above which a host is considered to be slow
+     */
+    private volatile double outlierLatencyFactor = 3;
+
+    /**
+     * Latency in milliseconds below which a host will never be ejected for being slow
+     */
+    private volatile long outlierMinimumLatency = 100;
+
+    /**
+     * The smoothing factor used for the latency moving average
+     */
+    private volatile double outlierLatencySmoothing = 0.2;
+
+    /**
+     * The base time in milliseconds a host is ejected for. This is multiplied by the number of consecutive ejections.
+     */
+    private volatile long outlierEjectionTime = 30000;
+
+    /**
+     * The maximum percentage of hosts that can be ejected at any one time
+     */
+    private volatile int outlierMaxEjectionPercent = 50;
+
+    /**
+     * The time in milliseconds over which a host that has returned from ejection is ramped up to its full share of requests
+     */
+    private volatile long slowStartTime = 30000;
+
+    private final Object ejectionLock = new Object();
+
     /**
      * The hosts list.
      */
@@ -98,15 +161,7 @@ public class LoadBalancingProxyClient implements ProxyClient {
     public List<ProxyTarget> getAllTargets() {
         List<ProxyTarget> arr = new ArrayList();
         for (Host host : hosts) {
-            HostProxyTarget proxyTarget = new HostProxyTarget() {
-                Host host;
-                public void setHost(Host host) {
-                    this.host = host;
-                }
-                public String toString(){
-                    return host.getUri().toString();
-                }
-            };
+            HostTarget proxyTarget = new HostTarget();
             proxyTarget.setHost(host);
             arr.add(proxyTarget);
         }
@@ -184,11 +239,113 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return this;
     }
 
+    public int getMaxConcurrentRequestsPerConnection() {
+        return maxConcurrentRequestsPerConnection;
+    }
+
+    public LoadBalancingProxyClient setMaxConcurrentRequestsPerConnection(int maxConcurrentRequestsPerConnection) {
+        this.maxConcurrentRequestsPerConnection = maxConcurrentRequestsPerConnection;
+        return this;
+    }
+
     public LoadBalancingProxyClient setSoftMaxConnectionsPerThread(int softMaxConnectionsPerThread) {
         this.softMaxConnectionsPerThread = softMaxConnectionsPerThread;
         return this;
     }
 
+    public boolean isOutlierDetection() {
+        return outlierDetection;
+    }
+
+    /**
+     * Enables or disables passive outlier detection.
+     */
+    public LoadBalancingProxyClient setOutlierDetection(boolean outlierDetection) {
+        this.outlierDetection = outlierDetection;
+        return this;
+    }
+
+    public long getOutlierWindow() {
+        return outlierWindow;
+    }
+
+    public LoadBalancingProxyClient setOutlierWindow(long outlierWindow) {
+        this.outlierWindow = outlierWindow;
+        return this;
+    }
+
+    public int getOutlierMinimumRequests() {
+        return outlierMinimumRequests;
+    }
+
+    public LoadBalancingProxyClient setOutlierMinimumRequests(int outlierMinimumRequests) {
+        this.outlierMinimumRequests = outlierMinimumRequests;
+        return this;
+    }
+
+    public double getOutlierErrorRate() {
+        return outlierErrorRate;
+    }
+
+    public LoadBalancingProxyClient setOutlierErrorRate(double outlierErrorRate) {
+        this.outlierErrorRate = outlierErrorRate;
+        return this;
+    }
+
+    public double getOutlierLatencyFactor() {
+        return outlierLatencyFactor;
+    }
+
+    public LoadBalancingProxyClient setOutlierLatencyFactor(double outlierLatencyFactor) {
+        this.outlierLatencyFactor = outlierLatencyFactor;
+        return this;
+    }
+
+    public long getOutlierMinimumLatency() {
+        return outlierMinimumLatency;
+    }
+
+    public LoadBalancingProxyClient setOutlierMinimumLatency(long outlierMinimumLatency) {
+        this.outlierMinimumLatency = outlierMinimumLatency;
+        return this;
+    }
+
+    public double getOutlierLatencySmoothing() {
+        return outlierLatencySmoothing;
+    }
+
+    public LoadBalancingProxyClient setOutlierLatencySmoothing(double outlierLatencySmoothing) {
+        this.outlierLatencySmoothing = outlierLatencySmoothing;
+        return this;
+    }
+
+    public long getOutlierEjectionTime() {
+        return outlierEjectionTime;
+    }
+
+    public LoadBalancingProxyClient setOutlierEjectionTime(long outlierEjectionTime) {
+        this.outlierEjectionTime = outlierEjectionTime;
+        return this;
+    }
+
+    public int getOutlierMaxEjectionPercent() {
+        return outlierMaxEjectionPercent;
+    }
+
+    public LoadBalancingProxyClient setOutlierMaxEjectionPercent(int outlierMaxEjectionPercent) {
+        this.outlierMaxEjectionPercent = outlierMaxEjectionPercent;
+        return this;
+    }
+
+    public long getSlowStartTime() {
+        return slowStartTime;
+    }
+
+    public LoadBalancingProxyClient setSlowStartTime(long slowStartTime) {
+        this.slowStartTime = slowStartTime;
+        return this;
+    }
+
     public LoadBalancingProxyClient setRouteParsingStrategy(RouteParsingStrategy routeParsingStrategy) {
         this.routeIteratorFactory = new RouteIteratorFactory(routeParsingStrategy, ParsingCompatibility.MOD_JK, null);
         return this;
@@ -279,19 +436,20 @@ public class LoadBalancingProxyClient implements ProxyClient {
     }
 
     @Override
-    public void getConnection(ProxyTarget target, HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
+    public void getConnection(ProxyTarget target, HttpServerExchange exchange, final ProxyCallback<ProxyConnection> proxyCallback, long timeout, TimeUnit timeUnit) {
         final ExclusiveConnectionHolder holder = exchange.getConnection().getAttachment(exclusiveConnectionKey);
         if (holder != null && holder.connection.getConnection().isOpen()) {
             // Something has already caused an exclusive connection to be allocated so keep using it.
-            callback.completed(exchange, holder.connection);
+            proxyCallback.completed(exchange, holder.connection);
             return;
         }
 
         final Host host = selectHost(exchange);
         if (host == null) {
-            callback.couldNotResolveBackend(exchange);
+            proxyCallback.couldNotResolveBackend(exchange);
         } else {
             exchange.addToAttachmentList(ATTEMPTED_HOSTS, host);
+            final ProxyCallback<ProxyConnection> callback = outlierDetection ? new HealthTrackingCallback(host, proxyCallback) : proxyCallback;
             if (holder != null || (exclusivityChecker != null && exclusivityChecker.isExclusivityRequired(exchange))) {
                 // If we have a holder, even if the connection was closed we now exclusivity was already requested so our client
                 // may be assuming it still exists.
@@ -362,15 +520,31 @@ public class LoadBalancingProxyClient implements ProxyClient {
 
         int host = hostSelector.selectHost(hosts);
 
+        final boolean outlierDetection = this.outlierDetection;
+        final long time = outlierDetection ? System.currentTimeMillis() : 0;
         final int startHost = host; //if the all hosts have problems we come back to this one
+        Host rampingUp = null;
         Host full = null;
         Host problem = null;
         do {
             Host selected = hosts[host];
             if(attempted == null || !attempted.contains(selected)) {
                 ProxyConnectionPool.AvailabilityType available = selected.connectionPool.available();
+                double weight = 1;
+                if (outlierDetection && available == AVAILABLE) {
+                    weight = selected.health.getWeight(slowStartTime, time);
+                    if (weight == 0) {
+                        //ejected hosts are only used as a last resort
+                        available = PROBLEM;
+                    }
+                }
                 if (available == AVAILABLE) {
-                    return selected;
+                    if (weight >= 1 || ThreadLocalRandom.current().nextDouble() < weight) {
+                        return selected;
+                    } else if (rampingUp == null) {
+                        //the host is still in slow start, so only gets a proportion of the requests
+                        rampingUp = selected;
+                    }
                 } else if (available == FULL && full == null) {
                     full = selected;
                 } else if ((available == PROBLEM || available == FULL_QUEUE) && problem == null) {
@@ -379,6 +553,9 @@ public class LoadBalancingProxyClient implements ProxyClient {
             }
             host = (host + 1) % hosts.length;
         } while (host != startHost);
+        if (rampingUp != null) {
+            return rampingUp;
+        }
         if (full != null) {
             return full;
         }
@@ -389,6 +566,63 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return null;
     }
 
+    /**
+     * Records the result of a request that was sent to the given host, and ejects the host if it is now an outlier.
+     *
+     * @param host    The host
+     * @param latency The time taken to receive a response in nanoseconds, or -1 if no response was received
+     * @param error   If the request failed
+     */
+    void recordResult(Host host, long latency, boolean error) {
+        final long time = System.currentTimeMillis();
+        final HostHealth health = host.health;
+        health.record(latency, error, outlierLatencySmoothing, outlierWindow, time);
+        if (health.isEjected(time) || !isOutlier(host, time)) {
+            return;
+        }
+        synchronized (ejectionLock) {
+            Host[] hosts = this.hosts;
+            if (health.isEjected(time)) {
+                return;
+            }
+            int ejected = 0;
+            for (Host h : hosts) {
+                if (h.health.isEjected(time)) {
+                    ++ejected;
+                }
+            }
+            if ((ejected + 1) * 100 > hosts.length * outlierMaxEjectionPercent) {
+                return;
+            }
+            health.eject(outlierEjectionTime, slowStartTime, time);
+        }
+        UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Ejecting outlier host %s, %s", host.uri, health);
+    }
+
+    private boolean isOutlier(Host host, long time) {
+        final HostHealth health = host.health;
+        final long window = outlierWindow;
+        final int minimumRequests = outlierMinimumRequests;
+        long requests = health.getWindowRequests(window, time);
+        if (requests >= minimumRequests && health.getWindowErrors(window, time) >= requests * outlierErrorRate) {
+            return true;
+        }
+        final double latency = health.getAverageLatency();
+        if (health.getLatencySamples() < minimumRequests || latency < TimeUnit.MILLISECONDS.toNanos(outlierMinimumLatency)) {
+            return false;
+        }
+        //compare against the average of the rest of the cluster
+        double total = 0;
+        int count = 0;
+        for (Host h : hosts) {
+            if (h != host && !h.health.isEjected(time) && h.health.getLatencySamples() >= minimumRequests) {
+                total += h.health.getAverageLatency();
+                ++count;
+            }
+        }
+        return count > 0 && latency > (total / count) * outlierLatencyFactor;
+    }
+
     protected Iterator<CharSequence> parseRoutes(HttpServerExchange exchange) {
         for (String cookieName : sessionCookieNames) {
             for (Cookie cookie : exchange.requestCookies()) {
@@ -418,6 +652,7 @@ public class LoadBalancingProxyClient implements ProxyClient {
         final String jvmRoute;
         final URI uri;
         final XnioSsl ssl;
+        final HostHealth health = new HostHealth();
 
         private Host(String jvmRoute, InetSocketAddress bindAddress, URI uri, XnioSsl ssl, OptionMap options) {
             this.connectionPool = new ProxyConnectionPool(this, bindAddress, uri, ssl, client, options);
@@ -456,10 +691,35 @@ public class LoadBalancingProxyClient implements ProxyClient {
             return maxQueueSize;
         }
 
+        @Override
+        public int getMaxConcurrentRequestsPerConnection() {
+            return maxConcurrentRequestsPerConnection;
+        }
+
         public URI getUri() {
             return uri;
         }
 
+        public String getJvmRoute() {
+            return jvmRoute;
+        }
+
+        /**
+         *
+         * @return The passive health information for this host, this is only updated if outlier detection is enabled
+         */
+        public HostHealth getHealth() {
+            return health;
+        }
+
+        public int getOpenConnections() {
+            return connectionPool.getOpenConnections();
+        }
+
+        public ClientStatistics getClientStatistics() {
+            return connectionPool.getClientStatistics();
+        }
+
         void closeCurrentConnections() {
             connectionPool.closeCurrentConnections();
         }
@@ -471,6 +731,99 @@ public class LoadBalancingProxyClient implements ProxyClient {
 
     }
 
+    /**
+     * A proxy target that represents one of the hosts of this client, as returned by {@link #getAllTargets()}.
+     */
+    public static final class HostTarget implements HostProxyTarget {
+
+        private Host host;
+
+        @Override
+        public void setHost(Host host) {
+            this.host = host;
+        }
+
+        public Host getHost() {
+            return host;
+        }
+
+        @Override
+        public String toString() {
+            return host.getUri().toString();
+        }
+    }
+
+    /**
+     * Callback that records the result of each request for outlier detection purposes. The latency is measured from
+     * when the connection to the backend is obtained to when the response headers are received. If the request is
+     * hedged each attempt is recorded against its own host, and an attempt that lost to another is recorded with the
+     * time it had been running, which is a lower bound of its latency.
+     */
+    private final class HealthTrackingCallback implements ProxyCallback<ProxyConnection> {
+
+        private final Host host;
+        private final ProxyCallback<ProxyConnection> delegate;
+
+        private HealthTrackingCallback(Host host, ProxyCallback<ProxyConnection> delegate) {
+            this.host = host;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void completed(HttpServerExchange exchange, ProxyConnection result) {
+            result.setOutcomeListener(new HostOutcomeListener(host));
+            delegate.completed(exchange, result);
+        }
+
+        @Override
+        public void failed(HttpServerExchange exchange) {
+            recordResult(host, -1, true);
+            delegate.failed(exchange);
+        }
+
+        @Override
+        public void queuedRequestFailed(HttpServerExchange exchange) {
+            delegate.queuedRequestFailed(exchange);
+        }
+
+        @Override
+        public void couldNotResolveBackend(HttpServerExchange exchange) {
+            delegate.couldNotResolveBackend(exchange);
+        }
+    }
+
+    private final class HostOutcomeListener implements ProxyConnection.OutcomeListener {
+
+        private final Host host;
+        private final long start = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        private HostOutcomeListener(Host host) {
+            this.host = host;
+        }
+
+        @Override
+        public void responseReceived(int statusCode) {
+            if (recorded.compareAndSet(false, true)) {
+                recordResult(host, System.nanoTime() - start, statusCode >= 500);
+            }
+        }
+
+        @Override
+        public void requestFailed() {
+            if (recorded.compareAndSet(false, true)) {
+                recordResult(host, -1, true);
+            }
+        }
+
+        @Override
+        public void requestCancelled() {
+            if (recorded.compareAndSet(false, true)) {
+                recordResult(host, System.nanoTime() - start, false);
+            }
+        }
+    }
+
     public interface HostSelector {
 
         int selectHost(Host[] availableHosts);
@@ -29,10 +29,23 @@ public class ProxyConnection {
 
     private final ClientConnection connection;
     private final String targetPath;
+    private final Runnable releaseTask;
+    private volatile OutcomeListener outcomeListener;
 
     public ProxyConnection(ClientConnection connection, String targetPath) {
+        this(connection, targetPath, null);
+    }
+
+    /**
+     *
+     * @param connection  The connection
+     * @param targetPath  The target path
+     * @param releaseTask A task that returns the connection to its pool, or null if early release is not supported
+     */
+    public ProxyConnection(ClientConnection connection, String targetPath, Runnable releaseTask) {
         this.connection = connection;
         this.targetPath = targetPath;
+        this.releaseTask = releaseTask;
     }
 
     public ClientConnection getConnection() {
@@ -42,4 +55,65 @@ public class ProxyConnection {
     public String getTargetPath() {
         return targetPath;
     }
+
+    /**
+     * Returns the connection to its pool before the exchange is complete. This must only be called from the IO thread
+     * once the backend response has been fully read, and the connection must not be used by this exchange afterwards.
+     *
+     * @return <code>true</code> if the connection was released, <code>false</code> if early release is not supported
+     */
+    public boolean release() {
+        if (releaseTask == null) {
+            return false;
+        }
+        releaseTask.run();
+        return true;
+    }
+
+    void setOutcomeListener(OutcomeListener outcomeListener) {
+        this.outcomeListener = outcomeListener;
+    }
+
+    /**
+     * Called when the response headers for the request sent on this connection have been received
+     */
+    void responseReceived(int statusCode) {
+        final OutcomeListener listener = outcomeListener;
+        if (listener != null) {
+            listener.responseReceived(statusCode);
+        }
+    }
+
+    /**
+     * Called when the request sent on this connection has failed or timed out
+     */
+    void requestFailed() {
+        final OutcomeListener listener = outcomeListener;
+        if (listener != null) {
+            listener.requestFailed();
+        }
+    }
+
+    /**
+     * Called when the request sent on this connection was abandoned because another hedged request won
+     */
+    void requestCancelled() {
+        final OutcomeListener listener = outcomeListener;
+        if (listener != null) {
+            listener.requestCancelled();
+        }
+    }
+
+    /**
+     * Receives the outcome of the request sent on a connection, so the proxy client can track the health of the
+     * backend that handled it. Only the first outcome of a request is relevant.
+     */
+    interface OutcomeListener {
+
+        void responseReceived(int statusCode);
+
+        void requestFailed();
+
+        void requestCancelled();
+    }
 }
@@ -23,7 +23,9 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
@@ -56,6 +58,10 @@ import org.xnio.ssl.XnioSsl;
  *
  * In this case the caller is responsible for closing any connections.
  *
+ * Connections that support multiplexing (HTTP/2, either negotiated via ALPN or via a h2c upgrade) are not handed out
+ * exclusively, instead they are shared between concurrent requests up to the stream limit advertised by the backend, so
+ * only a small number of connections are needed per IO thread.
+ *
  * @author Stuart Douglas
  */
 public class ProxyConnectionPool implements Closeable {
@@ -104,6 +110,12 @@ public class ProxyConnectionPool implements Closeable {
      */
     private final long timeToLive;
 
+    /**
+     * The maximum number of concurrent requests on a multiplexed connection, as configured locally. The backend
+     * may further limit this.
+     */
+    private final int maxConcurrentRequestsPerConnection;
+
     /**
      * The total number of open connections, across all threads
      */
@@ -142,6 +154,7 @@ public class ProxyConnectionPool implements Closeable {
         this.maxCachedConnections = Math.max(connectionPoolManager.getMaxCachedConnections(), 0);
         this.coreCachedConnections = Math.max(connectionPoolManager.getSMaxConnections(), 0);
         this.timeToLive = connectionPoolManager.getTtl();
+        this.maxConcurrentRequestsPerConnection = connectionPoolManager.getMaxConcurrentRequestsPerConnection();
         this.bindAddress = bindAddress;
         this.uri = uri;
         this.ssl = ssl;
@@ -159,7 +172,8 @@ public class ProxyConnectionPool implements Closeable {
 
     public void close() {
         this.closed = true;
-        for (HostThreadData data : hostThreadData.values()) {
+        for (Map.Entry<XnioIoThread, HostThreadData> entry : hostThreadData.entrySet()) {
+            final HostThreadData data = entry.getValue();
             final ConnectionHolder holder = data.availableConnections.poll();
             if (holder != null) {
                 holder.clientConnection.getIoThread().execute(new Runnable() {
@@ -169,6 +183,26 @@ public class ProxyConnectionPool implements Closeable {
                     }
                 });
             }
+            entry.getKey().execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeIdleMultiplexedConnections(data);
+                }
+            });
+        }
+    }
+
+    /**
+     * Closes multiplexed connections that have no active requests. Connections that are still in use will be closed
+     * once their last request completes.
+     *
+     * @param data The host thread data, must be called from the owning IO thread
+     */
+    private void closeIdleMultiplexedConnections(HostThreadData data) {
+        for (ConnectionHolder holder : new ArrayList<>(data.multiplexedConnections)) {
+            if (holder.activeRequests <= 0) {
+                IoUtils.safeClose(holder.clientConnection);
+            }
         }
     }
 
@@ -189,14 +223,20 @@ public class ProxyConnectionPool implements Closeable {
         }
 
         HostThreadData hostData = getData();
+        if (connectionHolder.activeRequests > 0) {
+            connectionHolder.activeRequests--;
+        }
         if (closed) {
             //the host has been closed
-            IoUtils.safeClose(connectionHolder.clientConnection);
+            if (connectionHolder.activeRequests <= 0) {
+                IoUtils.safeClose(connectionHolder.clientConnection);
+            }
             ConnectionHolder con = hostData.availableConnections.poll();
             while (con != null) {
                 IoUtils.safeClose(con.clientConnection);
                 con = hostData.availableConnections.poll();
             }
+            closeIdleMultiplexedConnections(hostData);
             redistributeQueued(hostData);
             return;
         }
@@ -205,7 +245,27 @@ public class ProxyConnectionPool implements Closeable {
         //the close setter will handle creating a new connection and decrementing
         //the connection count
         final ClientConnection connection = connectionHolder.clientConnection;
-        if (connection.isOpen() && !connection.isUpgraded()) {
+        if (connectionHolder.multiplexed) {
+            if (connection.isOpen()) {
+                dispatchQueuedRequests(hostData, connectionHolder);
+                if (connectionHolder.activeRequests <= 0 && hostData.multiplexedConnections.size() > Math.max(maxCachedConnections, 1)) {
+                    //we have more idle multiplexed connections than we need
+                    IoUtils.safeClose(connection);
+                } else if (connectionHolder.activeRequests <= 0) {
+                    scheduleMultiplexedIdleTimeout(hostData, connectionHolder);
+                }
+            }
+            return;
+        }
+        if (connection.isOpen() && !connection.isUpgraded() && isMultiplexed(connection)) {
+            //a h2c upgrade has happened on this connection, so from now on it can be shared
+            connectionHolder.multiplexed = true;
+            hostData.multiplexedConnections.add(connectionHolder);
+            dispatchQueuedRequests(hostData, connectionHolder);
+            if (connectionHolder.activeRequests <= 0) {
+                scheduleMultiplexedIdleTimeout(hostData, connectionHolder);
+            }
+        } else if (connection.isOpen() && !connection.isUpgraded()) {
             CallbackHolder callback = hostData.awaitingConnections.poll();
             while (callback != null && callback.isCancelled()) {
                 callback = hostData.awaitingConnections.poll();
@@ -251,10 +311,39 @@ public class ProxyConnectionPool implements Closeable {
         }
     }
 
+    /**
+     * Starts the idle timeout of a multiplexed connection that has no active requests. Multiplexed connections are
+     * never in the available connection queue, so they are not seen by {@link #timeoutConnections(long, HostThreadData)}.
+     * As with exclusive connections, once only the core number of connections remain no more are timed out.
+     *
+     * @param data   The host thread data, must be called from the owning IO thread
+     * @param holder The idle connection
+     */
+    private void scheduleMultiplexedIdleTimeout(final HostThreadData data, final ConnectionHolder holder) {
+        if (timeToLive <= 0 || holder.idleTimeoutKey != null) {
+            return;
+        }
+        holder.timeout = System.currentTimeMillis() + timeToLive;
+        holder.idleTimeoutKey = WorkerUtils.executeAfter(holder.clientConnection.getIoThread(), new Runnable() {
+            @Override
+            public void run() {
+                holder.idleTimeoutKey = null;
+                if (holder.activeRequests <= 0 && data.multiplexedConnections.size() > coreCachedConnections) {
+                    IoUtils.safeClose(holder.clientConnection);
+                }
+            }
+        }, timeToLive, TimeUnit.MILLISECONDS);
+    }
+
     private void handleClosedConnection(HostThreadData hostData, final ConnectionHolder connection) {
+        if (connection.idleTimeoutKey != null) {
+            connection.idleTimeoutKey.remove();
+            connection.idleTimeoutKey = null;
+        }
         openConnections.decrementAndGet();
         int connections = --hostData.connections;
         hostData.availableConnections.remove(connection);
+        hostData.multiplexedConnections.remove(connection);
         if (connections < maxConnections) {
             CallbackHolder task = hostData.awaitingConnections.poll();
             while (task != null && task.isCancelled()) {
@@ -283,8 +372,16 @@ public class ProxyConnectionPool implements Closeable {
                                 handleClosedConnection(data, connectionHolder);
                             }
                         });
+                        if (isMultiplexed(result)) {
+                            connectionHolder.multiplexed = true;
+                            data.multiplexedConnections.add(connectionHolder);
+                        }
                     }
                     connectionReady(connectionHolder, callback, exchange, exclusive);
+                    if (connectionHolder.multiplexed) {
+                        //requests that queued while we were connecting can share this connection
+                        dispatchQueuedRequests(data, connectionHolder);
+                    }
                 }
 
                 @Override
@@ -334,13 +431,72 @@ public class ProxyConnectionPool implements Closeable {
         }
     }
 
+    private boolean isMultiplexed(ClientConnection connection) {
+        return maxConcurrentRequestsPerConnection != 1 && connection.isMultiplexingSupported();
+    }
+
+    /**
+     * Returns true if another request can be sent on the given multiplexed connection without exceeding either the
+     * local or the backend limit on concurrent streams.
+     */
+    private boolean hasCapacity(ConnectionHolder holder) {
+        if (!holder.clientConnection.isOpen()) {
+            return false;
+        }
+        int limit = holder.clientConnection.getMaxConcurrentRequests();
+        if (maxConcurrentRequestsPerConnection > 0 && (limit < 0 || maxConcurrentRequestsPerConnection < limit)) {
+            limit = maxConcurrentRequestsPerConnection;
+        }
+        return limit < 0 || holder.activeRequests < limit;
+    }
+
+    /**
+     * Finds a multiplexed connection that can accept another request. Connections are filled in order, so that
+     * the minimum number of connections is kept busy and surplus connections can be closed when they become idle.
+     */
+    private ConnectionHolder findMultiplexedConnection(HostThreadData data) {
+        for (ConnectionHolder holder : data.multiplexedConnections) {
+            if (hasCapacity(holder)) {
+                return holder;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands queued requests to a multiplexed connection, until either the queue is empty or the stream limit is reached.
+     */
+    private void dispatchQueuedRequests(HostThreadData data, ConnectionHolder holder) {
+        while (hasCapacity(holder)) {
+            CallbackHolder callback = data.awaitingConnections.poll();
+            while (callback != null && callback.isCancelled()) {
+                callback = data.awaitingConnections.poll();
+            }
+            if (callback == null) {
+                return;
+            }
+            if (callback.getTimeoutKey() != null) {
+                callback.getTimeoutKey().remove();
+            }
+            connectionReady(holder, callback.getCallback(), callback.getExchange(), false);
+        }
+    }
+
     private void connectionReady(final ConnectionHolder result, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange, final boolean exclusive) {
+        if (!exclusive) {
+            result.activeRequests++;
+            if (result.idleTimeoutKey != null) {
+                result.idleTimeoutKey.remove();
+                result.idleTimeoutKey = null;
+            }
+        }
+        final ConnectionReleaser releaser = exclusive ? null : new ConnectionReleaser(result);
         try {
             exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
                 @Override
                 public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
-                    if (!exclusive) {
-                        returnConnection(result);
+                    if (releaser != null) {
+                        releaser.run();
                     }
                     nextListener.proceed();
                 }
@@ -350,7 +506,29 @@ public class ProxyConnectionPool implements Closeable {
             callback.failed(exchange);
             return;
         }
-        callback.completed(exchange, new ProxyConnection(result.clientConnection, uri.getPath() == null ? "/" : uri.getPath()));
+        callback.completed(exchange, new ProxyConnection(result.clientConnection, uri.getPath() == null ? "/" : uri.getPath(), releaser));
+    }
+
+    /**
+     * Returns a connection to the pool exactly once, either when the exchange completes or when the connection is
+     * released early because the response has been buffered.
+     */
+    private final class ConnectionReleaser implements Runnable {
+
+        private final ConnectionHolder connectionHolder;
+        private boolean released;
+
+        private ConnectionReleaser(ConnectionHolder connectionHolder) {
+            this.connectionHolder = connectionHolder;
+        }
+
+        @Override
+        public void run() {
+            if (!released) {
+                released = true;
+                returnConnection(connectionHolder);
+            }
+        }
     }
 
     public AvailabilityType available() {
@@ -367,6 +545,9 @@ public class ProxyConnectionPool implements Closeable {
         if (!data.availableConnections.isEmpty()) {
             return AvailabilityType.AVAILABLE;
         }
+        if (findMultiplexedConnection(data) != null) {
+            return AvailabilityType.AVAILABLE;
+        }
         if (data.awaitingConnections.size() >= connectionPoolManager.getMaxQueueSize()) {
             return AvailabilityType.FULL_QUEUE;
         }
@@ -536,11 +717,18 @@ public class ProxyConnectionPool implements Closeable {
      */
     public void connect(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit, boolean exclusive) {
         HostThreadData data = getData();
+        boolean upgradeRequest = exchange.getRequestHeaders().contains(Headers.UPGRADE);
+        if (!exclusive && !upgradeRequest) {
+            ConnectionHolder multiplexed = findMultiplexedConnection(data);
+            if (multiplexed != null) {
+                connectionReady(multiplexed, callback, exchange, false);
+                return;
+            }
+        }
         ConnectionHolder connectionHolder = data.availableConnections.poll();
         while (connectionHolder != null && !connectionHolder.clientConnection.isOpen()) {
             connectionHolder = data.availableConnections.poll();
         }
-        boolean upgradeRequest = exchange.getRequestHeaders().contains(Headers.UPGRADE);
         if (connectionHolder != null && (!upgradeRequest || connectionHolder.clientConnection.isUpgradeSupported())) {
             if (exclusive) {
                 data.connections--;
@@ -581,6 +769,10 @@ public class ProxyConnectionPool implements Closeable {
                         IoUtils.safeClose(d.clientConnection);
                         d = data.getValue().availableConnections.poll();
                     }
+                    for (ConnectionHolder holder : new ArrayList<>(data.getValue().multiplexedConnections)) {
+                        IoUtils.safeClose(holder.clientConnection);
+                    }
+                    data.getValue().multiplexedConnections.clear();
                     data.getValue().connections = 0;
                     latch.countDown();
                 }
@@ -601,6 +793,10 @@ public class ProxyConnectionPool implements Closeable {
         long nextTimeout = -1;
 
         final Deque<ConnectionHolder> availableConnections = new ArrayDeque<>();
+        /**
+         * Connections that can be shared by concurrent requests. These are never in {@link #availableConnections}.
+         */
+        final List<ConnectionHolder> multiplexedConnections = new ArrayList<>();
         final Deque<CallbackHolder> awaitingConnections = new ArrayDeque<>();
         final Runnable timeoutTask = new Runnable() {
             @Override
@@ -616,6 +812,15 @@ public class ProxyConnectionPool implements Closeable {
 
         private long timeout;
         private final ClientConnection clientConnection;
+        /**
+         * The number of requests currently using this connection, this can only be more than one if the connection is multiplexed
+         */
+        private int activeRequests;
+        private boolean multiplexed;
+        /**
+         * The idle timeout of a multiplexed connection with no active requests
+         */
+        private XnioExecutor.Key idleTimeoutKey;
 
         private ConnectionHolder(ClientConnection clientConnection) {
             this.clientConnection = clientConnection;
@@ -58,4 +58,15 @@ public interface ProxyConnectionPoolConfig {
      */
     int getMaxQueueSize();
 
+    /**
+     * Get the maximum number of requests that can be active at the same time on a single connection that supports
+     * multiplexing (i.e. HTTP/2). The lower of this value and the limit advertised by the backend in its settings is
+     * used. A value of 0 or less means only the backend limit applies, a value of 1 disables multiplexing.
+     *
+     * @return
+     */
+    default int getMaxConcurrentRequestsPerConnection() {
+        return 0;
+    }
+
 }
@@ -76,9 +76,11 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.nio.channels.Channel;
+import java.nio.file.Path;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
 import java.security.cert.CertificateEncodingException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -103,13 +105,32 @@ public final class ProxyHandler implements HttpHandler {
 
     private static final int DEFAULT_MAX_RETRY_ATTEMPTS = Integer.getInteger("io.undertow.server.handlers.proxy.maxRetries", 1);
 
+    /**
+     * The number of responses that must have been seen before hedging starts, as until then we cannot estimate the
+     * latency percentile
+     */
+    private static final int HEDGE_MINIMUM_SAMPLES = 100;
+
+    /**
+     * The retry budget percentage used if hedging is enabled without an explicit budget
+     */
+    private static final int DEFAULT_HEDGE_BUDGET = 10;
+
+    private static final long DEFAULT_MAX_RESPONSE_BUFFER_FILE_SIZE = 1024 * 1024 * 1024;
+    private static final long DEFAULT_MAX_TOTAL_RESPONSE_BUFFER_MEMORY = 64 * 1024 * 1024;
+
+    private static final HttpString X_ACCEL_BUFFERING = new HttpString("X-Accel-Buffering");
+
     private static final Logger log = Logger.getLogger(ProxyHandler.class.getPackage().getName());
 
     public static final String UTF_8 = StandardCharsets.UTF_8.name();
 
-    private static final AttachmentKey<ProxyConnection> CONNECTION = AttachmentKey.create(ProxyConnection.class);
+    static final AttachmentKey<ProxyConnection> CONNECTION = AttachmentKey.create(ProxyConnection.class);
     private static final AttachmentKey<HttpServerExchange> EXCHANGE = AttachmentKey.create(HttpServerExchange.class);
     private static final AttachmentKey<XnioExecutor.Key> TIMEOUT_KEY = AttachmentKey.create(XnioExecutor.Key.class);
+    private static final AttachmentKey<ClientExchange> CLIENT_EXCHANGE = AttachmentKey.create(ClientExchange.class);
+    private static final AttachmentKey<HedgeState> HEDGE = AttachmentKey.create(HedgeState.class);
+    private static final AttachmentKey<BufferingResponseTransfer.Settings> RESPONSE_BUFFERING = AttachmentKey.create(BufferingResponseTransfer.Settings.class);
 
     private final ProxyClient proxyClient;
     private final int maxRequestTime;
@@ -127,6 +148,25 @@ public final class ProxyHandler implements HttpHandler {
 
     private final Predicate idempotentRequestPredicate;
 
+    /**
+     * Limits the number of retries and hedged requests, may be null in which case retries are only limited by
+     * {@link #maxConnectionRetries}
+     */
+    private final RetryBudget retryBudget;
+
+    /**
+     * If idempotent requests are hedged. If this is true then if no response has been received from the backend
+     * after the configured latency percentile a second request is sent, and the first response received is used.
+     */
+    private final boolean hedging;
+    private final long minHedgeDelay;
+    private final LatencyPercentileTracker latencyTracker;
+
+    /**
+     * The response buffering settings, or null if responses are streamed directly to the client
+     */
+    private final BufferingResponseTransfer.Settings responseBuffering;
+
     @Deprecated
     public ProxyHandler(ProxyClient proxyClient, int maxRequestTime, HttpHandler next) {
         this(proxyClient, maxRequestTime, next, false, false);
@@ -162,6 +202,11 @@ public final class ProxyHandler implements HttpHandler {
         this.reuseXForwarded = reuseXForwarded;
         this.maxConnectionRetries = maxConnectionRetries;
         this.idempotentRequestPredicate = IdempotentPredicate.INSTANCE;
+        this.retryBudget = null;
+        this.hedging = false;
+        this.minHedgeDelay = 0;
+        this.latencyTracker = null;
+        this.responseBuffering = null;
     }
 
     @Deprecated
@@ -177,6 +222,20 @@ public final class ProxyHandler implements HttpHandler {
         this.reuseXForwarded = builder.reuseXForwarded;
         this.maxConnectionRetries = builder.maxConnectionRetries;
         this.idempotentRequestPredicate = builder.idempotentRequestPredicate;
+        this.hedging = builder.hedging;
+        this.minHedgeDelay = builder.minHedgeDelay;
+        if (hedging) {
+            this.latencyTracker = new LatencyPercentileTracker(builder.hedgePercentile, HEDGE_MINIMUM_SAMPLES);
+            this.retryBudget = builder.retryBudget == null ? new RetryBudget(DEFAULT_HEDGE_BUDGET, DEFAULT_HEDGE_BUDGET) : builder.retryBudget;
+        } else {
+            this.latencyTracker = null;
+            this.retryBudget = builder.retryBudget;
+        }
+        if (builder.responseBufferSize > 0) {
+            this.responseBuffering = new BufferingResponseTransfer.Settings(builder.responseBufferSize, builder.maxTotalResponseBufferMemory, builder.maxResponseBufferFileSize, builder.responseBufferTempDirectory);
+        } else {
+            this.responseBuffering = null;
+        }
         for(Map.Entry<HttpString, ExchangeAttribute> e : builder.requestHeaders.entrySet()) {
             requestHeaders.put(e.getKey(), e.getValue());
         }
@@ -201,7 +260,16 @@ public final class ProxyHandler implements HttpHandler {
         if(target instanceof ProxyClient.MaxRetriesProxyTarget) {
             maxRetries = Math.max(maxRetries, ((ProxyClient.MaxRetriesProxyTarget) target).getMaxRetries());
         }
+        if (retryBudget != null) {
+            retryBudget.requestStarted();
+        }
         final ProxyClientHandler clientHandler = new ProxyClientHandler(exchange, target, timeout, maxRetries, idempotentRequestPredicate);
+        if (hedging && exchange.isRequestComplete() && !exchange.getRequestHeaders().contains(Headers.UPGRADE) && idempotentRequestPredicate.resolve(exchange)) {
+            exchange.putAttachment(HEDGE, new HedgeState(latencyTracker, clientHandler));
+        }
+        if (responseBuffering != null) {
+            exchange.putAttachment(RESPONSE_BUFFERING, responseBuffering);
+        }
         if (timeout > 0) {
             final XnioExecutor.Key key = WorkerUtils.executeAfter(exchange.getIoThread(), new Runnable() {
                 @Override
@@ -345,13 +413,82 @@ public final class ProxyHandler implements HttpHandler {
         @Override
         public void completed(final HttpServerExchange exchange, final ProxyConnection connection) {
             exchange.putAttachment(CONNECTION, connection);
+            final HedgeState hedge = exchange.getAttachment(HEDGE);
+            if (hedge != null && !hedge.scheduled) {
+                hedge.scheduled = true;
+                scheduleHedge(hedge);
+            }
             exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, exchange.isRequestComplete() ? this : null, idempotentPredicate));
         }
 
+        private void scheduleHedge(final HedgeState hedge) {
+            final long percentile = latencyTracker.getPercentile();
+            if (percentile < 0) {
+                //not enough data yet
+                return;
+            }
+            final long delay = Math.max(TimeUnit.NANOSECONDS.toMillis(percentile), minHedgeDelay);
+            WorkerUtils.executeAfter(exchange.getIoThread(), new Runnable() {
+                @Override
+                public void run() {
+                    sendHedge(hedge);
+                }
+            }, Math.max(delay, 1), TimeUnit.MILLISECONDS);
+        }
+
+        private void sendHedge(final HedgeState hedge) {
+            if (hedge.isDecided() || exchange.isResponseStarted() || exchange.isComplete()) {
+                return;
+            }
+            final long remaining;
+            if (timeout > 0) {
+                remaining = timeout - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return;
+                }
+            } else {
+                remaining = -1;
+            }
+            if (!retryBudget.tryAcquire()) {
+                log.debugf("Not hedging request for exchange %s as the retry budget is exhausted", exchange);
+                return;
+            }
+            final ProxyClient.ProxyTarget hedgeTarget = proxyClient.findTarget(exchange);
+            if (hedgeTarget == null) {
+                return;
+            }
+            log.debugf("Sending hedged request for exchange %s", exchange);
+            proxyClient.getConnection(hedgeTarget, exchange, new ProxyCallback<ProxyConnection>() {
+                @Override
+                public void completed(HttpServerExchange exchange, ProxyConnection result) {
+                    if (hedge.isDecided() || exchange.isResponseStarted()) {
+                        //the connection will be returned to the pool when the exchange completes
+                        return;
+                    }
+                    new ProxyAction(result, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, null, idempotentPredicate).run();
+                }
+
+                @Override
+                public void failed(HttpServerExchange exchange) {
+                    log.debugf("Failed to obtain connection for hedged request for exchange %s", exchange);
+                }
+
+                @Override
+                public void queuedRequestFailed(HttpServerExchange exchange) {
+                    failed(exchange);
+                }
+
+                @Override
+                public void couldNotResolveBackend(HttpServerExchange exchange) {
+                    failed(exchange);
+                }
+            }, remaining, TimeUnit.MILLISECONDS);
+        }
+
         @Override
         public void failed(final HttpServerExchange exchange) {
             final long time = System.currentTimeMillis();
-            if (tries++ < maxRetryAttempts) {
+            if (tries++ < maxRetryAttempts && (retryBudget == null || retryBudget.tryAcquire())) {
                 if (timeout > 0 && time > timeout) {
                     cancel(exchange);
                 } else {
@@ -386,10 +523,15 @@ public final class ProxyHandler implements HttpHandler {
         void cancel(final HttpServerExchange exchange) {
             //NOTE: this method is called only in context of timeouts.
             final ProxyConnection connectionAttachment = exchange.getAttachment(CONNECTION);
-            if (connectionAttachment != null) {
+            final HedgeState hedge = exchange.getAttachment(HEDGE);
+            if (hedge != null && hedge.hasAttempts()) {
+                //every attempt has its own backend request, all of them have to be aborted
+                hedge.cancel(exchange);
+            } else if (connectionAttachment != null) {
                 ClientConnection clientConnection = connectionAttachment.getConnection();
                 UndertowLogger.PROXY_REQUEST_LOGGER.timingOutRequest(clientConnection.getPeerAddress() + "" + exchange.getRequestURI());
-                IoUtils.safeClose(clientConnection);
+                connectionAttachment.requestFailed();
+                abortBackendExchange(clientConnection, exchange.getAttachment(CLIENT_EXCHANGE));
             } else {
                 UndertowLogger.PROXY_REQUEST_LOGGER.timingOutRequest(exchange.getRequestURI());
             }
@@ -411,6 +553,7 @@ public final class ProxyHandler implements HttpHandler {
         private final boolean reuseXForwarded;
         private final ProxyClientHandler proxyClientHandler;
         private final Predicate idempotentPredicate;
+        private HedgeState.Attempt attempt;
 
         ProxyAction(final ProxyConnection clientConnection, final HttpServerExchange exchange, Map<HttpString, ExchangeAttribute> requestHeaders,
                 boolean rewriteHostHeader, boolean reuseXForwarded, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate) {
@@ -425,6 +568,10 @@ public final class ProxyHandler implements HttpHandler {
 
         @Override
         public void run() {
+            final HedgeState hedge = exchange.getAttachment(HEDGE);
+            if (hedge != null) {
+                attempt = hedge.attemptStarted(clientConnection);
+            }
             final ClientRequest request = new ClientRequest();
 
             String targetURI = exchange.getRequestURI();
@@ -603,6 +750,10 @@ public final class ProxyHandler implements HttpHandler {
                         log.debugf("Sent request %s to target %s for exchange %s", request, remoteHost, exchange);
                     }
                     result.putAttachment(EXCHANGE, exchange);
+                    exchange.putAttachment(CLIENT_EXCHANGE, result);
+                    if (attempt != null) {
+                        attempt.requestSent(result);
+                    }
 
                     boolean requiresContinueResponse = HttpContinue.requiresContinueResponse(exchange);
                     if (requiresContinueResponse) {
@@ -620,7 +771,7 @@ public final class ProxyHandler implements HttpHandler {
 
                                     @Override
                                     public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
-                                        IoUtils.safeClose(clientConnection.getConnection());
+                                        abortBackendExchange(clientConnection.getConnection(), result);
                                         exchange.endExchange();
                                         UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
                                     }
@@ -657,15 +808,15 @@ public final class ProxyHandler implements HttpHandler {
                     }
 
 
-                    result.setResponseListener(new ResponseCallback(exchange, proxyClientHandler, idempotentPredicate));
-                    final IoExceptionHandler handler = new IoExceptionHandler(exchange, clientConnection.getConnection());
+                    result.setResponseListener(new ResponseCallback(exchange, clientConnection, proxyClientHandler, idempotentPredicate, attempt));
+                    final IoExceptionHandler handler = new IoExceptionHandler(exchange, clientConnection.getConnection(), result);
                     if(requiresContinueResponse) {
                         try {
                             if(!result.getRequestChannel().flush()) {
                                 result.getRequestChannel().getWriteSetter().set(ChannelListeners.flushingChannelListener(new ChannelListener<StreamSinkChannel>() {
                                     @Override
                                     public void handleEvent(StreamSinkChannel channel) {
-                                        Transfer.initiateTransfer(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(exchange, result, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
+                                        Transfer.initiateTransfer(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(exchange, result, exchange, clientConnection, proxyClientHandler, idempotentPredicate, attempt), handler, handler, exchange.getConnection().getByteBufferPool());
 
                                     }
                                 }, handler));
@@ -676,7 +827,7 @@ public final class ProxyHandler implements HttpHandler {
                             handler.handleException(result.getRequestChannel(), e);
                         }
                     }
-                    HTTPTrailerChannelListener trailerListener = new HTTPTrailerChannelListener(exchange, result, exchange, proxyClientHandler, idempotentPredicate);
+                    HTTPTrailerChannelListener trailerListener = new HTTPTrailerChannelListener(exchange, result, exchange, clientConnection, proxyClientHandler, idempotentPredicate, attempt);
                     if(!exchange.isRequestComplete()) {
                         Transfer.initiateTransfer(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), trailerListener, handler, handler, exchange.getConnection().getByteBufferPool());
                     } else {
@@ -687,7 +838,7 @@ public final class ProxyHandler implements HttpHandler {
 
                 @Override
                 public void failed(IOException e) {
-                    handleFailure(exchange, proxyClientHandler, idempotentPredicate, e);
+                    handleFailure(exchange, clientConnection, proxyClientHandler, idempotentPredicate, attempt, e);
                 }
             });
 
@@ -695,7 +846,43 @@ public final class ProxyHandler implements HttpHandler {
         }
     }
 
-    static void handleFailure(HttpServerExchange exchange, ProxyClientHandler proxyClientHandler, Predicate idempotentRequestPredicate, IOException e) {
+    /**
+     * Aborts the backend side of a single proxied request. A multiplexed connection is shared with other requests, so
+     * only the streams of this request are closed, which resets them. Otherwise the whole connection is closed, as it
+     * can not be reused while the request is in an unknown state.
+     *
+     * @param connection     The backend connection, may be null
+     * @param clientExchange The backend request, may be null if it has not been sent
+     */
+    static void abortBackendExchange(ClientConnection connection, ClientExchange clientExchange) {
+        if (connection == null) {
+            return;
+        }
+        if (connection.isMultiplexingSupported()) {
+            if (clientExchange != null) {
+                IoUtils.safeClose(clientExchange.getRequestChannel());
+                IoUtils.safeClose(clientExchange.getResponseChannel());
+            }
+        } else {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    static void handleFailure(HttpServerExchange exchange, ProxyConnection proxyConnection, ProxyClientHandler proxyClientHandler, Predicate idempotentRequestPredicate, HedgeState.Attempt attempt, IOException e) {
+        if (proxyConnection != null) {
+            proxyConnection.requestFailed();
+        }
+        if (attempt != null) {
+            if (!attempt.failed()) {
+                //another attempt is either still in progress or has already provided the response
+                log.debugf(e, "Hedged request attempt failed for exchange %s", exchange);
+                return;
+            }
+            if (proxyClientHandler == null) {
+                //the hedged attempt was the last to fail, so allow it to be retried
+                proxyClientHandler = attempt.getClientHandler();
+            }
+        }
         UndertowLogger.PROXY_REQUEST_LOGGER.proxyRequestFailed(exchange.getRequestURI(), e);
         if(exchange.isResponseStarted()) {
             IoUtils.safeClose(exchange.getConnection());
@@ -710,19 +897,37 @@ public final class ProxyHandler implements HttpHandler {
     private static final class ResponseCallback implements ClientCallback<ClientExchange> {
 
         private final HttpServerExchange exchange;
+        private final ProxyConnection proxyConnection;
         private final ProxyClientHandler proxyClientHandler;
         private final Predicate idempotentPredicate;
+        private final HedgeState.Attempt attempt;
+        private final long start;
 
-        private ResponseCallback(HttpServerExchange exchange, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate) {
+        private ResponseCallback(HttpServerExchange exchange, ProxyConnection proxyConnection, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate, HedgeState.Attempt attempt) {
             this.exchange = exchange;
+            this.proxyConnection = proxyConnection;
             this.proxyClientHandler = proxyClientHandler;
             this.idempotentPredicate = idempotentPredicate;
+            this.attempt = attempt;
+            this.start = attempt != null ? System.nanoTime() : 0;
         }
 
         @Override
         public void completed(final ClientExchange result) {
 
+            if (attempt != null && !attempt.responseReceived(System.nanoTime() - start)) {
+                //another attempt has already provided the response, discard this one
+                abortBackendExchange(result.getConnection(), result);
+                return;
+            }
+            if (exchange.isComplete()) {
+                //the exchange has already timed out, so only this request's stream may still be open
+                abortBackendExchange(result.getConnection(), result);
+                return;
+            }
+
             final ClientResponse response = result.getResponse();
+            proxyConnection.responseReceived(response.getResponseCode());
 
             if(log.isDebugEnabled()) {
                 log.debugf("Received response %s for request %s for exchange %s", response, result.getRequest(), exchange);
@@ -761,13 +966,42 @@ public final class ProxyHandler implements HttpHandler {
                     }
                 });
             }
-            final IoExceptionHandler handler = new IoExceptionHandler(exchange, result.getConnection());
-            Transfer.initiateTransfer(result.getResponseChannel(), exchange.getResponseChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(result, exchange, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
+            final IoExceptionHandler handler = new IoExceptionHandler(exchange, result.getConnection(), result);
+            final HTTPTrailerChannelListener trailerListener = new HTTPTrailerChannelListener(result, exchange, exchange, null, proxyClientHandler, idempotentPredicate, attempt);
+            final BufferingResponseTransfer.Settings buffering = exchange.getAttachment(RESPONSE_BUFFERING);
+            if (buffering != null && !exchange.isUpgrade() && isBufferable(response, buffering)) {
+                //once the response has been read the backend connection may be in use by another exchange, so
+                //failures writing to the client must not close it
+                new BufferingResponseTransfer(exchange, result.getResponseChannel(), proxyConnection, buffering, trailerListener, handler, new IoExceptionHandler(exchange, null, null)).start();
+                return;
+            }
+            Transfer.initiateTransfer(result.getResponseChannel(), exchange.getResponseChannel(), ChannelListeners.closingChannelListener(), trailerListener, handler, handler, exchange.getConnection().getByteBufferPool());
+        }
+
+        private boolean isBufferable(ClientResponse response, BufferingResponseTransfer.Settings buffering) {
+            final HeaderMap headers = response.getResponseHeaders();
+            if ("no".equalsIgnoreCase(headers.getFirst(X_ACCEL_BUFFERING))) {
+                //the backend has explicitly asked for the response to be streamed
+                return false;
+            }
+            final String contentType = headers.getFirst(Headers.CONTENT_TYPE);
+            if (contentType != null && contentType.startsWith("text/event-stream")) {
+                return false;
+            }
+            final String contentLength = headers.getFirst(Headers.CONTENT_LENGTH);
+            if (contentLength != null) {
+                try {
+                    return buffering.canBuffer(Long.parseLong(contentLength));
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         @Override
         public void failed(IOException e) {
-            handleFailure(exchange, proxyClientHandler, idempotentPredicate, e);
+            handleFailure(exchange, proxyConnection, proxyClientHandler, idempotentPredicate, attempt, e);
         }
     }
 
@@ -776,15 +1010,22 @@ public final class ProxyHandler implements HttpHandler {
         private final Attachable source;
         private final Attachable target;
         private final HttpServerExchange exchange;
+        /**
+         * The backend connection, if failures of this listener are failures of the backend request
+         */
+        private final ProxyConnection proxyConnection;
         private final ProxyClientHandler proxyClientHandler;
         private final Predicate idempotentPredicate;
+        private final HedgeState.Attempt attempt;
 
-        private HTTPTrailerChannelListener(final Attachable source, final Attachable target, HttpServerExchange exchange, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate) {
+        private HTTPTrailerChannelListener(final Attachable source, final Attachable target, HttpServerExchange exchange, ProxyConnection proxyConnection, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate, HedgeState.Attempt attempt) {
             this.source = source;
             this.target = target;
             this.exchange = exchange;
+            this.proxyConnection = proxyConnection;
             this.proxyClientHandler = proxyClientHandler;
             this.idempotentPredicate = idempotentPredicate;
+            this.attempt = attempt;
         }
 
         @Override
@@ -809,9 +1050,9 @@ public final class ProxyHandler implements HttpHandler {
                     channel.shutdownWrites();
                 }
             } catch (IOException e) {
-                handleFailure(exchange, proxyClientHandler, idempotentPredicate, e);
+                handleFailure(exchange, proxyConnection, proxyClientHandler, idempotentPredicate, attempt, e);
             } catch (Exception e) {
-                handleFailure(exchange, proxyClientHandler, idempotentPredicate, new IOException(e));
+                handleFailure(exchange, proxyConnection, proxyClientHandler, idempotentPredicate, attempt, new IOException(e));
             }
 
         }
@@ -821,16 +1062,18 @@ public final class ProxyHandler implements HttpHandler {
 
         private final HttpServerExchange exchange;
         private final ClientConnection clientConnection;
+        private final ClientExchange clientExchange;
 
-        private IoExceptionHandler(HttpServerExchange exchange, ClientConnection clientConnection) {
+        private IoExceptionHandler(HttpServerExchange exchange, ClientConnection clientConnection, ClientExchange clientExchange) {
             this.exchange = exchange;
             this.clientConnection = clientConnection;
+            this.clientExchange = clientExchange;
         }
 
         @Override
         public void handleException(Channel channel, IOException exception) {
             IoUtils.safeClose(channel);
-            IoUtils.safeClose(clientConnection);
+            abortBackendExchange(clientConnection, clientExchange);
             if (exchange.isResponseStarted()) {
                 UndertowLogger.REQUEST_IO_LOGGER.debug("Exception reading from target server", exception);
                 if (!exchange.isResponseStarted()) {
@@ -881,6 +1124,148 @@ public final class ProxyHandler implements HttpHandler {
         return idempotentRequestPredicate;
     }
 
+    public RetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    public boolean isResponseBuffering() {
+        return responseBuffering != null;
+    }
+
+    /**
+     *
+     * @return The amount of memory currently used to buffer responses by all exchanges of this handler
+     */
+    public long getResponseBufferMemoryInUse() {
+        return responseBuffering == null ? 0 : responseBuffering.getMemoryInUse();
+    }
+
+    /**
+     * Tracks the state of an exchange for which idempotent request hedging is enabled. There is one attempt for every
+     * backend request that is sent, and the first attempt to receive a response wins. All methods are only invoked
+     * from the IO thread of the exchange, as that is where all backend connections for the exchange are opened.
+     */
+    private static final class HedgeState {
+
+        private final LatencyPercentileTracker latencyTracker;
+        private final ProxyClientHandler clientHandler;
+        private final List<Attempt> attempts = new ArrayList<>(2);
+        private Attempt winner;
+        private int outstanding;
+        private boolean scheduled;
+
+        private HedgeState(LatencyPercentileTracker latencyTracker, ProxyClientHandler clientHandler) {
+            this.latencyTracker = latencyTracker;
+            this.clientHandler = clientHandler;
+        }
+
+        Attempt attemptStarted(ProxyConnection connection) {
+            Attempt attempt = new Attempt(connection);
+            attempts.add(attempt);
+            outstanding++;
+            return attempt;
+        }
+
+        boolean isDecided() {
+            return winner != null;
+        }
+
+        boolean hasAttempts() {
+            return !attempts.isEmpty();
+        }
+
+        /**
+         * Aborts the backend requests of all attempts that are still in progress, including the winner
+         */
+        void cancel(HttpServerExchange exchange) {
+            for (Attempt attempt : attempts) {
+                if (!attempt.finished) {
+                    UndertowLogger.PROXY_REQUEST_LOGGER.timingOutRequest(attempt.connection.getPeerAddress() + "" + exchange.getRequestURI());
+                    attempt.proxyConnection.requestFailed();
+                    attempt.abort();
+                }
+            }
+        }
+
+        final class Attempt {
+
+            private final ProxyConnection proxyConnection;
+            private final ClientConnection connection;
+            private ClientExchange clientExchange;
+            private boolean finished;
+
+            private Attempt(ProxyConnection proxyConnection) {
+                this.proxyConnection = proxyConnection;
+                this.connection = proxyConnection.getConnection();
+            }
+
+            /**
+             * Called once the backend request of this attempt has been sent
+             */
+            void requestSent(ClientExchange clientExchange) {
+                this.clientExchange = clientExchange;
+                if (finished) {
+                    //another attempt won or the exchange timed out while the request was being sent
+                    abortBackendExchange(connection, clientExchange);
+                }
+            }
+
+            private void abort() {
+                finished = true;
+                abortBackendExchange(connection, clientExchange);
+            }
+
+            /**
+             * Called when a response is received for this attempt.
+             *
+             * @param latency The time taken to receive the response
+             * @return <code>true</code> if this attempt should be used for the response
+             */
+            boolean responseReceived(long latency) {
+                latencyTracker.record(latency);
+                if (winner != null) {
+                    return winner == this;
+                }
+                winner = this;
+                for (Attempt other : attempts) {
+                    if (other == this || other.finished) {
+                        continue;
+                    }
+                    //the losing attempt has taken at least this long
+                    other.proxyConnection.requestCancelled();
+                    //only the losing stream is reset on a multiplexed connection, as it is shared with other requests
+                    if (other.connection != connection || connection.isMultiplexingSupported()) {
+                        other.abort();
+                    } else {
+                        other.finished = true;
+                    }
+                }
+                return true;
+            }
+
+            /**
+             * Called when this attempt fails.
+             *
+             * @return <code>true</code> if the failure should be handled as normal, <code>false</code> if it should be ignored
+             */
+            boolean failed() {
+                finished = true;
+                if (winner != null) {
+                    return winner == this;
+                }
+                return --outstanding <= 0;
+            }
+
+            ProxyClientHandler getClientHandler() {
+                return clientHandler;
+            }
+        }
+    }
+
     private static final class ClosingExceptionHandler implements ChannelExceptionHandler<Channel> {
 
         private final Closeable[] toClose;
@@ -911,6 +1296,14 @@ public final class ProxyHandler implements HttpHandler {
         private boolean reuseXForwarded;
         private int maxConnectionRetries = DEFAULT_MAX_RETRY_ATTEMPTS;
         private Predicate idempotentRequestPredicate = IdempotentPredicate.INSTANCE;
+        private RetryBudget retryBudget;
+        private boolean hedging;
+        private double hedgePercentile = 0.95;
+        private long minHedgeDelay = 10;
+        private long responseBufferSize;
+        private long maxTotalResponseBufferMemory = DEFAULT_MAX_TOTAL_RESPONSE_BUFFER_MEMORY;
+        private long maxResponseBufferFileSize = DEFAULT_MAX_RESPONSE_BUFFER_FILE_SIZE;
+        private Path responseBufferTempDirectory;
 
         Builder() {}
 
@@ -992,6 +1385,113 @@ public final class ProxyHandler implements HttpHandler {
             return this;
         }
 
+        public RetryBudget getRetryBudget() {
+            return retryBudget;
+        }
+
+        /**
+         * Sets the budget that limits retries and hedged requests. If hedging is enabled and no budget is set
+         * a default budget of 10% is used.
+         */
+        public Builder setRetryBudget(RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
+        public boolean isHedging() {
+            return hedging;
+        }
+
+        /**
+         * Enables hedging of requests that match the idempotent request predicate and have no request body. If no
+         * response has been received after the hedge percentile of recent response times a second request is sent to
+         * another backend, and whichever response arrives first is used.
+         */
+        public Builder setHedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        public double getHedgePercentile() {
+            return hedgePercentile;
+        }
+
+        public Builder setHedgePercentile(double hedgePercentile) {
+            if (hedgePercentile <= 0 || hedgePercentile >= 1) {
+                throw new IllegalArgumentException("hedgePercentile");
+            }
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        public long getMinHedgeDelay() {
+            return minHedgeDelay;
+        }
+
+        /**
+         * Sets the minimum time in milliseconds to wait before sending a hedged request
+         */
+        public Builder setMinHedgeDelay(long minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        public long getResponseBufferSize() {
+            return responseBufferSize;
+        }
+
+        /**
+         * Enables response buffering. If this is greater than zero the backend response is read into memory (up to
+         * this many bytes, after which it is written to a temporary file) before it is sent to the client. The backend
+         * connection is returned to the pool as soon as the response has been read, so slow clients do not hold on
+         * to backend connections.
+         * <p>
+         * Backends can disable buffering for an individual response with the <code>X-Accel-Buffering: no</code> header.
+         */
+        public Builder setResponseBufferSize(long responseBufferSize) {
+            this.responseBufferSize = responseBufferSize;
+            return this;
+        }
+
+        public long getMaxTotalResponseBufferMemory() {
+            return maxTotalResponseBufferMemory;
+        }
+
+        /**
+         * Sets the maximum amount of memory that all exchanges of the handler can use to buffer responses. Once this
+         * is reached further data is written to temporary files. If this is negative there is no limit.
+         */
+        public Builder setMaxTotalResponseBufferMemory(long maxTotalResponseBufferMemory) {
+            this.maxTotalResponseBufferMemory = maxTotalResponseBufferMemory;
+            return this;
+        }
+
+        public long getMaxResponseBufferFileSize() {
+            return maxResponseBufferFileSize;
+        }
+
+        /**
+         * Sets the maximum amount of data that will be buffered in a temporary file. Responses larger than this are
+         * streamed to the client once the limit is reached. If this is zero temporary files are not used, if it is
+         * negative there is no limit.
+         */
+        public Builder setMaxResponseBufferFileSize(long maxResponseBufferFileSize) {
+            this.maxResponseBufferFileSize = maxResponseBufferFileSize;
+            return this;
+        }
+
+        public Path getResponseBufferTempDirectory() {
+            return responseBufferTempDirectory;
+        }
+
+        /**
+         * Sets the directory used for response buffer files, if this is null the default temporary directory is used
+         */
+        public Builder setResponseBufferTempDirectory(Path responseBufferTempDirectory) {
+            this.responseBufferTempDirectory = responseBufferTempDirectory;
+            return this;
+        }
+
         public ProxyHandler build() {
             return new ProxyHandler(this);
         }
@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget that limits the number of additional backend requests (retries and hedged requests) that the
+ * {@link ProxyHandler} may send, as a percentage of the number of original requests.
+ * <p>
+ * This is implemented as a token bucket. Every proxied request deposits a fraction of a token, and every retry or
+ * hedge withdraws a whole token. If there are not enough tokens the retry or hedge is not attempted. This stops
+ * retries from amplifying load on the backends during an outage, while still allowing bursts of up to
+ * {@code maxBalance} retries when the system is otherwise healthy.
+ * <p>
+ * A single budget may be shared between multiple handlers.
+ */
+public class RetryBudget {
+
+    /**
+     * Token amounts are stored in thousandths of a token, so fractional deposits are possible
+     */
+    private static final long TOKEN = 1000;
+
+    private final double percentage;
+    private final long deposit;
+    private final long maxBalance;
+    private final AtomicLong balance;
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     *
+     * @param percentage The percentage of requests that may be retried or hedged
+     * @param maxBalance The maximum number of tokens that may be accumulated, this is also the initial balance
+     */
+    public RetryBudget(double percentage, int maxBalance) {
+        if (percentage < 0) {
+            throw new IllegalArgumentException("percentage");
+        }
+        this.percentage = percentage;
+        this.deposit = (long) (percentage * TOKEN / 100);
+        this.maxBalance = Math.max(maxBalance, 1) * TOKEN;
+        this.balance = new AtomicLong(this.maxBalance);
+    }
+
+    /**
+     * Called for every original request, this adds to the available budget.
+     */
+    public void requestStarted() {
+        long old;
+        long updated;
+        do {
+            old = balance.get();
+            if (old >= maxBalance) {
+                return;
+            }
+            updated = Math.min(old + deposit, maxBalance);
+        } while (!balance.compareAndSet(old, updated));
+    }
+
+    /**
+     * Attempts to withdraw a token for a retry or hedged request.
+     *
+     * @return <code>true</code> if the retry may proceed
+     */
+    public boolean tryAcquire() {
+        long old;
+        do {
+            old = balance.get();
+            if (old < TOKEN) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        } while (!balance.compareAndSet(old, old - TOKEN));
+        acquired.incrementAndGet();
+        return true;
+    }
+
+    public double getPercentage() {
+        return percentage;
+    }
+
+    /**
+     *
+     * @return The number of whole tokens currently available
+     */
+    public long getAvailable() {
+        return balance.get() / TOKEN;
+    }
+
+    /**
+     *
+     * @return The number of retries or hedges that were allowed by this budget
+     */
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     *
+     * @return The number of retries or hedges that were rejected because the budget was exhausted
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryBudget{" +
+                "percentage=" + percentage +
+                ", available=" + getAvailable() +
+                ", acquired=" + getAcquired() +
+                ", rejected=" + getRejected() +
+                '}';
+    }
+}
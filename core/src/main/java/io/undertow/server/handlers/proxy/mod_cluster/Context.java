@@ -176,6 +176,7 @@ class Context {
                     nextListener.proceed();
                 }
             });
+            node.requestStarted(exchange);
             node.getConnectionPool().connect(target, exchange, callback, timeout, timeUnit, exclusive);
         } else {
             callback.failed(exchange);
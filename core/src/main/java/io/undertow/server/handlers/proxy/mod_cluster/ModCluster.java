@@ -57,6 +57,7 @@ public class ModCluster {
     private final boolean deterministicFailover;
     private final RouteParsingStrategy routeParsingStrategy;
     private final String rankedAffinityDelimiter;
+    private final NodeElectionMode electionMode;
 
     private final boolean reuseXForwarded;
 
@@ -73,6 +74,7 @@ public class ModCluster {
         this.deterministicFailover = builder.deterministicFailover;
         this.routeParsingStrategy = builder.routeParsingStrategy;
         this.rankedAffinityDelimiter = builder.rankedAffinityDelimiter;
+        this.electionMode = builder.electionMode;
         this.healthChecker = builder.healthChecker;
         this.maxRequestTime = builder.maxRequestTime;
         this.ttl = builder.ttl;
@@ -134,6 +136,10 @@ public class ModCluster {
         return deterministicFailover;
     }
 
+    public NodeElectionMode getElectionMode() {
+        return electionMode;
+    }
+
     public RouteParsingStrategy routeParsingStrategy() {
         return this.routeParsingStrategy;
     }
@@ -242,6 +248,7 @@ public class ModCluster {
         private boolean deterministicFailover = false;
         private RouteParsingStrategy routeParsingStrategy = RouteParsingStrategy.SINGLE;
         private String rankedAffinityDelimiter = ".";
+        private NodeElectionMode electionMode = NodeElectionMode.LOAD_STATUS;
 
         private boolean reuseXForwarded;
 
@@ -310,6 +317,17 @@ public class ModCluster {
             return this;
         }
 
+        /**
+         * Configures how a node is elected for requests without session affinity.
+         *
+         * @param electionMode the election mode to use
+         * @return this builder
+         */
+        public Builder setElectionMode(NodeElectionMode electionMode) {
+            this.electionMode = checkNotNullParam("electionMode", electionMode);
+            return this;
+        }
+
         /**
          * Configures route parsing strategy to support none, single or ranked affinity.
          *
@@ -75,6 +75,7 @@ class ModClusterContainer implements ModClusterController {
     private final NodeHealthChecker healthChecker;
     private final long removeBrokenNodesThreshold;
     private RouteIteratorFactory routeIteratorFactory;
+    private final NodeElectionMode electionMode;
 
     private final OptionMap clientOptions;
 
@@ -86,6 +87,7 @@ class ModClusterContainer implements ModClusterController {
         this.healthChecker = modCluster.getHealthChecker();
         this.proxyClient = new ModClusterProxyClient(null, this);
         this.removeBrokenNodesThreshold = removeThreshold(modCluster.getHealthCheckInterval(), modCluster.getRemoveBrokenNodes());
+        this.electionMode = modCluster.getElectionMode();
         this.routeIteratorFactory = new RouteIteratorFactory(modCluster.routeParsingStrategy(), RouteIteratorFactory.ParsingCompatibility.MOD_CLUSTER, modCluster.rankedAffinityDelimiter());
     }
 
@@ -101,6 +103,10 @@ class ModClusterContainer implements ModClusterController {
         return xnioSsl;
     }
 
+    NodeElectionMode getElectionMode() {
+        return electionMode;
+    }
+
     /**
      * Get the proxy client.
      *
@@ -402,7 +408,7 @@ class ModClusterContainer implements ModClusterController {
      * @return the context, {@code null} if not found
      */
     Context findNewNode(final VirtualHost.HostEntry entry) {
-        return electNode(entry.getContexts(), false, null);
+        return electNode(entry.getContexts(), false, null, electionMode);
     }
 
     /**
@@ -463,7 +469,7 @@ class ModClusterContainer implements ModClusterController {
         }
         final Collection<Context> contexts = entry.getContexts();
         if (failOverDomain != null) {
-            final Context context = electNode(contexts, true, failOverDomain);
+            final Context context = electNode(contexts, true, failOverDomain, electionMode);
             if (context != null) {
                 return context;
             }
@@ -471,7 +477,7 @@ class ModClusterContainer implements ModClusterController {
         if (forceStickySession) {
             return null;
         } else {
-            return electNode(contexts, false, null);
+            return electNode(contexts, false, null, electionMode);
         }
     }
 
@@ -524,7 +530,7 @@ class ModClusterContainer implements ModClusterController {
         return routeIteratorFactory.iterator(sessionId);
     }
 
-    static Context electNode(final Iterable<Context> contexts, final boolean existingSession, final String domain) {
+    static Context electNode(final Iterable<Context> contexts, final boolean existingSession, final String domain, final NodeElectionMode electionMode) {
         Context elected = null;
         Node candidate = null;
         boolean candidateHotStandby = false;
@@ -552,6 +558,12 @@ class ModClusterContainer implements ModClusterController {
                         }
                     } else if (hotStandby) {
                         continue;
+                    } else if (electionMode == NodeElectionMode.WEIGHTED_LEAST_LOAD) {
+                        if (candidate.getWeightedLoad() > node.getWeightedLoad()) {
+                            candidate = node;
+                            elected = context;
+                            candidateHotStandby = false;
+                        }
                     } else {
                         // Normal election process
                         final int lbStatus1 = candidate.getLoadStatus();
@@ -29,7 +29,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.undertow.UndertowLogger;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
 import io.undertow.server.handlers.proxy.ConnectionPoolManager;
 import io.undertow.server.handlers.proxy.ProxyConnectionPool;
 import org.xnio.OptionMap;
@@ -157,6 +159,59 @@ class Node {
         return lbStatus.getLbStatus();
     }
 
+    /**
+     * Get the weighted load, which is based on the reported load factor and the requests currently being processed.
+     *
+     * @return the weighted load
+     */
+    double getWeightedLoad() {
+        return lbStatus.getWeightedLoad();
+    }
+
+    /**
+     * Get the number of requests that are currently being proxied to this node.
+     *
+     * @return the number of active requests
+     */
+    public int getActiveRequests() {
+        return lbStatus.getActiveRequests();
+    }
+
+    /**
+     * Get the moving average of the time taken for this node to start responding.
+     *
+     * @return the average response time in nanoseconds, or -1 if unknown
+     */
+    public long getAverageLatency() {
+        return lbStatus.getAverageLatency();
+    }
+
+    /**
+     * Tracks a request that is being proxied to this node, until the exchange is complete.
+     *
+     * @param exchange the http server exchange
+     */
+    void requestStarted(final HttpServerExchange exchange) {
+        if (container.getElectionMode() != NodeElectionMode.WEIGHTED_LEAST_LOAD) {
+            return;
+        }
+        final long start = System.nanoTime();
+        lbStatus.requestStarted();
+        exchange.addResponseCommitListener(new ResponseCommitListener() {
+            @Override
+            public void beforeCommit(HttpServerExchange exchange) {
+                lbStatus.recordLatency(System.nanoTime() - start);
+            }
+        });
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                lbStatus.requestDone();
+                nextListener.proceed();
+            }
+        });
+    }
+
     /**
      * This node got elected to serve a request!
      */
@@ -0,0 +1,38 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy.mod_cluster;
+
+/**
+ * The strategy used to elect a node for a new request.
+ */
+public enum NodeElectionMode {
+
+    /**
+     * Elects the node with the lowest load status, which is based on the load factor reported by the node and the
+     * number of times it has been elected since the load status was last updated. Default behavior.
+     */
+    LOAD_STATUS,
+
+    /**
+     * Elects the node with the lowest weighted load, which combines the load factor reported by the node with the
+     * number of requests currently in flight to the node and its recent response time, as measured by the proxy.
+     * This reacts to changes in load immediately, rather than when the next load report arrives.
+     */
+    WEIGHTED_LEAST_LOAD,
+}
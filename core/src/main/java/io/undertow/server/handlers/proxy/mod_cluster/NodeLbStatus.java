@@ -18,6 +18,10 @@
 
 package io.undertow.server.handlers.proxy.mod_cluster;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * The load-balancing information of a node.
  *
@@ -31,6 +35,23 @@ class NodeLbStatus {
     private volatile int lbstatus;
     private volatile int elected;
 
+    /**
+     * The smoothing factor of the response time moving average
+     */
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    /**
+     * The response time used for nodes that have no samples, and the lower bound of the average, so that nodes with
+     * a very fast response time do not get an unbounded share of the requests.
+     */
+    private static final long MIN_LATENCY = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    /**
+     * The moving average of the response time in nanoseconds, or -1 if there are no samples
+     */
+    private final AtomicLong averageLatency = new AtomicLong(-1);
+
     public int getLbFactor() {
         return lbfactor;
     }
@@ -72,6 +93,43 @@ class NodeLbStatus {
         lbfactor = load;
     }
 
+    void requestStarted() {
+        activeRequests.incrementAndGet();
+    }
+
+    void requestDone() {
+        activeRequests.decrementAndGet();
+    }
+
+    void recordLatency(long latency) {
+        long old;
+        long updated;
+        do {
+            old = averageLatency.get();
+            updated = old < 0 ? latency : (long) (LATENCY_SMOOTHING * latency + (1 - LATENCY_SMOOTHING) * old);
+        } while (!averageLatency.compareAndSet(old, updated));
+    }
+
+    int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    long getAverageLatency() {
+        return averageLatency.get();
+    }
+
+    /**
+     * Get the weighted load, this is the expected cost of sending another request to the node, relative to its
+     * reported capacity.
+     *
+     * @return the weighted load, lower is better
+     */
+    double getWeightedLoad() {
+        final int lbfactor = Math.max(this.lbfactor, 1);
+        final long latency = Math.max(averageLatency.get(), MIN_LATENCY);
+        return ((double) (activeRequests.get() + 1) * latency) / lbfactor;
+    }
+
     /**
      * Get the load balancing status.
      *
@@ -20,18 +20,19 @@ package io.undertow.server.handlers.proxy.mod_cluster;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.ConcurrentMap;
 
 import io.undertow.UndertowMessages;
 import io.undertow.util.CopyOnWriteMap;
 import io.undertow.util.PathMatcher;
+import io.undertow.util.PathPrefixTrie;
 import io.undertow.util.URLUtils;
 
 /**
  * The virtual host handler.
+ * <p>
+ * The registered contexts are held in an immutable {@link PathPrefixTrie} which is rebuilt when a context is
+ * registered or removed, so requests are mapped without locking in time proportional to the path length.
  *
  * @author Emanuel Muckenhuber
  */
@@ -40,12 +41,7 @@ public class VirtualHost {
     private static final String STRING_PATH_SEPARATOR = "/";
 
     private final HostEntry defaultHandler = new HostEntry(STRING_PATH_SEPARATOR);
-    private final ConcurrentMap<String, HostEntry> contexts = new CopyOnWriteMap<>();
-
-    /**
-     * lengths of all registered contexts
-     */
-    private volatile int[] lengths = {};
+    private volatile PathPrefixTrie<HostEntry> contexts = PathPrefixTrie.empty();
 
     protected VirtualHost() {
         //
@@ -58,25 +54,9 @@ public class VirtualHost {
      * @return The match match. This will never be null, however if none matched its value field will be
      */
     PathMatcher.PathMatch<HostEntry> match(String path){
-        int length = path.length();
-        final int[] lengths = this.lengths;
-        for (int i = 0; i < lengths.length; ++i) {
-            int pathLength = lengths[i];
-            if (pathLength == length) {
-                HostEntry next = contexts.get(path);
-                if (next != null) {
-                    return new PathMatcher.PathMatch<>(path, "", next);
-                }
-            } else if (pathLength < length) {
-                char c = path.charAt(pathLength);
-                if (c == '/') {
-                    String part = path.substring(0, pathLength);
-                    HostEntry next = contexts.get(part);
-                    if (next != null) {
-                        return new PathMatcher.PathMatch<>(part, path.substring(pathLength), next);
-                    }
-                }
-            }
+        final PathMatcher.PathMatch<HostEntry> match = contexts.match(path);
+        if (match.getValue() != null) {
+            return match;
         }
         if(defaultHandler.contexts.isEmpty()) {
             return new PathMatcher.PathMatch<>("", path, null);
@@ -95,18 +75,15 @@ public class VirtualHost {
             return;
         }
 
-        boolean rebuild = false;
         HostEntry hostEntry = contexts.get(normalizedPath);
         if (hostEntry == null) {
-            rebuild = true;
             hostEntry = new HostEntry(normalizedPath);
-            contexts.put(normalizedPath, hostEntry);
+            hostEntry.contexts.put(jvmRoute, context);
+            contexts = contexts.with(normalizedPath, hostEntry);
+            return;
         }
         assert !hostEntry.contexts.containsKey(jvmRoute);
         hostEntry.contexts.put(jvmRoute, context);
-        if (rebuild) {
-            buildLengths();
-        }
     }
 
     public synchronized void removeContext(final String path, final String jvmRoute, final Context context) {
@@ -117,14 +94,14 @@ public class VirtualHost {
         final String normalizedPath = URLUtils.normalizeSlashes(path);
         if (STRING_PATH_SEPARATOR.equals(normalizedPath)) {
             defaultHandler.contexts.remove(jvmRoute, context);
+            return;
         }
 
         final HostEntry hostEntry = contexts.get(normalizedPath);
         if (hostEntry != null) {
             if (hostEntry.contexts.remove(jvmRoute, context)) {
                 if (hostEntry.contexts.isEmpty()) {
-                    contexts.remove(normalizedPath);
-                    buildLengths();
+                    contexts = contexts.without(normalizedPath);
                 }
             }
         }
@@ -134,25 +111,6 @@ public class VirtualHost {
         return contexts.isEmpty() && defaultHandler.contexts.isEmpty();
     }
 
-    private void buildLengths() {
-        final Set<Integer> lengths = new TreeSet<>(new Comparator<Integer>() {
-            @Override
-            public int compare(Integer o1, Integer o2) {
-                return -o1.compareTo(o2);
-            }
-        });
-        for (String p : contexts.keySet()) {
-            lengths.add(p.length());
-        }
-
-        int[] lengthArray = new int[lengths.size()];
-        int pos = 0;
-        for (int i : lengths) {
-            lengthArray[pos++] = i;
-        }
-        this.lengths = lengthArray;
-    }
-
     static class HostEntry {
 
         // node > context
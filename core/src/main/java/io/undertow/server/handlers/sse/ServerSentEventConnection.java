@@ -27,11 +27,11 @@ import io.undertow.util.Attachable;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.AttachmentList;
 import io.undertow.util.HeaderMap;
+import io.undertow.util.TimerWheel;
 import org.xnio.ChannelExceptionHandler;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
-import org.xnio.XnioExecutor;
 import org.xnio.channels.StreamSinkChannel;
 
 import java.io.IOException;
@@ -81,7 +81,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
     private volatile int open = 1;
     private volatile boolean shutdown = false;
     private volatile long keepAliveTime = -1;
-    private XnioExecutor.Key timerKey;
+    private volatile TimerWheel.Timeout keepAliveTimeout;
 
 
     public ServerSentEventConnection(HttpServerExchange exchange, StreamSinkChannel sink) {
@@ -90,8 +90,9 @@ public class ServerSentEventConnection implements Channel, Attachable {
         this.sink.getCloseSetter().set(new ChannelListener<StreamSinkChannel>() {
             @Override
             public void handleEvent(StreamSinkChannel channel) {
-                if(timerKey != null) {
-                    timerKey.remove();
+                TimerWheel.Timeout keepAliveTimeout = ServerSentEventConnection.this.keepAliveTimeout;
+                if(keepAliveTimeout != null) {
+                    keepAliveTimeout.cancel();
                 }
                 for (ChannelListener<ServerSentEventConnection> listener : closeTasks) {
                     ChannelListeners.invokeChannelListener(ServerSentEventConnection.this, listener);
@@ -219,6 +220,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
             return;
         }
         queue.add(new SSEData(retry, callback));
+        extendKeepAlive();
         sink.getIoThread().execute(new Runnable() {
             @Override
             public void run() {
@@ -248,6 +250,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
             return;
         }
         queue.add(new SSEData(event, data, id, callback));
+        extendKeepAlive();
         sink.getIoThread().execute(new Runnable() {
             @Override
             public void run() {
@@ -289,8 +292,8 @@ public class ServerSentEventConnection implements Channel, Attachable {
     }
 
     /**
-     * Sets the keep alive time in milliseconds. If this is larger than zero a ':' message will be sent this often
-     * (assuming there is no activity) to keep the connection alive.
+     * Sets the keep alive time in milliseconds. If this is larger than zero a ':' message will be sent if there has
+     * been no other message for this long, to keep the connection alive.
      *
      * The spec recommends a value of 15000 (15 seconds).
      *
@@ -298,28 +301,45 @@ public class ServerSentEventConnection implements Channel, Attachable {
      */
     public void setKeepAliveTime(long keepAliveTime) {
         this.keepAliveTime = keepAliveTime;
-        if(this.timerKey != null) {
-            this.timerKey.remove();
+        TimerWheel.Timeout keepAliveTimeout = this.keepAliveTimeout;
+        if(keepAliveTimeout != null) {
+            keepAliveTimeout.cancel();
+            this.keepAliveTimeout = null;
+        }
+        if(keepAliveTime > 0) {
+            this.keepAliveTimeout = TimerWheel.forThread(sink.getIoThread()).schedule(keepAliveTask, keepAliveTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Pushes back the next keep alive message, as there has been activity on the connection
+     */
+    private void extendKeepAlive() {
+        TimerWheel.Timeout keepAliveTimeout = this.keepAliveTimeout;
+        if(keepAliveTimeout != null) {
+            keepAliveTimeout.extend(keepAliveTime, TimeUnit.MILLISECONDS);
         }
-        this.timerKey = sink.getIoThread().executeAtInterval(new Runnable() {
-            @Override
-            public void run() {
-                if(shutdown || open == 0) {
-                    if(timerKey != null) {
-                        timerKey.remove();
-                    }
-                    return;
-                }
-                if(pooled == null) {
-                    pooled = exchange.getConnection().getByteBufferPool().allocate();
-                    pooled.getBuffer().put(":\n".getBytes(StandardCharsets.UTF_8));
-                    pooled.getBuffer().flip();
-                    writeListener.handleEvent(sink);
-                }
-            }
-        }, keepAliveTime, TimeUnit.MILLISECONDS);
     }
 
+    private final Runnable keepAliveTask = new Runnable() {
+        @Override
+        public void run() {
+            if(shutdown || open == 0) {
+                return;
+            }
+            if(pooled == null) {
+                pooled = exchange.getConnection().getByteBufferPool().allocate();
+                pooled.getBuffer().put(":\n".getBytes(StandardCharsets.UTF_8));
+                pooled.getBuffer().flip();
+                writeListener.handleEvent(sink);
+            }
+            final long keepAliveTime = ServerSentEventConnection.this.keepAliveTime;
+            if(keepAliveTime > 0) {
+                keepAliveTimeout = TimerWheel.forThread(sink.getIoThread()).schedule(this, keepAliveTime, TimeUnit.MILLISECONDS);
+            }
+        }
+    };
+
     private void fillBuffer() {
         if (queue.isEmpty()) {
             if(pooled != null) {
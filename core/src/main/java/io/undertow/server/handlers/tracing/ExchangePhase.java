@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+/**
+ * The phases of the exchange lifecycle that are recorded in an {@link ExchangeTrace}.
+ */
+public enum ExchangePhase {
+
+    /**
+     * The request headers have been parsed. This is only available if
+     * {@link io.undertow.UndertowOptions#RECORD_REQUEST_START_TIME} is enabled.
+     */
+    REQUEST_PARSED,
+    /**
+     * The {@link TracingHandler} was invoked.
+     */
+    HANDLER_START,
+    /**
+     * The exchange started running in the dispatch executor, usually the worker thread pool.
+     */
+    DISPATCHED,
+    /**
+     * The handler chain returned to the container for the first time. If the exchange was dispatched then the
+     * request continues to be processed in the dispatch executor.
+     */
+    HANDLER_END,
+    /**
+     * The response headers were committed. The time from this phase until {@link #COMPLETE} is spent writing the
+     * response body.
+     */
+    RESPONSE_COMMIT,
+    /**
+     * The exchange is complete.
+     */
+    COMPLETE
+}
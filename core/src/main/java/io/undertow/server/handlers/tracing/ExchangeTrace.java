@@ -0,0 +1,197 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+
+/**
+ * The timings of a single sampled exchange, recorded by a {@link TracingHandler}.
+ * <p>
+ * The trace and span ids follow the W3C trace context format, so an exporter can turn a trace into an OpenTelemetry
+ * span. Times are recorded with {@link System#nanoTime()}, {@link #getEpochNanos(ExchangePhase)} converts them to
+ * wall clock time.
+ * <p>
+ * Traces are only created for sampled exchanges, for all other exchanges {@link #get(HttpServerExchange)} returns
+ * <code>null</code> and {@link #mark(HttpServerExchange, ExchangePhase)} does nothing.
+ */
+public class ExchangeTrace {
+
+    public static final AttachmentKey<ExchangeTrace> ATTACHMENT_KEY = AttachmentKey.create(ExchangeTrace.class);
+
+    private static final int PHASES = ExchangePhase.values().length;
+
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final String requestMethod;
+    private final String requestPath;
+    private final long epochNanos;
+    private final long nanoTime;
+    private final long[] times = new long[PHASES];
+    private int recorded;
+    private int statusCode;
+
+    ExchangeTrace(String traceId, String spanId, String parentSpanId, String requestMethod, String requestPath) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.requestMethod = requestMethod;
+        this.requestPath = requestPath;
+        this.nanoTime = System.nanoTime();
+        this.epochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     *
+     * @param exchange The exchange
+     * @return The trace of the exchange, or <code>null</code> if it is not being traced
+     */
+    public static ExchangeTrace get(HttpServerExchange exchange) {
+        return exchange.getAttachment(ATTACHMENT_KEY);
+    }
+
+    /**
+     * Records the current time for the given phase, if the exchange is being traced
+     */
+    public static void mark(HttpServerExchange exchange, ExchangePhase phase) {
+        final ExchangeTrace trace = exchange.getAttachment(ATTACHMENT_KEY);
+        if (trace != null) {
+            trace.mark(phase);
+        }
+    }
+
+    /**
+     * Records the current time for the given phase. Only the first time a phase is marked is recorded.
+     */
+    public void mark(ExchangePhase phase) {
+        mark(phase, System.nanoTime());
+    }
+
+    void mark(ExchangePhase phase, long time) {
+        final int bit = 1 << phase.ordinal();
+        if ((recorded & bit) == 0) {
+            times[phase.ordinal()] = time;
+            recorded |= bit;
+        }
+    }
+
+    void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public boolean isRecorded(ExchangePhase phase) {
+        return (recorded & (1 << phase.ordinal())) != 0;
+    }
+
+    /**
+     *
+     * @param phase The phase
+     * @return The {@link System#nanoTime()} value of the phase, or 0 if it was not recorded
+     */
+    public long getTime(ExchangePhase phase) {
+        return isRecorded(phase) ? times[phase.ordinal()] : 0;
+    }
+
+    /**
+     *
+     * @param phase The phase
+     * @return The wall clock time of the phase in nanoseconds since the epoch, or -1 if it was not recorded
+     */
+    public long getEpochNanos(ExchangePhase phase) {
+        return isRecorded(phase) ? epochNanos + (times[phase.ordinal()] - nanoTime) : -1;
+    }
+
+    /**
+     *
+     * @return The time in nanoseconds between the two phases, or -1 if either of them was not recorded
+     */
+    public long getDuration(ExchangePhase from, ExchangePhase to) {
+        if (!isRecorded(from) || !isRecorded(to)) {
+            return -1;
+        }
+        return times[to.ordinal()] - times[from.ordinal()];
+    }
+
+    /**
+     *
+     * @return The 32 character hex trace id
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     *
+     * @return The 16 character hex id of the span for this exchange
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     *
+     * @return The span id from the incoming <code>traceparent</code> header, or <code>null</code> if this exchange
+     *         started a new trace
+     */
+    public String getParentSpanId() {
+        return parentSpanId;
+    }
+
+    /**
+     *
+     * @return The <code>traceparent</code> header value to propagate this trace to a downstream request
+     */
+    public String getTraceParent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
+    public String getRequestPath() {
+        return requestPath;
+    }
+
+    /**
+     *
+     * @return The response status code, this is only available once the exchange is complete
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("ExchangeTrace{");
+        sb.append("traceId=").append(traceId)
+                .append(", spanId=").append(spanId)
+                .append(", request=").append(requestMethod).append(' ').append(requestPath)
+                .append(", status=").append(statusCode);
+        for (ExchangePhase phase : ExchangePhase.values()) {
+            if (isRecorded(phase)) {
+                sb.append(", ").append(phase).append('=').append(times[phase.ordinal()] - nanoTime);
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A trace exporter that keeps the most recent traces in memory, mostly for use in tests.
+ */
+public class InMemoryTraceExporter implements TraceExporter {
+
+    private final BlockingQueue<ExchangeTrace> traces;
+
+    public InMemoryTraceExporter() {
+        this(1000);
+    }
+
+    /**
+     * @param maxTraces The number of traces to keep, once this is reached the oldest traces are discarded
+     */
+    public InMemoryTraceExporter(int maxTraces) {
+        this.traces = new ArrayBlockingQueue<>(maxTraces);
+    }
+
+    @Override
+    public void export(ExchangeTrace trace) {
+        while (!traces.offer(trace)) {
+            traces.poll();
+        }
+    }
+
+    /**
+     *
+     * @return The traces that have been exported, oldest first
+     */
+    public List<ExchangeTrace> getTraces() {
+        return new ArrayList<>(traces);
+    }
+
+    public void clear() {
+        traces.clear();
+    }
+}
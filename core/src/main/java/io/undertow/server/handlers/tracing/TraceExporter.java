@@ -0,0 +1,32 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+/**
+ * Receives the traces of sampled exchanges once they are complete. An exporter would typically build a span from the
+ * trace and hand it to a tracing system.
+ * <p>
+ * This is called from the thread that completed the exchange, which is often an IO thread, so implementations must
+ * not block.
+ */
+public interface TraceExporter {
+
+    void export(ExchangeTrace trace);
+
+}
@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.undertow.UndertowLogger;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ResponseCommitListener;
+import io.undertow.util.HttpString;
+
+/**
+ * Handler that records the lifecycle of sampled exchanges in an {@link ExchangeTrace}, and hands the trace to a
+ * {@link TraceExporter} once the exchange is complete.
+ * <p>
+ * If the request has a valid W3C <code>traceparent</code> header then its sampled flag decides if the exchange is
+ * traced, and the trace continues the one from the header. Otherwise exchanges are sampled at random with the
+ * configured ratio. Nothing is allocated and no listeners are added for exchanges that are not sampled.
+ * <p>
+ * This handler should be as close to the root of the handler chain as possible, so that the handler start time is
+ * accurate.
+ */
+public class TracingHandler implements HttpHandler {
+
+    public static final HttpString TRACEPARENT = new HttpString("traceparent");
+
+    private static final int TRACE_ID_LENGTH = 32;
+    private static final int SPAN_ID_LENGTH = 16;
+    private static final int TRACEPARENT_LENGTH = 3 + TRACE_ID_LENGTH + 1 + SPAN_ID_LENGTH + 3;
+    private static final int FLAG_SAMPLED = 1;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ResponseCommitListener COMMIT_LISTENER = new ResponseCommitListener() {
+        @Override
+        public void beforeCommit(HttpServerExchange exchange) {
+            ExchangeTrace.mark(exchange, ExchangePhase.RESPONSE_COMMIT);
+        }
+    };
+
+    private final HttpHandler next;
+    private final TraceExporter exporter;
+    private final double sampleRatio;
+
+    private final ExchangeCompletionListener completionListener = new ExchangeCompletionListener() {
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                final ExchangeTrace trace = exchange.getAttachment(ExchangeTrace.ATTACHMENT_KEY);
+                if (trace != null) {
+                    trace.mark(ExchangePhase.COMPLETE);
+                    trace.setStatusCode(exchange.getStatusCode());
+                    exporter.export(trace);
+                }
+            } catch (RuntimeException e) {
+                UndertowLogger.REQUEST_LOGGER.debugf(e, "Failed to export trace for %s", exchange);
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    };
+
+    /**
+     * Creates a handler that traces every exchange
+     */
+    public TracingHandler(HttpHandler next, TraceExporter exporter) {
+        this(next, exporter, 1);
+    }
+
+    /**
+     * @param next        The next handler
+     * @param exporter    The exporter that traces are sent to
+     * @param sampleRatio The fraction of exchanges without a <code>traceparent</code> header that are traced,
+     *                    between 0 and 1
+     */
+    public TracingHandler(HttpHandler next, TraceExporter exporter, double sampleRatio) {
+        if (sampleRatio < 0 || sampleRatio > 1) {
+            throw new IllegalArgumentException("sampleRatio");
+        }
+        this.next = next;
+        this.exporter = exporter;
+        this.sampleRatio = sampleRatio;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        if (exchange.getAttachment(ExchangeTrace.ATTACHMENT_KEY) != null) {
+            //already traced, e.g. this handler is in the chain twice
+            next.handleRequest(exchange);
+            return;
+        }
+        final long start = System.nanoTime();
+        final String traceParent = exchange.getRequestHeaders().getFirst(TRACEPARENT);
+        final int flags = traceParent == null ? -1 : parseTraceParentFlags(traceParent);
+        final boolean sampled;
+        if (flags >= 0) {
+            sampled = (flags & FLAG_SAMPLED) != 0;
+        } else {
+            sampled = sampleRatio >= 1 || (sampleRatio > 0 && ThreadLocalRandom.current().nextDouble() < sampleRatio);
+        }
+        if (!sampled) {
+            next.handleRequest(exchange);
+            return;
+        }
+        final ExchangeTrace trace;
+        if (flags >= 0) {
+            trace = new ExchangeTrace(traceParent.substring(3, 3 + TRACE_ID_LENGTH), randomId(SPAN_ID_LENGTH),
+                    traceParent.substring(4 + TRACE_ID_LENGTH, 4 + TRACE_ID_LENGTH + SPAN_ID_LENGTH),
+                    exchange.getRequestMethod().toString(), exchange.getRequestPath());
+        } else {
+            trace = new ExchangeTrace(randomId(TRACE_ID_LENGTH), randomId(SPAN_ID_LENGTH), null,
+                    exchange.getRequestMethod().toString(), exchange.getRequestPath());
+        }
+        if (exchange.getRequestStartTime() > 0) {
+            trace.mark(ExchangePhase.REQUEST_PARSED, exchange.getRequestStartTime());
+        }
+        trace.mark(ExchangePhase.HANDLER_START, start);
+        exchange.putAttachment(ExchangeTrace.ATTACHMENT_KEY, trace);
+        exchange.addExchangeCompleteListener(completionListener);
+        exchange.addResponseCommitListener(COMMIT_LISTENER);
+        exchange.setDispatchExecutor(new TracingExecutor(trace, exchange.getDispatchExecutor() == null ? exchange.getConnection().getWorker() : exchange.getDispatchExecutor()));
+        try {
+            next.handleRequest(exchange);
+        } finally {
+            trace.mark(ExchangePhase.HANDLER_END);
+        }
+    }
+
+    /**
+     * Parses a version 00 <code>traceparent</code> header.
+     *
+     * @return The trace flags, or -1 if the header is not valid
+     */
+    static int parseTraceParentFlags(String traceParent) {
+        if (traceParent.length() != TRACEPARENT_LENGTH
+                || traceParent.charAt(0) != '0' || traceParent.charAt(1) != '0' || traceParent.charAt(2) != '-'
+                || traceParent.charAt(3 + TRACE_ID_LENGTH) != '-'
+                || traceParent.charAt(4 + TRACE_ID_LENGTH + SPAN_ID_LENGTH) != '-') {
+            return -1;
+        }
+        //all zero ids are invalid
+        if (!isHexId(traceParent, 3, TRACE_ID_LENGTH) || !isHexId(traceParent, 4 + TRACE_ID_LENGTH, SPAN_ID_LENGTH)) {
+            return -1;
+        }
+        final int high = Character.digit(traceParent.charAt(TRACEPARENT_LENGTH - 2), 16);
+        final int low = Character.digit(traceParent.charAt(TRACEPARENT_LENGTH - 1), 16);
+        if (high < 0 || low < 0) {
+            return -1;
+        }
+        return high << 4 | low;
+    }
+
+    private static boolean isHexId(String value, int start, int length) {
+        boolean nonZero = false;
+        for (int i = start; i < start + length; ++i) {
+            final char c = value.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+            nonZero |= c != '0';
+        }
+        return nonZero;
+    }
+
+    private static String randomId(int length) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final char[] id = new char[length];
+        long bits;
+        do {
+            bits = 0;
+            for (int i = 0; i < length; ++i) {
+                if ((i & 15) == 0) {
+                    bits = random.nextLong();
+                }
+                id[i] = HEX[(int) (bits & 0xF)];
+                bits >>>= 4;
+            }
+        } while (isAllZero(id));
+        return new String(id);
+    }
+
+    private static boolean isAllZero(char[] id) {
+        for (char c : id) {
+            if (c != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "tracing( " + sampleRatio + " )";
+    }
+
+    private static final class TracingExecutor implements Executor {
+
+        private final ExchangeTrace trace;
+        private final Executor delegate;
+
+        TracingExecutor(ExchangeTrace trace, Executor delegate) {
+            this.trace = trace;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            delegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    trace.mark(ExchangePhase.DISPATCHED);
+                    command.run();
+                }
+            });
+        }
+    }
+}
@@ -66,6 +66,7 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel> {
     private final boolean recordRequestStartTime;
     private AjpRequestParseState state = new AjpRequestParseState();
     private HttpServerExchange httpServerExchange;
+    private long parseStart;
 
     private volatile int read = 0;
     private final int maxRequestSize;
@@ -156,6 +157,9 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel> {
                 int begin = buffer.remaining();
                 if(httpServerExchange == null) {
                     httpServerExchange = new HttpServerExchange(connection, maxEntitySize);
+                    if (connectorStatistics != null) {
+                        parseStart = System.nanoTime();
+                    }
                 }
                 parser.parse(buffer, state, httpServerExchange);
 
@@ -225,6 +229,7 @@ final class AjpReadListener implements ChannelListener<StreamSourceChannel> {
             }
             connection.setCurrentExchange(httpServerExchange);
             if(connectorStatistics != null) {
+                connectorStatistics.requestParsed(System.nanoTime() - parseStart);
                 connectorStatistics.setup(httpServerExchange);
             }
             if(!Connectors.areRequestHeadersValid(httpServerExchange.getRequestHeaders())) {
@@ -72,6 +72,7 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
     private final HttpRequestParser parser;
 
     private HttpServerExchange httpServerExchange;
+    private long parseStart;
 
     private int read = 0;
     private final int maxRequestSize;
@@ -192,6 +193,9 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
                 int begin = buffer.remaining();
                 if(httpServerExchange == null) {
                     httpServerExchange = new HttpServerExchange(connection, maxEntitySize);
+                    if (connectorStatistics != null) {
+                        parseStart = System.nanoTime();
+                    }
                 }
                 parser.handle(buffer, state, httpServerExchange);
                 if (buffer.hasRemaining()) {
@@ -236,6 +240,7 @@ final class HttpReadListener implements ChannelListener<ConduitStreamSourceChann
             HttpTransferEncoding.setupRequest(httpServerExchange);
             connection.setCurrentExchange(httpServerExchange);
             if(connectorStatistics != null) {
+                connectorStatistics.requestParsed(System.nanoTime() - parseStart);
                 connectorStatistics.setup(httpServerExchange);
             }
             if(connection.getSslSession() != null) {
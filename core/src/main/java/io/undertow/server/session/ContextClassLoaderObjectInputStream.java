@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+
+/**
+ * An object input stream that resolves classes using the thread context class loader, so that session attributes
+ * can be deserialized outside of the deployment that created them.
+ */
+final class ContextClassLoaderObjectInputStream extends ObjectInputStream {
+
+    ContextClassLoaderObjectInputStream(InputStream in) throws IOException {
+        super(in);
+    }
+
+    /**
+     *
+     * @param in     The stream to read from
+     * @param filter A filter that checks the classes and limits of the data, this is combined with the process wide
+     *               filter if there is one
+     */
+    ContextClassLoaderObjectInputStream(InputStream in, ObjectInputFilter filter) throws IOException {
+        super(in);
+        final ObjectInputFilter current = getObjectInputFilter();
+        setObjectInputFilter(current == null ? filter : ObjectInputFilter.merge(filter, current));
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+        final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        if (loader != null) {
+            try {
+                return Class.forName(desc.getName(), false, loader);
+            } catch (ClassNotFoundException e) {
+                //fall through to the default resolution
+            }
+        }
+        return super.resolveClass(desc);
+    }
+}
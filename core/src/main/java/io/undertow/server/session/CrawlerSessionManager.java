@@ -0,0 +1,554 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+
+/**
+ * A session manager that stops web crawlers from creating large numbers of sessions.
+ * <p>
+ * Crawlers usually ignore session cookies, so every request they make can create a new session. This wraps another
+ * session manager and recognises crawlers by their user agent. Depending on the {@link Mode}, a crawler either shares
+ * a single session for each address, or is given a session that is only created in the underlying session manager
+ * once an attribute is written to it.
+ * <p>
+ * Clients can also be limited by the rate at which a single address creates sessions. As many users may share an
+ * address behind a NAT or proxy, these clients never share a session. Once the limit is reached they are given a
+ * session that is only created once an attribute is written to it, whatever the mode.
+ * <p>
+ * This provides the same protection as the servlet {@code CrawlerSessionManagerHandler} for applications that use
+ * the {@link SessionAttachmentHandler}.
+ */
+public class CrawlerSessionManager implements SessionManager {
+
+    public static final String DEFAULT_CRAWLER_REGEX = ".*[bB]ot.*|.*Yahoo! Slurp.*|.*Feedfetcher-Google.*";
+
+    private final AttachmentKey<Boolean> IS_CRAWLER = AttachmentKey.create(Boolean.class);
+    private final AttachmentKey<LazySession> LAZY_SESSION = AttachmentKey.create(LazySession.class);
+
+    public enum Mode {
+        /**
+         * All requests from a crawler's address share a single session. This only applies to clients recognised by
+         * their user agent.
+         */
+        SHARE,
+        /**
+         * Sessions for crawlers are only created once an attribute is set. Note that if the response has already
+         * been sent when this happens the client will not receive the session cookie.
+         */
+        LAZY
+    }
+
+    private final SessionManager sessionManager;
+    private final Pattern userAgentPattern;
+    private final Mode mode;
+    private final int crawlerSessionTimeout;
+    private final int maxSessionsPerAddress;
+    private final long rateWindow;
+
+    private final Map<String, String> addressSessionIds = new ConcurrentHashMap<>();
+    private final Map<String, String> sessionIdAddresses = new ConcurrentHashMap<>();
+    private final Map<String, CreationRate> creationRates = new ConcurrentHashMap<>();
+    private volatile long lastRatePurge = System.currentTimeMillis();
+    private final AtomicLong crawlerRequests = new AtomicLong();
+    private final AtomicLong rateLimitedRequests = new AtomicLong();
+    private volatile int defaultSessionTimeout = 30 * 60;
+
+    private final SessionListener sharedSessionListener = new SessionListener() {
+        @Override
+        public void sessionDestroyed(Session session, HttpServerExchange exchange, SessionDestroyedReason reason) {
+            final String address = sessionIdAddresses.remove(session.getId());
+            if (address != null) {
+                addressSessionIds.remove(address, session.getId());
+            }
+        }
+    };
+
+    CrawlerSessionManager(Builder builder) {
+        this.sessionManager = builder.sessionManager;
+        this.userAgentPattern = Pattern.compile(builder.userAgentRegex);
+        this.mode = builder.mode;
+        this.crawlerSessionTimeout = builder.crawlerSessionTimeout;
+        this.maxSessionsPerAddress = builder.maxSessionsPerAddress;
+        this.rateWindow = builder.rateWindow;
+    }
+
+    /**
+     *
+     * @param sessionManager The session manager that holds the sessions
+     * @return A builder
+     */
+    public static Builder builder(SessionManager sessionManager) {
+        return new Builder(sessionManager);
+    }
+
+    @Override
+    public String getDeploymentName() {
+        return sessionManager.getDeploymentName();
+    }
+
+    @Override
+    public void start() {
+        sessionManager.registerSessionListener(sharedSessionListener);
+        sessionManager.start();
+    }
+
+    @Override
+    public void stop() {
+        sessionManager.removeSessionListener(sharedSessionListener);
+        sessionManager.stop();
+        addressSessionIds.clear();
+        sessionIdAddresses.clear();
+        creationRates.clear();
+    }
+
+    @Override
+    public Session createSession(final HttpServerExchange serverExchange, final SessionConfig sessionCookieConfig) {
+        final String address = getAddress(serverExchange);
+        if (!isCrawler(serverExchange)) {
+            if (address != null && maxSessionsPerAddress > 0 && !recordSessionCreation(address)) {
+                //the address may be shared by many users, so these clients must never share a session
+                UndertowLogger.SESSION_LOGGER.debugf("Address %s has exceeded the session creation rate, deferring session creation", address);
+                rateLimitedRequests.incrementAndGet();
+                return createLazySession(serverExchange, sessionCookieConfig, false);
+            }
+            return sessionManager.createSession(serverExchange, sessionCookieConfig);
+        }
+        crawlerRequests.incrementAndGet();
+        if (mode == Mode.LAZY) {
+            return createLazySession(serverExchange, sessionCookieConfig, true);
+        }
+        final Session existing = getSharedSession(address);
+        if (existing != null) {
+            sessionCookieConfig.setSessionId(serverExchange, existing.getId());
+            return existing;
+        }
+        final Session session = sessionManager.createSession(serverExchange, sessionCookieConfig);
+        session.setMaxInactiveInterval(crawlerSessionTimeout);
+        addressSessionIds.put(address, session.getId());
+        sessionIdAddresses.put(session.getId(), address);
+        UndertowLogger.SESSION_LOGGER.debugf("Created shared session %s for crawler at %s", session.getId(), address);
+        return session;
+    }
+
+    private Session createLazySession(final HttpServerExchange serverExchange, final SessionConfig sessionCookieConfig, final boolean crawler) {
+        LazySession session = serverExchange.getAttachment(LAZY_SESSION);
+        if (session == null || session.isInvalid()) {
+            session = new LazySession(serverExchange, sessionCookieConfig, crawler);
+            serverExchange.putAttachment(LAZY_SESSION, session);
+        }
+        return session;
+    }
+
+    @Override
+    public Session getSession(final HttpServerExchange serverExchange, final SessionConfig sessionCookieConfig) {
+        final Session session = sessionManager.getSession(serverExchange, sessionCookieConfig);
+        if (session != null || serverExchange == null) {
+            return session;
+        }
+        final LazySession lazySession = serverExchange.getAttachment(LAZY_SESSION);
+        if (lazySession != null) {
+            return lazySession.isInvalid() ? null : lazySession;
+        }
+        if (mode == Mode.SHARE) {
+            final String address = getAddress(serverExchange);
+            if (address != null && addressSessionIds.containsKey(address) && isCrawler(serverExchange)) {
+                return getSharedSession(address);
+            }
+        }
+        return null;
+    }
+
+    private Session getSharedSession(final String address) {
+        final String sessionId = address == null ? null : addressSessionIds.get(address);
+        if (sessionId == null) {
+            return null;
+        }
+        final Session session = sessionManager.getSession(sessionId);
+        if (session == null) {
+            addressSessionIds.remove(address, sessionId);
+        }
+        return session;
+    }
+
+    /**
+     * Determines if the request was made by a crawler from its user agent. The result is cached on the exchange.
+     */
+    private boolean isCrawler(final HttpServerExchange exchange) {
+        final Boolean existing = exchange.getAttachment(IS_CRAWLER);
+        if (existing != null) {
+            return existing;
+        }
+        boolean crawler = false;
+        final HeaderValues userAgents = exchange.getRequestHeaders().get(Headers.USER_AGENT);
+        // If more than one UA header - assume not a bot
+        if (userAgents != null && userAgents.size() == 1 && userAgentPattern.matcher(userAgents.getFirst()).matches()) {
+            UndertowLogger.SESSION_LOGGER.debugf("Crawler found for %s, user agent %s", exchange, userAgents.getFirst());
+            crawler = true;
+        }
+        exchange.putAttachment(IS_CRAWLER, crawler);
+        return crawler;
+    }
+
+    /**
+     * Records that the address is creating a session.
+     *
+     * @return <code>false</code> if the address has created too many sessions in the current window
+     */
+    private boolean recordSessionCreation(final String address) {
+        final long now = System.currentTimeMillis();
+        if (now - lastRatePurge > rateWindow) {
+            lastRatePurge = now;
+            final Iterator<CreationRate> it = creationRates.values().iterator();
+            while (it.hasNext()) {
+                if (now - it.next().windowStart > rateWindow) {
+                    it.remove();
+                }
+            }
+        }
+        final CreationRate rate = creationRates.computeIfAbsent(address, a -> new CreationRate(now));
+        synchronized (rate) {
+            if (now - rate.windowStart > rateWindow) {
+                rate.windowStart = now;
+                rate.count = 0;
+            }
+            return ++rate.count <= maxSessionsPerAddress;
+        }
+    }
+
+    private static String getAddress(final HttpServerExchange exchange) {
+        final InetSocketAddress sourceAddress = exchange.getSourceAddress();
+        if (sourceAddress == null || sourceAddress.getAddress() == null) {
+            return null;
+        }
+        return sourceAddress.getAddress().getHostAddress();
+    }
+
+    @Override
+    public Session getSession(final String sessionId) {
+        return sessionManager.getSession(sessionId);
+    }
+
+    @Override
+    public void registerSessionListener(final SessionListener listener) {
+        sessionManager.registerSessionListener(listener);
+    }
+
+    @Override
+    public void removeSessionListener(final SessionListener listener) {
+        sessionManager.removeSessionListener(listener);
+    }
+
+    @Override
+    public void setDefaultSessionTimeout(final int timeout) {
+        defaultSessionTimeout = timeout;
+        sessionManager.setDefaultSessionTimeout(timeout);
+    }
+
+    @Override
+    public Set<String> getTransientSessions() {
+        return sessionManager.getTransientSessions();
+    }
+
+    @Override
+    public Set<String> getActiveSessions() {
+        return sessionManager.getActiveSessions();
+    }
+
+    @Override
+    public Set<String> getAllSessions() {
+        return sessionManager.getAllSessions();
+    }
+
+    @Override
+    public SessionManagerStatistics getStatistics() {
+        return sessionManager.getStatistics();
+    }
+
+    /**
+     *
+     * @return The number of session creation requests that were made by crawlers
+     */
+    public long getCrawlerRequests() {
+        return crawlerRequests.get();
+    }
+
+    /**
+     *
+     * @return The number of session creation requests that exceeded the session creation rate for their address
+     */
+    public long getRateLimitedRequests() {
+        return rateLimitedRequests.get();
+    }
+
+    /**
+     *
+     * @return The number of addresses that currently have a shared session
+     */
+    public int getSharedSessionCount() {
+        return addressSessionIds.size();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof SessionManager)) return false;
+        SessionManager manager = (SessionManager) object;
+        return getDeploymentName().equals(manager.getDeploymentName());
+    }
+
+    @Override
+    public int hashCode() {
+        return getDeploymentName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getDeploymentName();
+    }
+
+    private static final class CreationRate {
+        private long windowStart;
+        private int count;
+
+        private CreationRate(long windowStart) {
+            this.windowStart = windowStart;
+        }
+    }
+
+    /**
+     * A session that is only created in the underlying session manager once an attribute is written. Until then it
+     * has no id. Sessions for crawlers use the crawler session timeout, other sessions keep the default timeout of the
+     * underlying session manager unless it is changed.
+     */
+    private final class LazySession implements Session {
+
+        private final HttpServerExchange exchange;
+        private final SessionConfig sessionConfig;
+        private final long creationTime = System.currentTimeMillis();
+        /**
+         * The max inactive interval to apply when the session is created, or <code>null</code> to keep the default
+         */
+        private volatile Integer maxInactiveInterval;
+        private volatile Session session;
+        private volatile boolean invalid;
+
+        private LazySession(HttpServerExchange exchange, SessionConfig sessionConfig, boolean crawler) {
+            this.exchange = exchange;
+            this.sessionConfig = sessionConfig;
+            this.maxInactiveInterval = crawler ? crawlerSessionTimeout : null;
+        }
+
+        /**
+         * Creates the session in the underlying session manager
+         */
+        private synchronized Session create() {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(null);
+            }
+            if (session == null) {
+                final Session session = sessionManager.createSession(exchange, sessionConfig);
+                final Integer maxInactiveInterval = this.maxInactiveInterval;
+                if (maxInactiveInterval != null) {
+                    session.setMaxInactiveInterval(maxInactiveInterval);
+                }
+                UndertowLogger.SESSION_LOGGER.debugf("Created deferred session %s", session.getId());
+                this.session = session;
+            }
+            return session;
+        }
+
+        @Override
+        public String getId() {
+            final Session session = this.session;
+            return session == null ? null : session.getId();
+        }
+
+        @Override
+        public void requestDone(final HttpServerExchange exchange) {
+            final Session session = this.session;
+            if (session != null) {
+                session.requestDone(exchange);
+            }
+        }
+
+        @Override
+        public long getCreationTime() {
+            final Session session = this.session;
+            return session == null ? creationTime : session.getCreationTime();
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            final Session session = this.session;
+            return session == null ? creationTime : session.getLastAccessedTime();
+        }
+
+        @Override
+        public void setMaxInactiveInterval(final int interval) {
+            final Session session = this.session;
+            if (session == null) {
+                maxInactiveInterval = interval;
+            } else {
+                session.setMaxInactiveInterval(interval);
+            }
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            final Session session = this.session;
+            if (session != null) {
+                return session.getMaxInactiveInterval();
+            }
+            final Integer maxInactiveInterval = this.maxInactiveInterval;
+            return maxInactiveInterval == null ? defaultSessionTimeout : maxInactiveInterval;
+        }
+
+        @Override
+        public Object getAttribute(final String name) {
+            final Session session = this.session;
+            return session == null ? null : session.getAttribute(name);
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            final Session session = this.session;
+            return session == null ? Collections.emptySet() : session.getAttributeNames();
+        }
+
+        @Override
+        public Object setAttribute(final String name, final Object value) {
+            if (value == null) {
+                return removeAttribute(name);
+            }
+            return create().setAttribute(name, value);
+        }
+
+        @Override
+        public Object removeAttribute(final String name) {
+            final Session session = this.session;
+            return session == null ? null : session.removeAttribute(name);
+        }
+
+        @Override
+        public void invalidate(final HttpServerExchange exchange) {
+            final Session session;
+            synchronized (this) {
+                if (invalid) {
+                    throw UndertowMessages.MESSAGES.sessionAlreadyInvalidated();
+                }
+                invalid = true;
+                session = this.session;
+            }
+            if (session != null) {
+                session.invalidate(exchange);
+            }
+        }
+
+        @Override
+        public SessionManager getSessionManager() {
+            return CrawlerSessionManager.this;
+        }
+
+        @Override
+        public String changeSessionId(final HttpServerExchange exchange, final SessionConfig config) {
+            final Session session = this.session;
+            return session == null ? null : session.changeSessionId(exchange, config);
+        }
+
+        @Override
+        public boolean isInvalid() {
+            final Session session = this.session;
+            return invalid || (session != null && session.isInvalid());
+        }
+    }
+
+    public static final class Builder {
+
+        private final SessionManager sessionManager;
+        private String userAgentRegex = DEFAULT_CRAWLER_REGEX;
+        private Mode mode = Mode.SHARE;
+        private int crawlerSessionTimeout = 60;
+        private int maxSessionsPerAddress = 0;
+        private long rateWindow = 60000;
+
+        Builder(SessionManager sessionManager) {
+            if (sessionManager == null) {
+                throw UndertowMessages.MESSAGES.sessionManagerMustNotBeNull();
+            }
+            this.sessionManager = sessionManager;
+        }
+
+        /**
+         * Sets the regular expression that matches the user agents of crawlers
+         */
+        public Builder setUserAgentRegex(String userAgentRegex) {
+            this.userAgentRegex = userAgentRegex;
+            return this;
+        }
+
+        public Builder setMode(Mode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        /**
+         * Sets the max inactive interval in seconds of sessions created for crawlers
+         */
+        public Builder setCrawlerSessionTimeout(int crawlerSessionTimeout) {
+            this.crawlerSessionTimeout = crawlerSessionTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the number of sessions a single address may create within the rate window. Once this is exceeded
+         * sessions for the address are only created when an attribute is written, they are never shared. If this is
+         * zero or less the creation rate is not limited.
+         */
+        public Builder setMaxSessionsPerAddress(int maxSessionsPerAddress) {
+            this.maxSessionsPerAddress = maxSessionsPerAddress;
+            return this;
+        }
+
+        /**
+         * Sets the length of the rate window in milliseconds
+         */
+        public Builder setRateWindow(long rateWindow) {
+            this.rateWindow = rateWindow;
+            return this;
+        }
+
+        public CrawlerSessionManager build() {
+            return new CrawlerSessionManager(this);
+        }
+    }
+}
@@ -23,7 +23,7 @@ import io.undertow.UndertowMessages;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.AttachmentKey;
 import io.undertow.util.ConcurrentDirectDeque;
-import io.undertow.util.WorkerUtils;
+import io.undertow.util.TimerWheel;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -40,7 +40,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
-import org.xnio.XnioExecutor;
 import org.xnio.XnioIoThread;
 import org.xnio.XnioWorker;
 
@@ -406,10 +405,10 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         private volatile boolean invalid = false;
         private volatile boolean invalidationStarted = false;
 
-        final XnioIoThread executor;
         final XnioWorker worker;
 
-        XnioExecutor.Key timerCancelKey;
+        private final TimerWheel timerWheel;
+        private volatile TimerWheel.Timeout timeout;
 
         Runnable cancelTask = new Runnable() {
             @Override
@@ -417,11 +416,21 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
                 worker.execute(new Runnable() {
                     @Override
                     public void run() {
+                        synchronized (SessionImpl.this) {
+                            if (timeout == null || !timeout.isExpired()) {
+                                //the timeout has been rescheduled or the session destroyed
+                                return;
+                            }
+                        }
                         long currentTime = System.currentTimeMillis();
                         if(currentTime >= expireTime) {
                             invalidate(null, SessionListener.SessionDestroyedReason.TIMEOUT);
                         } else {
-                            timerCancelKey = WorkerUtils.executeAfter(executor, cancelTask, expireTime - currentTime, TimeUnit.MILLISECONDS);
+                            synchronized (SessionImpl.this) {
+                                if (!invalidationStarted && cancelTask != null) {
+                                    timeout = timerWheel.schedule(cancelTask, expireTime - currentTime, TimeUnit.MILLISECONDS);
+                                }
+                            }
                         }
                     }
                 });
@@ -431,40 +440,42 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         private SessionImpl(final InMemorySessionManager sessionManager, final SessionConfig sessionCookieConfig, final XnioIoThread executor, final XnioWorker worker, final int maxInactiveInterval) {
             this.sessionManager = sessionManager;
             this.sessionCookieConfig = sessionCookieConfig;
-            this.executor = executor;
             this.worker = worker;
+            this.timerWheel = TimerWheel.forThread(executor);
             creationTime = lastAccessed = System.currentTimeMillis();
             this.setMaxInactiveInterval(maxInactiveInterval);
         }
 
-        synchronized void bumpTimeout() {
+        /**
+         * Pushes back the expiry of the session. This is called on every request, so in the common case it just
+         * updates the deadline of the existing timeout without locking, and the timer wheel moves the timeout lazily.
+         * The lock free path only reads volatile fields, so it sees the latest interval and timeout set under the lock.
+         */
+        void bumpTimeout() {
             if(invalidationStarted) {
                 return;
             }
 
             final long maxInactiveInterval = getMaxInactiveIntervalMilis();
             if (maxInactiveInterval > 0) {
-                long newExpireTime = System.currentTimeMillis() + maxInactiveInterval;
-                if(timerCancelKey != null && (newExpireTime < expireTime)) {
-                    // We have to re-schedule as the new maxInactiveInterval is lower than the old one
-                    if (!timerCancelKey.remove()) {
-                        return;
-                    }
-                    timerCancelKey = null;
-                }
-                expireTime = newExpireTime;
+                expireTime = System.currentTimeMillis() + maxInactiveInterval;
                 UndertowLogger.SESSION_LOGGER.tracef("Bumping timeout for session %s to %s", sessionId, expireTime);
-                if(timerCancelKey == null) {
-                    //+1, to make sure that the time has actually expired
-                    //we don't re-schedule every time, as it is expensive
-                    //instead when it expires we check if the timeout has been bumped, and if so we re-schedule
-                    timerCancelKey = executor.executeAfter(cancelTask, maxInactiveInterval + 1L, TimeUnit.MILLISECONDS);
+                final TimerWheel.Timeout timeout = this.timeout;
+                //+1, to make sure that the time has actually expired
+                if (timeout == null || !timeout.extend(maxInactiveInterval + 1L, TimeUnit.MILLISECONDS)) {
+                    synchronized (this) {
+                        if (!invalidationStarted && cancelTask != null && this.timeout == timeout) {
+                            this.timeout = timerWheel.schedule(cancelTask, maxInactiveInterval + 1L, TimeUnit.MILLISECONDS);
+                        }
+                    }
                 }
             } else {
-                expireTime = -1;
-                if(timerCancelKey != null) {
-                    timerCancelKey.remove();
-                    timerCancelKey = null;
+                synchronized (this) {
+                    expireTime = -1;
+                    if (timeout != null) {
+                        timeout.cancel();
+                        timeout = null;
+                    }
                 }
             }
         }
@@ -608,8 +619,8 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
 
         void invalidate(final HttpServerExchange exchange, SessionListener.SessionDestroyedReason reason) {
             synchronized(SessionImpl.this) {
-                if (timerCancelKey != null) {
-                    timerCancelKey.remove();
+                if (timeout != null) {
+                    timeout.cancel();
                 }
                 SessionImpl sess = sessionManager.sessions.remove(sessionId);
                 if (sess == null) {
@@ -665,8 +676,8 @@ public class InMemorySessionManager implements SessionManager, SessionManagerSta
         }
 
         private synchronized void destroy() {
-            if (timerCancelKey != null) {
-                timerCancelKey.remove();
+            if (timeout != null) {
+                timeout.cancel();
             }
             cancelTask = null;
         }
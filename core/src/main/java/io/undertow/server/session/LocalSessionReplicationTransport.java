@@ -0,0 +1,75 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * A {@link SessionReplicationTransport} that delivers messages to other transports in the same JVM. This is
+ * intended for testing, and for running several nodes in a single process.
+ * <p>
+ * Transports that are created from the same {@link Group} receive each others messages. Messages are delivered
+ * synchronously by the sending thread.
+ */
+public class LocalSessionReplicationTransport implements SessionReplicationTransport {
+
+    private final Group group;
+    private volatile Receiver receiver;
+
+    private LocalSessionReplicationTransport(Group group) {
+        this.group = group;
+    }
+
+    @Override
+    public void start(Receiver receiver) {
+        this.receiver = receiver;
+        group.members.add(this);
+    }
+
+    @Override
+    public void send(byte[] message) {
+        for (LocalSessionReplicationTransport member : group.members) {
+            if (member != this) {
+                Receiver receiver = member.receiver;
+                if (receiver != null) {
+                    receiver.receive(message);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        group.members.remove(this);
+        receiver = null;
+    }
+
+    /**
+     * A group of transports that exchange messages with each other
+     */
+    public static final class Group {
+
+        private final Set<LocalSessionReplicationTransport> members = new CopyOnWriteArraySet<>();
+
+        public LocalSessionReplicationTransport createTransport() {
+            return new LocalSessionReplicationTransport(this);
+        }
+    }
+}
@@ -0,0 +1,851 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.AttachmentList;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+
+/**
+ * A session manager that stores session attributes outside of the java heap.
+ * <p>
+ * Session attributes are serialized into an {@link OffHeapSessionStore}, which uses direct memory up to a configurable
+ * limit and then spills to a memory mapped temporary file. The only per session state on the heap is a small index
+ * entry holding the session metadata and the handle of its serialized attributes. When a session is used by a
+ * request its attributes are deserialized, and they are written back to the store when the last request using the
+ * session completes, so idle sessions place no load on the garbage collector.
+ * <p>
+ * Rather than scheduling a timer for every session, expired sessions are removed by a single task that periodically
+ * scans the index.
+ * <p>
+ * All session attributes must be {@link Serializable}. While a request is using the session it sees the same attribute
+ * instances, and attributes that it reads are written back when the request completes, so changes made to a mutable
+ * attribute without calling {@link Session#setAttribute(String, Object)} are kept. Outside of a request every
+ * {@link Session#getAttribute(String)} returns a new copy of the attribute, and changes to that copy are lost unless
+ * it is set again.
+ */
+public class OffHeapSessionManager implements SessionManager, SessionManagerStatistics {
+
+    private final AttachmentKey<OffHeapSession> NEW_SESSION = AttachmentKey.create(OffHeapSession.class);
+    private final AttachmentKey<AttachmentList<OffHeapSession>> SESSIONS_IN_USE = AttachmentKey.createList(OffHeapSession.class);
+    private final AttachmentKey<Long> FIRST_REQUEST_ACCESS = AttachmentKey.create(Long.class);
+
+    private final SessionIdGenerator sessionIdGenerator;
+    private final String deploymentName;
+    private final int maxSessions;
+    private final boolean statisticsEnabled;
+    private final long expirationInterval;
+
+    private final ConcurrentMap<String, OffHeapSession> sessions = new ConcurrentHashMap<>();
+    private final SessionListeners sessionListeners = new SessionListeners();
+    private final OffHeapSessionStore store;
+
+    /**
+     * 30 minute default
+     */
+    private volatile int defaultSessionTimeout = 30 * 60;
+
+    private final AtomicLong createdSessionCount = new AtomicLong();
+    private final AtomicLong rejectedSessionCount = new AtomicLong();
+    private volatile long longestSessionLifetime = 0;
+    private volatile long expiredSessionCount = 0;
+    private volatile BigInteger totalSessionLifetime = BigInteger.ZERO;
+    private final AtomicInteger highestSessionCount = new AtomicInteger();
+    private volatile long startTime;
+
+    private XnioExecutor.Key expirationKey;
+
+    OffHeapSessionManager(Builder builder) {
+        this.sessionIdGenerator = builder.sessionIdGenerator;
+        this.deploymentName = builder.deploymentName;
+        this.maxSessions = builder.maxSessions;
+        this.statisticsEnabled = builder.statisticsEnabled;
+        this.expirationInterval = builder.expirationInterval;
+        this.store = new OffHeapSessionStore(builder.maxMemory, builder.maxDiskSize, builder.tempDirectory);
+    }
+
+    public static Builder builder(String deploymentName) {
+        return new Builder(deploymentName);
+    }
+
+    @Override
+    public String getDeploymentName() {
+        return deploymentName;
+    }
+
+    @Override
+    public void start() {
+        createdSessionCount.set(0);
+        expiredSessionCount = 0;
+        rejectedSessionCount.set(0);
+        totalSessionLifetime = BigInteger.ZERO;
+        startTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (expirationKey != null) {
+                expirationKey.remove();
+                expirationKey = null;
+            }
+        }
+        for (Map.Entry<String, OffHeapSession> session : sessions.entrySet()) {
+            final OffHeapSession sessionValue = session.getValue();
+            if (sessionValue.getId() == null) {
+                sessionValue.setId(session.getKey());
+            }
+            sessionListeners.sessionDestroyed(sessionValue, null, SessionListener.SessionDestroyedReason.UNDEPLOY);
+            sessionValue.destroy();
+        }
+        sessions.clear();
+        store.clear();
+    }
+
+    @Override
+    public Session createSession(final HttpServerExchange serverExchange, final SessionConfig config) {
+        if (maxSessions > 0 && sessions.size() >= maxSessions) {
+            if (statisticsEnabled) {
+                rejectedSessionCount.incrementAndGet();
+            }
+            throw UndertowMessages.MESSAGES.tooManySessions(maxSessions);
+        }
+        if (config == null) {
+            throw UndertowMessages.MESSAGES.couldNotFindSessionCookieConfig();
+        }
+        scheduleExpiration(serverExchange.getIoThread(), serverExchange.getConnection().getWorker());
+
+        String sessionID = config.findSessionId(serverExchange);
+        final OffHeapSession session = new OffHeapSession(this, config, defaultSessionTimeout);
+        if (sessionID != null) {
+            if (sessions.putIfAbsent(sessionID, session) != null) {
+                throw UndertowMessages.MESSAGES.sessionWithIdAlreadyExists(sessionID);
+            }
+        } else {
+            sessionID = createAndSaveNewID(session);
+        }
+        session.setId(sessionID);
+        UndertowLogger.SESSION_LOGGER.debugf("Created session with id %s for exchange %s", sessionID, serverExchange);
+        config.setSessionId(serverExchange, session.getId());
+        session.bumpTimeout();
+        session.requestStarted(serverExchange);
+        sessionListeners.sessionCreated(session, serverExchange);
+        serverExchange.putAttachment(NEW_SESSION, session);
+
+        if (statisticsEnabled) {
+            createdSessionCount.incrementAndGet();
+            int highest;
+            int sessionSize;
+            do {
+                highest = highestSessionCount.get();
+                sessionSize = sessions.size();
+                if (sessionSize <= highest) {
+                    break;
+                }
+            } while (!highestSessionCount.compareAndSet(highest, sessionSize));
+        }
+        return session;
+    }
+
+    private String createAndSaveNewID(OffHeapSession session) {
+        for (int i = 0; i < 100; i++) {
+            final String sessionID = sessionIdGenerator.createSessionId();
+            if (sessions.putIfAbsent(sessionID, session) == null) {
+                return sessionID;
+            }
+        }
+        //this should 'never' happen
+        //but we guard against pathological session id generators to prevent an infinite loop
+        throw UndertowMessages.MESSAGES.couldNotGenerateUniqueSessionId();
+    }
+
+    @Override
+    public Session getSession(final HttpServerExchange serverExchange, final SessionConfig config) {
+        if (serverExchange != null) {
+            OffHeapSession newSession = serverExchange.getAttachment(NEW_SESSION);
+            if (newSession != null) {
+                return newSession;
+            }
+        }
+        if (config == null) {
+            throw UndertowMessages.MESSAGES.couldNotFindSessionCookieConfig();
+        }
+        String sessionId = config.findSessionId(serverExchange);
+        OffHeapSession session = (OffHeapSession) getSession(sessionId);
+        if (session != null && serverExchange != null) {
+            scheduleExpiration(serverExchange.getIoThread(), serverExchange.getConnection().getWorker());
+            session.requestStarted(serverExchange);
+        }
+        return session;
+    }
+
+    @Override
+    public Session getSession(String sessionId) {
+        if (sessionId == null) {
+            return null;
+        }
+        final OffHeapSession session = sessions.get(sessionId);
+        if (session == null) {
+            return null;
+        }
+        if (session.getId() == null) {
+            // this means we are creating the session right now in a different thread,
+            // setting the same session id twice is harmless
+            session.setId(sessionId);
+        }
+        return session;
+    }
+
+    /**
+     * Schedules the expiration task on the first IO thread that is used to access a session
+     */
+    private void scheduleExpiration(final XnioIoThread ioThread, final XnioWorker worker) {
+        if (expirationKey != null) {
+            return;
+        }
+        synchronized (this) {
+            if (expirationKey == null) {
+                expirationKey = ioThread.executeAtInterval(new Runnable() {
+                    @Override
+                    public void run() {
+                        worker.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                expireSessions();
+                            }
+                        });
+                    }
+                }, expirationInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Invalidates all sessions that have expired
+     */
+    void expireSessions() {
+        final long currentTime = System.currentTimeMillis();
+        for (OffHeapSession session : sessions.values()) {
+            final long expireTime = session.expireTime;
+            if (expireTime > 0 && currentTime >= expireTime) {
+                try {
+                    session.invalidate(null, SessionListener.SessionDestroyedReason.TIMEOUT);
+                } catch (RuntimeException e) {
+                    UndertowLogger.SESSION_LOGGER.debugf(e, "Failed to expire session %s", session.getId());
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void registerSessionListener(final SessionListener listener) {
+        UndertowLogger.SESSION_LOGGER.debugf("Registered session listener %s", listener);
+        sessionListeners.addSessionListener(listener);
+    }
+
+    @Override
+    public synchronized void removeSessionListener(final SessionListener listener) {
+        UndertowLogger.SESSION_LOGGER.debugf("Removed session listener %s", listener);
+        sessionListeners.removeSessionListener(listener);
+    }
+
+    @Override
+    public void setDefaultSessionTimeout(final int timeout) {
+        UndertowLogger.SESSION_LOGGER.debugf("Setting default session timeout to %s", timeout);
+        defaultSessionTimeout = timeout;
+    }
+
+    @Override
+    public Set<String> getTransientSessions() {
+        return getAllSessions();
+    }
+
+    @Override
+    public Set<String> getActiveSessions() {
+        return getAllSessions();
+    }
+
+    @Override
+    public Set<String> getAllSessions() {
+        return new HashSet<>(sessions.keySet());
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof SessionManager)) return false;
+        SessionManager manager = (SessionManager) object;
+        return this.deploymentName.equals(manager.getDeploymentName());
+    }
+
+    @Override
+    public int hashCode() {
+        return this.deploymentName.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.deploymentName;
+    }
+
+    @Override
+    public SessionManagerStatistics getStatistics() {
+        return this;
+    }
+
+    @Override
+    public long getCreatedSessionCount() {
+        return createdSessionCount.get();
+    }
+
+    @Override
+    public long getMaxActiveSessions() {
+        return maxSessions;
+    }
+
+    @Override
+    public long getHighestSessionCount() {
+        return highestSessionCount.get();
+    }
+
+    @Override
+    public long getActiveSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public long getExpiredSessionCount() {
+        return expiredSessionCount;
+    }
+
+    @Override
+    public long getRejectedSessions() {
+        return rejectedSessionCount.get();
+    }
+
+    @Override
+    public long getMaxSessionAliveTime() {
+        return longestSessionLifetime;
+    }
+
+    @Override
+    public synchronized long getAverageSessionAliveTime() {
+        //this method needs to be synchronised to make sure the session count and the total are in sync
+        if (expiredSessionCount == 0) {
+            return 0;
+        }
+        return new BigDecimal(totalSessionLifetime).divide(BigDecimal.valueOf(expiredSessionCount), MathContext.DECIMAL128).longValue();
+    }
+
+    @Override
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     *
+     * @return The amount of direct memory allocated for session data
+     */
+    public long getMemoryUsed() {
+        return store.getMemoryUsed();
+    }
+
+    /**
+     *
+     * @return The size of the temporary file used for session data
+     */
+    public long getDiskUsed() {
+        return store.getDiskUsed();
+    }
+
+    /**
+     *
+     * @return The total size of all serialized session data
+     */
+    public long getBytesStored() {
+        return store.getBytesStored();
+    }
+
+    private static Map<String, Object> readAttributes(final InputStream in) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInput = new ContextClassLoaderObjectInputStream(in)) {
+            final int count = objectInput.readInt();
+            final Map<String, Object> attributes = new HashMap<>(Math.max(count * 2, 8));
+            for (int i = 0; i < count; ++i) {
+                attributes.put(objectInput.readUTF(), objectInput.readObject());
+            }
+            return attributes;
+        }
+    }
+
+    private static ByteArrayOutputStream writeAttributes(final Map<String, Object> attributes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(out)) {
+            objectOutput.writeInt(attributes.size());
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                objectOutput.writeUTF(entry.getKey());
+                objectOutput.writeObject(entry.getValue());
+            }
+        }
+        return out;
+    }
+
+    /**
+     * The on heap index entry for a session. This holds the session metadata and a handle to the serialized
+     * attributes, the attributes are only held on the heap while the session is being used by a request.
+     */
+    private static final class OffHeapSession implements Session {
+
+        private final OffHeapSessionManager sessionManager;
+        private final SessionConfig sessionCookieConfig;
+        private final long creationTime;
+        private volatile String sessionId;
+        private volatile long lastAccessed;
+        private volatile int maxInactiveInterval;
+        private volatile long expireTime = -1;
+        private volatile boolean invalid;
+
+        //the following fields are guarded by this
+        private long handle = OffHeapSessionStore.NONE;
+        private Map<String, Object> attributes;
+        private int requests;
+        private boolean dirty;
+        private boolean invalidationStarted;
+
+        private OffHeapSession(final OffHeapSessionManager sessionManager, final SessionConfig sessionCookieConfig, final int maxInactiveInterval) {
+            this.sessionManager = sessionManager;
+            this.sessionCookieConfig = sessionCookieConfig;
+            this.creationTime = this.lastAccessed = System.currentTimeMillis();
+            this.maxInactiveInterval = maxInactiveInterval;
+        }
+
+        private void setId(final String sessionId) {
+            this.sessionId = sessionId;
+        }
+
+        @Override
+        public String getId() {
+            return sessionId;
+        }
+
+        void bumpTimeout() {
+            final int maxInactiveInterval = this.maxInactiveInterval;
+            if (maxInactiveInterval > 0) {
+                expireTime = System.currentTimeMillis() + maxInactiveInterval * 1000L;
+            } else {
+                expireTime = -1;
+            }
+        }
+
+        /**
+         * Marks the session as in use by the exchange, the attributes are kept on the heap until the exchange is complete
+         */
+        void requestStarted(final HttpServerExchange exchange) {
+            if (exchange.getAttachment(sessionManager.FIRST_REQUEST_ACCESS) == null && !invalid) {
+                exchange.putAttachment(sessionManager.FIRST_REQUEST_ACCESS, System.currentTimeMillis());
+            }
+            bumpTimeout();
+            final AttachmentList<OffHeapSession> inUse = exchange.getAttachment(sessionManager.SESSIONS_IN_USE);
+            if (inUse != null && inUse.contains(this)) {
+                return;
+            }
+            synchronized (this) {
+                if (invalidationStarted) {
+                    return;
+                }
+                ++requests;
+            }
+            exchange.addToAttachmentList(sessionManager.SESSIONS_IN_USE, this);
+            exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                    try {
+                        release();
+                    } finally {
+                        nextListener.proceed();
+                    }
+                }
+            });
+        }
+
+        /**
+         * Called when a request that was using the session is complete. If no other requests are using the session
+         * the attributes are written back to the store if they have been modified.
+         */
+        private synchronized void release() {
+            if (--requests > 0) {
+                return;
+            }
+            try {
+                if (dirty && !invalidationStarted) {
+                    store(attributes);
+                }
+            } catch (RuntimeException e) {
+                UndertowLogger.SESSION_LOGGER.errorf(e, "Failed to store attributes of session %s", sessionId);
+            } finally {
+                attributes = null;
+                dirty = false;
+            }
+        }
+
+        @Override
+        public void requestDone(final HttpServerExchange serverExchange) {
+            Long existing = serverExchange.getAttachment(sessionManager.FIRST_REQUEST_ACCESS);
+            if (existing != null) {
+                lastAccessed = existing;
+            }
+            bumpTimeout();
+        }
+
+        /**
+         * Returns the attributes of the session. If the session is in use by a request the attributes are cached until
+         * the request completes, otherwise they are read from the store every time.
+         */
+        private Map<String, Object> attributes() {
+            assert Thread.holdsLock(this);
+            if (attributes != null) {
+                return attributes;
+            }
+            final Map<String, Object> result;
+            if (handle == OffHeapSessionStore.NONE) {
+                result = new HashMap<>();
+            } else {
+                try {
+                    result = readAttributes(sessionManager.store.read(handle));
+                } catch (IOException | ClassNotFoundException e) {
+                    throw UndertowMessages.MESSAGES.failedToReadSessionAttributes(sessionId, e);
+                }
+            }
+            if (requests > 0) {
+                attributes = result;
+            }
+            return result;
+        }
+
+        /**
+         * Called after the attributes have been modified. If the session is not in use by a request they are written
+         * straight back to the store.
+         */
+        private void modified(final Map<String, Object> attributes) {
+            assert Thread.holdsLock(this);
+            if (requests > 0) {
+                dirty = true;
+            } else {
+                store(attributes);
+            }
+        }
+
+        private void store(final Map<String, Object> attributes) {
+            final long old = handle;
+            if (attributes.isEmpty()) {
+                handle = OffHeapSessionStore.NONE;
+            } else {
+                final ByteArrayOutputStream data;
+                try {
+                    data = writeAttributes(attributes);
+                } catch (IOException e) {
+                    throw UndertowMessages.MESSAGES.failedToWriteSessionAttributes(sessionId, e);
+                }
+                handle = sessionManager.store.write(data.toByteArray(), data.size());
+            }
+            sessionManager.store.free(old);
+        }
+
+        @Override
+        public long getCreationTime() {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            return creationTime;
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            return lastAccessed;
+        }
+
+        @Override
+        public void setMaxInactiveInterval(final int interval) {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            UndertowLogger.SESSION_LOGGER.debugf("Setting max inactive interval for %s to %s", sessionId, interval);
+            this.maxInactiveInterval = interval;
+            bumpTimeout();
+        }
+
+        @Override
+        public int getMaxInactiveInterval() {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            return maxInactiveInterval;
+        }
+
+        @Override
+        public Object getAttribute(final String name) {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            synchronized (this) {
+                final Object value = attributes().get(name);
+                if (requests > 0 && value != null && !isImmutable(value)) {
+                    //the request may modify the value without setting it again, so it is written back on release
+                    dirty = true;
+                }
+                return value;
+            }
+        }
+
+        private static boolean isImmutable(final Object value) {
+            return value instanceof String || value instanceof Integer || value instanceof Long || value instanceof Boolean
+                    || value instanceof Short || value instanceof Byte || value instanceof Character || value instanceof Double
+                    || value instanceof Float || value instanceof Enum;
+        }
+
+        @Override
+        public Set<String> getAttributeNames() {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            synchronized (this) {
+                return Collections.unmodifiableSet(new HashSet<>(attributes().keySet()));
+            }
+        }
+
+        @Override
+        public Object setAttribute(final String name, final Object value) {
+            if (value == null) {
+                return removeAttribute(name);
+            }
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            if (!(value instanceof Serializable)) {
+                throw UndertowMessages.MESSAGES.sessionAttributeNotSerializable(name, value.getClass().getName());
+            }
+            final Object existing;
+            synchronized (this) {
+                final Map<String, Object> attributes = attributes();
+                existing = attributes.put(name, value);
+                modified(attributes);
+            }
+            if (existing == null) {
+                sessionManager.sessionListeners.attributeAdded(this, name, value);
+            } else {
+                sessionManager.sessionListeners.attributeUpdated(this, name, value, existing);
+            }
+            UndertowLogger.SESSION_LOGGER.tracef("Setting session attribute %s to %s for session %s", name, value, sessionId);
+            return existing;
+        }
+
+        @Override
+        public Object removeAttribute(final String name) {
+            if (invalid) {
+                throw UndertowMessages.MESSAGES.sessionIsInvalid(sessionId);
+            }
+            final Object existing;
+            synchronized (this) {
+                final Map<String, Object> attributes = attributes();
+                existing = attributes.remove(name);
+                if (existing != null) {
+                    modified(attributes);
+                }
+            }
+            sessionManager.sessionListeners.attributeRemoved(this, name, existing);
+            UndertowLogger.SESSION_LOGGER.tracef("Removing session attribute %s for session %s", name, sessionId);
+            return existing;
+        }
+
+        @Override
+        public void invalidate(final HttpServerExchange exchange) {
+            invalidate(exchange, SessionListener.SessionDestroyedReason.INVALIDATED);
+            if (exchange != null) {
+                exchange.removeAttachment(sessionManager.NEW_SESSION);
+            }
+        }
+
+        void invalidate(final HttpServerExchange exchange, final SessionListener.SessionDestroyedReason reason) {
+            synchronized (this) {
+                if (invalidationStarted || !sessionManager.sessions.remove(sessionId, this)) {
+                    if (reason == SessionListener.SessionDestroyedReason.INVALIDATED) {
+                        throw UndertowMessages.MESSAGES.sessionAlreadyInvalidated();
+                    }
+                    return;
+                }
+                invalidationStarted = true;
+            }
+            UndertowLogger.SESSION_LOGGER.debugf("Invalidating session %s for exchange %s", sessionId, exchange);
+
+            //the attributes are still available to the listeners
+            sessionManager.sessionListeners.sessionDestroyed(this, exchange, reason);
+            invalid = true;
+            destroy();
+
+            if (sessionManager.statisticsEnabled) {
+                long life = System.currentTimeMillis() - creationTime;
+                synchronized (sessionManager) {
+                    sessionManager.expiredSessionCount++;
+                    sessionManager.totalSessionLifetime = sessionManager.totalSessionLifetime.add(BigInteger.valueOf(life));
+                    if (sessionManager.longestSessionLifetime < life) {
+                        sessionManager.longestSessionLifetime = life;
+                    }
+                }
+            }
+            if (exchange != null) {
+                sessionCookieConfig.clearSession(exchange, this.getId());
+            }
+        }
+
+        /**
+         * Frees the serialized attributes
+         */
+        private synchronized void destroy() {
+            sessionManager.store.free(handle);
+            handle = OffHeapSessionStore.NONE;
+            attributes = null;
+        }
+
+        @Override
+        public SessionManager getSessionManager() {
+            return sessionManager;
+        }
+
+        @Override
+        public String changeSessionId(final HttpServerExchange exchange, final SessionConfig config) {
+            synchronized (this) {
+                if (invalidationStarted) {
+                    return null;
+                }
+                final String oldId = sessionId;
+                String newId = sessionManager.createAndSaveNewID(this);
+                this.sessionId = newId;
+                config.setSessionId(exchange, this.getId());
+                sessionManager.sessions.remove(oldId);
+                sessionManager.sessionListeners.sessionIdChanged(this, oldId);
+                UndertowLogger.SESSION_LOGGER.debugf("Changing session id %s to %s", oldId, newId);
+                return newId;
+            }
+        }
+
+        @Override
+        public boolean isInvalid() {
+            return invalid;
+        }
+    }
+
+    public static final class Builder {
+
+        private final String deploymentName;
+        private SessionIdGenerator sessionIdGenerator = new SecureRandomSessionIdGenerator();
+        private int maxSessions = -1;
+        private boolean statisticsEnabled = true;
+        private long maxMemory = 64 * 1024 * 1024;
+        private long maxDiskSize = 0;
+        private Path tempDirectory;
+        private long expirationInterval = 5000;
+
+        Builder(String deploymentName) {
+            this.deploymentName = deploymentName;
+        }
+
+        public Builder setSessionIdGenerator(SessionIdGenerator sessionIdGenerator) {
+            this.sessionIdGenerator = sessionIdGenerator;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of sessions, new sessions are rejected once this has been reached
+         */
+        public Builder setMaxSessions(int maxSessions) {
+            this.maxSessions = maxSessions;
+            return this;
+        }
+
+        public Builder setStatisticsEnabled(boolean statisticsEnabled) {
+            this.statisticsEnabled = statisticsEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the maximum amount of direct memory in bytes used to store session attributes
+         */
+        public Builder setMaxMemory(long maxMemory) {
+            this.maxMemory = maxMemory;
+            return this;
+        }
+
+        /**
+         * Sets the maximum size in bytes of the temporary file used once the memory limit has been reached. If this is
+         * zero session data is never written to disk.
+         */
+        public Builder setMaxDiskSize(long maxDiskSize) {
+            this.maxDiskSize = maxDiskSize;
+            return this;
+        }
+
+        /**
+         * Sets the directory for the temporary file, if this is null the default temporary directory is used
+         */
+        public Builder setTempDirectory(Path tempDirectory) {
+            this.tempDirectory = tempDirectory;
+            return this;
+        }
+
+        /**
+         * Sets how often in milliseconds expired sessions are removed
+         */
+        public Builder setExpirationInterval(long expirationInterval) {
+            this.expirationInterval = expirationInterval;
+            return this;
+        }
+
+        public OffHeapSessionManager build() {
+            return new OffHeapSessionManager(this);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import org.xnio.IoUtils;
+
+/**
+ * Storage for serialized session data outside of the java heap.
+ * <p>
+ * Data is stored in fixed size pages, which are allocated from direct memory until the memory limit is reached, and
+ * after that from a memory mapped temporary file until the disk limit is reached. Each page is divided into slots of a
+ * single size class, and data is written to the smallest slot that it fits in. Data that does not fit in the largest
+ * slot is split over a chain of slots. Freed slots are reused for data of the same size class, pages are only released
+ * when the store is cleared.
+ * <p>
+ * Each slot starts with a header containing the number of bytes of data in the slot, and the handle of the next slot in
+ * the chain. Allocation is synchronized, however data is written and read without locking, as a slot is only ever
+ * accessed by the owner of its handle.
+ */
+final class OffHeapSessionStore {
+
+    /**
+     * The handle used to represent no data
+     */
+    static final long NONE = -1;
+
+    private static final int PAGE_SIZE = 1024 * 1024;
+    private static final int MIN_SLOT_SHIFT = 6;
+    private static final int MAX_SLOT_SHIFT = 16;
+    private static final int MAX_SLOT_SIZE = 1 << MAX_SLOT_SHIFT;
+    private static final int SIZE_CLASSES = MAX_SLOT_SHIFT - MIN_SLOT_SHIFT + 1;
+    private static final int HEADER_SIZE = 12;
+
+    private final long maxMemory;
+    private final long maxDiskSize;
+    private final Path tempDirectory;
+
+    private volatile ByteBuffer[] pages;
+    private byte[] pageClasses;
+    private int pageCount;
+    private final long[][] freeSlots = new long[SIZE_CLASSES][];
+    private final int[] freeSlotCount = new int[SIZE_CLASSES];
+
+    private long memoryUsed;
+    private long diskUsed;
+    private long bytesStored;
+
+    private Path filePath;
+    private FileChannel file;
+
+    /**
+     *
+     * @param maxMemory     The maximum amount of direct memory to use
+     * @param maxDiskSize   The maximum size of the temporary file used once the memory limit has been reached
+     * @param tempDirectory The directory for the temporary file, or null to use the default temporary directory
+     */
+    OffHeapSessionStore(long maxMemory, long maxDiskSize, Path tempDirectory) {
+        this.maxMemory = maxMemory;
+        this.maxDiskSize = maxDiskSize;
+        this.tempDirectory = tempDirectory;
+        clear();
+    }
+
+    /**
+     * Stores the given data.
+     *
+     * @param data   The data
+     * @param length The number of bytes to store
+     * @return The handle of the data
+     */
+    long write(final byte[] data, final int length) {
+        if (length == 0) {
+            return NONE;
+        }
+        final long[] slots;
+        final int sizeClass;
+        synchronized (this) {
+            if (length + HEADER_SIZE <= MAX_SLOT_SIZE) {
+                sizeClass = sizeClass(length + HEADER_SIZE);
+                slots = new long[]{allocate(sizeClass)};
+            } else {
+                sizeClass = SIZE_CLASSES - 1;
+                final int perSlot = MAX_SLOT_SIZE - HEADER_SIZE;
+                slots = new long[(length + perSlot - 1) / perSlot];
+                int allocated = 0;
+                try {
+                    for (; allocated < slots.length; ++allocated) {
+                        slots[allocated] = allocate(sizeClass);
+                    }
+                } catch (RuntimeException e) {
+                    for (int i = 0; i < allocated; ++i) {
+                        release(slots[i], sizeClass);
+                    }
+                    throw e;
+                }
+            }
+            bytesStored += length;
+        }
+        final ByteBuffer[] pages = this.pages;
+        final int perSlot = (1 << (sizeClass + MIN_SLOT_SHIFT)) - HEADER_SIZE;
+        int pos = 0;
+        for (int i = 0; i < slots.length; ++i) {
+            final ByteBuffer page = pages[page(slots[i])];
+            final int offset = offset(slots[i]);
+            final int count = Math.min(perSlot, length - pos);
+            page.putInt(offset, count);
+            page.putLong(offset + 4, i + 1 < slots.length ? slots[i + 1] : NONE);
+            page.put(offset + HEADER_SIZE, data, pos, count);
+            pos += count;
+        }
+        return slots[0];
+    }
+
+    /**
+     * Opens a stream that reads the data with the given handle. The data must not be freed while it is being read.
+     *
+     * @param handle The handle
+     * @return The stream
+     */
+    InputStream read(final long handle) {
+        return new SlotInputStream(pages, handle);
+    }
+
+    /**
+     * Frees the data with the given handle
+     *
+     * @param handle The handle
+     */
+    void free(final long handle) {
+        if (handle == NONE) {
+            return;
+        }
+        final ByteBuffer[] pages = this.pages;
+        long current = handle;
+        int length = 0;
+        synchronized (this) {
+            while (current != NONE) {
+                final ByteBuffer page = pages[page(current)];
+                final int offset = offset(current);
+                length += page.getInt(offset);
+                final long next = page.getLong(offset + 4);
+                release(current, pageClasses[page(current)]);
+                current = next;
+            }
+            bytesStored -= length;
+        }
+    }
+
+    /**
+     * Frees all data, releases all pages and deletes the temporary file
+     */
+    synchronized void clear() {
+        pages = new ByteBuffer[16];
+        pageClasses = new byte[16];
+        pageCount = 0;
+        for (int i = 0; i < SIZE_CLASSES; ++i) {
+            freeSlots[i] = new long[16];
+            freeSlotCount[i] = 0;
+        }
+        memoryUsed = 0;
+        diskUsed = 0;
+        bytesStored = 0;
+        if (file != null) {
+            IoUtils.safeClose(file);
+            file = null;
+            try {
+                Files.deleteIfExists(filePath);
+            } catch (IOException e) {
+                UndertowLogger.SESSION_LOGGER.debugf(e, "Failed to delete session store file %s", filePath);
+            }
+            filePath = null;
+        }
+    }
+
+    synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    synchronized long getDiskUsed() {
+        return diskUsed;
+    }
+
+    synchronized long getBytesStored() {
+        return bytesStored;
+    }
+
+    private long allocate(final int sizeClass) {
+        if (freeSlotCount[sizeClass] == 0) {
+            addPage(sizeClass);
+        }
+        return freeSlots[sizeClass][--freeSlotCount[sizeClass]];
+    }
+
+    private void release(final long slot, final int sizeClass) {
+        long[] free = freeSlots[sizeClass];
+        if (freeSlotCount[sizeClass] == free.length) {
+            free = freeSlots[sizeClass] = Arrays.copyOf(free, free.length * 2);
+        }
+        free[freeSlotCount[sizeClass]++] = slot;
+    }
+
+    private void addPage(final int sizeClass) {
+        final ByteBuffer page;
+        if (memoryUsed + PAGE_SIZE <= maxMemory) {
+            page = ByteBuffer.allocateDirect(PAGE_SIZE);
+            memoryUsed += PAGE_SIZE;
+        } else if (diskUsed + PAGE_SIZE <= maxDiskSize) {
+            try {
+                if (file == null) {
+                    filePath = tempDirectory == null ? Files.createTempFile("undertow-sessions", ".dat") : Files.createTempFile(tempDirectory, "undertow-sessions", ".dat");
+                    file = FileChannel.open(filePath, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+                }
+                page = file.map(FileChannel.MapMode.READ_WRITE, diskUsed, PAGE_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            diskUsed += PAGE_SIZE;
+        } else {
+            throw UndertowMessages.MESSAGES.sessionStoreFull(maxMemory, maxDiskSize);
+        }
+        ByteBuffer[] pages = this.pages;
+        if (pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pages.length * 2);
+            pageClasses = Arrays.copyOf(pageClasses, pageClasses.length * 2);
+        }
+        final int index = pageCount++;
+        pages[index] = page;
+        pageClasses[index] = (byte) sizeClass;
+        this.pages = pages;
+
+        final int slotSize = 1 << (sizeClass + MIN_SLOT_SHIFT);
+        for (int offset = PAGE_SIZE - slotSize; offset >= 0; offset -= slotSize) {
+            release(((long) index << 32) | offset, sizeClass);
+        }
+    }
+
+    private static int sizeClass(final int size) {
+        final int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, MIN_SLOT_SHIFT) - MIN_SLOT_SHIFT;
+    }
+
+    private static int page(final long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(final long handle) {
+        return (int) handle;
+    }
+
+    private static final class SlotInputStream extends InputStream {
+
+        private final ByteBuffer[] pages;
+        private ByteBuffer page;
+        private int position;
+        private int remaining;
+        private long next;
+
+        private SlotInputStream(ByteBuffer[] pages, long handle) {
+            this.pages = pages;
+            this.next = handle;
+        }
+
+        private boolean nextSlot() {
+            while (remaining == 0) {
+                if (next == NONE) {
+                    return false;
+                }
+                page = pages[page(next)];
+                final int offset = offset(next);
+                remaining = page.getInt(offset);
+                next = page.getLong(offset + 4);
+                position = offset + HEADER_SIZE;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() {
+            if (!nextSlot()) {
+                return -1;
+            }
+            --remaining;
+            return page.get(position++) & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextSlot()) {
+                return -1;
+            }
+            final int count = Math.min(len, remaining);
+            page.get(position, b, off, count);
+            position += count;
+            remaining -= count;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A {@link SessionIdGenerator} that generates random bytes in bulk, so the cost of the secure random and any
+ * contention on it is not paid for every session.
+ * <p>
+ * Random bytes are generated in blocks, which are kept in a shared pool that is refilled by a background task when it
+ * runs low. Each thread takes a whole block from the pool and generates session ids from it until it is exhausted, so
+ * creating a session normally involves no shared state. If the pool is empty a block is generated on the calling
+ * thread. Session ids use the same encoding as {@link SecureRandomSessionIdGenerator}.
+ */
+public class PooledSessionIdGenerator implements SessionIdGenerator {
+
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int DEFAULT_POOL_SIZE = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final int blockSize;
+    private final BlockingQueue<byte[]> pool;
+    private final Executor executor;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean();
+    private final ThreadLocal<LocalBlock> localBlock = new ThreadLocal<>();
+
+    private volatile int length = 30;
+
+    private final Runnable refillTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                byte[] block;
+                do {
+                    block = new byte[blockSize];
+                    random.nextBytes(block);
+                } while (pool.offer(block));
+            } finally {
+                refillScheduled.set(false);
+            }
+        }
+    };
+
+    public PooledSessionIdGenerator() {
+        this(DEFAULT_BLOCK_SIZE, DEFAULT_POOL_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     *
+     * @param blockSize The number of random bytes that are generated at once
+     * @param poolSize  The number of blocks kept in the pool
+     * @param executor  The executor that refills the pool
+     */
+    public PooledSessionIdGenerator(int blockSize, int poolSize, Executor executor) {
+        this.blockSize = blockSize;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        this.executor = executor;
+    }
+
+    @Override
+    public String createSessionId() {
+        final int length = this.length;
+        LocalBlock local = localBlock.get();
+        if (local == null) {
+            local = new LocalBlock();
+            localBlock.set(local);
+        }
+        final char[] chars = local.chars(length);
+        if (length > blockSize) {
+            final byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            return new String(chars, 0, SecureRandomSessionIdGenerator.encode(bytes, 0, length, chars));
+        }
+        if (local.block == null || local.position + length > local.block.length) {
+            local.block = takeBlock();
+            local.position = 0;
+        }
+        final int count = SecureRandomSessionIdGenerator.encode(local.block, local.position, length, chars);
+        local.position += length;
+        return new String(chars, 0, count);
+    }
+
+    private byte[] takeBlock() {
+        byte[] block = pool.poll();
+        if (pool.size() < pool.remainingCapacity() && refillScheduled.compareAndSet(false, true)) {
+            //less than half full
+            try {
+                executor.execute(refillTask);
+            } catch (RejectedExecutionException e) {
+                refillScheduled.set(false);
+            }
+        }
+        if (block == null) {
+            block = new byte[blockSize];
+            random.nextBytes(block);
+        }
+        return block;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public void setLength(final int length) {
+        this.length = length;
+    }
+
+    private static final class LocalBlock {
+        private byte[] block;
+        private int position;
+        private char[] chars = new char[0];
+
+        char[] chars(int length) {
+            final int required = SecureRandomSessionIdGenerator.encodedLength(length);
+            if (chars.length < required) {
+                chars = new char[required];
+            }
+            return chars;
+        }
+    }
+}
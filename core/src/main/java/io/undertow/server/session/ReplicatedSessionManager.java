@@ -0,0 +1,702 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.UndertowLogger;
+import io.undertow.UndertowMessages;
+import io.undertow.server.HttpServerExchange;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+
+/**
+ * A session manager that replicates session changes to the other nodes of a cluster, so sessions survive the
+ * failure of the node that owns them.
+ * <p>
+ * Sessions are owned by a local session manager, by default an {@link InMemorySessionManager}, and requests are
+ * expected to be routed to the owner using sticky sessions (e.g. with {@link io.undertow.server.JvmRouteHandler}).
+ * Changes to local sessions are tracked using a {@link SessionListener}, and only the names of the changed attributes
+ * are recorded. Every replication interval the current values of these attributes are serialized and sent to the
+ * other nodes in a single batch using a {@link SessionReplicationTransport}, so a request never waits for
+ * replication and an attribute that is changed several times within an interval is only sent once.
+ * <p>
+ * Other nodes keep the serialized attributes as a backup. If a request arrives for a session that is not owned by
+ * this node but has a backup, the backup is deserialized into a new local session with the same id and this node
+ * becomes the owner. Backups expire based on the max inactive interval of the session; as the owner only sends
+ * batches for sessions that were used, a session that is used without being modified is periodically replicated
+ * with no attribute changes to keep the backups alive.
+ * <p>
+ * Replication is asynchronous and best effort, so changes made just before a node fails may be lost. All replicated
+ * attributes must be {@link java.io.Serializable}, attributes that cannot be serialized are not replicated.
+ * Attributes received from other nodes are deserialized with a {@link ObjectInputFilter}. Unless a process wide filter
+ * is set, the default filter only allows the value and collection classes of the {@code java.lang},
+ * {@code java.util}, {@code java.time} and {@code java.math} packages, so applications that store other classes in
+ * the session must allow them with {@link Builder#setDeserializationFilter(ObjectInputFilter)}.
+ */
+public class ReplicatedSessionManager implements SessionManager {
+
+    private static final byte UPDATE = 1;
+    private static final byte INVALIDATE = 2;
+
+    private final SessionManager sessionManager;
+    private final SessionReplicationTransport transport;
+    private final long replicationInterval;
+    private final int maxBatchSize;
+    private final ObjectInputFilter deserializationFilter;
+
+    private final ConcurrentMap<String, SessionDelta> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, BackupSession> backups = new ConcurrentHashMap<>();
+    private final ReplicationListener replicationListener = new ReplicationListener();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    private final AtomicLong sentBatches = new AtomicLong();
+    private final AtomicLong receivedBatches = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+
+    private volatile XnioWorker worker;
+    private XnioExecutor.Key replicationKey;
+
+    private final Runnable replicationTask = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            flush();
+        }
+    };
+
+    ReplicatedSessionManager(Builder builder) {
+        this.sessionManager = builder.sessionManager != null ? builder.sessionManager : new InMemorySessionManager(builder.deploymentName);
+        this.transport = builder.transport;
+        this.replicationInterval = builder.replicationInterval;
+        this.maxBatchSize = builder.maxBatchSize;
+        if (builder.deserializationFilter != null) {
+            this.deserializationFilter = builder.deserializationFilter;
+        } else if (ObjectInputFilter.Config.getSerialFilter() != null) {
+            //the process wide filter decides which classes are allowed
+            this.deserializationFilter = Builder.LIMITS_FILTER;
+        } else {
+            this.deserializationFilter = Builder.DEFAULT_DESERIALIZATION_FILTER;
+        }
+    }
+
+    /**
+     *
+     * @param deploymentName The deployment name
+     * @param transport      The transport used to communicate with other nodes
+     * @return A builder
+     */
+    public static Builder builder(String deploymentName, SessionReplicationTransport transport) {
+        return new Builder(deploymentName, transport);
+    }
+
+    @Override
+    public String getDeploymentName() {
+        return sessionManager.getDeploymentName();
+    }
+
+    @Override
+    public void start() {
+        sessionManager.registerSessionListener(replicationListener);
+        sessionManager.start();
+        try {
+            transport.start(new SessionReplicationTransport.Receiver() {
+                @Override
+                public void receive(byte[] message) {
+                    ReplicatedSessionManager.this.receive(message);
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            if (replicationKey != null) {
+                replicationKey.remove();
+                replicationKey = null;
+            }
+            worker = null;
+        }
+        flush();
+        //the other nodes keep their backups of our sessions, so they can take them over
+        sessionManager.removeSessionListener(replicationListener);
+        sessionManager.stop();
+        transport.stop();
+        pending.clear();
+        backups.clear();
+    }
+
+    @Override
+    public Session createSession(final HttpServerExchange serverExchange, final SessionConfig sessionCookieConfig) {
+        scheduleReplication(serverExchange);
+        return sessionManager.createSession(serverExchange, sessionCookieConfig);
+    }
+
+    @Override
+    public Session getSession(final HttpServerExchange serverExchange, final SessionConfig sessionCookieConfig) {
+        Session session = sessionManager.getSession(serverExchange, sessionCookieConfig);
+        if (serverExchange == null) {
+            return session;
+        }
+        scheduleReplication(serverExchange);
+        if (session != null) {
+            final String id = session.getId();
+            if (!pending.containsKey(id)) {
+                //make sure the backups do not expire while the session is in use
+                pending.computeIfAbsent(id, SessionDelta::new);
+                checkBatchSize();
+            }
+            return session;
+        }
+        if (sessionCookieConfig == null) {
+            return null;
+        }
+        final String sessionId = sessionCookieConfig.findSessionId(serverExchange);
+        final BackupSession backup = sessionId == null ? null : backups.get(sessionId);
+        if (backup == null) {
+            return null;
+        }
+        synchronized (backup) {
+            session = sessionManager.getSession(serverExchange, sessionCookieConfig);
+            if (session != null || !backups.remove(sessionId, backup) || backup.isExpired(System.currentTimeMillis())) {
+                //another request took over the session first
+                return session;
+            }
+            return takeOver(serverExchange, sessionCookieConfig, sessionId, backup);
+        }
+    }
+
+    /**
+     * Creates a local session from a backup. This relies on the local session manager using the session id
+     * that was requested by the client.
+     */
+    private Session takeOver(final HttpServerExchange exchange, final SessionConfig config, final String sessionId, final BackupSession backup) {
+        UndertowLogger.SESSION_LOGGER.debugf("Taking over session %s from backup", sessionId);
+        final Session session = sessionManager.createSession(exchange, config);
+        if (!sessionId.equals(session.getId())) {
+            UndertowLogger.SESSION_LOGGER.debugf("Session manager did not use session id %s, backup discarded", sessionId);
+            return session;
+        }
+        session.setMaxInactiveInterval(backup.maxInactiveInterval);
+        for (Map.Entry<String, byte[]> entry : backup.attributes.entrySet()) {
+            try (ObjectInputStream in = new ContextClassLoaderObjectInputStream(new ByteArrayInputStream(entry.getValue()), deserializationFilter)) {
+                session.setAttribute(entry.getKey(), in.readObject());
+            } catch (IOException | ClassNotFoundException e) {
+                throw UndertowMessages.MESSAGES.failedToReadSessionAttributes(sessionId, e);
+            }
+        }
+        failovers.incrementAndGet();
+        return session;
+    }
+
+    @Override
+    public Session getSession(final String sessionId) {
+        return sessionManager.getSession(sessionId);
+    }
+
+    @Override
+    public void registerSessionListener(final SessionListener listener) {
+        sessionManager.registerSessionListener(listener);
+    }
+
+    @Override
+    public void removeSessionListener(final SessionListener listener) {
+        sessionManager.removeSessionListener(listener);
+    }
+
+    @Override
+    public void setDefaultSessionTimeout(final int timeout) {
+        sessionManager.setDefaultSessionTimeout(timeout);
+    }
+
+    @Override
+    public Set<String> getTransientSessions() {
+        return sessionManager.getTransientSessions();
+    }
+
+    @Override
+    public Set<String> getActiveSessions() {
+        return sessionManager.getActiveSessions();
+    }
+
+    @Override
+    public Set<String> getAllSessions() {
+        return sessionManager.getAllSessions();
+    }
+
+    @Override
+    public SessionManagerStatistics getStatistics() {
+        return sessionManager.getStatistics();
+    }
+
+    /**
+     *
+     * @return The ids of the sessions of other nodes that this node holds a backup of
+     */
+    public Set<String> getBackupSessions() {
+        return new HashSet<>(backups.keySet());
+    }
+
+    /**
+     *
+     * @return The number of batches sent to other nodes
+     */
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    /**
+     *
+     * @return The number of batches received from other nodes
+     */
+    public long getReceivedBatches() {
+        return receivedBatches.get();
+    }
+
+    /**
+     *
+     * @return The number of sessions that were taken over from a backup
+     */
+    public long getFailovers() {
+        return failovers.get();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof SessionManager)) return false;
+        SessionManager manager = (SessionManager) object;
+        return getDeploymentName().equals(manager.getDeploymentName());
+    }
+
+    @Override
+    public int hashCode() {
+        return getDeploymentName().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return getDeploymentName();
+    }
+
+    /**
+     * Schedules the replication task on the first IO thread that is used to access a session
+     */
+    private void scheduleReplication(final HttpServerExchange exchange) {
+        if (worker != null) {
+            return;
+        }
+        synchronized (this) {
+            if (worker == null) {
+                final XnioIoThread ioThread = exchange.getIoThread();
+                final XnioWorker worker = exchange.getConnection().getWorker();
+                replicationKey = ioThread.executeAtInterval(new Runnable() {
+                    @Override
+                    public void run() {
+                        worker.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                flush();
+                                expireBackups();
+                            }
+                        });
+                    }
+                }, replicationInterval, TimeUnit.MILLISECONDS);
+                this.worker = worker;
+            }
+        }
+    }
+
+    /**
+     * Sends the pending changes early if the batch has become too large
+     */
+    private void checkBatchSize() {
+        if (pending.size() >= maxBatchSize) {
+            final XnioWorker worker = this.worker;
+            if (worker != null && flushScheduled.compareAndSet(false, true)) {
+                worker.execute(replicationTask);
+            }
+        }
+    }
+
+    /**
+     * Sends all pending changes to the other nodes
+     */
+    void flush() {
+        synchronized (flushLock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final List<SessionDelta> batch = new ArrayList<>();
+            for (String id : pending.keySet()) {
+                final SessionDelta delta = pending.remove(id);
+                if (delta != null) {
+                    batch.add(delta);
+                }
+            }
+            final ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(data)) {
+                out.writeUTF(getDeploymentName());
+                out.writeInt(batch.size());
+                for (SessionDelta delta : batch) {
+                    writeDelta(out, delta);
+                }
+            } catch (IOException e) {
+                UndertowLogger.SESSION_LOGGER.failedToSendSessionReplicationBatch(getDeploymentName(), e);
+                return;
+            }
+            try {
+                transport.send(data.toByteArray());
+                sentBatches.incrementAndGet();
+            } catch (IOException | RuntimeException e) {
+                UndertowLogger.SESSION_LOGGER.failedToSendSessionReplicationBatch(getDeploymentName(), e);
+            }
+        }
+    }
+
+    private void writeDelta(final DataOutputStream out, final SessionDelta delta) throws IOException {
+        final Session session = delta.invalidated ? null : sessionManager.getSession(delta.sessionId);
+        final Map<String, byte[]> changed = new HashMap<>();
+        final Set<String> removed;
+        final int maxInactiveInterval;
+        try {
+            if (session == null) {
+                out.writeUTF(delta.sessionId);
+                out.writeByte(INVALIDATE);
+                return;
+            }
+            maxInactiveInterval = session.getMaxInactiveInterval();
+            removed = delta.removed;
+            for (String name : delta.changed) {
+                final Object value = session.getAttribute(name);
+                if (value == null) {
+                    removed.add(name);
+                    continue;
+                }
+                try {
+                    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+                        objectOutput.writeObject(value);
+                    }
+                    changed.put(name, bytes.toByteArray());
+                } catch (IOException e) {
+                    UndertowLogger.SESSION_LOGGER.failedToReplicateSessionAttribute(name, delta.sessionId, e);
+                }
+            }
+        } catch (IllegalStateException e) {
+            //the session was invalidated while we were reading it, the invalidation will be sent in the next batch
+            return;
+        }
+        out.writeUTF(delta.sessionId);
+        out.writeByte(UPDATE);
+        out.writeBoolean(delta.previousId != null);
+        if (delta.previousId != null) {
+            out.writeUTF(delta.previousId);
+        }
+        out.writeInt(maxInactiveInterval);
+        out.writeInt(changed.size());
+        for (Map.Entry<String, byte[]> entry : changed.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+        out.writeInt(removed.size());
+        for (String name : removed) {
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * Applies a batch of changes sent by another node
+     */
+    void receive(final byte[] message) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(message))) {
+            if (!getDeploymentName().equals(in.readUTF())) {
+                return;
+            }
+            receivedBatches.incrementAndGet();
+            final long now = System.currentTimeMillis();
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String sessionId = in.readUTF();
+                if (in.readByte() == INVALIDATE) {
+                    backups.remove(sessionId);
+                    continue;
+                }
+                final String previousId = in.readBoolean() ? in.readUTF() : null;
+                final int maxInactiveInterval = in.readInt();
+                BackupSession backup = previousId == null ? null : backups.remove(previousId);
+                if (backup != null) {
+                    backups.put(sessionId, backup);
+                } else {
+                    backup = backups.computeIfAbsent(sessionId, id -> new BackupSession());
+                }
+                synchronized (backup) {
+                    backup.maxInactiveInterval = maxInactiveInterval;
+                    backup.lastReplicated = now;
+                    final int changed = in.readInt();
+                    for (int j = 0; j < changed; ++j) {
+                        final String name = in.readUTF();
+                        final int length = in.readInt();
+                        if (length < 0 || length > in.available()) {
+                            throw UndertowMessages.MESSAGES.invalidSessionReplicationBatch(length);
+                        }
+                        final byte[] value = new byte[length];
+                        in.readFully(value);
+                        backup.attributes.put(name, value);
+                    }
+                    final int removed = in.readInt();
+                    for (int j = 0; j < removed; ++j) {
+                        backup.attributes.remove(in.readUTF());
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            UndertowLogger.SESSION_LOGGER.failedToReceiveSessionReplicationBatch(e);
+        }
+    }
+
+    /**
+     * Removes backups of sessions that have not been used for longer than their max inactive interval
+     */
+    void expireBackups() {
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<String, BackupSession> entry : backups.entrySet()) {
+            if (entry.getValue().isExpired(now)) {
+                backups.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * The changes to a local session that have not been replicated yet. This is only modified while holding the
+     * lock of the pending map entry.
+     */
+    private static final class SessionDelta {
+
+        private final String sessionId;
+        private final Set<String> changed = new LinkedHashSet<>();
+        private final Set<String> removed = new LinkedHashSet<>();
+        private String previousId;
+        private boolean invalidated;
+
+        private SessionDelta(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    /**
+     * The serialized attributes of a session owned by another node
+     */
+    private static final class BackupSession {
+
+        private final Map<String, byte[]> attributes = new HashMap<>();
+        private volatile int maxInactiveInterval;
+        private volatile long lastReplicated;
+
+        boolean isExpired(long now) {
+            final int maxInactiveInterval = this.maxInactiveInterval;
+            return maxInactiveInterval > 0 && now - lastReplicated > maxInactiveInterval * 1000L;
+        }
+    }
+
+    /**
+     * Records changes to local sessions
+     */
+    private final class ReplicationListener implements SessionListener {
+
+        @Override
+        public void sessionCreated(final Session session, final HttpServerExchange exchange) {
+            pending.computeIfAbsent(session.getId(), SessionDelta::new);
+            checkBatchSize();
+        }
+
+        @Override
+        public void sessionDestroyed(final Session session, final HttpServerExchange exchange, final SessionDestroyedReason reason) {
+            if (reason == SessionDestroyedReason.UNDEPLOY) {
+                //the session is not gone, this node is, so the backups are kept
+                return;
+            }
+            pending.compute(session.getId(), (id, delta) -> {
+                if (delta == null) {
+                    delta = new SessionDelta(id);
+                }
+                delta.invalidated = true;
+                delta.changed.clear();
+                delta.removed.clear();
+                return delta;
+            });
+        }
+
+        @Override
+        public void attributeAdded(final Session session, final String name, final Object value) {
+            attributeChanged(session, name);
+        }
+
+        @Override
+        public void attributeUpdated(final Session session, final String name, final Object newValue, final Object oldValue) {
+            attributeChanged(session, name);
+        }
+
+        private void attributeChanged(final Session session, final String name) {
+            pending.compute(session.getId(), (id, delta) -> {
+                if (delta == null) {
+                    delta = new SessionDelta(id);
+                }
+                delta.changed.add(name);
+                delta.removed.remove(name);
+                return delta;
+            });
+            checkBatchSize();
+        }
+
+        @Override
+        public void attributeRemoved(final Session session, final String name, final Object oldValue) {
+            if (oldValue == null) {
+                return;
+            }
+            pending.compute(session.getId(), (id, delta) -> {
+                if (delta == null) {
+                    delta = new SessionDelta(id);
+                }
+                delta.removed.add(name);
+                delta.changed.remove(name);
+                return delta;
+            });
+            checkBatchSize();
+        }
+
+        @Override
+        public void sessionIdChanged(final Session session, final String oldSessionId) {
+            final SessionDelta old = pending.remove(oldSessionId);
+            pending.compute(session.getId(), (id, delta) -> {
+                if (delta == null) {
+                    delta = new SessionDelta(id);
+                }
+                //the other nodes may not know about the old id if it was never replicated, in which case
+                //the complete session is sent
+                delta.previousId = old != null && old.previousId != null ? old.previousId : oldSessionId;
+                if (old != null) {
+                    delta.changed.addAll(old.changed);
+                    delta.removed.addAll(old.removed);
+                }
+                for (String name : session.getAttributeNames()) {
+                    delta.changed.add(name);
+                }
+                return delta;
+            });
+            checkBatchSize();
+        }
+    }
+
+    public static final class Builder {
+
+        private static final String LIMITS = "maxdepth=100;maxrefs=1000000;maxarray=10000000";
+        /**
+         * Only limits the size of the object graph, this is used when the process wide filter restricts the classes
+         */
+        static final ObjectInputFilter LIMITS_FILTER = ObjectInputFilter.Config.createFilter(LIMITS);
+        /**
+         * Also only allows JDK value and collection classes, any other class is rejected
+         */
+        static final ObjectInputFilter DEFAULT_DESERIALIZATION_FILTER = ObjectInputFilter.Config.createFilter(LIMITS + ";java.lang.*;java.util.*;java.time.*;java.math.*;!*");
+
+        private final String deploymentName;
+        private final SessionReplicationTransport transport;
+        private SessionManager sessionManager;
+        private long replicationInterval = 100;
+        private int maxBatchSize = 1000;
+        private ObjectInputFilter deserializationFilter;
+
+        Builder(String deploymentName, SessionReplicationTransport transport) {
+            this.deploymentName = deploymentName;
+            this.transport = transport;
+        }
+
+        /**
+         * Sets the session manager that holds the local sessions, by default an {@link InMemorySessionManager} is
+         * used. This session manager must use the session id requested by the client when creating a session, so
+         * sessions keep their id when they are taken over.
+         */
+        public Builder setSessionManager(SessionManager sessionManager) {
+            this.sessionManager = sessionManager;
+            return this;
+        }
+
+        /**
+         * Sets how often in milliseconds changes are sent to the other nodes
+         */
+        public Builder setReplicationInterval(long replicationInterval) {
+            this.replicationInterval = replicationInterval;
+            return this;
+        }
+
+        /**
+         * Sets the number of changed sessions that causes changes to be sent before the replication interval elapses
+         */
+        public Builder setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * Sets the filter that is applied when attributes received from other nodes are deserialized, to restrict the
+         * classes that may be created. This should allow every attribute class used by the application and reject
+         * everything else, for example <code>ObjectInputFilter.Config.createFilter("com.example.*;java.lang.*;java.util.*;!*")</code>.
+         * By default only JDK value and collection classes are allowed, unless a process wide filter is set with the
+         * {@code jdk.serialFilter} system property, in which case that decides. The process wide filter is applied
+         * as well as this filter.
+         */
+        public Builder setDeserializationFilter(ObjectInputFilter deserializationFilter) {
+            if (deserializationFilter == null) {
+                throw UndertowMessages.MESSAGES.argumentCannotBeNull("deserializationFilter");
+            }
+            this.deserializationFilter = deserializationFilter;
+            return this;
+        }
+
+        public ReplicatedSessionManager build() {
+            return new ReplicatedSessionManager(this);
+        }
+    }
+}
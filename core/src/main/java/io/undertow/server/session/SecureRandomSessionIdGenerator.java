@@ -73,24 +73,40 @@ public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
      * @return the encoded String
      */
     private char[] encode(byte[] data) {
-        char[] out = new char[((data.length + 2) / 3) * 4];
+        char[] out = new char[encodedLength(data.length)];
+        encode(data, 0, data.length, out);
+        return out;
+    }
+
+    static int encodedLength(int length) {
+        return ((length + 2) / 3) * 4;
+    }
+
+    /**
+     * Encodes part of an array into the given char buffer.
+     *
+     * @return the number of characters written
+     */
+    static int encode(byte[] data, int offset, int length, char[] out) {
         char[] alphabet = SESSION_ID_ALPHABET;
+        int end = offset + length;
+        int index = 0;
         //
         // 3 bytes encode to 4 chars.  Output is always an even
         // multiple of 4 characters.
         //
-        for (int i = 0, index = 0; i < data.length; i += 3, index += 4) {
+        for (int i = offset; i < end; i += 3, index += 4) {
             boolean quad = false;
             boolean trip = false;
 
             int val = (0xFF & (int) data[i]);
             val <<= 8;
-            if ((i + 1) < data.length) {
+            if ((i + 1) < end) {
                 val |= (0xFF & (int) data[i + 1]);
                 trip = true;
             }
             val <<= 8;
-            if ((i + 2) < data.length) {
+            if ((i + 2) < end) {
                 val |= (0xFF & (int) data[i + 2]);
                 quad = true;
             }
@@ -102,6 +118,6 @@ public class SecureRandomSessionIdGenerator implements SessionIdGenerator {
             val >>= 6;
             out[index] = alphabet[val & 0x3F];
         }
-        return out;
+        return index;
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.IOException;
+
+/**
+ * The transport used by a {@link ReplicatedSessionManager} to exchange session changes with the other nodes in the
+ * cluster.
+ * <p>
+ * Messages are opaque byte arrays, and must be delivered to every other node that shares the transport. Messages
+ * from a single sender must be delivered in the order they were sent. A transport may be shared by several
+ * deployments, as every message identifies the deployment it belongs to.
+ */
+public interface SessionReplicationTransport {
+
+    /**
+     * Starts the transport.
+     *
+     * @param receiver The receiver that is invoked for messages sent by other nodes
+     */
+    void start(Receiver receiver) throws IOException;
+
+    /**
+     * Sends a message to all other nodes.
+     *
+     * @param message The message
+     */
+    void send(byte[] message) throws IOException;
+
+    /**
+     * Stops the transport. No more messages will be delivered to the receiver once this returns.
+     */
+    void stop();
+
+    interface Receiver {
+
+        /**
+         * Invoked for every message sent by another node.
+         *
+         * @param message The message
+         */
+        void receive(byte[] message);
+    }
+}
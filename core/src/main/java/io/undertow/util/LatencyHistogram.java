@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations, with log-linear buckets.
+ * <p>
+ * Durations are measured in units of one microsecond. Durations of up to {@link #SUB_BUCKETS} microseconds each have
+ * their own bucket, and every doubling after that is split into {@link #SUB_BUCKETS} equally sized buckets. The upper
+ * bound of a bucket is therefore never more than {@code 1 / SUB_BUCKETS} (about 3%) larger than any duration counted
+ * in it, and percentiles are accurate to within that bound. Durations longer than about 19 hours are all counted in
+ * the last bucket. Recording is thread safe and does not lock.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /**
+     * The number of buckets each doubling of the duration is split into
+     */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of doublings of the duration that are tracked after the linear buckets
+     */
+    private static final int DOUBLINGS = 31;
+
+    public static final int BUCKETS = SUB_BUCKETS * (DOUBLINGS + 1);
+
+    private static final long UNIT = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a duration
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts.incrementAndGet(bucket(nanos));
+        total.add(nanos);
+        long oldMax;
+        do {
+            oldMax = max.get();
+            if (oldMax >= nanos) {
+                break;
+            }
+        } while (!max.compareAndSet(oldMax, nanos));
+    }
+
+    /**
+     * Adds all the durations recorded by another histogram to this one
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; ++i) {
+            final long count = other.counts.get(i);
+            if (count != 0) {
+                counts.addAndGet(i, count);
+            }
+        }
+        total.add(other.total.sum());
+        final long otherMax = other.max.get();
+        long oldMax;
+        do {
+            oldMax = max.get();
+            if (oldMax >= otherMax) {
+                break;
+            }
+        } while (!max.compareAndSet(oldMax, otherMax));
+    }
+
+    /**
+     *
+     * @return The number of recorded durations
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     *
+     * @return The sum of all recorded durations in nanoseconds
+     */
+    public long getTotalTime() {
+        return total.sum();
+    }
+
+    /**
+     *
+     * @return The longest recorded duration in nanoseconds
+     */
+    public long getMaxTime() {
+        return max.get();
+    }
+
+    /**
+     *
+     * @return The number of durations in each bucket
+     */
+    public long[] getBucketCounts() {
+        final long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; ++i) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile. This is the upper bound of the bucket that contains the
+     * percentile, or the maximum recorded duration if that is smaller, so it is at most {@code 1 / SUB_BUCKETS} larger
+     * than the exact percentile.
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @return The percentile in nanoseconds, or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        final long[] snapshot = getBucketCounts();
+        long count = 0;
+        for (long c : snapshot) {
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(count * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; ++i) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(getBucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     *
+     * @return A copy of this histogram, which is not affected by later recordings or resets
+     */
+    public LatencyHistogram snapshot() {
+        final LatencyHistogram result = new LatencyHistogram();
+        result.add(this);
+        return result;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     *
+     * @param bucket The bucket
+     * @return The largest duration in nanoseconds counted by the bucket, the last bucket has no upper bound
+     */
+    public static long getBucketUpperBound(int bucket) {
+        if (bucket >= BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        if (bucket < SUB_BUCKETS) {
+            return (bucket + 1) * UNIT;
+        }
+        final int doubling = (bucket >> SUB_BUCKET_BITS) - 1;
+        final long subBucket = bucket & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + subBucket + 1) << doubling) * UNIT;
+    }
+
+    static int bucket(long nanos) {
+        if (nanos <= UNIT) {
+            return 0;
+        }
+        //the number of whole units below the duration, so that a bucket includes its upper bound
+        final long units = (nanos - 1) / UNIT;
+        if (units < SUB_BUCKETS) {
+            return (int) units;
+        }
+        //units is in [2^magnitude, 2^(magnitude + 1)), which is split into SUB_BUCKETS linear buckets
+        final int doubling = 63 - Long.numberOfLeadingZeros(units) - SUB_BUCKET_BITS;
+        if (doubling >= DOUBLINGS) {
+            return BUCKETS - 1;
+        }
+        final int subBucket = (int) (units >>> doubling) - SUB_BUCKETS;
+        return Math.min(((doubling + 1) << SUB_BUCKET_BITS) + subBucket, BUCKETS - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyHistogram{" +
+                "count=" + getCount() +
+                ", p50=" + getPercentile(0.5) +
+                ", p99=" + getPercentile(0.99) +
+                ", max=" + getMaxTime() +
+                '}';
+    }
+}
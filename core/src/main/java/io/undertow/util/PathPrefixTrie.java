@@ -0,0 +1,305 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * An immutable radix trie that maps path prefixes to values.
+ * <p>
+ * Prefixes have the same semantics as {@link PathMatcher#addPrefixPath(String, Object)}, so <code>/foo</code> matches
+ * <code>/foo</code> and <code>/foo/bar</code> but not <code>/foobar</code>, and <code>/</code> matches every path.
+ * Lookups are lock free and take time proportional to the length of the path, regardless of the number of prefixes.
+ * <p>
+ * Modifications return a new trie that shares all unmodified nodes with the original, so a routing table can be
+ * updated by building a new trie and publishing it through a volatile field.
+ */
+public final class PathPrefixTrie<T> {
+
+    private static final PathPrefixTrie<?> EMPTY = new PathPrefixTrie<>(new Node<>("", null, Node.noChildren()), 0);
+
+    private final Node<T> root;
+    private final int size;
+
+    private PathPrefixTrie(Node<T> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> PathPrefixTrie<T> empty() {
+        return (PathPrefixTrie<T>) EMPTY;
+    }
+
+    /**
+     *
+     * @return The number of prefixes in this trie
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a trie with the given prefix mapped to the given value, replacing any existing value.
+     *
+     * @param path  The path prefix
+     * @param value The value
+     * @return The new trie
+     */
+    public PathPrefixTrie<T> with(final String path, final T value) {
+        if (value == null) {
+            throw UndertowMessages.MESSAGES.argumentCannotBeNull("value");
+        }
+        final String key = normalize(path);
+        final boolean existing = find(key) != null;
+        return new PathPrefixTrie<>(insert(root, key, 0, value), existing ? size : size + 1);
+    }
+
+    /**
+     * Returns a trie without the given prefix.
+     *
+     * @param path The path prefix
+     * @return The new trie, or this trie if the prefix was not present
+     */
+    public PathPrefixTrie<T> without(final String path) {
+        final String key = normalize(path);
+        if (find(key) == null) {
+            return this;
+        }
+        Node<T> newRoot = remove(root, key, 0);
+        if (newRoot == null) {
+            return empty();
+        }
+        return new PathPrefixTrie<>(newRoot, size - 1);
+    }
+
+    /**
+     * Gets the value registered for an exact prefix.
+     *
+     * @param path The path prefix
+     * @return The value, or null if the prefix is not registered
+     */
+    public T get(final String path) {
+        return find(normalize(path));
+    }
+
+    private T find(final String key) {
+        Node<T> node = root;
+        int pos = 0;
+        while (pos < key.length()) {
+            node = node.child(key.charAt(pos));
+            if (node == null || !key.startsWith(node.label, pos)) {
+                return null;
+            }
+            pos += node.label.length();
+        }
+        return node.value;
+    }
+
+    /**
+     * Finds the longest registered prefix of the given path.
+     *
+     * @param path The relative path to match
+     * @return The match. This will never be null, however if none matched its value will be null
+     */
+    public PathMatcher.PathMatch<T> match(final String path) {
+        Node<T> node = root;
+        T value = root.value;
+        int matched = 0;
+        int pos = 0;
+        final int length = path.length();
+        while (pos < length) {
+            node = node.child(path.charAt(pos));
+            if (node == null || !path.startsWith(node.label, pos)) {
+                break;
+            }
+            pos += node.label.length();
+            if (node.value != null && (pos == length || path.charAt(pos) == '/')) {
+                value = node.value;
+                matched = pos;
+            }
+        }
+        if (matched == 0) {
+            return new PathMatcher.PathMatch<>("", path, value);
+        } else if (matched == length) {
+            return new PathMatcher.PathMatch<>(path, "", value);
+        }
+        return new PathMatcher.PathMatch<>(path.substring(0, matched), path.substring(matched), value);
+    }
+
+    /**
+     *
+     * @return A map of all prefixes to their values
+     */
+    public Map<String, T> toMap() {
+        final Map<String, T> result = new LinkedHashMap<>();
+        collect(root, "", result);
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static <T> void collect(Node<T> node, String prefix, Map<String, T> result) {
+        final String key = prefix + node.label;
+        if (node.value != null) {
+            result.put(key.isEmpty() ? "/" : key, node.value);
+        }
+        for (Node<T> child : node.children) {
+            collect(child, key, result);
+        }
+    }
+
+    private static String normalize(final String path) {
+        if (path == null || path.isEmpty()) {
+            throw UndertowMessages.MESSAGES.pathMustBeSpecified();
+        }
+        final String normalized = URLUtils.normalizeSlashes(path);
+        return "/".equals(normalized) ? "" : normalized;
+    }
+
+    private static <T> Node<T> insert(final Node<T> node, final String key, final int pos, final T value) {
+        if (pos == key.length()) {
+            return new Node<>(node.label, value, node.children);
+        }
+        final int index = node.indexOf(key.charAt(pos));
+        if (index < 0) {
+            return node.withChild(new Node<>(key.substring(pos), value, Node.<T>noChildren()));
+        }
+        final Node<T> child = node.children[index];
+        final int common = commonPrefix(child.label, key, pos);
+        if (common == child.label.length()) {
+            return node.replaceChild(index, insert(child, key, pos + common, value));
+        }
+        //split the child
+        final Node<T> suffix = new Node<>(child.label.substring(common), child.value, child.children);
+        final Node<T> split;
+        if (pos + common == key.length()) {
+            split = new Node<>(child.label.substring(0, common), value, Node.single(suffix));
+        } else {
+            split = new Node<>(child.label.substring(0, common), null, Node.<T>single(suffix))
+                    .withChild(new Node<>(key.substring(pos + common), value, Node.<T>noChildren()));
+        }
+        return node.replaceChild(index, split);
+    }
+
+    /**
+     * Removes the key from the sub trie rooted at the given node, the key must be present.
+     *
+     * @return The new node, or null if the node is now empty
+     */
+    private static <T> Node<T> remove(final Node<T> node, final String key, final int pos) {
+        final Node<T> result;
+        if (pos == key.length()) {
+            result = new Node<>(node.label, null, node.children);
+        } else {
+            final int index = node.indexOf(key.charAt(pos));
+            final Node<T> child = node.children[index];
+            final Node<T> newChild = remove(child, key, pos + child.label.length());
+            result = newChild == null ? node.removeChild(index) : node.replaceChild(index, newChild);
+        }
+        if (result.value == null) {
+            if (result.children.length == 0) {
+                return null;
+            } else if (result.children.length == 1 && !result.label.isEmpty()) {
+                //merge with the only child, the root is never merged as its label must stay empty
+                final Node<T> child = result.children[0];
+                return new Node<>(result.label + child.label, child.value, child.children);
+            }
+        }
+        return result;
+    }
+
+    private static int commonPrefix(final String label, final String key, final int pos) {
+        final int max = Math.min(label.length(), key.length() - pos);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(pos + i)) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static final class Node<T> {
+
+        private static final Node<?>[] NO_CHILDREN = new Node<?>[0];
+
+        private final String label;
+        private final T value;
+        /**
+         * The first character of every child, in sorted order
+         */
+        private final char[] keys;
+        private final Node<T>[] children;
+
+        private Node(String label, T value, Node<T>[] children) {
+            this.label = label;
+            this.value = value;
+            this.children = children;
+            this.keys = new char[children.length];
+            for (int i = 0; i < children.length; ++i) {
+                keys[i] = children[i].label.charAt(0);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Node<T>[] noChildren() {
+            return (Node<T>[]) NO_CHILDREN;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Node<T>[] single(Node<T> child) {
+            return (Node<T>[]) new Node<?>[]{child};
+        }
+
+        int indexOf(char c) {
+            return Arrays.binarySearch(keys, c);
+        }
+
+        Node<T> child(char c) {
+            final int index = indexOf(c);
+            return index < 0 ? null : children[index];
+        }
+
+        Node<T> withChild(Node<T> child) {
+            final int insertion = -(indexOf(child.label.charAt(0)) + 1);
+            final Node<T>[] newChildren = Arrays.copyOf(children, children.length + 1);
+            System.arraycopy(children, insertion, newChildren, insertion + 1, children.length - insertion);
+            newChildren[insertion] = child;
+            return new Node<>(label, value, newChildren);
+        }
+
+        Node<T> replaceChild(int index, Node<T> child) {
+            final Node<T>[] newChildren = children.clone();
+            newChildren[index] = child;
+            return new Node<>(label, value, newChildren);
+        }
+
+        Node<T> removeChild(int index) {
+            final Node<T>[] newChildren = Arrays.copyOf(children, children.length - 1);
+            System.arraycopy(children, index + 1, newChildren, index, children.length - index - 1);
+            return new Node<>(label, value, newChildren);
+        }
+    }
+}
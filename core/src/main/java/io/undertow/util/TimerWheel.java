@@ -0,0 +1,320 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Queue;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+
+/**
+ * A hashed timing wheel for coarse grained timeouts, such as session expiry and cache cleanup.
+ * <p>
+ * Every IO thread has a single wheel, which ticks every {@value #TICK} milliseconds while it has pending timeouts.
+ * Timeouts are kept in one of {@value #WHEEL_SIZE} buckets based on their deadline, and expired timeouts are run on
+ * the IO thread. Unlike {@link XnioExecutor#executeAfter(Runnable, long, TimeUnit)} this is designed for timeouts
+ * that are pushed back very frequently: {@link Timeout#extend(long, TimeUnit)} just updates the deadline, and the
+ * timeout is moved to the correct bucket lazily when its old bucket is reached. Cancelled timeouts are also removed
+ * lazily.
+ * <p>
+ * Timeouts may fire up to one tick late, but never early.
+ */
+public final class TimerWheel {
+
+    static final long TICK = 100;
+    static final int WHEEL_SIZE = 512;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    private static final Map<XnioIoThread, TimerWheel> WHEELS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * The wheel only holds a weak reference to the thread, as the map holding the wheels is keyed by it
+     */
+    private final WeakReference<XnioIoThread> thread;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    //the following fields are only accessed from the IO thread
+    private final Timeout[] buckets = new Timeout[WHEEL_SIZE];
+    private long currentTick = -1;
+    private int size;
+    private XnioExecutor.Key tickKey;
+
+    private final Runnable tickTask = new Runnable() {
+        @Override
+        public void run() {
+            tick();
+        }
+    };
+
+    private final Runnable startTask = new Runnable() {
+        @Override
+        public void run() {
+            start();
+        }
+    };
+
+    TimerWheel(XnioIoThread thread) {
+        this.thread = new WeakReference<>(thread);
+    }
+
+    /**
+     *
+     * @param thread The IO thread
+     * @return The timer wheel for the given IO thread
+     */
+    public static TimerWheel forThread(XnioIoThread thread) {
+        return WHEELS.computeIfAbsent(thread, TimerWheel::new);
+    }
+
+    /**
+     * Schedules a task to run on the IO thread once the delay has elapsed.
+     *
+     * @param task  The task
+     * @param delay The delay
+     * @param unit  The time unit of the delay
+     * @return The timeout, which can be used to extend or cancel the delay
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, now() + Math.max(unit.toMillis(delay), 0));
+        submit(timeout);
+        return timeout;
+    }
+
+    private void submit(Timeout timeout) {
+        pending.add(timeout);
+        if (running.compareAndSet(false, true)) {
+            XnioIoThread thread = this.thread.get();
+            if (thread == null) {
+                return;
+            }
+            try {
+                thread.execute(startTask);
+            } catch (RejectedExecutionException e) {
+                running.set(false);
+                UndertowLogger.ROOT_LOGGER.debugf(e, "Failed to start timer wheel as worker is shutting down");
+            }
+        }
+    }
+
+    private void start() {
+        XnioIoThread thread = this.thread.get();
+        if (thread == null) {
+            return;
+        }
+        if (currentTick < 0) {
+            currentTick = now() / TICK;
+        }
+        try {
+            tickKey = thread.executeAtInterval(tickTask, TICK, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            UndertowLogger.ROOT_LOGGER.debugf(e, "Failed to start timer wheel as worker is shutting down");
+        }
+    }
+
+    private void tick() {
+        advance(now());
+        if (size == 0 && pending.isEmpty()) {
+            //nothing left to do, stop ticking until something is scheduled
+            tickKey.remove();
+            tickKey = null;
+            running.set(false);
+            if (!pending.isEmpty() && running.compareAndSet(false, true)) {
+                start();
+            }
+        }
+    }
+
+    /**
+     * Advances the wheel to the given time, running all timeouts that have expired
+     */
+    void advance(final long now) {
+        final long targetTick = now / TICK;
+        if (currentTick < 0) {
+            currentTick = targetTick;
+        }
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.bucket >= 0) {
+                unlink(timeout);
+            }
+            if (timeout.state == Timeout.PENDING) {
+                link(timeout);
+            }
+        }
+        //if we have fallen more than a full rotation behind every bucket only needs to be visited once
+        for (long tick = Math.max(currentTick + 1, targetTick - MASK); tick <= targetTick; ++tick) {
+            expire((int) (tick & MASK), targetTick);
+        }
+        currentTick = Math.max(currentTick, targetTick);
+    }
+
+    private void expire(final int bucket, final long targetTick) {
+        Timeout timeout = buckets[bucket];
+        while (timeout != null) {
+            final Timeout next = timeout.next;
+            if (timeout.state != Timeout.PENDING) {
+                unlink(timeout);
+            } else {
+                final long deadlineTick = tickOf(timeout.deadline);
+                if (deadlineTick <= targetTick) {
+                    unlink(timeout);
+                    timeout.run();
+                } else if ((deadlineTick & MASK) != bucket) {
+                    //the timeout has been extended, move it to the correct bucket
+                    unlink(timeout);
+                    link(timeout);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(final Timeout timeout) {
+        final int bucket = (int) (Math.max(tickOf(timeout.deadline), currentTick + 1) & MASK);
+        final Timeout head = buckets[bucket];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[bucket] = timeout;
+        timeout.bucket = bucket;
+        ++size;
+    }
+
+    private void unlink(final Timeout timeout) {
+        if (timeout.prev == null) {
+            buckets[timeout.bucket] = timeout.next;
+        } else {
+            timeout.prev.next = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = timeout.next = null;
+        timeout.bucket = -1;
+        --size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Rounds up, so timeouts never fire before their deadline
+     */
+    private static long tickOf(final long time) {
+        return (time + TICK - 1) / TICK;
+    }
+
+    static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * A timeout that has been scheduled on a {@link TimerWheel}.
+     */
+    public static final class Timeout {
+
+        static final int PENDING = 0;
+        static final int EXPIRED = 1;
+        static final int CANCELLED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimerWheel wheel;
+        private final Runnable task;
+        private volatile long deadline;
+        private volatile int state = PENDING;
+
+        //the following fields are only accessed from the IO thread
+        private Timeout prev;
+        private Timeout next;
+        private int bucket = -1;
+
+        private Timeout(TimerWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Changes the delay of this timeout, so it will expire once the given delay has elapsed from now. This is
+         * cheap if the new deadline is later than the current one, as the timeout is only moved to the correct
+         * bucket when the wheel reaches its current bucket.
+         *
+         * @param delay The delay
+         * @param unit  The time unit of the delay
+         * @return <code>true</code> if the timeout was updated, <code>false</code> if it has already expired or been
+         * cancelled, in which case a new timeout must be scheduled
+         */
+        public boolean extend(long delay, TimeUnit unit) {
+            final long newDeadline = now() + Math.max(unit.toMillis(delay), 0);
+            final long old = deadline;
+            deadline = newDeadline;
+            if (state != PENDING) {
+                return false;
+            }
+            if (newDeadline < old) {
+                //the timeout is in a later bucket, it needs to be moved
+                wheel.submit(this);
+            }
+            return true;
+        }
+
+        /**
+         * Cancels this timeout. The timeout is removed from the wheel lazily.
+         *
+         * @return <code>true</code> if the timeout was cancelled, <code>false</code> if it had already expired
+         */
+        public boolean cancel() {
+            return stateUpdater.compareAndSet(this, PENDING, CANCELLED) || state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        private void run() {
+            if (stateUpdater.compareAndSet(this, PENDING, EXPIRED)) {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    UndertowLogger.ROOT_LOGGER.errorf(t, "Timer task %s failed", task);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.protocols.ssl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.category.UnitTest;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+import org.xnio.channels.AcceptingChannel;
+import org.xnio.ssl.SslConnection;
+
+/**
+ * Tests the saturation and rejection behaviour of {@link HandshakeExecutor}, and that an HTTPS listener stops
+ * admitting connections while its executor is saturated, and admits them again once the queue has drained.
+ */
+@Category(UnitTest.class)
+public class HandshakeExecutorTestCase {
+
+    private static XnioWorker worker;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void testSaturation() throws InterruptedException {
+        HandshakeExecutor executor = HandshakeExecutor.builder()
+                .setThreads(1)
+                .setQueueLimit(4)
+                .setAdmissionLimit(2)
+                .build();
+        try {
+            CountDownLatch blocked = new CountDownLatch(1);
+            CountDownLatch started = new CountDownLatch(1);
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    blocked.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(executor.isSaturated());
+
+            CountDownLatch done = new CountDownLatch(4);
+            for (int i = 0; i < 4; ++i) {
+                executor.execute(done::countDown);
+                Assert.assertEquals(i >= 1, executor.isSaturated());
+            }
+            try {
+                executor.execute(done::countDown);
+                Assert.fail("Expected the task to be rejected");
+            } catch (RejectedExecutionException expected) {
+            }
+            Assert.assertEquals(1, executor.getRejectedTasks());
+
+            blocked.countDown();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+            Assert.assertFalse(executor.isSaturated());
+            Assert.assertEquals(HandshakeExecutor.AdmissionMode.DELAY, executor.getAdmissionMode());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaturationIsSideEffectFree() throws Exception {
+        final HandshakeExecutor executor = HandshakeExecutor.builder().setThreads(1).setQueueLimit(4).setAdmissionLimit(2).build();
+        final CountDownLatch block = new CountDownLatch(1);
+        final CountDownLatch notified = new CountDownLatch(1);
+        try {
+            executor.addAdmissionListener(notified::countDown);
+            saturate(executor, block);
+            Assert.assertTrue(executor.isSaturated());
+            block.countDown();
+            awaitDrained(executor);
+            //nothing was refused admission, so there is nothing to notify
+            Assert.assertFalse(notified.await(100, TimeUnit.MILLISECONDS));
+        } finally {
+            block.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRejectClosesConnectionsUntilDrained() throws Exception {
+        final HandshakeExecutor executor = HandshakeExecutor.builder().setThreads(1).setQueueLimit(4).setAdmissionLimit(2)
+                .setAdmissionMode(HandshakeExecutor.AdmissionMode.REJECT).build();
+        final CountDownLatch block = new CountDownLatch(1);
+        final BlockingQueue<SslConnection> accepted = new LinkedBlockingQueue<>();
+        final AcceptingChannel<SslConnection> server = createServer(executor, accepted);
+        try {
+            saturate(executor, block);
+            final Socket rejected = connect(server);
+            try {
+                rejected.setSoTimeout(10000);
+                final InputStream in = rejected.getInputStream();
+                try {
+                    Assert.assertEquals(-1, in.read());
+                } catch (SocketException e) {
+                    //connection reset, which is also a rejection
+                }
+            } finally {
+                rejected.close();
+            }
+            Assert.assertEquals(1, executor.getRejectedConnections());
+            Assert.assertNull(accepted.poll());
+
+            block.countDown();
+            awaitDrained(executor);
+            final Socket admitted = connect(server);
+            try {
+                final SslConnection connection = accepted.poll(10, TimeUnit.SECONDS);
+                Assert.assertNotNull(connection);
+                IoUtils.safeClose(connection);
+            } finally {
+                admitted.close();
+            }
+            Assert.assertEquals(1, executor.getRejectedConnections());
+            Assert.assertEquals(0, executor.getDelayedAccepts());
+        } finally {
+            block.countDown();
+            IoUtils.safeClose(server);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDelaySuspendsAndResumesAccepts() throws Exception {
+        final HandshakeExecutor executor = HandshakeExecutor.builder().setThreads(1).setQueueLimit(4).setAdmissionLimit(2)
+                .setAdmissionMode(HandshakeExecutor.AdmissionMode.DELAY).build();
+        final CountDownLatch block = new CountDownLatch(1);
+        final BlockingQueue<SslConnection> accepted = new LinkedBlockingQueue<>();
+        final AcceptingChannel<SslConnection> server = createServer(executor, accepted);
+        try {
+            saturate(executor, block);
+            //the connection that finds the executor saturated has already been taken from the backlog, so it is
+            //still accepted, but accepts are suspended
+            final Socket first = connect(server);
+            try {
+                SslConnection connection = accepted.poll(10, TimeUnit.SECONDS);
+                Assert.assertNotNull(connection);
+                IoUtils.safeClose(connection);
+                Assert.assertEquals(1, executor.getDelayedAccepts());
+                Assert.assertFalse(server.isAcceptResumed());
+
+                final Socket second = connect(server);
+                try {
+                    //XNIO may take the next connection from the backlog before accepts are suspended, in which case
+                    //it is accepted straight away, otherwise it waits in the backlog until the queue drains
+                    connection = accepted.poll(200, TimeUnit.MILLISECONDS);
+                    Assert.assertFalse(server.isAcceptResumed());
+
+                    //once the queue drains the listener resumes accepting
+                    block.countDown();
+                    if (connection == null) {
+                        connection = accepted.poll(10, TimeUnit.SECONDS);
+                    }
+                    Assert.assertNotNull(connection);
+                    IoUtils.safeClose(connection);
+                    awaitDrained(executor);
+                    Assert.assertTrue(server.isAcceptResumed());
+                } finally {
+                    second.close();
+                }
+            } finally {
+                first.close();
+            }
+            Assert.assertEquals(1, executor.getDelayedAccepts());
+            Assert.assertEquals(0, executor.getRejectedConnections());
+        } finally {
+            block.countDown();
+            IoUtils.safeClose(server);
+            executor.shutdown();
+        }
+    }
+
+    private static AcceptingChannel<SslConnection> createServer(HandshakeExecutor executor, final BlockingQueue<SslConnection> accepted) throws IOException {
+        final UndertowXnioSsl ssl = new UndertowXnioSsl(worker.getXnio(), OptionMap.EMPTY, new DefaultByteBufferPool(false, 17 * 1024),
+                DefaultServer.getServerSslContext(), executor);
+        final AcceptingChannel<SslConnection> server = ssl.createSslConnectionServer(worker, new InetSocketAddress("localhost", 0),
+                new ChannelListener<AcceptingChannel<SslConnection>>() {
+                    @Override
+                    public void handleEvent(AcceptingChannel<SslConnection> channel) {
+                        try {
+                            SslConnection connection;
+                            while ((connection = channel.accept()) != null) {
+                                accepted.add(connection);
+                            }
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }, OptionMap.EMPTY);
+        server.resumeAccepts();
+        return server;
+    }
+
+    private static Socket connect(AcceptingChannel<SslConnection> server) throws IOException {
+        return new Socket("localhost", server.getLocalAddress(InetSocketAddress.class).getPort());
+    }
+
+    /**
+     * Blocks the single handshake thread and queues tasks up to the admission limit
+     */
+    private static void saturate(HandshakeExecutor executor, final CountDownLatch block) throws InterruptedException {
+        final CountDownLatch running = new CountDownLatch(1);
+        executor.execute(() -> {
+            running.countDown();
+            try {
+                block.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+        executor.execute(() -> { });
+        executor.execute(() -> { });
+        Assert.assertTrue(executor.isSaturated());
+    }
+
+    private static void awaitDrained(HandshakeExecutor executor) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 10000;
+        while (executor.getQueueSize() > 0 || executor.getActiveCount() > 0) {
+            Assert.assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+    }
+}
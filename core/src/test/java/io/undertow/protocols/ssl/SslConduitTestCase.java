@@ -0,0 +1,552 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.protocols.ssl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.category.UnitTest;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.xnio.Option;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.StreamConnection;
+import org.xnio.Xnio;
+import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.ReadReadyHandler;
+import org.xnio.conduits.StreamSinkConduit;
+import org.xnio.conduits.StreamSourceConduit;
+import org.xnio.conduits.WriteReadyHandler;
+
+/**
+ * Tests record batching and buffered record handling in {@link SslConduit}. The conduit is run over an in memory
+ * connection, with a client side {@link SSLEngine} driven directly by the test.
+ */
+@Category(UnitTest.class)
+public class SslConduitTestCase {
+
+    private static final int APPLICATION_DATA = 64 * 1024;
+
+    private static XnioWorker worker;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 1));
+    }
+
+    @AfterClass
+    public static void teardown() {
+        worker.shutdownNow();
+    }
+
+    @Test
+    public void testLargeWriteIsBatched() throws Exception {
+        final ByteBufferPool batchPool = SslConduit.createBatchBufferPool(DefaultServer.getServerSslContext(), false);
+        try {
+            final TestConnection batched = connect(batchPool);
+            final int batchedWrites = writeApplicationData(batched);
+            final TestConnection unbatched = connect(null);
+            final int unbatchedWrites = writeApplicationData(unbatched);
+            //64k of data needs at least 4 records
+            Assert.assertTrue(unbatchedWrites >= 4);
+            Assert.assertTrue("Expected fewer writes than " + unbatchedWrites + " but was " + batchedWrites,
+                    batchedWrites <= (unbatchedWrites + SslConduit.WRAP_BATCH_RECORDS - 1) / SslConduit.WRAP_BATCH_RECORDS + 1);
+        } finally {
+            batchPool.close();
+        }
+    }
+
+    @Test
+    public void testBufferedRecordsAreUnwrappedAfterCopy() throws Exception {
+        final TestConnection connection = connect(null);
+        final byte[] first = data(1000, 1);
+        final byte[] second = data(1000, 2);
+        final byte[] third = data(1000, 3);
+        connection.clientSend(first, second, third);
+
+        //the first record does not fit, so the rest of it is buffered in the conduit
+        final ByteBuffer small = ByteBuffer.allocate(100);
+        Assert.assertEquals(100, connection.read(small));
+
+        //the buffered data is copied, and the next record is unwrapped straight into the same buffer
+        final ByteBuffer large = ByteBuffer.allocate(2000);
+        Assert.assertEquals(1900, connection.read(large));
+        large.flip();
+        final byte[] expected = new byte[1900];
+        System.arraycopy(first, 100, expected, 0, 900);
+        System.arraycopy(second, 0, expected, 900, 1000);
+        Assert.assertArrayEquals(expected, bytes(large));
+
+        final ByteBuffer last = ByteBuffer.allocate(2000);
+        Assert.assertEquals(1000, connection.read(last));
+        last.flip();
+        Assert.assertArrayEquals(third, bytes(last));
+    }
+
+    @Test
+    public void testBufferedDataIsReturnedBeforeClose() throws Exception {
+        final TestConnection connection = connect(null);
+        final byte[] first = data(1000, 4);
+        connection.clientSend(first);
+        connection.clientClose();
+
+        final ByteBuffer small = ByteBuffer.allocate(100);
+        Assert.assertEquals(100, connection.read(small));
+
+        //the close notify is seen while continuing after the copy, the copied data must still be returned
+        final ByteBuffer large = ByteBuffer.allocate(2000);
+        Assert.assertEquals(900, connection.read(large));
+        large.flip();
+        Assert.assertArrayEquals(Arrays.copyOfRange(first, 100, 1000), bytes(large));
+        Assert.assertEquals(-1, connection.read(ByteBuffer.allocate(100)));
+    }
+
+    private static int writeApplicationData(TestConnection connection) throws Exception {
+        final byte[] data = data(APPLICATION_DATA, 5);
+        final int writes = connection.write(data);
+        Assert.assertArrayEquals(data, connection.clientReceive(data.length));
+        return writes;
+    }
+
+    private static byte[] data(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        final byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+
+    private static TestConnection connect(ByteBufferPool batchPool) throws Exception {
+        final TestConnection connection = new TestConnection(worker.getIoThread(), batchPool);
+        connection.handshake();
+        return connection;
+    }
+
+    private static <T> T runInIoThread(XnioIoThread thread, Callable<T> task) throws Exception {
+        final FutureTask<T> future = new FutureTask<>(task);
+        thread.execute(future);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A server side {@link UndertowSslConnection} over an in memory connection, and the client engine it talks to.
+     * All operations on the conduit run in the IO thread, as delegated task completion is handled there.
+     */
+    private static final class TestConnection {
+
+        private final XnioIoThread thread;
+        private final MemoryConnection memory;
+        private final SslConduit conduit;
+        private final SSLEngine client;
+        private final ByteBuffer clientNetIn = ByteBuffer.allocate(256 * 1024);
+        private final ByteArrayOutputStream clientAppIn = new ByteArrayOutputStream();
+
+        private TestConnection(XnioIoThread thread, ByteBufferPool batchPool) {
+            this.thread = thread;
+            this.memory = new MemoryConnection(thread);
+            final SSLEngine server = DefaultServer.getServerSslContext().createSSLEngine();
+            server.setUseClientMode(false);
+            final ByteBufferPool pool = new DefaultByteBufferPool(false, 17 * 1024, 10, 0);
+            this.conduit = new UndertowSslConnection(memory, server, pool, batchPool, worker, null).getSslConduit();
+            this.client = DefaultServer.createClientSslContext().createSSLEngine("localhost", 443);
+            this.client.setUseClientMode(true);
+        }
+
+        void handshake() throws Exception {
+            client.beginHandshake();
+            for (int i = 0; i < 100; ++i) {
+                clientWrap(ByteBuffer.allocate(0));
+                runInIoThread(thread, () -> {
+                    conduit.read(ByteBuffer.allocate(0));
+                    conduit.flush();
+                    return null;
+                });
+                clientUnwrap();
+                if (client.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING
+                        && conduit.getSslSession().getCipherSuite() != null
+                        && !conduit.getSslSession().getCipherSuite().equals("SSL_NULL_WITH_NULL_NULL")
+                        && memory.written.size() == 0) {
+                    return;
+                }
+            }
+            Assert.fail("Handshake did not complete");
+        }
+
+        void clientSend(byte[]... records) throws IOException {
+            for (byte[] record : records) {
+                clientWrap(ByteBuffer.wrap(record));
+            }
+        }
+
+        void clientClose() throws IOException {
+            client.closeOutbound();
+            clientWrap(ByteBuffer.allocate(0));
+        }
+
+        long read(ByteBuffer buffer) throws Exception {
+            return runInIoThread(thread, () -> (long) conduit.read(buffer));
+        }
+
+        /**
+         * Writes the data with gathering writes
+         *
+         * @return The number of writes to the underlying connection
+         */
+        int write(byte[] data) throws Exception {
+            memory.writes = 0;
+            final ByteBuffer[] buffers = {ByteBuffer.wrap(data, 0, data.length / 2), ByteBuffer.wrap(data, data.length / 2, data.length - data.length / 2)};
+            return runInIoThread(thread, () -> {
+                while (buffers[1].hasRemaining()) {
+                    if (conduit.write(buffers, 0, buffers.length) == 0) {
+                        Assert.assertTrue(conduit.flush());
+                    }
+                }
+                Assert.assertTrue(conduit.flush());
+                return memory.writes;
+            });
+        }
+
+        byte[] clientReceive(int length) throws IOException {
+            clientUnwrap();
+            Assert.assertEquals(length, clientAppIn.size());
+            final byte[] result = clientAppIn.toByteArray();
+            clientAppIn.reset();
+            return result;
+        }
+
+        private void clientWrap(ByteBuffer data) throws IOException {
+            do {
+                final ByteBuffer out = ByteBuffer.allocate(client.getSession().getPacketBufferSize());
+                final SSLEngineResult result = client.wrap(data, out);
+                runClientTasks(result);
+                out.flip();
+                memory.received(out);
+                if (result.bytesProduced() == 0) {
+                    return;
+                }
+            } while (data.hasRemaining() || client.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP);
+        }
+
+        private void clientUnwrap() throws IOException {
+            clientNetIn.put(memory.takeWritten());
+            clientNetIn.flip();
+            try {
+                for (;;) {
+                    final ByteBuffer out = ByteBuffer.allocate(client.getSession().getApplicationBufferSize());
+                    final SSLEngineResult result = client.unwrap(clientNetIn, out);
+                    runClientTasks(result);
+                    out.flip();
+                    clientAppIn.write(out.array(), 0, out.limit());
+                    if (result.getStatus() != SSLEngineResult.Status.OK
+                            || (result.bytesConsumed() == 0 && result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_UNWRAP)) {
+                        return;
+                    }
+                }
+            } finally {
+                clientNetIn.compact();
+            }
+        }
+
+        private void runClientTasks(SSLEngineResult result) {
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                Runnable task;
+                while ((task = client.getDelegatedTask()) != null) {
+                    task.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * A connection that records everything written to it, and reads data supplied by the test
+     */
+    private static final class MemoryConnection extends StreamConnection {
+
+        private final ByteBuffer readable = ByteBuffer.allocate(256 * 1024);
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private volatile int writes;
+
+        MemoryConnection(XnioIoThread thread) {
+            super(thread);
+            readable.flip();
+            setSourceConduit(new MemorySourceConduit());
+            setSinkConduit(new MemorySinkConduit());
+        }
+
+        synchronized void received(ByteBuffer data) {
+            readable.compact();
+            readable.put(data);
+            readable.flip();
+        }
+
+        synchronized ByteBuffer takeWritten() {
+            final ByteBuffer result = ByteBuffer.wrap(written.toByteArray());
+            written.reset();
+            return result;
+        }
+
+        synchronized int read(ByteBuffer dst) {
+            if (!readable.hasRemaining()) {
+                return 0;
+            }
+            final int count = Math.min(dst.remaining(), readable.remaining());
+            final ByteBuffer slice = readable.duplicate();
+            slice.limit(slice.position() + count);
+            dst.put(slice);
+            readable.position(readable.position() + count);
+            return count;
+        }
+
+        synchronized long write(ByteBuffer[] srcs, int offs, int len) {
+            long total = 0;
+            for (int i = offs; i < offs + len; ++i) {
+                final byte[] data = bytes(srcs[i]);
+                written.write(data, 0, data.length);
+                total += data.length;
+            }
+            if (total > 0) {
+                writes++;
+            }
+            return total;
+        }
+
+        @Override
+        protected void notifyWriteClosed() {
+        }
+
+        @Override
+        protected void notifyReadClosed() {
+        }
+
+        @Override
+        public SocketAddress getPeerAddress() {
+            return null;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        public boolean supportsOption(Option<?> option) {
+            return false;
+        }
+
+        @Override
+        public <T> T getOption(Option<T> option) {
+            return null;
+        }
+
+        @Override
+        public <T> T setOption(Option<T> option, T value) {
+            return null;
+        }
+
+        private final class MemorySourceConduit implements StreamSourceConduit {
+
+            @Override
+            public long transferTo(long position, long count, FileChannel target) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long transferTo(long count, ByteBuffer throughBuffer, StreamSinkChannel target) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(ByteBuffer dst) {
+                return MemoryConnection.this.read(dst);
+            }
+
+            @Override
+            public long read(ByteBuffer[] dsts, int offs, int len) {
+                long total = 0;
+                for (int i = offs; i < offs + len; ++i) {
+                    total += read(dsts[i]);
+                }
+                return total;
+            }
+
+            @Override
+            public void terminateReads() {
+            }
+
+            @Override
+            public boolean isReadShutdown() {
+                return false;
+            }
+
+            @Override
+            public void resumeReads() {
+            }
+
+            @Override
+            public void suspendReads() {
+            }
+
+            @Override
+            public void wakeupReads() {
+            }
+
+            @Override
+            public boolean isReadResumed() {
+                return false;
+            }
+
+            @Override
+            public void awaitReadable() {
+            }
+
+            @Override
+            public void awaitReadable(long time, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public XnioIoThread getReadThread() {
+                return getIoThread();
+            }
+
+            @Override
+            public void setReadReadyHandler(ReadReadyHandler handler) {
+            }
+
+            @Override
+            public XnioWorker getWorker() {
+                return worker;
+            }
+        }
+
+        private final class MemorySinkConduit implements StreamSinkConduit {
+
+            @Override
+            public long transferFrom(FileChannel src, long position, long count) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public long transferFrom(StreamSourceChannel source, long count, ByteBuffer throughBuffer) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int write(ByteBuffer src) {
+                return (int) MemoryConnection.this.write(new ByteBuffer[]{src}, 0, 1);
+            }
+
+            @Override
+            public long write(ByteBuffer[] srcs, int offs, int len) {
+                return MemoryConnection.this.write(srcs, offs, len);
+            }
+
+            @Override
+            public int writeFinal(ByteBuffer src) {
+                return write(src);
+            }
+
+            @Override
+            public long writeFinal(ByteBuffer[] srcs, int offs, int len) {
+                return write(srcs, offs, len);
+            }
+
+            @Override
+            public void terminateWrites() {
+            }
+
+            @Override
+            public boolean isWriteShutdown() {
+                return false;
+            }
+
+            @Override
+            public void resumeWrites() {
+            }
+
+            @Override
+            public void suspendWrites() {
+            }
+
+            @Override
+            public void wakeupWrites() {
+            }
+
+            @Override
+            public boolean isWriteResumed() {
+                return false;
+            }
+
+            @Override
+            public void awaitWritable() {
+            }
+
+            @Override
+            public void awaitWritable(long time, TimeUnit timeUnit) {
+            }
+
+            @Override
+            public XnioIoThread getWriteThread() {
+                return getIoThread();
+            }
+
+            @Override
+            public void setWriteReadyHandler(WriteReadyHandler handler) {
+            }
+
+            @Override
+            public void truncateWrites() {
+            }
+
+            @Override
+            public boolean flush() {
+                return true;
+            }
+
+            @Override
+            public XnioWorker getWorker() {
+                return worker;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server;
+
+import java.net.InetSocketAddress;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the latency histograms recorded in the connector statistics of a listener
+ */
+public class ConnectorLatencyTestCase {
+
+    private static final int REQUESTS = 5;
+
+    @Test
+    public void testLatencyHistograms() throws Exception {
+        Undertow undertow = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setServerOption(UndertowOptions.ENABLE_CONNECTOR_STATISTICS, true)
+                .setServerOption(UndertowOptions.RECORD_REQUEST_START_TIME, true)
+                .setHandler(ResponseCodeHandler.HANDLE_200)
+                .build();
+        undertow.start();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            Undertow.ListenerInfo listener = undertow.getListenerInfo().get(0);
+            int port = ((InetSocketAddress) listener.getAddress()).getPort();
+            for (int i = 0; i < REQUESTS; ++i) {
+                HttpResponse result = client.execute(new HttpGet("http://localhost:" + port + "/path"));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+
+            ConnectorStatistics statistics = listener.getConnectorStatistics();
+            Assert.assertEquals(REQUESTS, statistics.getRequestCount());
+            Assert.assertEquals(REQUESTS, statistics.getRequestTimes().getCount());
+            Assert.assertEquals(REQUESTS, statistics.getTimeToFirstByte().getCount());
+            Assert.assertEquals(REQUESTS, statistics.getRequestParseTimes().getCount());
+            Assert.assertTrue(statistics.getTimeToFirstByte().getMaxTime() <= statistics.getRequestTimes().getMaxTime());
+
+            statistics.reset();
+            Assert.assertEquals(0, statistics.getRequestTimes().getCount());
+            Assert.assertEquals(0, statistics.getTimeToFirstByte().getCount());
+            Assert.assertEquals(0, statistics.getRequestParseTimes().getCount());
+        } finally {
+            client.getConnectionManager().shutdown();
+            undertow.stop();
+        }
+    }
+}
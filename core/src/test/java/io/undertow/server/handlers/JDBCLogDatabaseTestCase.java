@@ -35,16 +35,21 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
 
 /**
  * Tests writing the database (in memory)
@@ -231,4 +236,152 @@ public class JDBCLogDatabaseTestCase {
         }
     }
 
+    @Test
+    public void testBatchedWrite() throws IOException, InterruptedException, SQLException {
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, "common", ds);
+        logHandler.setBatchSize(5);
+        logHandler.setFlushInterval(100);
+
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(NUM_REQUESTS, logHandler));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < NUM_REQUESTS; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path"));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        latchHandler.await();
+        logHandler.awaitWrittenForTest();
+
+        Assert.assertEquals(NUM_REQUESTS, countRows());
+        Assert.assertEquals(NUM_REQUESTS, logHandler.getWrittenMessages());
+        Assert.assertEquals(0, logHandler.getFailedMessages());
+        Assert.assertEquals(0, logHandler.getDroppedMessages());
+        Assert.assertEquals(0, logHandler.getQueueSize());
+    }
+
+    @Test
+    public void testFailedMessageDoesNotLoseBatch() throws IOException, InterruptedException, SQLException {
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, "common", ds);
+        logHandler.setFlushInterval(500);
+
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(5, logHandler));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            StringBuilder longQuery = new StringBuilder("q=");
+            for (int i = 0; i < 300; ++i) {
+                longQuery.append('a');
+            }
+            for (int i = 0; i < 5; ++i) {
+                //the query column only holds 255 characters, so the third message can not be inserted
+                String query = i == 2 ? longQuery.toString() : "q=" + i;
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path?" + query));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        latchHandler.await();
+        logHandler.awaitWrittenForTest();
+
+        Assert.assertEquals(4, countRows());
+        Assert.assertEquals(4, logHandler.getWrittenMessages());
+        Assert.assertEquals(1, logHandler.getFailedMessages());
+    }
+
+    @Test
+    public void testMessagesDroppedWhenQueueIsFull() throws IOException, InterruptedException, SQLException {
+        //the writer blocks until the test allows it to continue, so the queue can not be emptied
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        DataSource blockingDataSource = (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{DataSource.class}, (proxy, method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                writing.countDown();
+                release.await(10, TimeUnit.SECONDS);
+            }
+            try {
+                return method.invoke(ds, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, "common", blockingDataSource, 1);
+
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(3, logHandler));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path"));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+                if (i == 0) {
+                    //the full queue is written straight away, the second message then fills it again
+                    Assert.assertTrue(writing.await(10, TimeUnit.SECONDS));
+                }
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        latchHandler.await();
+        Assert.assertEquals(1, logHandler.getDroppedMessages());
+        release.countDown();
+        logHandler.awaitWrittenForTest();
+
+        Assert.assertEquals(2, countRows());
+        Assert.assertEquals(2, logHandler.getWrittenMessages());
+    }
+
+    @Test
+    public void testFullQueueIsWrittenBeforeFlushInterval() throws IOException, InterruptedException, SQLException {
+        //the queue is smaller than the batch size, so a full batch can never be queued
+        JDBCLogHandler logHandler = new JDBCLogHandler(HELLO_HANDLER, "common", ds, 2);
+        logHandler.setFlushInterval(60000);
+
+        CompletionLatchHandler latchHandler;
+        DefaultServer.setRootHandler(latchHandler = new CompletionLatchHandler(2, logHandler));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 2; ++i) {
+                HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/path"));
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                HttpClientUtils.readResponse(result);
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        latchHandler.await();
+        final long end = System.currentTimeMillis() + 10000;
+        while (countRows() < 2) {
+            Assert.assertTrue("Messages were not written once the queue was full", System.currentTimeMillis() < end);
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, logHandler.getDroppedMessages());
+    }
+
+    private int countRows() throws SQLException {
+        Connection conn = null;
+        Statement statement = null;
+        try {
+            conn = ds.getConnection();
+            statement = conn.createStatement();
+            ResultSet resultDatabase = statement.executeQuery("SELECT COUNT(*) FROM PUBLIC.ACCESS;");
+            resultDatabase.next();
+            return resultDatabase.getInt(1);
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
 }
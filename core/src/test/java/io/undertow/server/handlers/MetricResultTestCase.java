@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.StatusCodes;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class MetricResultTestCase {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 10000;
+
+    @Test
+    public void testEmpty() {
+        MetricsHandler.MetricResult result = new MetricsHandler.MetricResult(new Date());
+        Assert.assertEquals(0, result.getTotalRequests());
+        Assert.assertEquals(0, result.getMaxRequestTime());
+        Assert.assertEquals(-1, result.getMinRequestTime());
+        Assert.assertEquals(-1, new MetricsHandler.MetricResult(result).getMinRequestTime());
+    }
+
+    @Test
+    public void testConcurrentUpdates() throws InterruptedException {
+        final MetricsHandler.MetricResult result = new MetricsHandler.MetricResult(new Date());
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; ++i) {
+            final int thread = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int j = 0; j < ITERATIONS; ++j) {
+                    result.update(thread + 1, j == 0 ? StatusCodes.INTERNAL_SERVER_ERROR : StatusCodes.OK);
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        MetricsHandler.MetricResult snapshot = new MetricsHandler.MetricResult(result);
+        Assert.assertEquals(THREADS * ITERATIONS, snapshot.getTotalRequests());
+        Assert.assertEquals(THREADS, snapshot.getTotalErrors());
+        Assert.assertEquals(1, snapshot.getMinRequestTime());
+        Assert.assertEquals(THREADS, snapshot.getMaxRequestTime());
+        Assert.assertEquals((long) ITERATIONS * THREADS * (THREADS + 1) / 2, snapshot.getTotalRequestTime());
+
+        result.update(100, StatusCodes.OK);
+        Assert.assertEquals(THREADS, snapshot.getMaxRequestTime());
+        Assert.assertEquals(100, result.getMaxRequestTime());
+    }
+}
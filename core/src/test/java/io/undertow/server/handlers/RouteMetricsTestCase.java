@@ -0,0 +1,107 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers;
+
+import io.undertow.Handlers;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.RoutingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.CompletionLatchHandler;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests that the routing handlers record requests against the route that matched them
+ */
+@RunWith(DefaultServer.class)
+public class RouteMetricsTestCase {
+
+    private static final HttpHandler HELLO = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            exchange.getResponseSender().send("Hello");
+        }
+    };
+
+    @Test
+    public void testRouteMetrics() throws IOException, InterruptedException {
+        RouteMetrics routes = new RouteMetrics();
+        RouteMetrics paths = new RouteMetrics();
+        RoutingHandler routingHandler = Handlers.routing()
+                .get("/users/{id}", HELLO)
+                .get("/error", ResponseCodeHandler.HANDLE_500)
+                .setRouteMetrics(routes);
+        PathHandler pathHandler = Handlers.path()
+                .addPrefixPath("/api", routingHandler)
+                .addExactPath("/exact", HELLO)
+                .setRouteMetrics(paths);
+        CompletionLatchHandler latchHandler = new CompletionLatchHandler(pathHandler);
+        DefaultServer.setRootHandler(latchHandler);
+
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 3; ++i) {
+                get(client, latchHandler, "/api/users/" + i, StatusCodes.OK);
+            }
+            get(client, latchHandler, "/api/error", StatusCodes.INTERNAL_SERVER_ERROR);
+            get(client, latchHandler, "/api/missing", StatusCodes.NOT_FOUND);
+            get(client, latchHandler, "/exact", StatusCodes.OK);
+
+            Map<String, RouteMetrics.RouteResult> metrics = routes.getMetrics();
+            Assert.assertEquals(metrics.toString(), 2, metrics.size());
+            RouteMetrics.RouteResult users = metrics.get("GET /users/{id}");
+            Assert.assertEquals(3, users.getTotalRequests());
+            Assert.assertEquals(0, users.getTotalErrors());
+            Assert.assertEquals(3, users.getRequestTimes().getCount());
+            RouteMetrics.RouteResult error = routes.getMetrics("GET /error");
+            Assert.assertEquals(1, error.getTotalRequests());
+            Assert.assertEquals(1, error.getTotalErrors());
+
+            metrics = paths.getMetrics();
+            Assert.assertEquals(metrics.toString(), 2, metrics.size());
+            Assert.assertEquals(5, metrics.get("/api").getTotalRequests());
+            Assert.assertEquals(2, metrics.get("/api").getTotalErrors());
+            Assert.assertEquals(1, metrics.get("/exact").getTotalRequests());
+
+            routes.reset();
+            Assert.assertTrue(routes.getMetrics().isEmpty());
+            Assert.assertNull(routes.getMetrics("GET /error"));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void get(TestHttpClient client, CompletionLatchHandler latchHandler, String path, int expectedStatus) throws IOException, InterruptedException {
+        HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+        Assert.assertEquals(expectedStatus, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+        latchHandler.await();
+        latchHandler.reset();
+    }
+}
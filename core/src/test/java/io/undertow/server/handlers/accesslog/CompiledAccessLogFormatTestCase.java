@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.net.InetSocketAddress;
+
+import io.undertow.attribute.ExchangeAttribute;
+import io.undertow.attribute.ExchangeAttributes;
+import io.undertow.attribute.SubstituteEmptyWrapper;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class CompiledAccessLogFormatTestCase {
+
+    private static final String[] FORMATS = {
+            "common",
+            "combined",
+            "%a %t \"%r\" %s %b %B %m %H %U %q \"%{i,User-Agent}\" %{i,dup} %{i,empty} %{i,missing} 100%% $$",
+            "%{REQUEST_LINE} %{RESPONSE_CODE} %{METHOD} %{PROTOCOL} %{REQUEST_URL} %{QUERY_STRING} %{BARE_QUERY_STRING}",
+            "%{time,yyyy} %{o,missing} literal only",
+            "",
+    };
+
+    @Test
+    public void testSameOutputAsInterpretedFormat() {
+        HttpServerExchange withQuery = createExchange();
+        withQuery.setQueryString("a=b&c=d");
+        HttpServerExchange withoutQuery = createExchange();
+        withoutQuery.setRequestMethod(Methods.HEAD);
+        withoutQuery.setStatusCode(404);
+        withoutQuery.getRequestHeaders().remove("dup");
+
+        for (String format : FORMATS) {
+            ExchangeAttribute interpreted = ExchangeAttributes.parser(getClass().getClassLoader(), new SubstituteEmptyWrapper("-"))
+                    .parse(AccessLogHandler.handleCommonNames(format));
+            CompiledAccessLogFormat compiled = CompiledAccessLogFormat.compile(format, getClass().getClassLoader());
+            for (HttpServerExchange exchange : new HttpServerExchange[]{withQuery, withoutQuery}) {
+                String expected = null;
+                String actual = null;
+                //the date may change between the two reads, so we retry if they do not match
+                for (int i = 0; i < 3; ++i) {
+                    expected = interpreted.readAttribute(exchange);
+                    actual = compiled.readAttribute(exchange);
+                    if (expected.equals(actual)) {
+                        break;
+                    }
+                }
+                Assert.assertEquals(format, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralsMerged() {
+        CompiledAccessLogFormat compiled = CompiledAccessLogFormat.compile("a %% b $$ c", getClass().getClassLoader());
+        Assert.assertEquals("a % b $ c", compiled.readAttribute(createExchange()));
+        Assert.assertEquals("%h %l %u %t \"%r\" %s %b", CompiledAccessLogFormat.compile("common", getClass().getClassLoader()).getFormatString());
+    }
+
+    private static HttpServerExchange createExchange() {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(Methods.GET);
+        exchange.setProtocol(Protocols.HTTP_1_1);
+        exchange.setRequestURI("/some/path");
+        exchange.setSourceAddress(new InetSocketAddress("127.0.0.1", 1234));
+        exchange.setStatusCode(200);
+        exchange.getRequestHeaders().put(new HttpString("User-Agent"), "test-agent");
+        exchange.getRequestHeaders().add(new HttpString("dup"), "a");
+        exchange.getRequestHeaders().add(new HttpString("dup"), "b");
+        exchange.getRequestHeaders().put(new HttpString("empty"), "");
+        return exchange;
+    }
+}
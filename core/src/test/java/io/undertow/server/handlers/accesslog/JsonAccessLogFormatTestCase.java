@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.net.InetSocketAddress;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.Protocols;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class JsonAccessLogFormatTestCase {
+
+    @Test
+    public void testFields() {
+        JsonAccessLogFormat format = JsonAccessLogFormat.builder()
+                .addField("method", "%m")
+                .addField("uri", "%U")
+                .addField("query", "%{BARE_QUERY_STRING}")
+                .addNumericField("status", "%s")
+                .addNumericField("bytes", "%B")
+                .addNumericField("notANumber", "%m")
+                .addField("agent", "%{i,User-Agent}")
+                .addField("dup", "%{i,dup}")
+                .addField("missing", "%{i,missing}")
+                .addField("remote", "%a")
+                .build();
+        HttpServerExchange exchange = createExchange();
+        Assert.assertEquals("{\"method\":\"GET\",\"uri\":\"/some/path\",\"query\":null,\"status\":404,\"bytes\":0," +
+                "\"notANumber\":\"GET\",\"agent\":\"agent \\\"quoted\\\"\",\"dup\":[\"a\",\"b\"],\"missing\":null," +
+                "\"remote\":\"127.0.0.1\"}", format.readAttribute(exchange));
+
+        exchange.setQueryString("a=b");
+        exchange.getRequestHeaders().remove("dup");
+        Assert.assertTrue(format.readAttribute(exchange).contains("\"query\":\"a=b\""));
+        Assert.assertTrue(format.readAttribute(exchange).contains("\"dup\":null"));
+    }
+
+    @Test
+    public void testEscaping() {
+        StringBuilder sb = new StringBuilder();
+        JsonAccessLogFormat.appendString(sb, "plain");
+        Assert.assertEquals("\"plain\"", sb.toString());
+
+        sb.setLength(0);
+        JsonAccessLogFormat.appendString(sb, "a\"b\\c\nd\re\tf\u0001g\u2028h\u00e9");
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\\u0001g\\u2028h\u00e9\"", sb.toString());
+
+        JsonAccessLogFormat format = JsonAccessLogFormat.builder()
+                .addField("na\"me", "%{i,x}")
+                .build();
+        HttpServerExchange exchange = createExchange();
+        exchange.getRequestHeaders().put(new HttpString("x"), "</script>\u0000");
+        Assert.assertEquals("{\"na\\\"me\":\"</script>\\u0000\"}", format.readAttribute(exchange));
+    }
+
+    @Test
+    public void testIsNumber() {
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("0"));
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("-12"));
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("1.5"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber(""));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("-"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber(".5"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("5."));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("1.2.3"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("12a"));
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("-0"));
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("0.5"));
+        Assert.assertTrue(JsonAccessLogFormat.isNumber("100"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("007"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("-01"));
+        Assert.assertFalse(JsonAccessLogFormat.isNumber("00.5"));
+    }
+
+    @Test
+    public void testFormatName() {
+        //the name selects the default format when the handler parses its format string
+        Assert.assertTrue(AccessLogHandler.parseFormat(JsonAccessLogFormat.JSON_FORMAT_NAME, getClass().getClassLoader()) instanceof JsonAccessLogFormat);
+        Assert.assertFalse(AccessLogHandler.parseFormat("%m", getClass().getClassLoader()) instanceof JsonAccessLogFormat);
+    }
+
+    @Test
+    public void testDefaultFormat() {
+        String message = JsonAccessLogFormat.defaultFormat(getClass().getClassLoader()).readAttribute(createExchange());
+        Assert.assertTrue(message, message.startsWith("{\"time\":\""));
+        Assert.assertTrue(message, message.contains(",\"remoteIp\":\"127.0.0.1\",\"method\":\"GET\",\"uri\":\"/some/path\",\"query\":null,\"protocol\":\"HTTP/1.1\",\"status\":404,"));
+        Assert.assertTrue(message, message.endsWith(",\"userAgent\":\"agent \\\"quoted\\\"\",\"referer\":null}"));
+    }
+
+    private static HttpServerExchange createExchange() {
+        HttpServerExchange exchange = new HttpServerExchange(null);
+        exchange.setRequestMethod(Methods.GET);
+        exchange.setProtocol(Protocols.HTTP_1_1);
+        exchange.setRequestURI("/some/path");
+        exchange.setSourceAddress(new InetSocketAddress("127.0.0.1", 1234));
+        exchange.setStatusCode(404);
+        exchange.getRequestHeaders().put(Headers.USER_AGENT, "agent \"quoted\"");
+        exchange.getRequestHeaders().add(new HttpString("dup"), "a");
+        exchange.getRequestHeaders().add(new HttpString("dup"), "b");
+        return exchange;
+    }
+}
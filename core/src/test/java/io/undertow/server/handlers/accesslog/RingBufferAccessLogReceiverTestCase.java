@@ -0,0 +1,164 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.accesslog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class RingBufferAccessLogReceiverTestCase {
+
+    private Path logDirectory;
+    private ExecutorService executor;
+
+    @Before
+    public void before() throws IOException {
+        logDirectory = Files.createTempDirectory("ring-buffer-logs");
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void after() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteRecursive(logDirectory);
+    }
+
+    @Test
+    public void testEncoding() {
+        String[] messages = {"plain", "héllo €", "clef 𝄞", "unpaired \ud834 surrogate"};
+        for (String message : messages) {
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            int end = RingBufferAccessLogReceiver.encode(message, buffer, 0);
+            Assert.assertEquals(message, end, RingBufferAccessLogReceiver.encodedLength(message));
+            buffer.limit(end);
+            Assert.assertEquals(message.replace('\ud834', '?').replace("?\udd1e", "𝄞"), StandardCharsets.UTF_8.decode(buffer).toString());
+        }
+    }
+
+    @Test
+    public void testMessagesWritten() throws Exception {
+        RingBufferAccessLogReceiver receiver = RingBufferAccessLogReceiver.builder()
+                .setLogWriteExecutor(executor)
+                .setOutputDirectory(logDirectory)
+                .setLogBaseName("access.")
+                .setBufferSize(1024)
+                .setOverflowPolicy(RingBufferAccessLogReceiver.OverflowPolicy.BLOCK)
+                .setLogFileHeaderGenerator(() -> "#header")
+                .build();
+        final int threads = 8;
+        final int messages = 500;
+        List<Thread> loggers = new ArrayList<>();
+        for (int i = 0; i < threads; ++i) {
+            final int thread = i;
+            Thread t = new Thread(() -> {
+                for (int j = 0; j < messages; ++j) {
+                    receiver.logMessage("thread " + thread + " message " + j + " é");
+                }
+            });
+            loggers.add(t);
+            t.start();
+        }
+        for (Thread t : loggers) {
+            t.join();
+        }
+        receiver.awaitWrittenForTest();
+        receiver.close();
+        receiver.awaitWrittenForTest();
+
+        List<String> lines = Files.readAllLines(logDirectory.resolve("access.log"), StandardCharsets.UTF_8);
+        Assert.assertEquals(threads * messages + 1, lines.size());
+        Assert.assertEquals("#header", lines.get(0));
+        Assert.assertTrue(lines.contains("thread 3 message 499 é"));
+        Assert.assertEquals(threads * messages, receiver.getLoggedMessages());
+        Assert.assertEquals(0, receiver.getDroppedMessages());
+        Assert.assertEquals(Files.size(logDirectory.resolve("access.log")), receiver.getBytesWritten() + ("#header" + System.lineSeparator()).length());
+
+        receiver.logMessage("after close");
+        Assert.assertEquals(1, receiver.getDroppedMessages());
+    }
+
+    @Test
+    public void testDropWhenBuffersFull() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        RingBufferAccessLogReceiver receiver = RingBufferAccessLogReceiver.builder()
+                .setLogWriteExecutor(tasks::add)
+                .setOutputDirectory(logDirectory)
+                .setLogBaseName("access.")
+                .setBufferSize(64)
+                .setBuffers(2)
+                .build();
+        //the writer never runs, so once both buffers are full messages are dropped
+        for (int i = 0; i < 20; ++i) {
+            receiver.logMessage("message " + i);
+        }
+        receiver.logMessage(new String(new char[100]).replace('\0', 'x'));
+        Assert.assertTrue(receiver.getDroppedMessages() > 0);
+        Assert.assertEquals(21, receiver.getLoggedMessages() + receiver.getDroppedMessages());
+        Assert.assertEquals(1, tasks.size());
+        tasks.remove(0).run();
+
+        List<String> lines = Files.readAllLines(logDirectory.resolve("access.log"), StandardCharsets.UTF_8);
+        Assert.assertEquals(receiver.getLoggedMessages(), lines.size());
+        Assert.assertEquals("message 0", lines.get(0));
+    }
+
+    @Test
+    public void testSizeBasedRotation() throws Exception {
+        RingBufferAccessLogReceiver receiver = RingBufferAccessLogReceiver.builder()
+                .setLogWriteExecutor(executor)
+                .setOutputDirectory(logDirectory)
+                .setLogBaseName("access.")
+                .setBufferSize(1024)
+                .setMaxFileSize(100)
+                .setMaxBackups(2)
+                .build();
+        for (int i = 0; i < 10; ++i) {
+            //each batch is larger than half the maximum size, so every batch after the first rotates the file
+            receiver.logMessage("message " + i + " 0123456789012345678901234567890123456789");
+            receiver.awaitWrittenForTest();
+        }
+        Assert.assertTrue(Files.exists(logDirectory.resolve("access.log")));
+        Assert.assertTrue(Files.exists(logDirectory.resolve("access.1.log")));
+        Assert.assertTrue(Files.exists(logDirectory.resolve("access.2.log")));
+        Assert.assertFalse(Files.exists(logDirectory.resolve("access.3.log")));
+        Assert.assertTrue(Files.size(logDirectory.resolve("access.log")) <= 100);
+        Assert.assertTrue(Files.readAllLines(logDirectory.resolve("access.log")).contains("message 9 0123456789012345678901234567890123456789"));
+
+        receiver.rotate();
+        receiver.awaitWrittenForTest();
+        Assert.assertFalse(Files.exists(logDirectory.resolve("access.log")));
+        Assert.assertTrue(Files.readAllLines(logDirectory.resolve("access.1.log")).contains("message 9 0123456789012345678901234567890123456789"));
+        receiver.close();
+    }
+}
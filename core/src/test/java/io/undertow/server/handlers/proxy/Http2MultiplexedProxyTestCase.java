@@ -0,0 +1,227 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that concurrent proxied requests share a single HTTP/2 backend connection, that a failed request only resets
+ * its own stream, and that idle multiplexed connections are closed once the TTL expires.
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class Http2MultiplexedProxyTestCase {
+
+    private static final int TTL = 2000;
+    private static final int MAX_REQUEST_TIME = 1000;
+    private static final int CONCURRENT_REQUESTS = 5;
+
+    private static Undertow backend;
+    private static Undertow proxy;
+    private static final String host = DefaultServer.getHostAddress("default");
+    private static final int port = DefaultServer.getHostPort("default");
+
+    /**
+     * The peer addresses of the open backend connections. HTTP/2 has a server connection per stream, so the peer
+     * address identifies the underlying TCP connection.
+     */
+    private static final Set<String> openConnections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private static volatile CountDownLatch concurrentLatch;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        DefaultServer.assumeAlpnEnabled();
+        backend = Undertow.builder()
+                .addHttpsListener(port + 1, host, DefaultServer.getServerSslContext())
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler((HttpServerExchange exchange) -> {
+                    trackConnection(exchange.getConnection());
+                    switch (exchange.getRelativePath()) {
+                        case "/hang":
+                            //never respond, the proxy will time the request out
+                            exchange.dispatch(SameThreadExecutor.INSTANCE, () -> { });
+                            break;
+                        case "/concurrent":
+                            exchange.dispatch(() -> {
+                                final CountDownLatch latch = concurrentLatch;
+                                latch.countDown();
+                                boolean allArrived;
+                                try {
+                                    allArrived = latch.await(5, TimeUnit.SECONDS);
+                                } catch (InterruptedException e) {
+                                    allArrived = false;
+                                }
+                                exchange.getResponseSender().send(String.valueOf(allArrived));
+                            });
+                            break;
+                        default:
+                            exchange.getResponseSender().send("ok");
+                    }
+                })
+                .build();
+        backend.start();
+
+        UndertowXnioSsl ssl = new UndertowXnioSsl(DefaultServer.getWorker().getXnio(), OptionMap.EMPTY, DefaultServer.SSL_BUFFER_POOL, DefaultServer.createClientSslContext());
+        proxy = Undertow.builder()
+                .setIoThreads(1)
+                .addHttpListener(port + 2, host)
+                .setHandler(ProxyHandler.builder().setProxyClient(new LoadBalancingProxyClient()
+                        .setConnectionsPerThread(1)
+                        .setSoftMaxConnectionsPerThread(0)
+                        .setTtl(TTL)
+                        .setMaxQueueSize(100)
+                        .addHost(new URI("https", null, host, port + 1, null, null, null), "s1", ssl, OptionMap.create(UndertowOptions.ENABLE_HTTP2, true)))
+                        .setMaxRequestTime(MAX_REQUEST_TIME)
+                        .build())
+                .build();
+        proxy.start();
+    }
+
+    @AfterClass
+    public static void after() {
+        if (proxy != null) {
+            proxy.stop();
+        }
+        if (backend != null) {
+            backend.stop();
+        }
+    }
+
+    @Before
+    public void requireAlpn() {
+        DefaultServer.assumeAlpnEnabled();
+    }
+
+    private static void trackConnection(ServerConnection connection) {
+        final String peer = String.valueOf(connection.getPeerAddress());
+        if (openConnections.add(peer)) {
+            connection.addCloseListener(c -> openConnections.remove(peer));
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareConnection() throws Exception {
+        concurrentLatch = new CountDownLatch(CONCURRENT_REQUESTS);
+        final List<String> results = runConcurrently("/concurrent", CONCURRENT_REQUESTS);
+        for (String result : results) {
+            //every request was in progress at the same time, on the single backend connection
+            Assert.assertEquals("200 true", result);
+        }
+        Assert.assertEquals(1, openConnections.size());
+    }
+
+    @Test
+    public void testFailedStreamDoesNotCloseConnection() throws Exception {
+        //make sure the backend connection exists before the failing request
+        Assert.assertEquals("200 ok", request("/ok"));
+        final Set<String> before = new HashSet<>(openConnections);
+        Assert.assertEquals(1, before.size());
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> hung = executor.submit(() -> request("/hang"));
+            //requests on other streams keep working while the hung request is waiting to time out
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals("200 ok", request("/ok"));
+            }
+            final String result = hung.get(10, TimeUnit.SECONDS);
+            Assert.assertTrue(result, result.startsWith(StatusCodes.GATEWAY_TIME_OUT + " "));
+        } finally {
+            executor.shutdown();
+        }
+
+        //only the stream of the timed out request was reset, the connection is still used
+        Assert.assertEquals("200 ok", request("/ok"));
+        Assert.assertEquals(before, openConnections);
+    }
+
+    @Test
+    public void testIdleMultiplexedConnectionIsReaped() throws Exception {
+        Assert.assertEquals("200 ok", request("/ok"));
+        Assert.assertFalse(openConnections.isEmpty());
+        final long end = System.currentTimeMillis() + TTL * 10;
+        while (!openConnections.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+        }
+        Assert.assertTrue(openConnections.isEmpty());
+    }
+
+    private static List<String> runConcurrently(final String path, final int count) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(count);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < count; ++i) {
+                futures.add(executor.submit(() -> request(path)));
+            }
+            final List<String> results = new ArrayList<>();
+            for (Future<String> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String request(final String path) throws IOException {
+        final TestHttpClient client = new TestHttpClient(new PoolingClientConnectionManager());
+        try {
+            final HttpResponse result = client.execute(new HttpGet("http://" + host + ":" + (port + 2) + path));
+            return result.getStatusLine().getStatusCode() + " " + HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
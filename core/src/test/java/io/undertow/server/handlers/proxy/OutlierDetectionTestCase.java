@@ -0,0 +1,134 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the passive outlier detection of {@link LoadBalancingProxyClient}.
+ */
+@Category(UnitTest.class)
+public class OutlierDetectionTestCase {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    private static LoadBalancingProxyClient createClient(int hosts) {
+        LoadBalancingProxyClient client = new LoadBalancingProxyClient()
+                .setOutlierDetection(true)
+                .setOutlierMinimumRequests(10);
+        for (int i = 0; i < hosts; ++i) {
+            client.addHost(URI.create("http://localhost:" + (8000 + i)));
+        }
+        return client;
+    }
+
+    private static LoadBalancingProxyClient.Host host(LoadBalancingProxyClient client, int index) {
+        List<ProxyClient.ProxyTarget> targets = client.getAllTargets();
+        return ((LoadBalancingProxyClient.HostTarget) targets.get(index)).getHost();
+    }
+
+    @Test
+    public void testHighErrorRateEjectsHost() {
+        LoadBalancingProxyClient client = createClient(3);
+        LoadBalancingProxyClient.Host bad = host(client, 0);
+        for (int i = 0; i < 9; ++i) {
+            client.recordResult(bad, -1, true);
+        }
+        Assert.assertFalse(bad.getHealth().isEjected());
+        client.recordResult(bad, -1, true);
+        Assert.assertTrue(bad.getHealth().isEjected());
+        Assert.assertEquals(1, bad.getHealth().getEjectionCount());
+        Assert.assertEquals(10, bad.getHealth().getTotalErrors());
+        Assert.assertFalse(host(client, 1).getHealth().isEjected());
+    }
+
+    @Test
+    public void testSlowHostEjected() {
+        LoadBalancingProxyClient client = createClient(3);
+        LoadBalancingProxyClient.Host slow = host(client, 2);
+        for (int i = 0; i < 10; ++i) {
+            client.recordResult(host(client, 0), FAST, false);
+            client.recordResult(host(client, 1), FAST, false);
+        }
+        for (int i = 0; i < 10; ++i) {
+            client.recordResult(slow, SLOW, false);
+        }
+        Assert.assertTrue(slow.getHealth().isEjected());
+        Assert.assertFalse(host(client, 0).getHealth().isEjected());
+        Assert.assertEquals(0, slow.getHealth().getLatencySamples());
+    }
+
+    @Test
+    public void testUniformlySlowClusterNotEjected() {
+        LoadBalancingProxyClient client = createClient(2);
+        for (int i = 0; i < 50; ++i) {
+            client.recordResult(host(client, 0), SLOW, false);
+            client.recordResult(host(client, 1), SLOW, false);
+        }
+        Assert.assertFalse(host(client, 0).getHealth().isEjected());
+        Assert.assertFalse(host(client, 1).getHealth().isEjected());
+        Assert.assertEquals(SLOW, host(client, 0).getHealth().getAverageLatency(), 1);
+    }
+
+    @Test
+    public void testMaxEjectionPercent() {
+        LoadBalancingProxyClient client = createClient(2);
+        for (int i = 0; i < 10; ++i) {
+            client.recordResult(host(client, 0), -1, true);
+            client.recordResult(host(client, 1), -1, true);
+        }
+        Assert.assertTrue(host(client, 0).getHealth().isEjected());
+        Assert.assertFalse(host(client, 1).getHealth().isEjected());
+    }
+
+    @Test
+    public void testSlowStartWeight() {
+        HostHealth health = new HostHealth();
+        Assert.assertEquals(1, health.getWeight(1000, 0), 0);
+        long ejectedUntil = health.eject(1000, 1000, 10000);
+        Assert.assertEquals(11000, ejectedUntil);
+        Assert.assertEquals(0, health.getWeight(1000, 10500), 0);
+        Assert.assertEquals(0.5, health.getWeight(1000, 11500), 0.001);
+        Assert.assertEquals(1, health.getWeight(1000, 12000), 0);
+
+        //ejected again straight after returning, so the ejection time doubles
+        Assert.assertEquals(14000, health.eject(1000, 1000, 12000));
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        HostHealth health = new HostHealth();
+        for (int i = 0; i < 5; ++i) {
+            health.record(FAST, true, 0.2, 1000, 1000);
+        }
+        Assert.assertEquals(5, health.getWindowErrors(1000, 1500));
+        Assert.assertEquals(0, health.getWindowErrors(1000, 2500));
+        health.record(FAST, false, 0.2, 1000, 2500);
+        Assert.assertEquals(1, health.getWindowRequests(1000, 2500));
+        Assert.assertEquals(6, health.getTotalRequests());
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.handlers.proxy;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+/**
+ * Tests request hedging in the {@link ProxyHandler}, and that every hedged attempt is recorded against the host
+ * that handled it.
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyHedgingTestCase {
+
+    private static final long SLOW_RESPONSE = 2000;
+
+    private static final AtomicBoolean slowPending = new AtomicBoolean();
+    private static volatile String slowServer;
+
+    private static Undertow server1;
+    private static Undertow server2;
+    private static LoadBalancingProxyClient proxyClient;
+    private static RetryBudget retryBudget;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        server1 = createBackend(port + 1, "server1");
+        server2 = createBackend(port + 2, "server2");
+
+        proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(4)
+                .setOutlierDetection(true)
+                .setOutlierMinimumRequests(Integer.MAX_VALUE)
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null))
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 2, null, null, null));
+        //no budget is earned, so only a single hedged request is allowed
+        retryBudget = new RetryBudget(0, 1);
+        DefaultServer.setRootHandler(ProxyHandler.builder()
+                .setProxyClient(proxyClient)
+                .setMaxRequestTime(10000)
+                .setHedging(true)
+                .setMinHedgeDelay(100)
+                .setRetryBudget(retryBudget)
+                .build());
+    }
+
+    private static Undertow createBackend(int port, final String name) {
+        Undertow server = Undertow.builder()
+                .addHttpListener(port, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (exchange.isInIoThread()) {
+                            exchange.dispatch(this);
+                            return;
+                        }
+                        //the first request for /slow is delayed, any hedged request for it is not
+                        if (exchange.getRelativePath().equals("/slow") && slowPending.compareAndSet(true, false)) {
+                            slowServer = name;
+                            Thread.sleep(SLOW_RESPONSE);
+                        }
+                        exchange.getResponseSender().send(name);
+                    }
+                })
+                .build();
+        server.start();
+        return server;
+    }
+
+    @AfterClass
+    public static void teardown() {
+        server1.stop();
+        server2.stop();
+    }
+
+    @Before
+    public void warmUp() throws Exception {
+        //hedging only starts once enough responses have been seen to estimate the latency percentile
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 100; ++i) {
+                get(client, "/fast");
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        Thread.sleep(1100);
+    }
+
+    @Test
+    public void testHedgedRequest() throws Exception {
+        final long requestsBefore = totalRequests();
+        TestHttpClient client = new TestHttpClient();
+        try {
+            //the original request is slow, the hedge wins
+            slowPending.set(true);
+            long start = System.currentTimeMillis();
+            String result = get(client, "/slow");
+            Assert.assertTrue(System.currentTimeMillis() - start < SLOW_RESPONSE);
+            Assert.assertNotNull(slowServer);
+            Assert.assertNotEquals(slowServer, result);
+            Assert.assertEquals(1, retryBudget.getAcquired());
+            //both attempts are recorded against their own host, the losing attempt is not an error
+            Assert.assertEquals(requestsBefore + 2, totalRequests());
+            Assert.assertEquals(0, totalErrors());
+
+            //the budget is exhausted, so the next slow request is not hedged
+            slowServer = null;
+            slowPending.set(true);
+            start = System.currentTimeMillis();
+            result = get(client, "/slow");
+            Assert.assertTrue(System.currentTimeMillis() - start >= SLOW_RESPONSE);
+            Assert.assertEquals(slowServer, result);
+            Assert.assertEquals(1, retryBudget.getAcquired());
+            Assert.assertTrue(retryBudget.getRejected() >= 1);
+            Assert.assertEquals(requestsBefore + 3, totalRequests());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static String get(TestHttpClient client, String path) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+
+    private static long totalRequests() {
+        long total = 0;
+        for (ProxyClient.ProxyTarget target : proxyClient.getAllTargets()) {
+            total += ((LoadBalancingProxyClient.HostTarget) target).getHost().getHealth().getTotalRequests();
+        }
+        return total;
+    }
+
+    private static long totalErrors() {
+        long total = 0;
+        for (ProxyClient.ProxyTarget target : proxyClient.getAllTargets()) {
+            total += ((LoadBalancingProxyClient.HostTarget) target).getHost().getHealth().getTotalErrors();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that buffered proxy responses are delivered intact, whether they fit in memory, spill to a temporary file, or
+ * exceed the buffer limits and are streamed, and that slow clients do not hold on to backend connections.
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyResponseBufferingTestCase {
+
+    private static final String MESSAGE;
+    /**
+     * A response that is too large to fit in the socket buffers, so a client that does not read stalls the transfer
+     */
+    private static final String LARGE_MESSAGE;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; ++i) {
+            sb.append("message ").append(i).append('\n');
+        }
+        MESSAGE = sb.toString();
+        sb = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            sb.append(MESSAGE);
+        }
+        LARGE_MESSAGE = sb.toString();
+    }
+
+    private static Undertow undertow;
+    private static ProxyHandler memoryHandler;
+    private static ProxyHandler fileHandler;
+    private static ProxyHandler cappedHandler;
+
+    static final String host = DefaultServer.getHostAddress("default");
+    static int port = DefaultServer.getHostPort("default");
+
+    @BeforeClass
+    public static void before() throws Exception {
+        LoadBalancingProxyClient proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .setMaxQueueSize(10)
+                .addHost(new URI("http", null, host, port, null, null, null), "s1");
+
+        memoryHandler = ProxyHandler.builder().setProxyClient(proxyClient)
+                .setResponseBufferSize(MESSAGE.length() * 2).setMaxRequestTime(10000).build();
+        fileHandler = ProxyHandler.builder().setProxyClient(proxyClient)
+                .setResponseBufferSize(1024).setMaxRequestTime(10000).build();
+        //each exchange could buffer the whole response in memory, but the handler limit forces it to a file
+        cappedHandler = ProxyHandler.builder().setProxyClient(proxyClient)
+                .setResponseBufferSize(MESSAGE.length() * 2).setMaxTotalResponseBufferMemory(4096).setMaxRequestTime(10000).build();
+        undertow = Undertow.builder()
+                .setIoThreads(1)
+                .addHttpListener(port + 1, host)
+                .setHandler(new PathHandler()
+                        .addPrefixPath("/memory", memoryHandler)
+                        .addPrefixPath("/file", fileHandler)
+                        .addPrefixPath("/capped", cappedHandler)
+                        .addPrefixPath("/overflow", ProxyHandler.builder().setProxyClient(proxyClient)
+                                .setResponseBufferSize(1024).setMaxResponseBufferFileSize(4096).setMaxRequestTime(10000).build()))
+                .build();
+        undertow.start();
+
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                if (exchange.getQueryParameters().containsKey("chunked")) {
+                    exchange.getResponseHeaders().put(Headers.TRANSFER_ENCODING, "chunked");
+                }
+                exchange.getResponseSender().send(exchange.getQueryParameters().containsKey("large") ? LARGE_MESSAGE : MESSAGE);
+            }
+        });
+    }
+
+    @AfterClass
+    public static void after() {
+        undertow.stop();
+        // sleep 1 s to prevent BindException (Address already in use) when running the CI
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException ignore) {}
+    }
+
+    @Test
+    public void testBufferedInMemory() throws Exception {
+        runTest("/memory");
+    }
+
+    @Test
+    public void testBufferedToFile() throws Exception {
+        runTest("/file");
+    }
+
+    @Test
+    public void testBufferLimitExceeded() throws Exception {
+        runTest("/overflow");
+    }
+
+    @Test
+    public void testHandlerMemoryLimit() throws Exception {
+        runTest("/capped");
+        Assert.assertEquals(0, cappedHandler.getResponseBufferMemoryInUse());
+    }
+
+    @Test
+    public void testBackendConnectionReleasedBeforeSlowClientReads() throws Exception {
+        //the proxy client only has a single backend connection, so the second request can only be sent once the
+        //first response has been buffered and the connection released, as the first client does not read it yet
+        try (Socket slowClient = new Socket(host, port + 1)) {
+            final OutputStream out = slowClient.getOutputStream();
+            out.write(("GET /file?large=true HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpGet get = new HttpGet("http://" + host + ":" + (port + 1) + "/memory");
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+
+            final InputStream in = slowClient.getInputStream();
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final byte[] data = new byte[8192];
+            int res;
+            while ((res = in.read(data)) != -1) {
+                response.write(data, 0, res);
+            }
+            final String responseString = response.toString(StandardCharsets.UTF_8.name());
+            Assert.assertTrue(responseString, responseString.startsWith("HTTP/1.1 200"));
+            Assert.assertTrue(responseString.endsWith("\r\n\r\n" + LARGE_MESSAGE));
+        }
+        Assert.assertEquals(0, fileHandler.getResponseBufferMemoryInUse());
+    }
+
+    private void runTest(String path) throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 5; ++i) {
+                HttpGet get = new HttpGet("http://" + host + ":" + (port + 1) + path + (i % 2 == 0 ? "" : "?chunked=true"));
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                Assert.assertEquals(MESSAGE, HttpClientUtils.readResponse(result));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link RetryBudget} and {@link LatencyPercentileTracker} used for proxy retries and request hedging.
+ */
+@Category(UnitTest.class)
+public class RetryBudgetTestCase {
+
+    @Test
+    public void testBudgetExhausted() {
+        RetryBudget budget = new RetryBudget(10, 2);
+        Assert.assertTrue(budget.tryAcquire());
+        Assert.assertTrue(budget.tryAcquire());
+        Assert.assertFalse(budget.tryAcquire());
+        Assert.assertEquals(2, budget.getAcquired());
+        Assert.assertEquals(1, budget.getRejected());
+
+        //ten requests earn one retry
+        for (int i = 0; i < 9; ++i) {
+            budget.requestStarted();
+        }
+        Assert.assertFalse(budget.tryAcquire());
+        budget.requestStarted();
+        Assert.assertTrue(budget.tryAcquire());
+        Assert.assertFalse(budget.tryAcquire());
+    }
+
+    @Test
+    public void testBudgetCappedAtMaxBalance() {
+        RetryBudget budget = new RetryBudget(50, 3);
+        for (int i = 0; i < 100; ++i) {
+            budget.requestStarted();
+        }
+        Assert.assertEquals(3, budget.getAvailable());
+    }
+
+    @Test
+    public void testPercentile() throws InterruptedException {
+        LatencyPercentileTracker tracker = new LatencyPercentileTracker(0.9, 100);
+        for (int i = 0; i < 90; ++i) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        for (int i = 0; i < 10; ++i) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        Assert.assertEquals(-1, tracker.getPercentile());
+        Thread.sleep(1100);
+        long value = tracker.getPercentile();
+        Assert.assertTrue(value >= TimeUnit.MILLISECONDS.toNanos(1));
+        Assert.assertTrue(value < TimeUnit.MILLISECONDS.toNanos(2));
+
+        //the next interval includes the previous samples
+        for (int i = 0; i < 100; ++i) {
+            tracker.record(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        Thread.sleep(1100);
+        Assert.assertTrue(tracker.getPercentile() >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy.mod_cluster;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the weighted load used by {@link NodeElectionMode#WEIGHTED_LEAST_LOAD}.
+ */
+@Category(UnitTest.class)
+public class NodeLbStatusTestCase {
+
+    @Test
+    public void testActiveRequestsIncreaseLoad() {
+        NodeLbStatus status = new NodeLbStatus();
+        status.updateLoad(50);
+        double idle = status.getWeightedLoad();
+        status.requestStarted();
+        status.requestStarted();
+        Assert.assertEquals(idle * 3, status.getWeightedLoad(), 0.0001);
+        status.requestDone();
+        status.requestDone();
+        Assert.assertEquals(idle, status.getWeightedLoad(), 0.0001);
+    }
+
+    @Test
+    public void testLoadFactorWeighting() {
+        NodeLbStatus big = new NodeLbStatus();
+        big.updateLoad(100);
+        NodeLbStatus small = new NodeLbStatus();
+        small.updateLoad(25);
+        for (int i = 0; i < 2; ++i) {
+            big.requestStarted();
+        }
+        //the big node has four times the capacity, so is still preferred with two requests in flight
+        Assert.assertTrue(big.getWeightedLoad() < small.getWeightedLoad());
+        big.requestStarted();
+        big.requestStarted();
+        Assert.assertEquals(small.getWeightedLoad() * 5 / 4, big.getWeightedLoad(), 0.0001);
+    }
+
+    @Test
+    public void testLatency() {
+        NodeLbStatus fast = new NodeLbStatus();
+        fast.updateLoad(50);
+        NodeLbStatus slow = new NodeLbStatus();
+        slow.updateLoad(50);
+        fast.recordLatency(TimeUnit.MILLISECONDS.toNanos(10));
+        slow.recordLatency(TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), fast.getAverageLatency());
+        Assert.assertEquals(slow.getWeightedLoad() / 10, fast.getWeightedLoad(), 0.0001);
+        slow.recordLatency(0);
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(80), slow.getAverageLatency());
+    }
+}
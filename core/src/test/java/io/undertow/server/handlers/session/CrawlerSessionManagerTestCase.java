@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.session;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.session.CrawlerSessionManager;
+import io.undertow.server.session.InMemorySessionManager;
+import io.undertow.server.session.Session;
+import io.undertow.server.session.SessionAttachmentHandler;
+import io.undertow.server.session.SessionCookieConfig;
+import io.undertow.server.session.SessionManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that crawlers do not create a new session for every request
+ */
+@RunWith(DefaultServer.class)
+public class CrawlerSessionManagerTestCase {
+
+    private static final String CRAWLER = "Googlebot/2.1 (+http://www.google.com/bot.html)";
+    private static final String BROWSER = "Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0";
+
+    @Test
+    public void testCrawlersShareSession() throws IOException {
+        final InMemorySessionManager sessionManager = new InMemorySessionManager("crawler");
+        final CrawlerSessionManager manager = CrawlerSessionManager.builder(sessionManager).build();
+        setupHandler(manager, true);
+        //no cookie store, so every request would normally create a new session
+        TestHttpClient client = new TestHttpClient();
+        try {
+            String sessionId = null;
+            for (int i = 0; i < 5; ++i) {
+                String id = request(client, CRAWLER);
+                if (sessionId == null) {
+                    sessionId = id;
+                }
+                Assert.assertEquals(sessionId, id);
+            }
+            Assert.assertEquals(1, sessionManager.getActiveSessions().size());
+            Assert.assertEquals(1, manager.getSharedSessionCount());
+
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertNotEquals(sessionId, request(client, BROWSER));
+            }
+            Assert.assertEquals(4, sessionManager.getActiveSessions().size());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testSessionCreationRate() throws IOException {
+        final InMemorySessionManager sessionManager = new InMemorySessionManager("crawler-rate");
+        final CrawlerSessionManager manager = CrawlerSessionManager.builder(sessionManager)
+                .setMaxSessionsPerAddress(3)
+                .build();
+        setupHandler(manager, false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            final Set<String> ids = new HashSet<>();
+            for (int i = 0; i < 3; ++i) {
+                ids.add(request(client, BROWSER));
+            }
+            Assert.assertEquals(3, ids.size());
+            Assert.assertFalse(ids.contains("null"));
+            //the rate has been exceeded, so sessions are deferred until they are written to
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals("null", request(client, BROWSER));
+            }
+            Assert.assertEquals(3, sessionManager.getActiveSessions().size());
+            Assert.assertEquals(5, manager.getRateLimitedRequests());
+            Assert.assertEquals(0, manager.getCrawlerRequests());
+
+            //users behind the same address must never be given each other's session
+            setupHandler(manager, true);
+            for (int i = 0; i < 3; ++i) {
+                final String id = request(client, BROWSER);
+                Assert.assertNotEquals("null", id);
+                Assert.assertTrue(ids.add(id));
+            }
+            Assert.assertEquals(6, sessionManager.getActiveSessions().size());
+            Assert.assertEquals(0, manager.getSharedSessionCount());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testSessionReadsDoNotCountTowardsRate() throws IOException {
+        final InMemorySessionManager sessionManager = new InMemorySessionManager("crawler-rate-reads");
+        final CrawlerSessionManager manager = CrawlerSessionManager.builder(sessionManager)
+                .setMaxSessionsPerAddress(2)
+                .build();
+        setupHandler(manager, true);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            //the session cookie is kept, so only the first request creates a session
+            final String id = request(client, BROWSER, false);
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals(id, request(client, BROWSER, false));
+            }
+            Assert.assertEquals(0, manager.getRateLimitedRequests());
+
+            final String second = request(client, BROWSER);
+            Assert.assertNotEquals(id, second);
+            Assert.assertEquals(0, manager.getRateLimitedRequests());
+            Assert.assertEquals(2, sessionManager.getActiveSessions().size());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testLazySessionCreation() throws IOException {
+        final InMemorySessionManager sessionManager = new InMemorySessionManager("crawler-lazy");
+        final CrawlerSessionManager manager = CrawlerSessionManager.builder(sessionManager)
+                .setMode(CrawlerSessionManager.Mode.LAZY)
+                .build();
+        setupHandler(manager, false);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals("null", request(client, CRAWLER));
+            }
+            Assert.assertEquals(0, sessionManager.getActiveSessions().size());
+            Assert.assertEquals(5, manager.getCrawlerRequests());
+
+            setupHandler(manager, true);
+            Assert.assertNotEquals("null", request(client, CRAWLER));
+            Assert.assertEquals(1, sessionManager.getActiveSessions().size());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void setupHandler(final SessionManager manager, final boolean write) {
+        final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+        DefaultServer.setRootHandler(new SessionAttachmentHandler((HttpServerExchange exchange) -> {
+            Session session = manager.getSession(exchange, sessionConfig);
+            if (session == null) {
+                session = manager.createSession(exchange, sessionConfig);
+            }
+            if (write) {
+                session.setAttribute("visited", Boolean.TRUE);
+            }
+            exchange.getResponseSender().send(String.valueOf(session.getId()));
+        }, manager, sessionConfig));
+    }
+
+    private static String request(final TestHttpClient client, final String userAgent) throws IOException {
+        return request(client, userAgent, true);
+    }
+
+    private static String request(final TestHttpClient client, final String userAgent, final boolean clearCookies) throws IOException {
+        if (clearCookies) {
+            //crawlers do not send the session cookie back
+            client.getCookieStore().clear();
+        }
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/session");
+        get.setHeader(Headers.USER_AGENT_STRING, userAgent);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        return HttpClientUtils.readResponse(result);
+    }
+}
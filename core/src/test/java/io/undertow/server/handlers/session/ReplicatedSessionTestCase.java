@@ -0,0 +1,229 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.Serializable;
+import java.util.Collections;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.session.LocalSessionReplicationTransport;
+import io.undertow.server.session.ReplicatedSessionManager;
+import io.undertow.server.session.Session;
+import io.undertow.server.session.SessionAttachmentHandler;
+import io.undertow.server.session.SessionCookieConfig;
+import io.undertow.server.session.SessionManager;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that sessions are replicated between two {@link ReplicatedSessionManager}s and can be taken over by the
+ * node holding the backup.
+ */
+@RunWith(DefaultServer.class)
+public class ReplicatedSessionTestCase {
+
+    public static final String COUNT = "count";
+
+    @Test
+    public void testSessionFailover() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        LocalSessionReplicationTransport.Group group = new LocalSessionReplicationTransport.Group();
+        ReplicatedSessionManager node1 = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        ReplicatedSessionManager node2 = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        node1.start();
+        node2.start();
+        try {
+            final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+            DefaultServer.setRootHandler(new PathHandler()
+                    .addPrefixPath("/node1", new SessionAttachmentHandler(new CountHandler(sessionConfig), node1, sessionConfig))
+                    .addPrefixPath("/node2", new SessionAttachmentHandler(new CountHandler(sessionConfig), node2, sessionConfig)));
+
+            Assert.assertEquals("0", request(client, "/node1"));
+            Assert.assertEquals("1", request(client, "/node1"));
+            String sessionId = node1.getAllSessions().iterator().next();
+
+            //stopping node 1 sends all pending changes, and node 2 takes over the session
+            node1.stop();
+            Assert.assertEquals(node2.getBackupSessions(), Collections.singleton(sessionId));
+            Assert.assertEquals("2", request(client, "/node2"));
+            Assert.assertEquals(1, node2.getFailovers());
+            Assert.assertTrue(node2.getAllSessions().contains(sessionId));
+            Assert.assertTrue(node2.getBackupSessions().isEmpty());
+
+            //and replicates its changes back to node 1 once it has restarted
+            node1.start();
+            Assert.assertEquals("3", request(client, "/node2"));
+            node2.stop();
+            Assert.assertEquals("4", request(client, "/node1"));
+            Assert.assertEquals(1, node1.getFailovers());
+        } finally {
+            node1.stop();
+            node2.stop();
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testDeserializationFilter() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        LocalSessionReplicationTransport.Group group = new LocalSessionReplicationTransport.Group();
+        ReplicatedSessionManager node1 = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        ReplicatedSessionManager node2 = ReplicatedSessionManager.builder("", group.createTransport())
+                .setDeserializationFilter(ObjectInputFilter.Config.createFilter("!java.lang.Integer"))
+                .build();
+        node1.start();
+        node2.start();
+        try {
+            final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+            DefaultServer.setRootHandler(new PathHandler()
+                    .addPrefixPath("/node1", new SessionAttachmentHandler(new CountHandler(sessionConfig), node1, sessionConfig))
+                    .addPrefixPath("/node2", new SessionAttachmentHandler(new CountHandler(sessionConfig), node2, sessionConfig)));
+
+            Assert.assertEquals("0", request(client, "/node1"));
+            node1.stop();
+            Assert.assertEquals(1, node2.getBackupSessions().size());
+
+            //the replicated attribute is an Integer, which node 2 refuses to deserialize
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/node2");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.INTERNAL_SERVER_ERROR, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals(0, node2.getFailovers());
+        } finally {
+            node1.stop();
+            node2.stop();
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultFilterRejectsApplicationClasses() throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+        LocalSessionReplicationTransport.Group group = new LocalSessionReplicationTransport.Group();
+        ReplicatedSessionManager node1 = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        ReplicatedSessionManager node2 = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        node1.start();
+        node2.start();
+        try {
+            final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+            DefaultServer.setRootHandler(new PathHandler()
+                    .addPrefixPath("/node1", new SessionAttachmentHandler(exchange -> {
+                        exchange.getAttachment(SessionManager.ATTACHMENT_KEY).createSession(exchange, sessionConfig)
+                                .setAttribute("value", new ApplicationValue());
+                    }, node1, sessionConfig))
+                    .addPrefixPath("/node2", new SessionAttachmentHandler(new CountHandler(sessionConfig), node2, sessionConfig)));
+
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/node1"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            node1.stop();
+            Assert.assertEquals(1, node2.getBackupSessions().size());
+
+            //only JDK classes are allowed unless the application configures a filter
+            result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/node2"));
+            Assert.assertEquals(StatusCodes.INTERNAL_SERVER_ERROR, result.getStatusLine().getStatusCode());
+            HttpClientUtils.readResponse(result);
+            Assert.assertEquals(0, node2.getFailovers());
+        } finally {
+            node1.stop();
+            node2.stop();
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidAttributeLengthIsRejected() throws IOException {
+        LocalSessionReplicationTransport.Group group = new LocalSessionReplicationTransport.Group();
+        ReplicatedSessionManager node = ReplicatedSessionManager.builder("", group.createTransport()).build();
+        LocalSessionReplicationTransport sender = group.createTransport();
+        node.start();
+        try {
+            sender.start(message -> { });
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(data)) {
+                out.writeUTF("");
+                out.writeInt(1);
+                out.writeUTF("session");
+                out.writeByte(1);
+                out.writeBoolean(false);
+                out.writeInt(1800);
+                out.writeInt(1);
+                out.writeUTF("name");
+                //far larger than the message, this must not be allocated
+                out.writeInt(Integer.MAX_VALUE);
+            }
+            sender.send(data.toByteArray());
+        } finally {
+            sender.stop();
+            node.stop();
+        }
+    }
+
+    private static String request(TestHttpClient client, String path) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+        return result.getHeaders(COUNT)[0].getValue();
+    }
+
+    private static final class CountHandler implements HttpHandler {
+
+        private final SessionCookieConfig sessionConfig;
+
+        private CountHandler(SessionCookieConfig sessionConfig) {
+            this.sessionConfig = sessionConfig;
+        }
+
+        @Override
+        public void handleRequest(final HttpServerExchange exchange) throws Exception {
+            final SessionManager manager = exchange.getAttachment(SessionManager.ATTACHMENT_KEY);
+            Session session = manager.getSession(exchange, sessionConfig);
+            if (session == null) {
+                session = manager.createSession(exchange, sessionConfig);
+                session.setAttribute(COUNT, 0);
+            }
+            Integer count = (Integer) session.getAttribute(COUNT);
+            exchange.getResponseHeaders().add(new HttpString(COUNT), count.toString());
+            session.setAttribute(COUNT, ++count);
+        }
+    }
+
+    private static final class ApplicationValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class TraceParentTestCase {
+
+    @Test
+    public void testParseTraceParent() {
+        Assert.assertEquals(1, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+        Assert.assertEquals(0, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-00"));
+        Assert.assertEquals(0xff, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-ff"));
+        //all zero trace id
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("00-00000000000000000000000000000000-00f067aa0ba902b7-01"));
+        //all zero span id
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-0000000000000000-01"));
+        //upper case is not allowed
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("00-4BF92F3577B34DA6A3CE929D0E0E4736-00f067aa0ba902b7-01"));
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("01-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01"));
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-0x"));
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags("00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7"));
+        Assert.assertEquals(-1, TracingHandler.parseTraceParentFlags(""));
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.tracing;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.CompletionLatchHandler;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests that sampled exchanges are traced and exported
+ */
+@RunWith(DefaultServer.class)
+public class TracingHandlerTestCase {
+
+    private static final String TRACE_ID = "4bf92f3577b34da6a3ce929d0e0e4736";
+    private static final String PARENT_SPAN_ID = "00f067aa0ba902b7";
+
+    @Test
+    public void testTracing() throws IOException, InterruptedException {
+        InMemoryTraceExporter exporter = new InMemoryTraceExporter();
+        //only requests with a sampled traceparent header are traced
+        CompletionLatchHandler latchHandler = new CompletionLatchHandler(new TracingHandler(new BlockingHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                exchange.getResponseSender().send("Hello");
+            }
+        }), exporter, 0));
+        DefaultServer.setRootHandler(latchHandler);
+
+        TestHttpClient client = new TestHttpClient();
+        try {
+            get(client, latchHandler, null);
+            Assert.assertTrue(exporter.getTraces().isEmpty());
+            get(client, latchHandler, "00-" + TRACE_ID + "-" + PARENT_SPAN_ID + "-00");
+            Assert.assertTrue(exporter.getTraces().isEmpty());
+
+            get(client, latchHandler, "00-" + TRACE_ID + "-" + PARENT_SPAN_ID + "-01");
+            List<ExchangeTrace> traces = exporter.getTraces();
+            Assert.assertEquals(1, traces.size());
+            ExchangeTrace trace = traces.get(0);
+            Assert.assertEquals(TRACE_ID, trace.getTraceId());
+            Assert.assertEquals(PARENT_SPAN_ID, trace.getParentSpanId());
+            Assert.assertEquals(16, trace.getSpanId().length());
+            Assert.assertEquals("GET", trace.getRequestMethod());
+            Assert.assertEquals("/path", trace.getRequestPath());
+            Assert.assertEquals(StatusCodes.OK, trace.getStatusCode());
+            Assert.assertTrue(trace.getTraceParent().startsWith("00-" + TRACE_ID + "-"));
+
+            Assert.assertTrue(trace.toString(), trace.isRecorded(ExchangePhase.HANDLER_START));
+            Assert.assertTrue(trace.toString(), trace.isRecorded(ExchangePhase.HANDLER_END));
+            Assert.assertTrue(trace.toString(), trace.isRecorded(ExchangePhase.DISPATCHED));
+            Assert.assertTrue(trace.toString(), trace.isRecorded(ExchangePhase.RESPONSE_COMMIT));
+            Assert.assertTrue(trace.toString(), trace.isRecorded(ExchangePhase.COMPLETE));
+            Assert.assertTrue(trace.getDuration(ExchangePhase.HANDLER_START, ExchangePhase.DISPATCHED) >= 0);
+            Assert.assertTrue(trace.getDuration(ExchangePhase.RESPONSE_COMMIT, ExchangePhase.COMPLETE) >= 0);
+            Assert.assertTrue(trace.getEpochNanos(ExchangePhase.COMPLETE) >= trace.getEpochNanos(ExchangePhase.HANDLER_START));
+
+            exporter.clear();
+            Assert.assertTrue(exporter.getTraces().isEmpty());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static void get(TestHttpClient client, CompletionLatchHandler latchHandler, String traceParent) throws IOException, InterruptedException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+        if (traceParent != null) {
+            get.addHeader(TracingHandler.TRACEPARENT.toString(), traceParent);
+        }
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        Assert.assertEquals("Hello", HttpClientUtils.readResponse(result));
+        latchHandler.await();
+        latchHandler.reset();
+    }
+}
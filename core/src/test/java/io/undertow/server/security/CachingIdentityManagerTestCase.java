@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.security;
+
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.security.idm.Account;
+import io.undertow.security.idm.Credential;
+import io.undertow.security.idm.DigestCredential;
+import io.undertow.security.idm.IdentityManager;
+import io.undertow.security.idm.PasswordCredential;
+import io.undertow.security.impl.CachingIdentityManager;
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests for {@link CachingIdentityManager}
+ */
+@Category(UnitTest.class)
+public class CachingIdentityManagerTestCase {
+
+    @Test
+    public void testVerifiedCredentialsAreCached() {
+        final CountingIdentityManager delegate = new CountingIdentityManager();
+        final CachingIdentityManager identityManager = new CachingIdentityManager(delegate, 100, 60000);
+
+        for (int i = 0; i < 5; ++i) {
+            Assert.assertNotNull(identityManager.verify("user", new PasswordCredential("password".toCharArray())));
+        }
+        Assert.assertEquals(1, delegate.verifications.get());
+        Assert.assertEquals(4, identityManager.getHits());
+
+        //a wrong password must never be answered from the cache, and failures are not cached
+        Assert.assertNull(identityManager.verify("user", new PasswordCredential("wrong".toCharArray())));
+        Assert.assertNull(identityManager.verify("user", new PasswordCredential("wrong".toCharArray())));
+        Assert.assertEquals(3, delegate.verifications.get());
+
+        //digest credentials are single use, so are always verified
+        identityManager.verify("user", (DigestCredential) null);
+        Assert.assertEquals(4, delegate.verifications.get());
+    }
+
+    @Test
+    public void testInvalidation() {
+        final CountingIdentityManager delegate = new CountingIdentityManager();
+        final CachingIdentityManager identityManager = new CachingIdentityManager(delegate, 100, 60000);
+
+        Account account = identityManager.verify("user", new PasswordCredential("password".toCharArray()));
+        identityManager.verify("other", new PasswordCredential("password".toCharArray()));
+        Assert.assertEquals(2, delegate.verifications.get());
+
+        identityManager.invalidate("user");
+        identityManager.verify("user", new PasswordCredential("password".toCharArray()));
+        identityManager.verify("other", new PasswordCredential("password".toCharArray()));
+        Assert.assertEquals(3, delegate.verifications.get());
+
+        //the password was changed, so the account no longer verifies
+        delegate.password = "changed";
+        Assert.assertNull(identityManager.verify(account));
+        Assert.assertNull(identityManager.verify("user", new PasswordCredential("password".toCharArray())));
+        Assert.assertEquals(4, delegate.verifications.get());
+
+        identityManager.invalidateAll();
+        identityManager.verify("other", new PasswordCredential("password".toCharArray()));
+        Assert.assertEquals(5, delegate.verifications.get());
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        final CountingIdentityManager delegate = new CountingIdentityManager();
+        final CachingIdentityManager identityManager = new CachingIdentityManager(delegate, 100, 50);
+        identityManager.verify("user", new PasswordCredential("password".toCharArray()));
+        Thread.sleep(100);
+        identityManager.verify("user", new PasswordCredential("password".toCharArray()));
+        Assert.assertEquals(2, delegate.verifications.get());
+    }
+
+    private static final class CountingIdentityManager implements IdentityManager {
+
+        private final AtomicInteger verifications = new AtomicInteger();
+        private volatile String password = "password";
+
+        @Override
+        public Account verify(Account account) {
+            return password.equals("password") ? account : null;
+        }
+
+        @Override
+        public Account verify(String id, Credential credential) {
+            verifications.incrementAndGet();
+            if (credential instanceof PasswordCredential && password.equals(new String(((PasswordCredential) credential).getPassword()))) {
+                return new TestAccount(id);
+            }
+            return null;
+        }
+
+        @Override
+        public Account verify(Credential credential) {
+            return null;
+        }
+    }
+
+    private static final class TestAccount implements Account {
+
+        private final Principal principal;
+
+        private TestAccount(final String name) {
+            this.principal = () -> name;
+        }
+
+        @Override
+        public Principal getPrincipal() {
+            return principal;
+        }
+
+        @Override
+        public Set<String> getRoles() {
+            return Collections.emptySet();
+        }
+    }
+}
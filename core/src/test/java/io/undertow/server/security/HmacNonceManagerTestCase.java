@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.security;
+
+import io.undertow.security.impl.HmacNonceManager;
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests for {@link HmacNonceManager}
+ */
+@Category(UnitTest.class)
+public class HmacNonceManagerTestCase {
+
+    private static final byte[] KEY = "0123456789abcdef0123456789abcdef".getBytes();
+
+    @Test
+    public void testNonceCounts() {
+        HmacNonceManager manager = new HmacNonceManager();
+        String nonce = manager.nextNonce(null, null);
+        Assert.assertEquals(nonce, manager.nextNonce(nonce, null));
+        Assert.assertEquals(1, manager.getIssued());
+
+        Assert.assertTrue(manager.validateNonce(nonce, 1, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 2, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 2, null));
+        //out of order requests within the window are allowed, but only once
+        Assert.assertTrue(manager.validateNonce(nonce, 5, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 3, null));
+        Assert.assertFalse(manager.validateNonce(nonce, 3, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 100, null));
+        //too far behind the highest count
+        Assert.assertFalse(manager.validateNonce(nonce, 4, null));
+        Assert.assertEquals(5, manager.getAccepted());
+        Assert.assertEquals(3, manager.getRejectedReplay());
+
+        String single = manager.nextNonce(null, null);
+        Assert.assertTrue(manager.validateNonce(single, -1, null));
+        Assert.assertFalse(manager.validateNonce(single, -1, null));
+    }
+
+    @Test
+    public void testInvalidNonces() {
+        HmacNonceManager manager = new HmacNonceManager(KEY, 16, 1000, 1000);
+        String nonce = manager.nextNonce(null, null);
+        char[] chars = nonce.toCharArray();
+        chars[3] = chars[3] == 'A' ? 'B' : 'A';
+        Assert.assertFalse(manager.validateNonce(new String(chars), 1, null));
+        Assert.assertFalse(manager.validateNonce("not a nonce", 1, null));
+        Assert.assertFalse(manager.validateNonce(new HmacNonceManager().nextNonce(null, null), 1, null));
+        Assert.assertEquals(3, manager.getRejectedInvalid());
+
+    }
+
+    @Test
+    public void testNonceFromOtherNodeIsStale() {
+        HmacNonceManager manager = new HmacNonceManager(KEY, 16, 1000, 1000);
+        HmacNonceManager other = new HmacNonceManager(KEY, 16, 1000, 1000);
+        String nonce = manager.nextNonce(null, null);
+        //replay state is not shared, so a nonce is only accepted by the node that issued it
+        Assert.assertFalse(other.validateNonce(nonce, 1, null));
+        Assert.assertEquals(1, other.getRejectedStale());
+        Assert.assertEquals(0, other.getRejectedInvalid());
+        Assert.assertNotEquals(nonce, other.nextNonce(nonce, null));
+        Assert.assertTrue(manager.validateNonce(nonce, 1, null));
+    }
+
+    @Test
+    public void testStaleNonces() throws InterruptedException {
+        HmacNonceManager manager = new HmacNonceManager(KEY, 1, 50, 100);
+        String first = manager.nextNonce(null, null);
+        String second = manager.nextNonce(null, null);
+        Assert.assertTrue(manager.validateNonce(second, 1, null));
+        //both nonces share the only slot, and it has been claimed by the newer one
+        Assert.assertFalse(manager.validateNonce(first, 1, null));
+        Assert.assertNotEquals(first, manager.nextNonce(first, null));
+
+        Thread.sleep(150);
+        Assert.assertFalse(manager.validateNonce(second, 2, null));
+        Assert.assertEquals(2, manager.getRejectedStale());
+        Assert.assertNotEquals(second, manager.nextNonce(second, null));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link OffHeapSessionStore} used by the {@link OffHeapSessionManager}.
+ */
+@Category(UnitTest.class)
+public class OffHeapSessionStoreTestCase {
+
+    @Test
+    public void testWriteReadFree() throws IOException {
+        OffHeapSessionStore store = new OffHeapSessionStore(4 * 1024 * 1024, 0, null);
+        Random random = new Random(1);
+        int[] sizes = {1, 52, 53, 100, 4000, 65524, 65525, 200000};
+        long[] handles = new long[sizes.length];
+        byte[][] data = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; ++i) {
+            data[i] = new byte[sizes[i]];
+            random.nextBytes(data[i]);
+            handles[i] = store.write(data[i], data[i].length);
+        }
+        for (int i = 0; i < sizes.length; ++i) {
+            Assert.assertArrayEquals(data[i], readFully(store.read(handles[i])));
+        }
+        Assert.assertEquals(Arrays.stream(sizes).sum(), store.getBytesStored());
+        for (long handle : handles) {
+            store.free(handle);
+        }
+        Assert.assertEquals(0, store.getBytesStored());
+        Assert.assertEquals(OffHeapSessionStore.NONE, store.write(new byte[0], 0));
+        store.clear();
+        Assert.assertEquals(0, store.getMemoryUsed());
+    }
+
+    @Test
+    public void testSlotsReused() {
+        OffHeapSessionStore store = new OffHeapSessionStore(1024 * 1024, 0, null);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < 10000; ++i) {
+            store.free(store.write(data, data.length));
+        }
+        Assert.assertEquals(1024 * 1024, store.getMemoryUsed());
+    }
+
+    @Test
+    public void testSpillToDisk() throws IOException {
+        Path dir = Files.createTempDirectory("offheap-session");
+        try {
+            OffHeapSessionStore store = new OffHeapSessionStore(1024 * 1024, 2 * 1024 * 1024, dir);
+            byte[] data = new byte[60000];
+            new Random(2).nextBytes(data);
+            long[] handles = new long[40];
+            for (int i = 0; i < handles.length; ++i) {
+                data[0] = (byte) i;
+                handles[i] = store.write(data, data.length);
+            }
+            Assert.assertTrue(store.getDiskUsed() > 0);
+            for (int i = 0; i < handles.length; ++i) {
+                data[0] = (byte) i;
+                Assert.assertArrayEquals(data, readFully(store.read(handles[i])));
+            }
+            try {
+                for (int i = 0; i < 100; ++i) {
+                    store.write(data, data.length);
+                }
+                Assert.fail("store should be full");
+            } catch (IllegalStateException expected) {
+            }
+            store.clear();
+            Assert.assertEquals(0, store.getDiskUsed());
+        } finally {
+            try (var files = Files.list(dir)) {
+                Assert.assertEquals(0, files.count());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        return in.readAllBytes();
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.session;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.FileUtils;
+import io.undertow.util.HttpString;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests the {@link OffHeapSessionManager}
+ */
+@RunWith(DefaultServer.class)
+public class OffHeapSessionTestCase {
+
+    private static final String COUNT = "count";
+    private static final String SESSION_ID = "session-id";
+    private static final int LARGE_ATTRIBUTE_SIZE = 256 * 1024;
+
+    private final SessionCookieConfig sessionConfig = new SessionCookieConfig();
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    private OffHeapSessionManager manager;
+    private Path tempDirectory;
+    private TestHttpClient client;
+
+    @Before
+    public void setup() throws IOException {
+        tempDirectory = Files.createTempDirectory("offheap-sessions");
+        //the large attribute does not fit in memory, so it is written to disk
+        manager = OffHeapSessionManager.builder("test")
+                .setMaxMemory(64 * 1024)
+                .setMaxDiskSize(4 * 1024 * 1024)
+                .setTempDirectory(tempDirectory)
+                .setExpirationInterval(100)
+                .build();
+        manager.start();
+        manager.registerSessionListener(new RecordingListener());
+        final SessionAttachmentHandler handler = new SessionAttachmentHandler(manager, sessionConfig);
+        handler.setNext(new SessionHandler());
+        DefaultServer.setRootHandler(handler);
+        client = new TestHttpClient();
+        client.setCookieStore(new BasicCookieStore());
+    }
+
+    @After
+    public void teardown() throws IOException {
+        client.getConnectionManager().shutdown();
+        manager.stop();
+        FileUtils.deleteRecursive(tempDirectory);
+    }
+
+    @Test
+    public void testCreateAndGetSession() throws IOException {
+        final String id = request("/", "0");
+        Assert.assertNotNull(id);
+        Assert.assertEquals(id, request("/", "1"));
+        Assert.assertEquals(id, request("/", "2"));
+        Assert.assertNotNull(manager.getSession(id));
+        Assert.assertEquals(Collections.singleton(id), manager.getAllSessions());
+        Assert.assertEquals(1, manager.getCreatedSessionCount());
+        Assert.assertEquals(1, manager.getActiveSessionCount());
+        Assert.assertEquals(Arrays.asList("created:" + id, "added:" + COUNT, "updated:" + COUNT,
+                "updated:" + COUNT, "updated:" + COUNT), events);
+    }
+
+    @Test
+    public void testAttributeRoundTrip() throws Exception {
+        final String id = request("/", "0");
+        request("/large", "1");
+        //the attributes are read back from the store by a later request
+        Assert.assertEquals(id, request("/check-large", "2"));
+        Assert.assertTrue(manager.getDiskUsed() > 0);
+
+        final Session session = manager.getSession(id);
+        Assert.assertEquals(3, session.getAttribute(COUNT));
+        Assert.assertArrayEquals(largeAttribute(), (byte[]) session.getAttribute("large"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(COUNT, "large")), session.getAttributeNames());
+
+        //outside of a request the attributes are written straight back to the store
+        Assert.assertArrayEquals(largeAttribute(), (byte[]) session.removeAttribute("large"));
+        Assert.assertNull(session.getAttribute("large"));
+        //the last request may still be releasing the session, in which case it stores the attributes
+        awaitCondition(() -> manager.getBytesStored() < LARGE_ATTRIBUTE_SIZE);
+        Assert.assertTrue(events.contains("removed:large"));
+        try {
+            session.setAttribute("not-serializable", new Object());
+            Assert.fail("Expected a non serializable attribute to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testModifiedAttributeIsWrittenBack() throws Exception {
+        final String id = request("/mutate", "0");
+        request("/mutate", "1");
+        request("/mutate", "2");
+        //the value was only modified in place, it is written back when each request completes
+        awaitCondition(() -> ((int[]) manager.getSession(id).getAttribute("mutable"))[0] == 2);
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        final String id = request("/", "0");
+        request("/invalidate", null);
+        Assert.assertNull(manager.getSession(id));
+        Assert.assertTrue(events.contains("destroyed:" + id + ":" + SessionListener.SessionDestroyedReason.INVALIDATED));
+        Assert.assertEquals(1, manager.getExpiredSessionCount());
+
+        //the cookie was cleared, so a new session is created
+        final String newId = request("/", "0");
+        Assert.assertNotEquals(id, newId);
+        Assert.assertEquals(Collections.singleton(newId), manager.getAllSessions());
+    }
+
+    @Test
+    public void testChangeSessionId() throws IOException {
+        final String id = request("/", "0");
+        final String newId = request("/change", null);
+        Assert.assertNotEquals(id, newId);
+        Assert.assertNull(manager.getSession(id));
+        Assert.assertNotNull(manager.getSession(newId));
+        Assert.assertTrue(events.contains("changed:" + id + ":" + newId));
+        //the client has the new cookie, and the attributes moved with the session
+        Assert.assertEquals(newId, request("/", "1"));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final String id = request("/expire", null);
+        Assert.assertNotNull(manager.getSession(id));
+        awaitCondition(() -> manager.getSession(id) == null);
+        Assert.assertTrue(events.contains("destroyed:" + id + ":" + SessionListener.SessionDestroyedReason.TIMEOUT));
+        Assert.assertEquals(0, manager.getActiveSessionCount());
+    }
+
+    /**
+     * Sends a request
+     *
+     * @param expectedCount The expected value of the count attribute, or null if it is not returned
+     * @return The session id
+     */
+    private String request(String path, String expectedCount) throws IOException {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+        HttpResponse result = client.execute(get);
+        Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+        HttpClientUtils.readResponse(result);
+        if (expectedCount != null) {
+            Assert.assertEquals(expectedCount, result.getFirstHeader(COUNT).getValue());
+        }
+        return result.getFirstHeader(SESSION_ID) == null ? null : result.getFirstHeader(SESSION_ID).getValue();
+    }
+
+    private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+        final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out waiting for condition", System.currentTimeMillis() < end);
+            Thread.sleep(50);
+        }
+    }
+
+    private static byte[] largeAttribute() {
+        final byte[] data = new byte[LARGE_ATTRIBUTE_SIZE];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private class SessionHandler implements HttpHandler {
+
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            Session session = manager.getSession(exchange, sessionConfig);
+            if (session == null) {
+                session = manager.createSession(exchange, sessionConfig);
+                session.setAttribute(COUNT, 0);
+            }
+            switch (exchange.getRelativePath()) {
+                case "/invalidate":
+                    session.invalidate(exchange);
+                    return;
+                case "/change":
+                    exchange.getResponseHeaders().put(HttpString.tryFromString(SESSION_ID), session.changeSessionId(exchange, sessionConfig));
+                    return;
+                case "/expire":
+                    session.setMaxInactiveInterval(1);
+                    break;
+                case "/large":
+                    session.setAttribute("large", largeAttribute());
+                    break;
+                case "/check-large":
+                    Assert.assertArrayEquals(largeAttribute(), (byte[]) session.getAttribute("large"));
+                    break;
+                case "/mutate":
+                    final int[] mutable = (int[]) session.getAttribute("mutable");
+                    if (mutable == null) {
+                        session.setAttribute("mutable", new int[1]);
+                    } else {
+                        ++mutable[0];
+                    }
+                    break;
+                default:
+                    break;
+            }
+            exchange.getResponseHeaders().put(HttpString.tryFromString(SESSION_ID), session.getId());
+            if (exchange.getRelativePath().equals("/expire")) {
+                return;
+            }
+            Integer count = (Integer) session.getAttribute(COUNT);
+            exchange.getResponseHeaders().put(HttpString.tryFromString(COUNT), count.toString());
+            session.setAttribute(COUNT, ++count);
+        }
+    }
+
+    private class RecordingListener implements SessionListener {
+
+        @Override
+        public void sessionCreated(Session session, HttpServerExchange exchange) {
+            events.add("created:" + session.getId());
+        }
+
+        @Override
+        public void sessionDestroyed(Session session, HttpServerExchange exchange, SessionDestroyedReason reason) {
+            events.add("destroyed:" + session.getId() + ":" + reason);
+        }
+
+        @Override
+        public void attributeAdded(Session session, String name, Object value) {
+            events.add("added:" + name);
+        }
+
+        @Override
+        public void attributeUpdated(Session session, String name, Object newValue, Object oldValue) {
+            events.add("updated:" + name);
+        }
+
+        @Override
+        public void attributeRemoved(Session session, String name, Object oldValue) {
+            events.add("removed:" + name);
+        }
+
+        @Override
+        public void sessionIdChanged(Session session, String oldSessionId) {
+            events.add("changed:" + oldSessionId + ":" + session.getId());
+        }
+    }
+}
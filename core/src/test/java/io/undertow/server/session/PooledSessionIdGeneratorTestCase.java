@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.session;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link PooledSessionIdGenerator}
+ */
+@Category(UnitTest.class)
+public class PooledSessionIdGeneratorTestCase {
+
+    @Test
+    public void testUniqueIds() throws Exception {
+        final PooledSessionIdGenerator generator = new PooledSessionIdGenerator(256, 4, Runnable::run);
+        final Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(executor.submit(() -> {
+                    for (int j = 0; j < 10000; ++j) {
+                        String id = generator.createSessionId();
+                        Assert.assertEquals(40, id.length());
+                        Assert.assertTrue(id, id.matches("[A-Za-z0-9_-]+"));
+                        Assert.assertTrue(ids.add(id));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(40000, ids.size());
+    }
+
+    @Test
+    public void testLength() {
+        final PooledSessionIdGenerator generator = new PooledSessionIdGenerator(16, 2, Runnable::run);
+        generator.setLength(12);
+        Assert.assertEquals(16, generator.createSessionId().length());
+        generator.setLength(32);
+        Assert.assertEquals(44, generator.createSessionId().length());
+        generator.setLength(3);
+        Assert.assertEquals(4, generator.createSessionId().length());
+    }
+
+    @Test
+    public void testEncoding() {
+        char[] out = new char[8];
+        byte[] data = {0, 1, 0, 0, 0, 0, (byte) 0xFF};
+        Assert.assertEquals(4, SecureRandomSessionIdGenerator.encode(data, 1, 3, out));
+        Assert.assertEquals("AQAA", new String(out, 0, 4));
+        Assert.assertEquals(4, SecureRandomSessionIdGenerator.encode(data, 6, 1, out));
+        Assert.assertEquals("_w__", new String(out, 0, 4));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.server.ssl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.ConnectorStatistics;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that the handshakes on a HTTPS listener are recorded in its connector statistics
+ */
+public class TlsSessionResumptionTestCase {
+
+    @Test
+    public void testSessionResumptionStatistics() throws Exception {
+        Undertow undertow = Undertow.builder()
+                .addHttpsListener(0, null, DefaultServer.getServerSslContext())
+                .setServerOption(UndertowOptions.ENABLE_CONNECTOR_STATISTICS, true)
+                .setHandler(ResponseCodeHandler.HANDLE_200)
+                .build();
+        undertow.start();
+        try {
+            Undertow.ListenerInfo listener = undertow.getListenerInfo().get(0);
+            int port = ((InetSocketAddress) listener.getAddress()).getPort();
+
+            SSLContext clientContext = DefaultServer.createClientSslContext();
+            for (int i = 0; i < 3; ++i) {
+                sendRequest(clientContext, port);
+            }
+            //a new client context has no cached sessions
+            sendRequest(DefaultServer.createClientSslContext(), port);
+
+            ConnectorStatistics statistics = listener.getConnectorStatistics();
+            Assert.assertEquals(2, statistics.getFullHandshakes());
+            Assert.assertEquals(2, statistics.getResumedHandshakes());
+            Assert.assertEquals(0.5, statistics.getSessionResumptionRatio(), 0.001);
+            Assert.assertEquals(4, statistics.getHandshakeTimes().getCount());
+
+            statistics.reset();
+            Assert.assertEquals(0, statistics.getFullHandshakes());
+        } finally {
+            undertow.stop();
+        }
+    }
+
+    @Test
+    public void testStatisticsEnabledAfterStart() throws Exception {
+        Undertow undertow = Undertow.builder()
+                .addHttpsListener(0, null, DefaultServer.getServerSslContext())
+                .setHandler(ResponseCodeHandler.HANDLE_200)
+                .build();
+        undertow.start();
+        try {
+            Undertow.ListenerInfo listener = undertow.getListenerInfo().get(0);
+            int port = ((InetSocketAddress) listener.getAddress()).getPort();
+            sendRequest(DefaultServer.createClientSslContext(), port);
+            Assert.assertNull(listener.getConnectorStatistics());
+
+            listener.setServerOptions(OptionMap.create(UndertowOptions.ENABLE_CONNECTOR_STATISTICS, true));
+            sendRequest(DefaultServer.createClientSslContext(), port);
+            ConnectorStatistics statistics = listener.getConnectorStatistics();
+            Assert.assertEquals(1, statistics.getFullHandshakes());
+            Assert.assertEquals(1, statistics.getHandshakeTimes().getCount());
+        } finally {
+            undertow.stop();
+        }
+    }
+
+    private static void sendRequest(SSLContext clientContext, int port) throws IOException {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket("localhost", port)) {
+            socket.startHandshake();
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[1024];
+            StringBuilder response = new StringBuilder();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                response.append(new String(buffer, 0, read, StandardCharsets.US_ASCII));
+            }
+            Assert.assertTrue(response.toString(), response.toString().startsWith("HTTP/1.1 200"));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2014 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package io.undertow.util;
+
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class LatencyHistogramTestCase {
+
+    @Test
+    public void testBuckets() {
+        Assert.assertEquals(0, LatencyHistogram.bucket(0));
+        Assert.assertEquals(0, LatencyHistogram.bucket(1000));
+        Assert.assertEquals(1, LatencyHistogram.bucket(1001));
+        Assert.assertEquals(1, LatencyHistogram.bucket(2000));
+        Assert.assertEquals(2, LatencyHistogram.bucket(2001));
+        Assert.assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        long previous = 0;
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; ++i) {
+            final long upper = LatencyHistogram.getBucketUpperBound(i);
+            Assert.assertTrue(upper > previous);
+            Assert.assertEquals(i, LatencyHistogram.bucket(upper));
+            Assert.assertEquals(i + 1, LatencyHistogram.bucket(upper + 1));
+            previous = upper;
+        }
+    }
+
+    @Test
+    public void testRelativeError() {
+        for (long nanos = 1000; nanos < TimeUnit.HOURS.toNanos(10); nanos = nanos * 11 / 10 + 7) {
+            final long upper = LatencyHistogram.getBucketUpperBound(LatencyHistogram.bucket(nanos));
+            Assert.assertTrue(upper >= nanos);
+            Assert.assertTrue("Error too large for " + nanos + ", upper bound " + upper,
+                    upper - nanos <= nanos / LatencyHistogram.SUB_BUCKETS + TimeUnit.MICROSECONDS.toNanos(1));
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentile(0.99));
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(100, histogram.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), histogram.getMaxTime());
+        //100us is in the bucket that ends at 100us, as buckets between 64us and 128us are 2us wide
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(100), histogram.getPercentile(0.5));
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(100), histogram.getPercentile(0.99));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(1000));
+        //buckets between 512us and 1024us are 16us wide
+        Assert.assertEquals(TimeUnit.MICROSECONDS.toNanos(1008), histogram.getPercentile(0.99));
+        histogram.reset();
+        for (int i = 0; i < 99; ++i) {
+            histogram.record(TimeUnit.MICROSECONDS.toNanos(100));
+        }
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), histogram.getPercentile(1));
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.add(histogram);
+        merged.add(histogram);
+        Assert.assertEquals(200, merged.getCount());
+        Assert.assertEquals(2 * histogram.getTotalTime(), merged.getTotalTime());
+        Assert.assertEquals(histogram.getMaxTime(), merged.getMaxTime());
+
+        LatencyHistogram snapshot = histogram.snapshot();
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(50), snapshot.getMaxTime());
+        Assert.assertEquals(0, histogram.getMaxTime());
+    }
+}
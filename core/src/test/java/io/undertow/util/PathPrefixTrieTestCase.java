@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests {@link PathPrefixTrie}, comparing it against {@link PathMatcher}.
+ */
+@Category(UnitTest.class)
+public class PathPrefixTrieTestCase {
+
+    @Test
+    public void testPrefixMatching() {
+        PathPrefixTrie<String> trie = PathPrefixTrie.<String>empty()
+                .with("/foo", "foo")
+                .with("/foo/bar", "bar")
+                .with("/fob", "fob")
+                .with("baz/", "baz");
+        Assert.assertEquals(4, trie.size());
+
+        PathMatcher.PathMatch<String> match = trie.match("/foo/bar/baz");
+        Assert.assertEquals("bar", match.getValue());
+        Assert.assertEquals("/foo/bar", match.getMatched());
+        Assert.assertEquals("/baz", match.getRemaining());
+
+        Assert.assertEquals("foo", trie.match("/foo").getValue());
+        Assert.assertEquals("foo", trie.match("/foo/").getValue());
+        Assert.assertEquals("foo", trie.match("/foo/ba").getValue());
+        Assert.assertEquals("fob", trie.match("/fob/x").getValue());
+        Assert.assertEquals("baz", trie.match("/baz").getValue());
+        Assert.assertNull(trie.match("/foobar").getValue());
+        Assert.assertNull(trie.match("/fo").getValue());
+        Assert.assertNull(trie.match("/").getValue());
+
+        trie = trie.with("/", "default");
+        match = trie.match("/foobar");
+        Assert.assertEquals("default", match.getValue());
+        Assert.assertEquals("", match.getMatched());
+        Assert.assertEquals("/foobar", match.getRemaining());
+    }
+
+    @Test
+    public void testImmutable() {
+        PathPrefixTrie<String> original = PathPrefixTrie.<String>empty().with("/a", "a").with("/ab", "ab");
+        PathPrefixTrie<String> modified = original.with("/abc", "abc").without("/a");
+        Assert.assertEquals("a", original.match("/a/c").getValue());
+        Assert.assertNull(original.match("/abc").getValue());
+        Assert.assertNull(modified.match("/a/c").getValue());
+        Assert.assertEquals("abc", modified.match("/abc").getValue());
+        Assert.assertEquals(2, original.size());
+        Assert.assertEquals(2, modified.size());
+        Assert.assertSame(modified, modified.without("/missing"));
+        Assert.assertTrue(modified.without("/ab").without("/abc").isEmpty());
+    }
+
+    @Test
+    public void testRandomAgainstPathMatcher() {
+        Random random = new Random(42);
+        String[] segments = {"a", "ab", "abc", "b", "ba", "context", "con"};
+        PathMatcher<String> matcher = new PathMatcher<>();
+        PathPrefixTrie<String> trie = PathPrefixTrie.empty();
+        Map<String, String> registered = new HashMap<>();
+        for (int i = 0; i < 2000; ++i) {
+            String path = randomPath(random, segments);
+            if (random.nextInt(3) == 0 && !registered.isEmpty()) {
+                String remove = registered.keySet().iterator().next();
+                registered.remove(remove);
+                matcher.removePrefixPath(remove);
+                trie = trie.without(remove);
+            } else {
+                registered.put(path, path);
+                matcher.addPrefixPath(path, path);
+                trie = trie.with(path, path);
+            }
+            Assert.assertEquals(registered.size(), trie.size());
+            Assert.assertEquals(registered, trie.toMap());
+            for (int j = 0; j < 5; ++j) {
+                String lookup = randomPath(random, segments);
+                PathMatcher.PathMatch<String> expected = matcher.match(lookup);
+                PathMatcher.PathMatch<String> actual = trie.match(lookup);
+                Assert.assertEquals(lookup, expected.getValue(), actual.getValue());
+                Assert.assertEquals(lookup, expected.getRemaining(), actual.getRemaining());
+            }
+        }
+    }
+
+    private static String randomPath(Random random, String[] segments) {
+        StringBuilder sb = new StringBuilder();
+        int count = random.nextInt(4) + 1;
+        for (int i = 0; i < count; ++i) {
+            sb.append('/').append(segments[random.nextInt(segments.length)]);
+        }
+        return sb.toString();
+    }
+}
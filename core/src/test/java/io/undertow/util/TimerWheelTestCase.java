@@ -0,0 +1,85 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the {@link TimerWheel}. The wheel is advanced manually, so no IO thread is required.
+ */
+@Category(UnitTest.class)
+public class TimerWheelTestCase {
+
+    @Test
+    public void testExpiry() {
+        TimerWheel wheel = new TimerWheel(null);
+        List<Integer> fired = new ArrayList<>();
+        long start = TimerWheel.now();
+        wheel.schedule(() -> fired.add(1), 1000, TimeUnit.MILLISECONDS);
+        wheel.schedule(() -> fired.add(2), 500, TimeUnit.MILLISECONDS);
+        //longer than a full rotation of the wheel
+        wheel.schedule(() -> fired.add(3), TimerWheel.TICK * TimerWheel.WHEEL_SIZE * 3, TimeUnit.MILLISECONDS);
+        wheel.advance(start);
+        Assert.assertTrue(fired.isEmpty());
+        wheel.advance(start + 400);
+        Assert.assertTrue(fired.isEmpty());
+        wheel.advance(start + 700);
+        Assert.assertEquals(List.of(2), fired);
+        wheel.advance(start + 1200);
+        Assert.assertEquals(List.of(2, 1), fired);
+        for (long time = start + 1200; time < start + TimerWheel.TICK * TimerWheel.WHEEL_SIZE * 3; time += TimerWheel.TICK * 7) {
+            wheel.advance(time);
+        }
+        Assert.assertEquals(List.of(2, 1), fired);
+        wheel.advance(start + TimerWheel.TICK * (TimerWheel.WHEEL_SIZE * 3 + 2));
+        Assert.assertEquals(List.of(2, 1, 3), fired);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExtendAndCancel() {
+        TimerWheel wheel = new TimerWheel(null);
+        List<Integer> fired = new ArrayList<>();
+        long start = TimerWheel.now();
+        TimerWheel.Timeout extended = wheel.schedule(() -> fired.add(1), 500, TimeUnit.MILLISECONDS);
+        TimerWheel.Timeout shortened = wheel.schedule(() -> fired.add(2), 10, TimeUnit.SECONDS);
+        TimerWheel.Timeout cancelled = wheel.schedule(() -> fired.add(3), 500, TimeUnit.MILLISECONDS);
+        wheel.advance(start);
+        Assert.assertTrue(extended.extend(2000, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(shortened.extend(200, TimeUnit.MILLISECONDS));
+        Assert.assertTrue(cancelled.cancel());
+        wheel.advance(start + 800);
+        Assert.assertEquals(List.of(2), fired);
+        Assert.assertTrue(shortened.isExpired());
+        Assert.assertFalse(shortened.extend(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, wheel.size());
+        wheel.advance(start + 2500);
+        Assert.assertEquals(List.of(2, 1), fired);
+        Assert.assertFalse(extended.cancel());
+        Assert.assertTrue(cancelled.isCancelled());
+        Assert.assertEquals(0, wheel.size());
+    }
+}
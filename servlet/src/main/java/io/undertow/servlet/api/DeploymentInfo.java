@@ -95,6 +95,7 @@ public class DeploymentInfo implements Cloneable {
     private boolean invalidateSessionOnLogout = false;
     private int defaultCookieVersion = 0;
     private SessionPersistenceManager sessionPersistenceManager;
+    private long sessionPersistenceFlushInterval = 1000;
     private String defaultEncoding;
     private String defaultRequestEncoding;
     private String defaultResponseEncoding;
@@ -966,6 +967,23 @@ public class DeploymentInfo implements Cloneable {
         return this;
     }
 
+    public long getSessionPersistenceFlushInterval() {
+        return sessionPersistenceFlushInterval;
+    }
+
+    /**
+     * Sets how often in milliseconds session changes are written to the session persistence manager, if it is an
+     * {@link IncrementalSessionPersistenceManager}. If this is zero or less sessions are only persisted when the
+     * deployment is stopped.
+     *
+     * @param sessionPersistenceFlushInterval The flush interval in milliseconds
+     * @return this
+     */
+    public DeploymentInfo setSessionPersistenceFlushInterval(long sessionPersistenceFlushInterval) {
+        this.sessionPersistenceFlushInterval = sessionPersistenceFlushInterval;
+        return this;
+    }
+
     public AuthorizationManager getAuthorizationManager() {
         return authorizationManager;
     }
@@ -1490,6 +1508,7 @@ public class DeploymentInfo implements Cloneable {
         info.invalidateSessionOnLogout = invalidateSessionOnLogout;
         info.defaultCookieVersion = defaultCookieVersion;
         info.sessionPersistenceManager = sessionPersistenceManager;
+        info.sessionPersistenceFlushInterval = sessionPersistenceFlushInterval;
         for (Map.Entry<String, Set<String>> e : principalVersusRolesMap.entrySet()) {
             info.principalVersusRolesMap.put(e.getKey(), new HashSet<>(e.getValue()));
         }
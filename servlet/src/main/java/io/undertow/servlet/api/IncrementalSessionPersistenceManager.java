@@ -0,0 +1,110 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.servlet.api;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link SessionPersistenceManager} that can also persist changes to individual sessions while the deployment is
+ * running.
+ * <p>
+ * When a deployment is configured with a session persistence manager that implements this interface, changes to
+ * sessions are tracked and written to it in batches by a background thread (see
+ * {@link DeploymentInfo#setSessionPersistenceFlushInterval(long)}), so sessions survive a crash of the server without
+ * any writes on the request path. The full set of sessions is still persisted using
+ * {@link #persistSessions(String, Map)} when the deployment is stopped.
+ */
+public interface IncrementalSessionPersistenceManager extends SessionPersistenceManager {
+
+    /**
+     * Persists a batch of session changes. Changes are delivered from a single thread, and must be applied on top of
+     * the sessions that have been persisted previously.
+     *
+     * @param deploymentName The deployment name
+     * @param changes        The changes, keyed by session id
+     */
+    void persistSessionChanges(String deploymentName, Map<String, SessionChange> changes);
+
+    /**
+     * The changes to a single session since the last batch
+     */
+    class SessionChange {
+
+        private static final SessionChange REMOVED = new SessionChange(null, Collections.emptyMap(), Collections.emptySet());
+
+        private final Date expiration;
+        private final Map<String, Object> updatedAttributes;
+        private final Set<String> removedAttributes;
+        private final boolean newSession;
+
+        public SessionChange(Date expiration, Map<String, Object> updatedAttributes, Set<String> removedAttributes) {
+            this(expiration, updatedAttributes, removedAttributes, false);
+        }
+
+        /**
+         *
+         * @param expiration        The time the session expires
+         * @param updatedAttributes The attributes that have been added or changed
+         * @param removedAttributes The names of the attributes that have been removed
+         * @param newSession        If the session has been created since the last batch, in which case any state
+         *                          previously persisted under the same id must be discarded
+         */
+        public SessionChange(Date expiration, Map<String, Object> updatedAttributes, Set<String> removedAttributes, boolean newSession) {
+            this.expiration = expiration;
+            this.updatedAttributes = updatedAttributes;
+            this.removedAttributes = removedAttributes;
+            this.newSession = newSession;
+        }
+
+        /**
+         *
+         * @return A change that indicates the session has been invalidated
+         */
+        public static SessionChange removed() {
+            return REMOVED;
+        }
+
+        public boolean isSessionRemoved() {
+            return expiration == null;
+        }
+
+        public boolean isNewSession() {
+            return newSession;
+        }
+
+        /**
+         *
+         * @return The time the session expires if it is not accessed again
+         */
+        public Date getExpiration() {
+            return expiration;
+        }
+
+        public Map<String, Object> getUpdatedAttributes() {
+            return Collections.unmodifiableMap(updatedAttributes);
+        }
+
+        public Set<String> getRemovedAttributes() {
+            return Collections.unmodifiableSet(removedAttributes);
+        }
+    }
+}
@@ -54,6 +54,7 @@ import io.undertow.servlet.api.DeploymentManager;
 import io.undertow.servlet.api.ErrorPage;
 import io.undertow.servlet.api.FilterInfo;
 import io.undertow.servlet.api.HttpMethodSecurityInfo;
+import io.undertow.servlet.api.IncrementalSessionPersistenceManager;
 import io.undertow.servlet.api.InstanceHandle;
 import io.undertow.servlet.api.ListenerInfo;
 import io.undertow.servlet.api.LoginConfig;
@@ -642,6 +643,13 @@ public class DeploymentManagerImpl implements DeploymentManager {
         if (sessionPersistenceManager != null) {
             SessionRestoringHandler handler = new SessionRestoringHandler(deployment.getDeploymentInfo().getDeploymentName(), sessionManager, servletContext, next, sessionPersistenceManager);
             deployment.addLifecycleObjects(handler);
+            if (sessionPersistenceManager instanceof IncrementalSessionPersistenceManager && deploymentInfo.getSessionPersistenceFlushInterval() > 0) {
+                //write behind mode, changes are persisted in the background while the deployment is running
+                SessionPersistenceWriteBehind writeBehind = new SessionPersistenceWriteBehind(deploymentInfo.getDeploymentName(), sessionManager, servletContext,
+                        (IncrementalSessionPersistenceManager) sessionPersistenceManager, deploymentInfo.getSessionPersistenceFlushInterval());
+                deployment.addLifecycleObjects(writeBehind);
+                return writeBehind.wrap(handler);
+            }
             return handler;
         }
         return next;
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.servlet.core;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.session.Session;
+import io.undertow.server.session.SessionListener;
+import io.undertow.server.session.SessionManager;
+import io.undertow.servlet.UndertowServletLogger;
+import io.undertow.servlet.api.IncrementalSessionPersistenceManager;
+import io.undertow.servlet.api.IncrementalSessionPersistenceManager.SessionChange;
+import io.undertow.servlet.spec.ServletContextImpl;
+
+/**
+ * Writes session changes to an {@link IncrementalSessionPersistenceManager} in the background.
+ * <p>
+ * Sessions that are used by a request, and the names of attributes that are changed or removed, are recorded as they
+ * happen. Every flush interval the current values of the changed attributes are read from the sessions and written
+ * to the persistence manager in a single batch, so several changes to the same attribute are only written once and
+ * requests never wait for the persistence manager.
+ */
+final class SessionPersistenceWriteBehind implements Lifecycle, SessionListener {
+
+    private final String deploymentName;
+    private final SessionManager sessionManager;
+    private final ServletContextImpl servletContext;
+    private final IncrementalSessionPersistenceManager persistenceManager;
+    private final long flushInterval;
+
+    private final ConcurrentMap<String, DirtySession> dirty = new ConcurrentHashMap<>();
+    private volatile ScheduledExecutorService executor;
+
+    SessionPersistenceWriteBehind(String deploymentName, SessionManager sessionManager, ServletContextImpl servletContext, IncrementalSessionPersistenceManager persistenceManager, long flushInterval) {
+        this.deploymentName = deploymentName;
+        this.sessionManager = sessionManager;
+        this.servletContext = servletContext;
+        this.persistenceManager = persistenceManager;
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    public void start() {
+        sessionManager.registerSessionListener(this);
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-persistence-" + deploymentName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        final ScheduledExecutorService executor = this.executor;
+        this.executor = null;
+        sessionManager.removeSessionListener(this);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(flushInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    @Override
+    public boolean isStarted() {
+        return executor != null;
+    }
+
+    /**
+     * Wraps the deployment handler, so that sessions which are only read by a request have their expiration time
+     * persisted as well
+     */
+    HttpHandler wrap(final HttpHandler next) {
+        return new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                final String sessionId = servletContext.getSessionConfig().findSessionId(exchange);
+                if (sessionId != null && !dirty.containsKey(sessionId) && sessionManager.getSession(sessionId) != null) {
+                    dirty.computeIfAbsent(sessionId, DirtySession::new);
+                }
+                next.handleRequest(exchange);
+            }
+        };
+    }
+
+    /**
+     * Writes all pending changes to the persistence manager. If the persistence manager fails the changes are kept,
+     * and written again by the next flush.
+     */
+    synchronized void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+        final Map<String, DirtySession> flushed = new HashMap<>();
+        final Map<String, SessionChange> changes = new HashMap<>();
+        for (String sessionId : dirty.keySet()) {
+            final DirtySession dirtySession = dirty.remove(sessionId);
+            if (dirtySession != null) {
+                flushed.put(sessionId, dirtySession);
+                changes.put(sessionId, createChange(dirtySession));
+            }
+        }
+        final ClassLoader old = SecurityActions.getContextClassLoader();
+        try {
+            SecurityActions.setContextClassLoader(servletContext.getClassLoader());
+            persistenceManager.persistSessionChanges(deploymentName, changes);
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessions(e);
+            for (DirtySession dirtySession : flushed.values()) {
+                dirty.merge(dirtySession.sessionId, dirtySession, SessionPersistenceWriteBehind::requeue);
+            }
+        } finally {
+            SecurityActions.setContextClassLoader(old);
+        }
+    }
+
+    /**
+     * Merges changes that could not be persisted into the changes that were recorded while they were being written.
+     * The later changes win, as the attribute values are read from the session when they are written.
+     */
+    private static DirtySession requeue(final DirtySession current, final DirtySession failed) {
+        if (current.removed || current.created) {
+            //the session was removed or replaced after the failed flush, the earlier changes no longer matter
+            return current;
+        }
+        current.created = failed.created;
+        current.removed = failed.removed;
+        for (String name : failed.changedAttributes) {
+            if (!current.removedAttributes.contains(name)) {
+                current.changedAttributes.add(name);
+            }
+        }
+        for (String name : failed.removedAttributes) {
+            if (!current.changedAttributes.contains(name)) {
+                current.removedAttributes.add(name);
+            }
+        }
+        return current;
+    }
+
+    private SessionChange createChange(final DirtySession dirtySession) {
+        final Session session = dirtySession.removed ? null : sessionManager.getSession(dirtySession.sessionId);
+        if (session == null) {
+            return SessionChange.removed();
+        }
+        try {
+            final Map<String, Object> updated = new HashMap<>();
+            final Set<String> removed = new HashSet<>(dirtySession.removedAttributes);
+            for (String name : dirtySession.changedAttributes) {
+                final Object value = session.getAttribute(name);
+                if (value == null) {
+                    removed.add(name);
+                } else {
+                    updated.put(name, value);
+                }
+            }
+            final Date expiration = new Date(session.getLastAccessedTime() + (session.getMaxInactiveInterval() * 1000L));
+            return new SessionChange(expiration, updated, removed, dirtySession.created);
+        } catch (IllegalStateException e) {
+            //the session has been invalidated
+            return SessionChange.removed();
+        }
+    }
+
+    @Override
+    public void sessionCreated(final Session session, final HttpServerExchange exchange) {
+        dirty.compute(session.getId(), (id, dirtySession) -> {
+            //the id may belong to a session that was invalidated since the last flush
+            dirtySession = new DirtySession(id);
+            dirtySession.created = true;
+            return dirtySession;
+        });
+    }
+
+    @Override
+    public void sessionDestroyed(final Session session, final HttpServerExchange exchange, final SessionDestroyedReason reason) {
+        if (reason == SessionDestroyedReason.UNDEPLOY) {
+            //the session is persisted when the deployment is stopped
+            return;
+        }
+        dirty.compute(session.getId(), (id, dirtySession) -> {
+            if (dirtySession == null) {
+                dirtySession = new DirtySession(id);
+            }
+            dirtySession.removed = true;
+            dirtySession.changedAttributes.clear();
+            dirtySession.removedAttributes.clear();
+            return dirtySession;
+        });
+    }
+
+    @Override
+    public void attributeAdded(final Session session, final String name, final Object value) {
+        attributeChanged(session.getId(), name);
+    }
+
+    @Override
+    public void attributeUpdated(final Session session, final String name, final Object newValue, final Object oldValue) {
+        attributeChanged(session.getId(), name);
+    }
+
+    @Override
+    public void attributeRemoved(final Session session, final String name, final Object oldValue) {
+        if (oldValue == null) {
+            return;
+        }
+        dirty.compute(session.getId(), (id, dirtySession) -> {
+            if (dirtySession == null) {
+                dirtySession = new DirtySession(id);
+            }
+            dirtySession.changedAttributes.remove(name);
+            dirtySession.removedAttributes.add(name);
+            return dirtySession;
+        });
+    }
+
+    @Override
+    public void sessionIdChanged(final Session session, final String oldSessionId) {
+        dirty.compute(oldSessionId, (id, dirtySession) -> {
+            if (dirtySession == null) {
+                dirtySession = new DirtySession(id);
+            }
+            dirtySession.removed = true;
+            return dirtySession;
+        });
+        final Set<String> names = session.getAttributeNames();
+        dirty.compute(session.getId(), (id, dirtySession) -> {
+            if (dirtySession == null) {
+                dirtySession = new DirtySession(id);
+            }
+            dirtySession.changedAttributes.addAll(names);
+            dirtySession.created = true;
+            return dirtySession;
+        });
+    }
+
+    private void attributeChanged(final String sessionId, final String name) {
+        dirty.compute(sessionId, (id, dirtySession) -> {
+            if (dirtySession == null) {
+                dirtySession = new DirtySession(id);
+            }
+            dirtySession.removedAttributes.remove(name);
+            dirtySession.changedAttributes.add(name);
+            return dirtySession;
+        });
+    }
+
+    /**
+     * The changes to a session that have not been persisted yet. This is only modified while holding the lock of
+     * its map entry.
+     */
+    private static final class DirtySession {
+
+        private final String sessionId;
+        private final Set<String> changedAttributes = new LinkedHashSet<>();
+        private final Set<String> removedAttributes = new LinkedHashSet<>();
+        private boolean removed;
+        private boolean created;
+
+        private DirtySession(String sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+}
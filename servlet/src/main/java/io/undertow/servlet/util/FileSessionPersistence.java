@@ -0,0 +1,402 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2024 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.servlet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.undertow.servlet.UndertowServletLogger;
+import io.undertow.servlet.api.IncrementalSessionPersistenceManager;
+
+/**
+ * Session persistence implementation that stores sessions in a journal file per deployment.
+ * <p>
+ * Session changes are appended to the journal and synced to disk, and the journal is compacted by rewriting it with
+ * only the current state of each session once it has grown past a threshold. Loading the sessions only reads the
+ * journal. A record that was only partially written when the server crashed is ignored, and is truncated away before
+ * the next change is appended.
+ */
+public class FileSessionPersistence implements IncrementalSessionPersistenceManager {
+
+    private static final byte UPDATE = 1;
+    private static final byte REMOVE = 2;
+    private static final String SUFFIX = ".sessions";
+
+    private final Path directory;
+    private final long compactThreshold;
+    private final Map<String, Long> compactedSizes = new HashMap<>();
+    /**
+     * The deployments whose journal is known to end with a complete record
+     */
+    private final Set<String> verifiedJournals = new HashSet<>();
+
+    public FileSessionPersistence(Path directory) {
+        this(directory, 16 * 1024 * 1024);
+    }
+
+    /**
+     *
+     * @param directory        The directory the journals are stored in
+     * @param compactThreshold The size in bytes a journal can grow to before it is compacted
+     */
+    public FileSessionPersistence(Path directory, long compactThreshold) {
+        this.directory = directory;
+        this.compactThreshold = compactThreshold;
+    }
+
+    @Override
+    public synchronized void persistSessions(String deploymentName, Map<String, PersistentSession> sessionData) {
+        try {
+            final Map<String, SessionEntry> entries = new LinkedHashMap<>();
+            for (Map.Entry<String, PersistentSession> sessionEntry : sessionData.entrySet()) {
+                final SessionEntry entry = new SessionEntry(sessionEntry.getValue().getExpiration().getTime());
+                for (Map.Entry<String, Object> attribute : sessionEntry.getValue().getSessionData().entrySet()) {
+                    final byte[] data = serialize(sessionEntry.getKey(), attribute.getKey(), attribute.getValue());
+                    if (data != null) {
+                        entry.attributes.put(attribute.getKey(), data);
+                    }
+                }
+                entries.put(sessionEntry.getKey(), entry);
+            }
+            writeJournal(deploymentName, entries);
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessions(e);
+        }
+    }
+
+    @Override
+    public synchronized void persistSessionChanges(String deploymentName, Map<String, SessionChange> changes) {
+        final Path journal = journal(deploymentName);
+        try {
+            Files.createDirectories(directory);
+            try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (!verifiedJournals.contains(deploymentName)) {
+                    //a partially written record at the end would swallow the start of the new records, so drop it first
+                    final long validLength = readJournal(journal).validLength;
+                    if (channel.size() > validLength) {
+                        channel.truncate(validLength);
+                    }
+                    verifiedJournals.add(deploymentName);
+                }
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                for (Map.Entry<String, SessionChange> change : changes.entrySet()) {
+                    final SessionChange sessionChange = change.getValue();
+                    if (sessionChange.isSessionRemoved()) {
+                        out.writeByte(REMOVE);
+                        out.writeUTF(change.getKey());
+                        continue;
+                    }
+                    final Map<String, byte[]> updated = new LinkedHashMap<>();
+                    for (Map.Entry<String, Object> attribute : sessionChange.getUpdatedAttributes().entrySet()) {
+                        final byte[] data = serialize(change.getKey(), attribute.getKey(), attribute.getValue());
+                        if (data != null) {
+                            updated.put(attribute.getKey(), data);
+                        }
+                    }
+                    writeUpdate(out, change.getKey(), sessionChange.isNewSession(), sessionChange.getExpiration().getTime(), updated);
+                    out.writeInt(sessionChange.getRemovedAttributes().size());
+                    for (String name : sessionChange.getRemovedAttributes()) {
+                        out.writeUTF(name);
+                    }
+                }
+                out.flush();
+                channel.force(false);
+                final long size = channel.size();
+                final Long compacted = compactedSizes.get(deploymentName);
+                if (size < compactThreshold || (compacted != null && size < compacted * 2)) {
+                    return;
+                }
+            }
+            final long time = System.currentTimeMillis();
+            final Map<String, SessionEntry> entries = readJournal(journal).entries;
+            entries.values().removeIf(entry -> entry.expiry <= time);
+            writeJournal(deploymentName, entries);
+        } catch (Exception e) {
+            //we don't know how much was written, the journal needs to be checked again before the next append
+            verifiedJournals.remove(deploymentName);
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessions(e);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, PersistentSession> loadSessionAttributes(String deploymentName, final ClassLoader classLoader) {
+        final Path journal = journal(deploymentName);
+        if (!Files.exists(journal)) {
+            return null;
+        }
+        try {
+            final long time = System.currentTimeMillis();
+            final Map<String, PersistentSession> ret = new HashMap<>();
+            for (Map.Entry<String, SessionEntry> sessionEntry : readJournal(journal).entries.entrySet()) {
+                if (sessionEntry.getValue().expiry <= time) {
+                    continue;
+                }
+                final Map<String, Object> session = new HashMap<>();
+                for (Map.Entry<String, byte[]> attribute : sessionEntry.getValue().attributes.entrySet()) {
+                    try (ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(attribute.getValue()), classLoader)) {
+                        session.put(attribute.getKey(), in.readObject());
+                    } catch (Exception e) {
+                        UndertowServletLogger.ROOT_LOGGER.failedtoLoadPersistentSessions(e);
+                    }
+                }
+                ret.put(sessionEntry.getKey(), new PersistentSession(new Date(sessionEntry.getValue().expiry), session));
+            }
+            return ret;
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedtoLoadPersistentSessions(e);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void clear(String deploymentName) {
+        try {
+            Files.deleteIfExists(journal(deploymentName));
+            compactedSizes.remove(deploymentName);
+            verifiedJournals.remove(deploymentName);
+        } catch (IOException e) {
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessions(e);
+        }
+    }
+
+    private Path journal(String deploymentName) {
+        return directory.resolve(URLEncoder.encode(deploymentName, StandardCharsets.UTF_8) + SUFFIX);
+    }
+
+    /**
+     * Replaces the journal with one that only contains the given sessions
+     */
+    private void writeJournal(String deploymentName, Map<String, SessionEntry> entries) throws IOException {
+        Files.createDirectories(directory);
+        final Path journal = journal(deploymentName);
+        final Path temp = Files.createTempFile(directory, "sessions", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                for (Map.Entry<String, SessionEntry> entry : entries.entrySet()) {
+                    writeUpdate(out, entry.getKey(), true, entry.getValue().expiry, entry.getValue().attributes);
+                    out.writeInt(0);
+                }
+                out.flush();
+                channel.force(false);
+                compactedSizes.put(deploymentName, channel.size());
+            }
+            Files.move(temp, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            verifiedJournals.add(deploymentName);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes an update record, apart from the removed attributes
+     */
+    private static void writeUpdate(DataOutputStream out, String sessionId, boolean newSession, long expiry, Map<String, byte[]> attributes) throws IOException {
+        out.writeByte(UPDATE);
+        out.writeUTF(sessionId);
+        out.writeBoolean(newSession);
+        out.writeLong(expiry);
+        out.writeInt(attributes.size());
+        for (Map.Entry<String, byte[]> attribute : attributes.entrySet()) {
+            out.writeUTF(attribute.getKey());
+            out.writeInt(attribute.getValue().length);
+            out.write(attribute.getValue());
+        }
+    }
+
+    /**
+     * Replays the journal, returning the current state of every session and the length of the complete records
+     */
+    private static Journal readJournal(Path journal) throws IOException {
+        final Journal ret = new Journal();
+        final Map<String, SessionEntry> entries = ret.entries;
+        final long size = Files.size(journal);
+        final CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(journal)));
+        try (DataInputStream in = new DataInputStream(counter)) {
+            for (;;) {
+                ret.validLength = counter.count;
+                final int type = in.read();
+                if (type == -1) {
+                    break;
+                }
+                if (type != UPDATE && type != REMOVE) {
+                    //not a record we wrote, treat it like a partial write
+                    break;
+                }
+                final String sessionId = in.readUTF();
+                if (type == REMOVE) {
+                    entries.remove(sessionId);
+                    continue;
+                }
+                final boolean newSession = in.readBoolean();
+                final long expiry = in.readLong();
+                final Map<String, byte[]> updated = new LinkedHashMap<>();
+                final int updatedCount = in.readInt();
+                for (int i = 0; i < updatedCount; ++i) {
+                    final String name = in.readUTF();
+                    final byte[] data = new byte[readLength(in, counter, size, 1)];
+                    in.readFully(data);
+                    updated.put(name, data);
+                }
+                //every name takes at least the two bytes of its length
+                final String[] removed = new String[readLength(in, counter, size, 2)];
+                for (int i = 0; i < removed.length; ++i) {
+                    removed[i] = in.readUTF();
+                }
+                //the record is complete, apply it
+                SessionEntry entry = newSession ? null : entries.get(sessionId);
+                if (entry == null) {
+                    entry = new SessionEntry(expiry);
+                    entries.put(sessionId, entry);
+                }
+                entry.expiry = expiry;
+                entry.attributes.putAll(updated);
+                for (String name : removed) {
+                    entry.attributes.remove(name);
+                }
+            }
+        } catch (EOFException e) {
+            //the last record was not completely written, it is ignored
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the length of an array that is stored in the journal. A length that does not fit in the rest of the file
+     * can only come from a partial write, so it is treated like the end of the journal.
+     */
+    private static int readLength(DataInputStream in, CountingInputStream counter, long size, int elementSize) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || (long) length * elementSize > size - counter.count) {
+            throw new EOFException();
+        }
+        return length;
+    }
+
+    private static byte[] serialize(String sessionId, String name, Object value) {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)) {
+                objectOutputStream.writeObject(value);
+            }
+            return out.toByteArray();
+        } catch (Exception e) {
+            UndertowServletLogger.ROOT_LOGGER.failedToPersistSessionAttribute(name, value, sessionId, e);
+            return null;
+        }
+    }
+
+    private static final class SessionEntry {
+        private long expiry;
+        private final Map<String, byte[]> attributes = new LinkedHashMap<>();
+
+        private SessionEntry(long expiry) {
+            this.expiry = expiry;
+        }
+    }
+
+    private static final class Journal {
+        private final Map<String, SessionEntry> entries = new LinkedHashMap<>();
+        /**
+         * The length of the journal up to the end of the last complete record
+         */
+        private long validLength;
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int res = super.read();
+            if (res != -1) {
+                ++count;
+            }
+            return res;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int res = super.read(b, off, len);
+            if (res > 0) {
+                count += res;
+            }
+            return res;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long res = super.skip(n);
+            count += res;
+            return res;
+        }
+    }
+
+    private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+
+        private final ClassLoader classLoader;
+
+        private ClassLoaderObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
+            super(in);
+            this.classLoader = classLoader;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                    //fall back to the default resolution
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -21,11 +21,14 @@ package io.undertow.servlet.test.session;
 import io.undertow.server.handlers.PathHandler;
 import io.undertow.servlet.api.DeploymentInfo;
 import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.IncrementalSessionPersistenceManager.SessionChange;
 import io.undertow.servlet.api.ServletContainer;
 import io.undertow.servlet.api.ServletInfo;
 import io.undertow.servlet.api.ServletSessionConfig;
+import io.undertow.servlet.api.SessionPersistenceManager;
 import io.undertow.servlet.test.SimpleServletTestCase;
 import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.util.FileSessionPersistence;
 import io.undertow.servlet.util.InMemorySessionPersistence;
 import io.undertow.testutils.DefaultServer;
 import io.undertow.testutils.HttpClientUtils;
@@ -39,6 +42,14 @@ import org.junit.runner.RunWith;
 
 import jakarta.servlet.ServletException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 /**
  * @author Stuart Douglas
@@ -100,4 +111,152 @@ public class ServletSessionPersistenceTestCase {
         }
     }
 
+    @Test
+    public void testWriteBehindSessionPersistence() throws IOException, ServletException, InterruptedException {
+        final Path directory = Files.createTempDirectory("sessions");
+        final PathHandler pathHandler = new PathHandler();
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(SimpleServletTestCase.class.getClassLoader())
+                .setContextPath("/servletContext")
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .setDeploymentName("servletContext.war")
+                .setSessionPersistenceManager(new FileSessionPersistence(directory))
+                .setSessionPersistenceFlushInterval(10)
+                .addServlets(new ServletInfo("servlet", SessionServlet.class)
+                        .addMapping("/aa/b"));
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        pathHandler.addPrefixPath(builder.getContextPath(), manager.start());
+        DefaultServer.setRootHandler(pathHandler);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/servletContext/aa/b");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("1", HttpClientUtils.readResponse(result));
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("2", HttpClientUtils.readResponse(result));
+
+            //the changes are written in the background while the deployment is running, a new
+            //persistence manager is used to read them as if the server had crashed, loading does not modify the journal
+            final long end = System.currentTimeMillis() + 10000;
+            for (;;) {
+                Map<String, SessionPersistenceManager.PersistentSession> sessions = new FileSessionPersistence(directory)
+                        .loadSessionAttributes("servletContext.war", getClass().getClassLoader());
+                if (sessions != null && sessions.size() == 1 && Integer.valueOf(3).equals(sessions.values().iterator().next().getSessionData().get("key"))) {
+                    break;
+                }
+                Assert.assertTrue("Session changes were not persisted", System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+
+            manager.stop();
+            manager.undeploy();
+            manager.deploy();
+            pathHandler.addPrefixPath(builder.getContextPath(), manager.start());
+
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("3", HttpClientUtils.readResponse(result));
+        } finally {
+            client.getConnectionManager().shutdown();
+            manager.stop();
+            manager.undeploy();
+            new FileSessionPersistence(directory).clear("servletContext.war");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testFailedWriteBehindIsRetried() throws IOException, ServletException, InterruptedException {
+        final Path directory = Files.createTempDirectory("sessions");
+        final AtomicInteger failures = new AtomicInteger();
+        final FileSessionPersistence persistence = new FileSessionPersistence(directory) {
+            @Override
+            public synchronized void persistSessionChanges(String deploymentName, Map<String, SessionChange> changes) {
+                if (failures.getAndIncrement() == 0) {
+                    throw new RuntimeException("failing the first write");
+                }
+                super.persistSessionChanges(deploymentName, changes);
+            }
+        };
+        final PathHandler pathHandler = new PathHandler();
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(SimpleServletTestCase.class.getClassLoader())
+                .setContextPath("/servletContext")
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .setDeploymentName("retry.war")
+                .setSessionPersistenceManager(persistence)
+                .setSessionPersistenceFlushInterval(10)
+                .addServlets(new ServletInfo("servlet", SessionServlet.class)
+                        .addMapping("/aa/b"));
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        pathHandler.addPrefixPath(builder.getContextPath(), manager.start());
+        DefaultServer.setRootHandler(pathHandler);
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/servletContext/aa/b");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("1", HttpClientUtils.readResponse(result));
+
+            //the first batch fails, the session must be written by a later flush without any further requests
+            final long end = System.currentTimeMillis() + 10000;
+            for (;;) {
+                Map<String, SessionPersistenceManager.PersistentSession> sessions = new FileSessionPersistence(directory)
+                        .loadSessionAttributes("retry.war", getClass().getClassLoader());
+                if (sessions != null && sessions.size() == 1 && Integer.valueOf(2).equals(sessions.values().iterator().next().getSessionData().get("key"))) {
+                    break;
+                }
+                Assert.assertTrue("Failed session changes were not retried", System.currentTimeMillis() < end);
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(failures.get() > 1);
+        } finally {
+            client.getConnectionManager().shutdown();
+            manager.stop();
+            manager.undeploy();
+            new FileSessionPersistence(directory).clear("retry.war");
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    @Test
+    public void testTornJournalRecordIsTruncated() throws IOException {
+        final Path directory = Files.createTempDirectory("sessions");
+        final Date expiration = new Date(System.currentTimeMillis() + 60000);
+        try {
+            FileSessionPersistence persistence = new FileSessionPersistence(directory);
+            persistence.persistSessionChanges("torn.war", Collections.singletonMap("s1",
+                    new SessionChange(expiration, Collections.singletonMap("key", 1), Collections.emptySet(), true)));
+
+            //simulate a crash part way through writing an update record
+            final Path journal;
+            try (Stream<Path> files = Files.list(directory)) {
+                journal = files.findFirst().get();
+            }
+            final long size = Files.size(journal);
+            Files.write(journal, new byte[]{1, 0, 2, 's'}, StandardOpenOption.APPEND);
+
+            //a new instance is used, as it would be after a restart
+            persistence = new FileSessionPersistence(directory);
+            Map<String, SessionPersistenceManager.PersistentSession> sessions = persistence.loadSessionAttributes("torn.war", getClass().getClassLoader());
+            Assert.assertEquals(1, sessions.size());
+            Assert.assertEquals(size + 4, Files.size(journal));
+
+            persistence.persistSessionChanges("torn.war", Collections.singletonMap("s2",
+                    new SessionChange(expiration, Collections.singletonMap("key", 2), Collections.emptySet(), true)));
+            sessions = new FileSessionPersistence(directory).loadSessionAttributes("torn.war", getClass().getClassLoader());
+            Assert.assertEquals(2, sessions.size());
+            Assert.assertEquals(1, sessions.get("s1").getSessionData().get("key"));
+            Assert.assertEquals(2, sessions.get("s2").getSessionData().get("key"));
+        } finally {
+            new FileSessionPersistence(directory).clear("torn.war");
+            Files.deleteIfExists(directory);
+        }
+    }
 }